@@ -84,6 +84,18 @@ public class ApmAgent implements ApmAgentMBean, ApmConfigurationChangeListener {
         }
     }
 
+    public static void enter(int methodId) {
+        if (INSTANCE.started.get()) {
+            INSTANCE.apmAgentContext.enter(methodId);
+        }
+    }
+
+    public static void exit(int methodId) {
+        if (INSTANCE.started.get()) {
+            INSTANCE.apmAgentContext.exit(methodId);
+        }
+    }
+
     public static void enterMethod(String methodName) {
         if (INSTANCE.started.get()) {
             INSTANCE.apmAgentContext.enterMethod(Thread.currentThread(), methodName, false);
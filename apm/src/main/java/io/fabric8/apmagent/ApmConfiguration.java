@@ -58,6 +58,10 @@ public class ApmConfiguration implements ApmConfigurationMBean {
     private boolean threadMetricDepthChanged = false;
     private boolean strategyChanged = false;
     private int samplingInterval = 1;
+    private int samplingStackDepth = 32;
+    private String samplingThreadGroups = "";
+    private boolean samplingRunnableOnly = true;
+    private int callTreeMaxNodes = 10000;
     private List<FilterItem> whiteFilterList = new ArrayList<>();
     private List<FilterItem> blackFilterList = new ArrayList<>();
     private List<ApmConfigurationChangeListener> changeListeners = new CopyOnWriteArrayList<>();
@@ -252,6 +256,43 @@ public class ApmConfiguration implements ApmConfigurationMBean {
         this.samplingInterval = samplingInterval;
     }
 
+    public int getSamplingStackDepth() {
+        return samplingStackDepth;
+    }
+
+    public void setSamplingStackDepth(int samplingStackDepth) {
+        this.samplingStackDepth = samplingStackDepth;
+    }
+
+    public String getSamplingThreadGroups() {
+        return samplingThreadGroups;
+    }
+
+    /**
+     * @param samplingThreadGroups - comma separated names of the thread groups to sample, including their sub groups.
+     *                             All threads are sampled if empty
+     */
+    public void setSamplingThreadGroups(String samplingThreadGroups) {
+        this.samplingThreadGroups = samplingThreadGroups != null ? samplingThreadGroups : "";
+    }
+
+    public boolean isSamplingRunnableOnly() {
+        return samplingRunnableOnly;
+    }
+
+    public void setSamplingRunnableOnly(boolean samplingRunnableOnly) {
+        this.samplingRunnableOnly = samplingRunnableOnly;
+    }
+
+    public int getCallTreeMaxNodes() {
+        return callTreeMaxNodes;
+    }
+
+    public void setCallTreeMaxNodes(int callTreeMaxNodes) {
+        this.callTreeMaxNodes = callTreeMaxNodes;
+        fireConfigurationChanged();
+    }
+
     public String getStrategy() {
         return strategy.name();
     }
@@ -48,6 +48,26 @@ public interface ApmConfigurationMBean {
 
     void setMethodMetricDepth(int methodMetricDepth);
 
+    int getSamplingInterval();
+
+    void setSamplingInterval(int samplingInterval);
+
+    int getSamplingStackDepth();
+
+    void setSamplingStackDepth(int samplingStackDepth);
+
+    String getSamplingThreadGroups();
+
+    void setSamplingThreadGroups(String samplingThreadGroups);
+
+    boolean isSamplingRunnableOnly();
+
+    void setSamplingRunnableOnly(boolean samplingRunnableOnly);
+
+    int getCallTreeMaxNodes();
+
+    void setCallTreeMaxNodes(int callTreeMaxNodes);
+
     String getStrategy();
 
     void setStrategy(String strategy);
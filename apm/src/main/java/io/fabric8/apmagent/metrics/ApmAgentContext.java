@@ -52,6 +52,8 @@ public class ApmAgentContext {
     private ConcurrentMap<Thread, ThreadMetrics> threadMetricsMap = new ConcurrentHashMap<>();
     private ConcurrentMap<String, MethodMetrics> methodMetricsMap = new ConcurrentHashMap<>();
     private ConcurrentMap<Object, ObjectName> objectNameMap = new ConcurrentHashMap<>();
+    private final MethodIdRegistry methodIdRegistry = new MethodIdRegistry();
+    private final ThreadLocal<ThreadMetrics> currentThreadMetrics = new ThreadLocal<>();
     private MBeanServer mBeanServer;
     private JolokiaServer jolokiaServer;
     private final ApmAgent apmAgent;
@@ -59,7 +61,6 @@ public class ApmAgentContext {
     private ObjectName configurationObjectName;
     private final ApmConfiguration configuration;
     private final MonitoredMethodMetrics monitoredMethodMetrics;
-    private AtomicBoolean doHouseKeeping = new AtomicBoolean();
     private Thread backgroundThread;
     private boolean monitorByDefault = true;
 
@@ -70,22 +71,43 @@ public class ApmAgentContext {
         this.monitoredMethodMetrics.setMonitorSize(configuration.getMethodMetricDepth());
     }
 
-    public void enterMethod(Thread currentThread, String fullMethodName, boolean alwaysActive) {
+    /**
+     * Returns the id the trace strategy compiles into instrumented code for the method.
+     */
+    public int getMethodId(String fullMethodName) {
+        return methodIdRegistry.getId(fullMethodName);
+    }
+
+    String getMethodName(int methodId) {
+        return methodIdRegistry.getName(methodId);
+    }
+
+    public void enter(int methodId) {
         if (isInitialized()) {
-            ThreadMetrics threadMetrics = threadMetricsMap.get(currentThread);
-            if (threadMetrics == null) {
-                threadMetrics = new ThreadMetrics(this, currentThread);
-                threadMetricsMap.put(currentThread, threadMetrics);
+            ThreadMetrics threadMetrics = currentThreadMetrics.get();
+            if (threadMetrics == null || threadMetrics.isDestroyed()) {
+                threadMetrics = getThreadMetrics(Thread.currentThread());
+                currentThreadMetrics.set(threadMetrics);
             }
-            threadMetrics.enter(fullMethodName, alwaysActive);
+            threadMetrics.enter(methodId);
+        }
+    }
 
-            MethodMetrics methodMetrics = methodMetricsMap.get(fullMethodName);
-            if (methodMetrics == null) {
-                methodMetrics = new MethodMetrics(fullMethodName);
-                methodMetrics.setActive(isMonitorByDefault());
-                methodMetricsMap.putIfAbsent(fullMethodName, methodMetrics);
+    public void exit(int methodId) {
+        if (isInitialized()) {
+            ThreadMetrics threadMetrics = currentThreadMetrics.get();
+            if (threadMetrics != null) {
+                threadMetrics.exit(methodId);
             }
         }
+    }
+
+    public void enterMethod(Thread currentThread, String fullMethodName, boolean alwaysActive) {
+        if (isInitialized()) {
+            ThreadMetrics threadMetrics = getThreadMetrics(currentThread);
+            threadMetrics.enter(fullMethodName, alwaysActive);
+            getMethodMetrics(fullMethodName);
+        }
 
     }
 
@@ -104,10 +126,34 @@ public class ApmAgentContext {
                     methodMetrics.update(elapsed);
                 }
             }
-            doHouseKeeping();
         }
     }
 
+    private ThreadMetrics getThreadMetrics(Thread thread) {
+        ThreadMetrics threadMetrics = threadMetricsMap.get(thread);
+        if (threadMetrics == null) {
+            threadMetrics = new ThreadMetrics(this, thread);
+            ThreadMetrics existing = threadMetricsMap.putIfAbsent(thread, threadMetrics);
+            if (existing != null) {
+                threadMetrics = existing;
+            }
+        }
+        return threadMetrics;
+    }
+
+    MethodMetrics getMethodMetrics(String fullMethodName) {
+        MethodMetrics methodMetrics = methodMetricsMap.get(fullMethodName);
+        if (methodMetrics == null) {
+            methodMetrics = new MethodMetrics(fullMethodName);
+            methodMetrics.setActive(isMonitorByDefault());
+            MethodMetrics existing = methodMetricsMap.putIfAbsent(fullMethodName, methodMetrics);
+            if (existing != null) {
+                methodMetrics = existing;
+            }
+        }
+        return methodMetrics;
+    }
+
     public void initialize() {
         if (initialized.compareAndSet(false, true)) {
             try {
@@ -130,31 +176,35 @@ public class ApmAgentContext {
                         while (started.get()) {
                             try {
                                 Thread.sleep(HOUSE_KEEPING_TIME);
-                                doHouseKeeping.set(true);
+                                doHouseKeeping();
                             } catch (Throwable e) {
                             }
                         }
                     }
-                });
+                }, "ApmAgentHouseKeeping");
                 backgroundThread.setDaemon(true);
                 backgroundThread.start();
             }
         }
     }
 
-    void doHouseKeeping() {
-        //the time is going to be the elapsed time from the latest method call
-        //its not going to be terribly accurate - but then it doesn't really need to be
-        if (doHouseKeeping.compareAndSet(true, false)) {
+    synchronized void doHouseKeeping() {
+        //merge the timings instrumented threads have recorded since the last run
+        //before dead threads are dropped, so their last calls still count
+        if (started.get()) {
             try {
                 List<ThreadMetrics> threadMetricsList = getThreadMetrics();
+                for (ThreadMetrics tm : threadMetricsList) {
+                    tm.mergeTimings();
+                }
                 for (ThreadMetrics tm : threadMetricsList) {
                     if (tm.isDead()) {
                         tm.destroy();
                         threadMetricsMap.remove(tm.getThread());
                     }
                 }
-                monitoredMethodMetrics.calculateMethodMetrics(getMethodMetrics());
+                MethodMetrics.updateSnapshots(methodMetricsMap.values());
+                monitoredMethodMetrics.calculateMethodMetrics(MethodMetrics.sortedMetrics(methodMetricsMap.values(), monitoredMethodMetrics.getMonitorSize()));
                 for (ThreadMetrics threadMetrics : threadMetricsList) {
                     threadMetrics.calculateMethodMetrics();
                 }
@@ -166,6 +216,9 @@ public class ApmAgentContext {
 
     public void stop() {
         if (initialized.get() && started.compareAndSet(true, false)) {
+            for (ThreadMetrics threadMetrics : threadMetricsMap.values()) {
+                threadMetrics.destroy();
+            }
             for (ObjectName objectName : objectNameMap.values()) {
                 unregisterMBean(objectName);
             }
@@ -393,6 +446,21 @@ public class ApmAgentContext {
         }
     }
 
+    public void registerCallTree(CallTree callTree) {
+        try {
+            ObjectName objectName = new ObjectName(DEFAULT_DOMAIN, "type", "callTree");
+            registerMBean(objectName, callTree);
+            objectNameMap.put(callTree, objectName);
+        } catch (Throwable e) {
+            LOG.error("Failed to register mbean " + callTree.toString(), e);
+        }
+    }
+
+    public void unregisterCallTree(CallTree callTree) {
+        ObjectName objectName = objectNameMap.remove(callTree);
+        unregisterMBean(objectName);
+    }
+
     void unregisterMethodMetricsMBean(MethodMetricsProxy methodMetrics) {
         ObjectName objectName = objectNameMap.remove(methodMetrics);
         unregisterMBean(objectName);
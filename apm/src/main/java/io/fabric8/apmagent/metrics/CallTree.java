@@ -0,0 +1,294 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.metrics;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Folds sampled stacks into a call tree, from which a flame graph can be drawn.
+ * <p/>
+ * Frames are interned, so each distinct class and method is only held once however often it is sampled.
+ * The number of nodes is bounded: once the tree is full, a sample that needs a new node is only
+ * counted as far down the stack as the tree already reaches.
+ */
+public class CallTree implements CallTreeMBean {
+    public static final int DEFAULT_MAX_NODES = 10000;
+    static final String TRUNCATED_FRAME = "[truncated]";
+
+    private final Map<String, Map<String, Frame>> frames = new HashMap<>();
+    private final Frame truncatedFrame = new Frame(TRUNCATED_FRAME, "", TRUNCATED_FRAME);
+    private Node root = new Node(null);
+    private int maxNodes;
+    private int nodeCount;
+    private long sampleCount;
+    private long depthTruncatedSampleCount;
+    private long treeFullSampleCount;
+
+    public CallTree() {
+        this(DEFAULT_MAX_NODES);
+    }
+
+    public CallTree(int maxNodes) {
+        this.maxNodes = maxNodes;
+    }
+
+    public static final class Frame {
+        private final String className;
+        private final String methodName;
+        private final String name;
+
+        private Frame(String className, String methodName, String name) {
+            this.className = className;
+            this.methodName = methodName;
+            this.name = name;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        public String getMethodName() {
+            return methodName;
+        }
+
+        /**
+         * @return className.methodName
+         */
+        public String getName() {
+            return name;
+        }
+
+        public String toString() {
+            return name;
+        }
+    }
+
+    private static final class Node {
+        private final Frame frame;
+        private Node[] children;
+        private int childCount;
+        private long total;
+        private long self;
+
+        Node(Frame frame) {
+            this.frame = frame;
+        }
+
+        Node getChild(Frame childFrame) {
+            for (int i = 0; i < childCount; i++) {
+                if (children[i].frame == childFrame) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        Node addChild(Frame childFrame) {
+            if (children == null) {
+                children = new Node[2];
+            } else if (childCount == children.length) {
+                Node[] newChildren = new Node[childCount * 2];
+                System.arraycopy(children, 0, newChildren, 0, childCount);
+                children = newChildren;
+            }
+            Node child = new Node(childFrame);
+            children[childCount++] = child;
+            return child;
+        }
+    }
+
+    public synchronized Frame intern(StackTraceElement element) {
+        return intern(element.getClassName(), element.getMethodName());
+    }
+
+    /**
+     * Adds a sampled stack.
+     *
+     * @param stack     - the sampled stack, with the top of the stack first
+     * @param truncated - true if the bottom of the stack is missing, e.g. as the sample was depth limited
+     * @return the interned frame for the top of the stack, or null if the stack is empty
+     */
+    public synchronized Frame addSample(StackTraceElement[] stack, boolean truncated) {
+        if (stack == null || stack.length == 0) {
+            return null;
+        }
+        sampleCount++;
+        Node node = root;
+        node.total++;
+        if (truncated) {
+            depthTruncatedSampleCount++;
+            Node child = descend(node, truncatedFrame);
+            if (child == null) {
+                treeFullSampleCount++;
+                node.self++;
+                return intern(stack[0].getClassName(), stack[0].getMethodName());
+            }
+            node = child;
+        }
+        Frame frame = null;
+        for (int i = stack.length - 1; i >= 0; i--) {
+            frame = intern(stack[i].getClassName(), stack[i].getMethodName());
+            Node child = descend(node, frame);
+            if (child == null) {
+                treeFullSampleCount++;
+                node.self++;
+                return intern(stack[0].getClassName(), stack[0].getMethodName());
+            }
+            node = child;
+        }
+        node.self++;
+        return frame;
+    }
+
+    @Override
+    public synchronized long getSampleCount() {
+        return sampleCount;
+    }
+
+    @Override
+    public synchronized long getDepthTruncatedSampleCount() {
+        return depthTruncatedSampleCount;
+    }
+
+    @Override
+    public synchronized long getTreeFullSampleCount() {
+        return treeFullSampleCount;
+    }
+
+    @Override
+    public synchronized int getNodeCount() {
+        return nodeCount;
+    }
+
+    @Override
+    public synchronized int getMaxNodes() {
+        return maxNodes;
+    }
+
+    @Override
+    public synchronized void setMaxNodes(int maxNodes) {
+        this.maxNodes = maxNodes;
+    }
+
+    @Override
+    public synchronized String foldedStacks() {
+        StringBuilder result = new StringBuilder();
+        appendFolded(result, new StringBuilder(), root);
+        return result.toString();
+    }
+
+    @Override
+    public synchronized String callTree(double minPercentage) {
+        StringBuilder result = new StringBuilder();
+        if (root.total > 0) {
+            long minSamples = (long) Math.ceil(root.total * minPercentage / 100);
+            for (Node child : sortedChildren(root)) {
+                appendTree(result, child, 0, Math.max(minSamples, 1));
+            }
+        }
+        return result.toString();
+    }
+
+    @Override
+    public synchronized void reset() {
+        root = new Node(null);
+        nodeCount = 0;
+        sampleCount = 0;
+        depthTruncatedSampleCount = 0;
+        treeFullSampleCount = 0;
+        frames.clear();
+    }
+
+    public String toString() {
+        return "CallTree[samples=" + getSampleCount() + ", nodes=" + getNodeCount() + "]";
+    }
+
+    private Frame intern(String className, String methodName) {
+        Map<String, Frame> methods = frames.get(className);
+        if (methods == null) {
+            methods = new HashMap<>();
+            frames.put(className, methods);
+        }
+        Frame frame = methods.get(methodName);
+        if (frame == null) {
+            frame = new Frame(className, methodName, className + "." + methodName);
+            methods.put(methodName, frame);
+        }
+        return frame;
+    }
+
+    private Node descend(Node node, Frame frame) {
+        Node child = node.getChild(frame);
+        if (child == null) {
+            if (nodeCount >= maxNodes) {
+                return null;
+            }
+            child = node.addChild(frame);
+            nodeCount++;
+        }
+        child.total++;
+        return child;
+    }
+
+    private static Node[] sortedChildren(Node node) {
+        Node[] result = new Node[node.childCount];
+        if (node.childCount > 0) {
+            System.arraycopy(node.children, 0, result, 0, node.childCount);
+            Arrays.sort(result, new Comparator<Node>() {
+                @Override
+                public int compare(Node node1, Node node2) {
+                    return Long.compare(node2.total, node1.total);
+                }
+            });
+        }
+        return result;
+    }
+
+    private void appendFolded(StringBuilder result, StringBuilder path, Node node) {
+        int length = path.length();
+        if (node.frame != null) {
+            if (length > 0) {
+                path.append(';');
+            }
+            path.append(node.frame.getName());
+        }
+        if (node.self > 0 && node.frame != null) {
+            result.append(path).append(' ').append(node.self).append('\n');
+        }
+        for (int i = 0; i < node.childCount; i++) {
+            appendFolded(result, path, node.children[i]);
+        }
+        path.setLength(length);
+    }
+
+    private void appendTree(StringBuilder result, Node node, int depth, long minSamples) {
+        if (node.total < minSamples) {
+            return;
+        }
+        for (int i = 0; i < depth; i++) {
+            result.append("  ");
+        }
+        result.append(String.format("%.1f%% %d %s", node.total * 100.0 / root.total, node.total, node.frame.getName()));
+        result.append('\n');
+        Node[] children = sortedChildren(node);
+        for (Node child : children) {
+            appendTree(result, child, depth + 1, minSamples);
+        }
+    }
+}
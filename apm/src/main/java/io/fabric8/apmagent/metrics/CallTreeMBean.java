@@ -0,0 +1,54 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.metrics;
+
+public interface CallTreeMBean {
+
+    /**
+     * @return number of stack samples folded into the tree
+     */
+    long getSampleCount();
+
+    /**
+     * @return number of samples whose stack was cut off at the maximum sampled depth
+     */
+    long getDepthTruncatedSampleCount();
+
+    /**
+     * @return number of samples which could not be fully added because the tree was full
+     */
+    long getTreeFullSampleCount();
+
+    int getNodeCount();
+
+    int getMaxNodes();
+
+    void setMaxNodes(int maxNodes);
+
+    /**
+     * @return the samples in the folded format used by flame graph tools:
+     * one line per distinct stack, frames from the root separated by ';', followed by the sample count
+     */
+    String foldedStacks();
+
+    /**
+     * @param minPercentage - leave out calls seen in less than this percentage of the samples
+     * @return the call tree as indented text, with the sample count and percentage for each call
+     */
+    String callTree(double minPercentage);
+
+    void reset();
+}
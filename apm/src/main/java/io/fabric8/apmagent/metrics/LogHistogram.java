@@ -0,0 +1,369 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size histogram of non negative values, with buckets on a log scale: each power of two is
+ * split into {@link #SUB_BUCKETS} linear buckets, so any value is reported to within 1/8th.
+ * <p/>
+ * Recording is lock free, and histograms can be merged as they all share the same buckets.
+ * Statistics are read from a {@link Snapshot}, which is computed in one pass over the buckets.
+ * The values recorded over a period can be {@link #drain() drained} into an {@link Interval}, and
+ * a {@link Window} keeps the statistics of the last few intervals only.
+ */
+final class LogHistogram {
+    static final int SUB_BUCKETS = 8;
+    private static final int SUB_BUCKET_BITS = 3;
+    static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    void update(long value) {
+        if (value < 0) {
+            return;
+        }
+        buckets.incrementAndGet(bucketIndex(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        updateMin(value);
+        updateMax(value);
+    }
+
+    /**
+     * Adds all the values recorded by another histogram.
+     */
+    void merge(LogHistogram other) {
+        long otherCount = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            long bucketCount = other.buckets.get(i);
+            if (bucketCount > 0) {
+                buckets.addAndGet(i, bucketCount);
+                otherCount += bucketCount;
+            }
+        }
+        if (otherCount > 0) {
+            count.addAndGet(otherCount);
+            sum.addAndGet(other.sum.get());
+            updateMin(other.min.get());
+            updateMax(other.max.get());
+        }
+    }
+
+    long getCount() {
+        return count.get();
+    }
+
+    Snapshot getSnapshot() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+        }
+        return new Snapshot(counts, sum.get(), min.get(), max.get());
+    }
+
+    /**
+     * Takes out all the values recorded since the last drain, leaving the histogram empty. A value
+     * recorded concurrently ends up either in the returned interval or in the next one.
+     */
+    Interval drain() {
+        if (count.get() == 0) {
+            return Interval.EMPTY;
+        }
+        int[] indexes = new int[BUCKETS];
+        long[] counts = new long[BUCKETS];
+        int nonEmpty = 0;
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (buckets.get(i) > 0) {
+                long bucketCount = buckets.getAndSet(i, 0);
+                indexes[nonEmpty] = i;
+                counts[nonEmpty++] = bucketCount;
+                total += bucketCount;
+            }
+        }
+        count.addAndGet(-total);
+        return new Interval(Arrays.copyOf(indexes, nonEmpty), Arrays.copyOf(counts, nonEmpty), total,
+            sum.getAndSet(0), min.getAndSet(Long.MAX_VALUE), max.getAndSet(Long.MIN_VALUE));
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = (Long.SIZE - 1) - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long bucketLowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = index % SUB_BUCKETS;
+        return (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    static long bucketUpperBound(int index) {
+        return index < BUCKETS - 1 ? bucketLowerBound(index + 1) - 1 : Long.MAX_VALUE;
+    }
+
+    private void updateMin(long value) {
+        long current;
+        while (value < (current = min.get()) && !min.compareAndSet(current, value)) {
+        }
+    }
+
+    private void updateMax(long value) {
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+        }
+    }
+
+    /**
+     * The statistics of a histogram at one point in time.
+     */
+    static final class Snapshot {
+        private static final double[] QUANTILES = {0.5, 0.75, 0.95, 0.98, 0.99, 0.999};
+        static final Snapshot EMPTY = new Snapshot();
+
+        private final long count;
+        private final long min;
+        private final long max;
+        private final double mean;
+        private final double stdDev;
+        private final long[] quantiles = new long[QUANTILES.length];
+        private final long[] values;
+
+        private Snapshot() {
+            count = 0;
+            min = 0;
+            max = 0;
+            mean = 0;
+            stdDev = 0;
+            values = new long[0];
+        }
+
+        /**
+         * @param counts - the number of values in each bucket, only read while constructing
+         */
+        private Snapshot(long[] counts, long sum, long recordedMin, long recordedMax) {
+            long total = 0;
+            int nonEmpty = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                if (counts[i] > 0) {
+                    total += counts[i];
+                    nonEmpty++;
+                }
+            }
+            count = total;
+            if (total == 0) {
+                min = 0;
+                max = 0;
+                mean = 0;
+                stdDev = 0;
+                values = new long[0];
+                return;
+            }
+            min = recordedMin == Long.MAX_VALUE ? 0 : recordedMin;
+            max = recordedMax == Long.MIN_VALUE ? 0 : recordedMax;
+            mean = (double) sum / total;
+
+            values = new long[nonEmpty];
+            double variance = 0;
+            long seen = 0;
+            int quantile = 0;
+            int valueIndex = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                if (counts[i] == 0) {
+                    continue;
+                }
+                long value = Math.max(min, Math.min(max, representative(i)));
+                values[valueIndex++] = value;
+                double delta = value - mean;
+                variance += delta * delta * counts[i];
+                seen += counts[i];
+                while (quantile < QUANTILES.length && seen >= Math.ceil(QUANTILES[quantile] * total)) {
+                    quantiles[quantile++] = value;
+                }
+            }
+            while (quantile < QUANTILES.length) {
+                quantiles[quantile++] = max;
+            }
+            stdDev = total > 1 ? Math.sqrt(variance / (total - 1)) : 0;
+        }
+
+        private static long representative(int index) {
+            long lower = bucketLowerBound(index);
+            return lower + (bucketUpperBound(index) - lower) / 2;
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        long getMin() {
+            return min;
+        }
+
+        long getMax() {
+            return max;
+        }
+
+        double getMean() {
+            return mean;
+        }
+
+        double getStdDev() {
+            return stdDev;
+        }
+
+        long getMedian() {
+            return quantiles[0];
+        }
+
+        long get75thPercentile() {
+            return quantiles[1];
+        }
+
+        long get95thPercentile() {
+            return quantiles[2];
+        }
+
+        long get98thPercentile() {
+            return quantiles[3];
+        }
+
+        long get99thPercentile() {
+            return quantiles[4];
+        }
+
+        long get999thPercentile() {
+            return quantiles[5];
+        }
+
+        /**
+         * @return one value for each non empty bucket, in ascending order
+         */
+        long[] getValues() {
+            return values.clone();
+        }
+    }
+
+    /**
+     * The values drained from a histogram, holding the non empty buckets only.
+     */
+    static final class Interval {
+        static final Interval EMPTY = new Interval(new int[0], new long[0], 0, 0, Long.MAX_VALUE, Long.MIN_VALUE);
+
+        private final int[] indexes;
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long min;
+        private final long max;
+
+        private Interval(int[] indexes, long[] counts, long count, long sum, long min, long max) {
+            this.indexes = indexes;
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.min = min;
+            this.max = max;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+
+    /**
+     * The values of the last {@code size} intervals added, along with the number of calls counted
+     * during each of them. Adding an interval drops the oldest one once the window is full. Not
+     * thread safe.
+     */
+    static final class Window {
+        private final Interval[] intervals;
+        private final long[] calls;
+        private final long[] counts = new long[BUCKETS];
+        private int next;
+        private long sum;
+        private long callCount;
+
+        Window(int size) {
+            intervals = new Interval[size];
+            calls = new long[size];
+        }
+
+        void add(Interval interval, long intervalCalls) {
+            Interval expired = intervals[next];
+            if (expired != null) {
+                for (int i = 0; i < expired.indexes.length; i++) {
+                    counts[expired.indexes[i]] -= expired.counts[i];
+                }
+                sum -= expired.sum;
+                callCount -= calls[next];
+            }
+            for (int i = 0; i < interval.indexes.length; i++) {
+                counts[interval.indexes[i]] += interval.counts[i];
+            }
+            sum += interval.sum;
+            callCount += intervalCalls;
+            intervals[next] = interval;
+            calls[next] = intervalCalls;
+            next = (next + 1) % intervals.length;
+        }
+
+        /**
+         * @return the number of calls counted during the intervals in the window
+         */
+        long getCallCount() {
+            return callCount;
+        }
+
+        boolean isEmpty() {
+            if (callCount != 0) {
+                return false;
+            }
+            for (Interval interval : intervals) {
+                if (interval != null && interval.count > 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        Snapshot getSnapshot() {
+            long windowMin = Long.MAX_VALUE;
+            long windowMax = Long.MIN_VALUE;
+            for (Interval interval : intervals) {
+                if (interval != null && interval.count > 0) {
+                    windowMin = Math.min(windowMin, interval.min);
+                    windowMax = Math.max(windowMax, interval.max);
+                }
+            }
+            return new Snapshot(counts, sum, windowMin, windowMax);
+        }
+    }
+}
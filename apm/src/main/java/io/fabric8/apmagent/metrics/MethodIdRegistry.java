@@ -0,0 +1,62 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.metrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Assigns dense int ids to fully qualified method names, so instrumented code can
+ * pass a constant int rather than a String on every call.
+ * Ids are never reused, so a method keeps its id across retransformations.
+ */
+final class MethodIdRegistry {
+    private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[256];
+    private int size;
+
+    int getId(String fullMethodName) {
+        Integer id = ids.get(fullMethodName);
+        return id != null ? id : register(fullMethodName);
+    }
+
+    String getName(int id) {
+        String[] current = names;
+        return id >= 0 && id < current.length ? current[id] : null;
+    }
+
+    int size() {
+        return ids.size();
+    }
+
+    private synchronized int register(String fullMethodName) {
+        Integer id = ids.get(fullMethodName);
+        if (id == null) {
+            String[] current = names;
+            if (size == current.length) {
+                String[] newNames = new String[current.length * 2];
+                System.arraycopy(current, 0, newNames, 0, current.length);
+                current = newNames;
+            }
+            id = size++;
+            current[id] = fullMethodName;
+            //publish the name before the id can be handed out
+            names = current;
+            ids.put(fullMethodName, id);
+        }
+        return id;
+    }
+}
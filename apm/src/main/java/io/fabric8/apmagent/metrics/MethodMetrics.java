@@ -15,20 +15,42 @@
  */
 package io.fabric8.apmagent.metrics;
 
-import com.codahale.metrics.Timer;
+import com.codahale.metrics.Meter;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.PriorityQueue;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * The metrics for a method. Durations are recorded into a {@link LogHistogram} which is drained by
+ * {@link #updateSnapshot()} once per housekeeping cycle. The durations and load read back cover the
+ * last {@link #WINDOW_CYCLES} cycles only, and come from a snapshot shared by all getters until the
+ * next cycle. The count and rates cover all calls.
+ */
 public class MethodMetrics {
-    protected final Timer timer;
+    /**
+     * The number of housekeeping cycles the durations and load are computed over
+     */
+    static final int WINDOW_CYCLES = 30;
+    private static final Comparator<MethodMetrics> LOAD_COMPARATOR = new Comparator<MethodMetrics>() {
+        @Override
+        public int compare(MethodMetrics methodMetrics1, MethodMetrics methodMetrics2) {
+            return Double.compare(methodMetrics2.getLoad(), methodMetrics1.getLoad());
+        }
+    };
+    private final Meter meter;
+    private final LogHistogram histogram;
+    private final LogHistogram.Window window;
     private final String name;
     private final double rateFactor;
     private final double durationFactor;
+    private volatile LogHistogram.Snapshot snapshot = LogHistogram.Snapshot.EMPTY;
+    private volatile double load;
+    private long snapshotCount;
     private int percentage;
     private boolean active = true;
 
@@ -39,7 +61,9 @@ public class MethodMetrics {
      */
     public MethodMetrics(String name) {
         this.name = name;
-        this.timer = new Timer();
+        this.meter = new Meter();
+        this.histogram = new LogHistogram();
+        this.window = new LogHistogram.Window(WINDOW_CYCLES);
 
         this.rateFactor = TimeUnit.SECONDS.toSeconds(1);
         this.durationFactor = 1.0 / TimeUnit.MILLISECONDS.toNanos(1);
@@ -58,72 +82,73 @@ public class MethodMetrics {
     }
 
     public long getCount() {
-        return timer.getCount();
+        return meter.getCount();
     }
 
     public double getMeanRate() {
-        return timer.getMeanRate() * rateFactor;
+        return meter.getMeanRate() * rateFactor;
     }
 
     public double getOneMinuteRate() {
-        return timer.getOneMinuteRate() * rateFactor;
+        return meter.getOneMinuteRate() * rateFactor;
     }
 
     public double getFiveMinuteRate() {
-        return timer.getFiveMinuteRate() * rateFactor;
+        return meter.getFiveMinuteRate() * rateFactor;
     }
 
     public double getFifteenMinuteRate() {
-        return timer.getFifteenMinuteRate() * rateFactor;
+        return meter.getFifteenMinuteRate() * rateFactor;
     }
 
     public double getMin() {
-        return timer.getSnapshot().getMin() * durationFactor;
+        return getSnapshot().getMin() * durationFactor;
     }
 
     public double getMax() {
-        return timer.getSnapshot().getMax() * durationFactor;
+        return getSnapshot().getMax() * durationFactor;
     }
 
     public double getMean() {
-        return timer.getSnapshot().getMean() * durationFactor;
+        return getSnapshot().getMean() * durationFactor;
     }
 
     public double getStdDev() {
-        return timer.getSnapshot().getStdDev() * durationFactor;
+        return getSnapshot().getStdDev() * durationFactor;
     }
 
     public double get50thPercentile() {
-        return timer.getSnapshot().getMedian() * durationFactor;
+        return getSnapshot().getMedian() * durationFactor;
     }
 
     public double get75thPercentile() {
-        return timer.getSnapshot().get75thPercentile() * durationFactor;
+        return getSnapshot().get75thPercentile() * durationFactor;
     }
 
     public double get95thPercentile() {
-        return timer.getSnapshot().get95thPercentile() * durationFactor;
+        return getSnapshot().get95thPercentile() * durationFactor;
     }
 
     public double get98thPercentile() {
-        return timer.getSnapshot().get98thPercentile() * durationFactor;
+        return getSnapshot().get98thPercentile() * durationFactor;
     }
 
     public double get99thPercentile() {
-        return timer.getSnapshot().get99thPercentile() * durationFactor;
+        return getSnapshot().get99thPercentile() * durationFactor;
     }
 
     public double get999thPercentile() {
-        return timer.getSnapshot().get999thPercentile() * durationFactor;
+        return getSnapshot().get999thPercentile() * durationFactor;
     }
 
     /**
-     * average amount of time for a method multiplied by the number of times called
+     * average amount of time for a method multiplied by the number of times called, over the last
+     * {@link #WINDOW_CYCLES} housekeeping cycles
      *
      * @return estimated load
      */
     public double getLoad() {
-        return timer.getSnapshot().size() * getMean();
+        return load;
     }
 
     public int getPercentage() {
@@ -134,14 +159,57 @@ public class MethodMetrics {
         this.percentage = percentage;
     }
 
+    /**
+     * @return one duration, in nanoseconds, for each histogram bucket that calls have fallen in
+     */
     public long[] values() {
-        return timer.getSnapshot().getValues();
+        return getSnapshot().getValues();
     }
 
     public void update(long elapsed) {
         if (elapsed >= 0) {
-            timer.update(elapsed, TimeUnit.NANOSECONDS);
+            meter.mark();
+            histogram.update(elapsed);
+        }
+    }
+
+    /**
+     * Adds calls which have been counted elsewhere, e.g. by a thread's {@link ThreadMethodTimings}.
+     * Their durations are added separately with {@link #addDuration(long)}.
+     */
+    public void addCount(long count) {
+        if (count > 0) {
+            meter.mark(count);
+        }
+    }
+
+    public void addDuration(long elapsed) {
+        if (elapsed >= 0) {
+            histogram.update(elapsed);
+        }
+    }
+
+    /**
+     * Ends a housekeeping cycle: the calls and durations recorded during it are added to the window,
+     * dropping the oldest cycle, and the snapshot read by the getters is recomputed over the window.
+     * Only called by housekeeping, as each call moves the window on.
+     */
+    public synchronized void updateSnapshot() {
+        long count = getCount();
+        long calls = count - snapshotCount;
+        snapshotCount = count;
+        if (calls == 0 && histogram.getCount() == 0 && window.isEmpty()) {
+            return;
         }
+        window.add(histogram.drain(), calls);
+        LogHistogram.Snapshot current = window.getSnapshot();
+        snapshot = current;
+        //the histogram may only hold a sample of the durations, but the count is exact
+        load = window.getCallCount() * current.getMean() * durationFactor;
+    }
+
+    private LogHistogram.Snapshot getSnapshot() {
+        return snapshot;
     }
 
     public String toString() {
@@ -149,24 +217,51 @@ public class MethodMetrics {
     }
 
     public static List<? extends MethodMetrics> sortedMetrics(Collection<? extends MethodMetrics> collection) {
-        ArrayList<? extends MethodMetrics> list = new ArrayList<>(collection);
+        return sortedMetrics(collection, Integer.MAX_VALUE);
+    }
 
-        Collections.sort(list, new Comparator<MethodMetrics>() {
-            @Override
-            public int compare(MethodMetrics methodMetrics1, MethodMetrics methodMetrics2) {
-                return (int) ((int) methodMetrics2.getLoad() - (int) methodMetrics1.getLoad());
-            }
-        });
-        //calculate the percentage
-        int totalLoad = 0;
-        for (MethodMetrics m : list) {
+    /**
+     * Ends the housekeeping cycle for each of the metrics, see {@link #updateSnapshot()}.
+     */
+    public static void updateSnapshots(Collection<? extends MethodMetrics> collection) {
+        for (MethodMetrics m : collection) {
+            m.updateSnapshot();
+        }
+    }
+
+    /**
+     * Updates the percentage of each of the metrics, and ranks them by the load of their last snapshot.
+     *
+     * @param limit - the maximum number of metrics to return
+     * @return the metrics with the highest load, highest first
+     */
+    public static <T extends MethodMetrics> List<T> sortedMetrics(Collection<T> collection, int limit) {
+        double totalLoad = 0;
+        for (MethodMetrics m : collection) {
             totalLoad += m.getLoad();
         }
-        for (MethodMetrics m : list) {
-            int percentage = (int) ((m.getLoad() * 100) / totalLoad);
-            m.setPercentage(percentage);
+        List<T> list;
+        if (limit >= collection.size()) {
+            list = new ArrayList<>(collection);
+            Collections.sort(list, LOAD_COMPARATOR);
+        } else {
+            //only keep the top entries, rather than sorting them all
+            PriorityQueue<T> top = new PriorityQueue<>(Math.max(limit, 1), Collections.reverseOrder(LOAD_COMPARATOR));
+            for (T m : collection) {
+                if (top.size() < limit) {
+                    top.add(m);
+                } else if (limit > 0 && m.getLoad() > top.peek().getLoad()) {
+                    top.poll();
+                    top.add(m);
+                }
+            }
+            list = new ArrayList<>(top);
+            Collections.sort(list, LOAD_COMPARATOR);
+        }
+        //calculate the percentage
+        for (MethodMetrics m : collection) {
+            m.setPercentage(totalLoad > 0 ? (int) ((m.getLoad() * 100) / totalLoad) : 0);
         }
         return list;
     }
 }
-
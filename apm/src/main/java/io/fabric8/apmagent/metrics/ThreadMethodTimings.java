@@ -0,0 +1,147 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per thread method timings recorded by instrumented code, kept in primitive arrays.
+ * <p/>
+ * The call stack is only touched by the owning thread. Completed calls are published as
+ * per method counts and as elapsed time samples in a single producer/single consumer ring,
+ * which the housekeeping thread drains into the {@link MethodMetrics} with {@link #drain(Merger)}.
+ * If the ring fills up between two drains further samples are dropped, but the counts stay exact.
+ */
+final class ThreadMethodTimings {
+    static final int SAMPLE_BUFFER_SIZE = 8192;
+    private static final int SAMPLE_MASK = SAMPLE_BUFFER_SIZE - 1;
+    private static final int INITIAL_DEPTH = 16;
+    private static final int INITIAL_METHODS = 64;
+
+    //owned by the instrumented thread
+    private int[] stackIds = new int[INITIAL_DEPTH];
+    private long[] stackStarts = new long[INITIAL_DEPTH];
+    private int depth;
+    private long produced;
+    private long consumedSnapshot;
+
+    //written by the instrumented thread, read by the housekeeping thread
+    private volatile AtomicLongArray counts = new AtomicLongArray(INITIAL_METHODS);
+    private final int[] sampleIds = new int[SAMPLE_BUFFER_SIZE];
+    private final long[] sampleTimes = new long[SAMPLE_BUFFER_SIZE];
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong consumed = new AtomicLong();
+
+    //owned by the housekeeping thread
+    private long[] merged = new long[INITIAL_METHODS];
+
+    interface Merger {
+        void count(int methodId, long count);
+
+        void sample(int methodId, long elapsed);
+    }
+
+    void enter(int methodId) {
+        if (depth == stackIds.length) {
+            int[] newIds = new int[depth * 2];
+            long[] newStarts = new long[depth * 2];
+            System.arraycopy(stackIds, 0, newIds, 0, depth);
+            System.arraycopy(stackStarts, 0, newStarts, 0, depth);
+            stackIds = newIds;
+            stackStarts = newStarts;
+        }
+        stackIds[depth] = methodId;
+        stackStarts[depth++] = System.nanoTime();
+    }
+
+    void exit(int methodId) {
+        int index = depth - 1;
+        while (index >= 0 && stackIds[index] != methodId) {
+            index--;
+        }
+        if (index < 0) {
+            //we never saw the enter - e.g. metrics were started mid call
+            return;
+        }
+        long now = System.nanoTime();
+        //the exit could have jumped a few methods if its caused by an exception
+        for (int i = depth - 1; i >= index; i--) {
+            record(stackIds[i], now - stackStarts[i]);
+        }
+        depth = index;
+    }
+
+    int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Hands everything recorded since the last drain to the merger.
+     * Must only be called by one thread at a time.
+     */
+    void drain(Merger merger) {
+        AtomicLongArray currentCounts = counts;
+        if (merged.length < currentCounts.length()) {
+            long[] newMerged = new long[currentCounts.length()];
+            System.arraycopy(merged, 0, newMerged, 0, merged.length);
+            merged = newMerged;
+        }
+        for (int id = 0; id < currentCounts.length(); id++) {
+            long count = currentCounts.get(id);
+            if (count != merged[id]) {
+                merger.count(id, count - merged[id]);
+                merged[id] = count;
+            }
+        }
+        long start = consumed.get();
+        long end = published.get();
+        for (long i = start; i < end; i++) {
+            int index = (int) i & SAMPLE_MASK;
+            merger.sample(sampleIds[index], sampleTimes[index]);
+        }
+        consumed.lazySet(end);
+    }
+
+    private void record(int methodId, long elapsed) {
+        AtomicLongArray currentCounts = counts;
+        if (methodId >= currentCounts.length()) {
+            currentCounts = growCounts(methodId);
+        }
+        currentCounts.lazySet(methodId, currentCounts.get(methodId) + 1);
+
+        if (produced - consumedSnapshot >= SAMPLE_BUFFER_SIZE) {
+            consumedSnapshot = consumed.get();
+            if (produced - consumedSnapshot >= SAMPLE_BUFFER_SIZE) {
+                return;
+            }
+        }
+        int index = (int) produced & SAMPLE_MASK;
+        sampleIds[index] = methodId;
+        sampleTimes[index] = elapsed;
+        published.lazySet(++produced);
+    }
+
+    private AtomicLongArray growCounts(int methodId) {
+        AtomicLongArray current = counts;
+        AtomicLongArray result = new AtomicLongArray(Math.max(methodId + 1, current.length() * 2));
+        for (int i = 0; i < current.length(); i++) {
+            result.lazySet(i, current.get(i));
+        }
+        counts = result;
+        return result;
+    }
+}
@@ -33,6 +33,8 @@ public class ThreadMetrics {
     private final ThreadMXBean threadMXBean;
     private final ConcurrentMap<String, ThreadContextMethodMetrics> methods = new ConcurrentHashMap<>();
     private final MonitoredThreadMethodMetrics monitoredThreadMethodMetrics;
+    private final ThreadMethodTimings timings = new ThreadMethodTimings();
+    private volatile boolean destroyed;
 
     public ThreadMetrics(ApmAgentContext apmAgentContext, Thread thread) {
         this.methodStackRef = new AtomicReference<>(new ThreadContextMethodMetricsStack());
@@ -74,12 +76,7 @@ public class ThreadMetrics {
     }
 
     public void enter(String methodName, boolean alwaysActive) {
-        ThreadContextMethodMetrics threadContextMethodMetrics = methods.get(methodName);
-        if (threadContextMethodMetrics == null) {
-            threadContextMethodMetrics = new ThreadContextMethodMetrics(thread, this.methodStackRef, methodName);
-            threadContextMethodMetrics.setActive(apmAgentContext.isMonitorByDefault());
-            methods.putIfAbsent(methodName, threadContextMethodMetrics);
-        }
+        ThreadContextMethodMetrics threadContextMethodMetrics = getThreadContextMethodMetrics(methodName);
         if (alwaysActive || threadContextMethodMetrics.isActive()) {
             threadContextMethodMetrics.onEnter();
         }
@@ -100,21 +97,69 @@ public class ThreadMetrics {
         return result;
     }
 
+    /**
+     * Called by instrumented code on the owning thread only.
+     */
+    void enter(int methodId) {
+        timings.enter(methodId);
+    }
+
+    /**
+     * Called by instrumented code on the owning thread only.
+     */
+    void exit(int methodId) {
+        timings.exit(methodId);
+    }
+
+    /**
+     * Merges the timings recorded by {@link #enter(int)} and {@link #exit(int)} since the last
+     * call into the thread and method metrics. Only called by the housekeeping thread.
+     */
+    void mergeTimings() {
+        timings.drain(new ThreadMethodTimings.Merger() {
+            @Override
+            public void count(int methodId, long count) {
+                String methodName = apmAgentContext.getMethodName(methodId);
+                ThreadContextMethodMetrics threadContextMethodMetrics = getActiveMetrics(methodName);
+                if (threadContextMethodMetrics != null) {
+                    threadContextMethodMetrics.addCount(count);
+                    apmAgentContext.getMethodMetrics(methodName).addCount(count);
+                }
+            }
+
+            @Override
+            public void sample(int methodId, long elapsed) {
+                String methodName = apmAgentContext.getMethodName(methodId);
+                ThreadContextMethodMetrics threadContextMethodMetrics = getActiveMetrics(methodName);
+                if (threadContextMethodMetrics != null) {
+                    threadContextMethodMetrics.addDuration(elapsed);
+                    apmAgentContext.getMethodMetrics(methodName).addDuration(elapsed);
+                }
+            }
+        });
+    }
+
     public String toString() {
         return "ThreadMetrics:" + getName();
     }
 
     public void destroy() {
+        destroyed = true;
         monitoredThreadMethodMetrics.destroy();
     }
 
+    boolean isDestroyed() {
+        return destroyed;
+    }
+
     public ThreadContextMethodMetrics remove(String fullMethodName) {
         ThreadContextMethodMetrics result = methods.remove(fullMethodName);
         return result;
     }
 
     public void calculateMethodMetrics() {
-        List<ThreadContextMethodMetrics> list = (List<ThreadContextMethodMetrics>) MethodMetrics.sortedMetrics(this.methods.values());
+        MethodMetrics.updateSnapshots(this.methods.values());
+        List<ThreadContextMethodMetrics> list = MethodMetrics.sortedMetrics(this.methods.values(), monitoredThreadMethodMetrics.getMonitorSize());
         monitoredThreadMethodMetrics.calculateMethodMetrics(list);
     }
 
@@ -125,6 +170,29 @@ public class ThreadMetrics {
         }
     }
 
+    private ThreadContextMethodMetrics getThreadContextMethodMetrics(String methodName) {
+        ThreadContextMethodMetrics threadContextMethodMetrics = methods.get(methodName);
+        if (threadContextMethodMetrics == null) {
+            threadContextMethodMetrics = new ThreadContextMethodMetrics(thread, this.methodStackRef, methodName);
+            threadContextMethodMetrics.setActive(apmAgentContext.isMonitorByDefault());
+            ThreadContextMethodMetrics existing = methods.putIfAbsent(methodName, threadContextMethodMetrics);
+            if (existing != null) {
+                threadContextMethodMetrics = existing;
+            }
+        }
+        return threadContextMethodMetrics;
+    }
+
+    private ThreadContextMethodMetrics getActiveMetrics(String methodName) {
+        if (methodName != null) {
+            ThreadContextMethodMetrics threadContextMethodMetrics = getThreadContextMethodMetrics(methodName);
+            if (threadContextMethodMetrics.isActive()) {
+                return threadContextMethodMetrics;
+            }
+        }
+        return null;
+    }
+
     public boolean isActive(String methodName) {
         ThreadContextMethodMetrics threadContextMethodMetrics = methods.get(methodName);
         return threadContextMethodMetrics != null ? threadContextMethodMetrics.isActive() : false;
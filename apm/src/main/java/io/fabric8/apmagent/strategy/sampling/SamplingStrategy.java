@@ -18,16 +18,25 @@ package io.fabric8.apmagent.strategy.sampling;
 import io.fabric8.apmagent.ApmConfiguration;
 import io.fabric8.apmagent.Strategy;
 import io.fabric8.apmagent.metrics.ApmAgentContext;
+import io.fabric8.apmagent.metrics.CallTree;
 
 import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadInfo;
 import java.lang.management.ThreadMXBean;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * Samples the stacks of the selected threads through the {@link ThreadMXBean}, only fetching
+ * the top {@link ApmConfiguration#getSamplingStackDepth()} frames of each.
+ * <p/>
+ * The top of each stack drives the method metrics, while the whole sampled stack is folded
+ * into a {@link CallTree}, which is exported as an mbean.
+ */
 public class SamplingStrategy implements Strategy, Runnable {
     private static final long CLEANUP_INTERVAL = 1000;
     private ApmAgentContext context;
@@ -35,18 +44,20 @@ public class SamplingStrategy implements Strategy, Runnable {
     private AtomicBoolean initialized = new AtomicBoolean();
     private AtomicBoolean started = new AtomicBoolean();
     private Thread samplingThread;
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
     private final Map<Long, String> currentMethods = new HashMap<>();
+    private final Map<Long, Thread> sampledThreads = new HashMap<>();
+    private final CallTree callTree;
 
     public SamplingStrategy(ApmAgentContext context) {
         this.context = context;
         this.configuration = context.getConfiguration();
+        this.callTree = new CallTree(configuration.getCallTreeMaxNodes());
     }
 
     @Override
     public void initialize() throws Exception {
         if (initialized.compareAndSet(false, true)) {
-            samplingThread = new Thread(this, "SamplingStrategy");
-            samplingThread.setDaemon(true);
             configuration.addChangeListener(this);
         }
     }
@@ -55,6 +66,9 @@ public class SamplingStrategy implements Strategy, Runnable {
     public void start() throws Exception {
         if (started.compareAndSet(false, true)) {
             initialize();
+            context.registerCallTree(callTree);
+            samplingThread = new Thread(this, "SamplingStrategy");
+            samplingThread.setDaemon(true);
             samplingThread.start();
         }
 
@@ -63,13 +77,14 @@ public class SamplingStrategy implements Strategy, Runnable {
     @Override
     public void stop() throws Exception {
         if (started.compareAndSet(true, false)) {
-
+            context.unregisterCallTree(callTree);
         }
     }
 
     @Override
     public void shutDown() throws Exception {
         if (initialized.compareAndSet(true, false)) {
+            stop();
             configuration.removeChangeListener(this);
             samplingThread = null;
         }
@@ -77,58 +92,112 @@ public class SamplingStrategy implements Strategy, Runnable {
 
     @Override
     public void configurationChanged() {
+        callTree.setMaxNodes(configuration.getCallTreeMaxNodes());
+    }
 
+    public CallTree getCallTree() {
+        return callTree;
     }
 
     @Override
     public void run() {
         long lastTime = 0;
+        long[] threadIds = new long[0];
         while (started.get()) {
             try {
-                for (Map.Entry<Thread, StackTraceElement[]> threadEntry : Thread.getAllStackTraces().entrySet()) {
-                    if (threadEntry.getKey() != Thread.currentThread()) {
-                        addMeasurement(threadEntry.getKey(), threadEntry.getValue());
-                    }
-                }
                 long currentTime = System.currentTimeMillis();
 
                 if ((currentTime - lastTime) > CLEANUP_INTERVAL) {
+                    threadIds = selectThreads();
                     cleanup();
                     lastTime = currentTime;
                 }
+                if (threadIds.length > 0) {
+                    int depth = configuration.getSamplingStackDepth();
+                    if (depth <= 0 || depth == Integer.MAX_VALUE) {
+                        depth = Integer.MAX_VALUE - 1;
+                    }
+                    //fetch one frame more than we keep, to tell if a stack was cut short
+                    for (ThreadInfo threadInfo : threadMXBean.getThreadInfo(threadIds, depth + 1)) {
+                        if (threadInfo != null) {
+                            addMeasurement(threadInfo, depth);
+                        }
+                    }
+                }
                 Thread.sleep(configuration.getSamplingInterval());
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
+                break;
             }
         }
     }
 
-    private void cleanup() {
-        List<ThreadInfo> removeList = null;
-        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
-        for (Long id : currentMethods.keySet()) {
-            ThreadInfo threadInfo = threadMXBean.getThreadInfo(id);
-            if (threadInfo != null) {
-                if (threadInfo.getThreadState() == Thread.State.TERMINATED) {
-                    if (removeList == null) {
-                        removeList = new ArrayList<>();
-                    }
-                    removeList.add(threadInfo);
-                }
+    private long[] selectThreads() {
+        sampledThreads.clear();
+        Set<String> groupNames = new HashSet<>();
+        for (String name : configuration.getSamplingThreadGroups().split(",")) {
+            if (name.trim().length() > 0) {
+                groupNames.add(name.trim());
             }
         }
-        if (removeList != null) {
-            for (ThreadInfo threadInfo : removeList) {
-                currentMethods.remove(threadInfo.getThreadId());
+        for (Thread thread : getAllThreads()) {
+            if (thread != null && thread != Thread.currentThread() && thread.isAlive()
+                    && (groupNames.isEmpty() || isInThreadGroup(thread, groupNames))) {
+                sampledThreads.put(thread.getId(), thread);
             }
         }
+        long[] result = new long[sampledThreads.size()];
+        int i = 0;
+        for (Long id : sampledThreads.keySet()) {
+            result[i++] = id;
+        }
+        return result;
     }
 
-    private void addMeasurement(Thread thread, StackTraceElement[] stackTraceElements) {
+    private Thread[] getAllThreads() {
+        ThreadGroup root = Thread.currentThread().getThreadGroup();
+        while (root.getParent() != null) {
+            root = root.getParent();
+        }
+        Thread[] threads = new Thread[root.activeCount() + 16];
+        int count;
+        while ((count = root.enumerate(threads, true)) == threads.length) {
+            threads = new Thread[threads.length * 2];
+        }
+        Thread[] result = new Thread[count];
+        System.arraycopy(threads, 0, result, 0, count);
+        return result;
+    }
+
+    private boolean isInThreadGroup(Thread thread, Set<String> groupNames) {
+        for (ThreadGroup group = thread.getThreadGroup(); group != null; group = group.getParent()) {
+            if (groupNames.contains(group.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void cleanup() {
+        currentMethods.keySet().retainAll(sampledThreads.keySet());
+    }
+
+    private void addMeasurement(ThreadInfo threadInfo, int depth) {
+        Thread thread = sampledThreads.get(threadInfo.getThreadId());
+        StackTraceElement[] stackTraceElements = threadInfo.getStackTrace();
         if (thread != null && thread.isAlive() &&
                 stackTraceElements != null && stackTraceElements.length > 0) {
-            StackTraceElement topOfStack = stackTraceElements[0];
-            String currentMethod = getCurrentMethod(topOfStack);
+            CallTree.Frame topOfStack;
+            if (!configuration.isSamplingRunnableOnly() || threadInfo.getThreadState() == Thread.State.RUNNABLE) {
+                boolean truncated = stackTraceElements.length > depth;
+                if (truncated) {
+                    stackTraceElements = Arrays.copyOf(stackTraceElements, depth);
+                }
+                topOfStack = callTree.addSample(stackTraceElements, truncated);
+            } else {
+                topOfStack = callTree.intern(stackTraceElements[0]);
+            }
+            String currentMethod = topOfStack.getName();
             if (configuration.isAudit(topOfStack.getClassName(), topOfStack.getMethodName())) {
                 String lastMethod = currentMethods.put(thread.getId(), currentMethod);
                 if (lastMethod == null) {
@@ -141,11 +210,4 @@ public class SamplingStrategy implements Strategy, Runnable {
             }
         }
     }
-
-    private String getCurrentMethod(StackTraceElement topOfStack) {
-        StringBuilder stringBuilder = new StringBuilder(topOfStack.getClassName().length() + topOfStack.getMethodName().length() + 1);
-        stringBuilder.append(topOfStack.getClassName()).append(".").append(topOfStack.getMethodName());
-        return stringBuilder.toString();
-    }
 }
-
@@ -0,0 +1,94 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.metrics;
+
+import io.fabric8.apmagent.ApmAgent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per call overhead of an instrumented method: the int method id calls the trace
+ * strategy now compiles in, against the String method name calls it used to compile in (and
+ * which the sampling strategy still uses).
+ * <p/>
+ * Run with <code>mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=io.fabric8.apmagent.metrics.ApmAgentContextBenchmark</code>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class ApmAgentContextBenchmark {
+
+    private static final String OUTER_METHOD = "io.fabric8.testApp.TestLoad@load1(io.fabric8.testApp.TestValues) void";
+    private static final String INNER_METHOD = "io.fabric8.testApp.TestLoad@load2(io.fabric8.testApp.TestValues) void";
+
+    private ApmAgentContext context;
+    private int outerMethodId;
+    private int innerMethodId;
+
+    @Setup
+    public void setup() {
+        ApmAgent.INSTANCE.getConfiguration().setUsePlatformMBeanServer(true);
+        context = new ApmAgentContext(ApmAgent.INSTANCE);
+        context.initialize();
+        context.start();
+        outerMethodId = context.getMethodId(OUTER_METHOD);
+        innerMethodId = context.getMethodId(INNER_METHOD);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.shutDown();
+    }
+
+    @Benchmark
+    public void methodIds() {
+        context.enter(outerMethodId);
+        context.enter(innerMethodId);
+        context.exit(innerMethodId);
+        context.exit(outerMethodId);
+    }
+
+    @Benchmark
+    public void methodNames() {
+        Thread thread = Thread.currentThread();
+        context.enterMethod(thread, OUTER_METHOD, false);
+        context.enterMethod(thread, INNER_METHOD, false);
+        context.exitMethod(thread, INNER_METHOD, false);
+        context.exitMethod(thread, OUTER_METHOD, false);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(ApmAgentContextBenchmark.class.getSimpleName()).build()).run();
+    }
+}
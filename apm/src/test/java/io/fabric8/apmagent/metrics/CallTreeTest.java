@@ -0,0 +1,134 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CallTreeTest {
+
+    @Test
+    public void testFoldedStacks() {
+        CallTree tree = new CallTree();
+        tree.addSample(stack("C.c", "B.b", "A.a"), false);
+        tree.addSample(stack("C.c", "B.b", "A.a"), false);
+        tree.addSample(stack("B.b", "A.a"), false);
+        tree.addSample(stack("D.d", "A.a"), false);
+
+        assertEquals("A.a;B.b 1\nA.a;B.b;C.c 2\nA.a;D.d 1\n", tree.foldedStacks());
+        assertEquals(4, tree.getSampleCount());
+        assertEquals(4, tree.getNodeCount());
+        assertEquals(0, tree.getDepthTruncatedSampleCount());
+        assertEquals(0, tree.getTreeFullSampleCount());
+    }
+
+    @Test
+    public void testAddSampleReturnsInternedTopFrame() {
+        CallTree tree = new CallTree();
+        CallTree.Frame frame = tree.addSample(stack("B.b", "A.a"), false);
+        assertEquals("B", frame.getClassName());
+        assertEquals("b", frame.getMethodName());
+        assertEquals("B.b", frame.getName());
+        assertSame(frame, tree.addSample(stack("B.b", "C.c"), false));
+        assertSame(frame, tree.intern(new StackTraceElement("B", "b", null, -1)));
+        assertNull(tree.addSample(new StackTraceElement[0], false));
+        assertEquals(2, tree.getSampleCount());
+    }
+
+    @Test
+    public void testDepthTruncatedSample() {
+        CallTree tree = new CallTree();
+        tree.addSample(stack("C.c", "B.b"), true);
+        tree.addSample(stack("B.b", "A.a"), false);
+
+        assertEquals(CallTree.TRUNCATED_FRAME + ";B.b;C.c 1\nA.a;B.b 1\n", tree.foldedStacks());
+        assertEquals(1, tree.getDepthTruncatedSampleCount());
+        assertEquals(0, tree.getTreeFullSampleCount());
+    }
+
+    @Test
+    public void testTreeFull() {
+        CallTree tree = new CallTree(2);
+        tree.addSample(stack("B.b", "A.a"), false);
+        // No room for C.c, the sample stops at the deepest node the tree already has
+        CallTree.Frame frame = tree.addSample(stack("C.c", "A.a"), false);
+        assertEquals("C.c", frame.getName());
+
+        assertEquals("A.a 1\nA.a;B.b 1\n", tree.foldedStacks());
+        assertEquals(2, tree.getSampleCount());
+        assertEquals(2, tree.getNodeCount());
+        assertEquals(0, tree.getDepthTruncatedSampleCount());
+        assertEquals(1, tree.getTreeFullSampleCount());
+
+        // Both counters apply when a depth limited sample cannot be added either
+        tree.addSample(stack("B.b", "A.a"), true);
+        assertEquals(1, tree.getDepthTruncatedSampleCount());
+        assertEquals(2, tree.getTreeFullSampleCount());
+        assertEquals(3, tree.getSampleCount());
+    }
+
+    @Test
+    public void testCallTree() {
+        CallTree tree = new CallTree();
+        tree.addSample(stack("C.c", "B.b", "A.a"), false);
+        tree.addSample(stack("C.c", "B.b", "A.a"), false);
+        tree.addSample(stack("B.b", "A.a"), false);
+        tree.addSample(stack("D.d", "A.a"), false);
+
+        String[] lines = tree.callTree(0).split("\n");
+        assertEquals(4, lines.length);
+        assertTrue(lines[0].matches("100.0% 4 A.a"));
+        assertTrue(lines[1].matches("  75.0% 3 B.b"));
+        assertTrue(lines[2].matches("    50.0% 2 C.c"));
+        assertTrue(lines[3].matches("  25.0% 1 D.d"));
+
+        // Calls seen in less than the given percentage are left out
+        String filtered = tree.callTree(30);
+        assertEquals(3, filtered.split("\n").length);
+        assertFalse(filtered.contains("D.d"));
+    }
+
+    @Test
+    public void testReset() {
+        CallTree tree = new CallTree(1);
+        tree.addSample(stack("B.b", "A.a"), true);
+        tree.reset();
+
+        assertEquals(0, tree.getSampleCount());
+        assertEquals(0, tree.getNodeCount());
+        assertEquals(0, tree.getDepthTruncatedSampleCount());
+        assertEquals(0, tree.getTreeFullSampleCount());
+        assertEquals("", tree.foldedStacks());
+        assertEquals("", tree.callTree(0));
+    }
+
+    /**
+     * @param frames - className.methodName of each frame, with the top of the stack first
+     */
+    private static StackTraceElement[] stack(String... frames) {
+        StackTraceElement[] stack = new StackTraceElement[frames.length];
+        for (int i = 0; i < frames.length; i++) {
+            int dot = frames[i].lastIndexOf('.');
+            stack[i] = new StackTraceElement(frames[i].substring(0, dot), frames[i].substring(dot + 1), null, -1);
+        }
+        return stack;
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LogHistogramTest {
+
+    @Test
+    public void testBucketIndex() {
+        for (int value = 0; value < 16; value++) {
+            assertEquals(value, LogHistogram.bucketIndex(value));
+        }
+        assertEquals(16, LogHistogram.bucketIndex(16));
+        assertEquals(16, LogHistogram.bucketIndex(17));
+        assertEquals(17, LogHistogram.bucketIndex(18));
+        assertEquals(LogHistogram.BUCKETS - 1, LogHistogram.bucketIndex(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testBucketBounds() {
+        assertEquals(16, LogHistogram.bucketLowerBound(16));
+        assertEquals(17, LogHistogram.bucketUpperBound(16));
+        assertEquals(Long.MAX_VALUE, LogHistogram.bucketUpperBound(LogHistogram.BUCKETS - 1));
+        for (int i = 0; i < LogHistogram.BUCKETS; i++) {
+            long lower = LogHistogram.bucketLowerBound(i);
+            long upper = LogHistogram.bucketUpperBound(i);
+            assertEquals(i, LogHistogram.bucketIndex(lower));
+            assertEquals(i, LogHistogram.bucketIndex(upper));
+            assertTrue(upper - lower <= lower / LogHistogram.SUB_BUCKETS);
+            if (i > 0) {
+                assertEquals(LogHistogram.bucketUpperBound(i - 1) + 1, lower);
+            }
+        }
+    }
+
+    @Test
+    public void testQuantiles() {
+        LogHistogram histogram = new LogHistogram();
+        record(histogram, 1, 50);
+        record(histogram, 2, 25);
+        record(histogram, 3, 20);
+        record(histogram, 4, 3);
+        record(histogram, 5, 1);
+        record(histogram, 6, 1);
+
+        LogHistogram.Snapshot snapshot = histogram.getSnapshot();
+        assertEquals(100, snapshot.getCount());
+        assertEquals(1, snapshot.getMin());
+        assertEquals(6, snapshot.getMax());
+        assertEquals(1.83, snapshot.getMean(), 0.0001);
+        assertEquals(1, snapshot.getMedian());
+        assertEquals(2, snapshot.get75thPercentile());
+        assertEquals(3, snapshot.get95thPercentile());
+        assertEquals(4, snapshot.get98thPercentile());
+        assertEquals(5, snapshot.get99thPercentile());
+        assertEquals(6, snapshot.get999thPercentile());
+        assertArrayEquals(new long[]{1, 2, 3, 4, 5, 6}, snapshot.getValues());
+    }
+
+    @Test
+    public void testQuantilesWithinRecordedRange() {
+        LogHistogram histogram = new LogHistogram();
+        record(histogram, 1000, 10);
+
+        // 1000 falls in the bucket [960, 1023], values are kept within the min and max recorded
+        LogHistogram.Snapshot snapshot = histogram.getSnapshot();
+        assertEquals(1000, snapshot.getMedian());
+        assertEquals(1000, snapshot.get999thPercentile());
+        assertEquals(1000.0, snapshot.getMean(), 0);
+        assertEquals(0.0, snapshot.getStdDev(), 0);
+    }
+
+    @Test
+    public void testDrain() {
+        LogHistogram histogram = new LogHistogram();
+        assertSame(LogHistogram.Interval.EMPTY, histogram.drain());
+        record(histogram, 10, 2);
+        record(histogram, 20, 1);
+
+        LogHistogram.Interval interval = histogram.drain();
+        assertEquals(3, interval.getCount());
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getSnapshot().getCount());
+        assertSame(LogHistogram.Interval.EMPTY, histogram.drain());
+
+        record(histogram, 30, 1);
+        LogHistogram.Snapshot snapshot = histogram.getSnapshot();
+        assertEquals(30, snapshot.getMin());
+        assertEquals(30, snapshot.getMax());
+    }
+
+    @Test
+    public void testWindow() {
+        LogHistogram histogram = new LogHistogram();
+        LogHistogram.Window window = new LogHistogram.Window(2);
+        assertTrue(window.isEmpty());
+
+        record(histogram, 10, 1);
+        window.add(histogram.drain(), 1);
+        record(histogram, 20, 3);
+        window.add(histogram.drain(), 6);
+        LogHistogram.Snapshot snapshot = window.getSnapshot();
+        assertEquals(4, snapshot.getCount());
+        assertEquals(10, snapshot.getMin());
+        assertEquals(20, snapshot.getMax());
+        assertEquals(17.5, snapshot.getMean(), 0);
+        assertEquals(7, window.getCallCount());
+
+        // the first interval drops out of the window
+        window.add(histogram.drain(), 0);
+        snapshot = window.getSnapshot();
+        assertEquals(3, snapshot.getCount());
+        assertEquals(20, snapshot.getMin());
+        assertEquals(20.0, snapshot.getMean(), 0);
+        assertEquals(6, window.getCallCount());
+        assertFalse(window.isEmpty());
+
+        window.add(histogram.drain(), 0);
+        assertTrue(window.isEmpty());
+        assertEquals(0, window.getSnapshot().getCount());
+        assertEquals(0, window.getCallCount());
+    }
+
+    private static void record(LogHistogram histogram, long value, int times) {
+        for (int i = 0; i < times; i++) {
+            histogram.update(value);
+        }
+    }
+}
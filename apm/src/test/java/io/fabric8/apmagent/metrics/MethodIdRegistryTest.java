@@ -0,0 +1,103 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.metrics;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MethodIdRegistryTest {
+
+    @Test
+    public void testIdsAreDenseAndStable() {
+        MethodIdRegistry registry = new MethodIdRegistry();
+        assertEquals(0, registry.getId("a.A@a"));
+        assertEquals(1, registry.getId("b.B@b"));
+        assertEquals(0, registry.getId("a.A@a"));
+        assertEquals(2, registry.size());
+
+        assertEquals("a.A@a", registry.getName(0));
+        assertEquals("b.B@b", registry.getName(1));
+        assertNull(registry.getName(2));
+        assertNull(registry.getName(-1));
+        assertNull(registry.getName(100000));
+    }
+
+    @Test
+    public void testGrowsPastTheInitialNames() {
+        MethodIdRegistry registry = new MethodIdRegistry();
+        int count = 1000;
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, registry.getId("method" + i));
+        }
+        assertEquals(count, registry.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals("method" + i, registry.getName(i));
+            assertEquals(i, registry.getId("method" + i));
+        }
+    }
+
+    @Test
+    public void testConcurrentRegistration() throws Exception {
+        final MethodIdRegistry registry = new MethodIdRegistry();
+        final int methods = 500;
+        final Set<Integer> ids = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+        final AtomicInteger wrongNames = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < methods; i++) {
+                        int id = registry.getId("method" + i);
+                        ids.add(id);
+                        if (!("method" + i).equals(registry.getName(id))) {
+                            wrongNames.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // every name got exactly one id, and the ids are 0 to methods - 1
+        assertEquals(0, wrongNames.get());
+        assertEquals(methods, registry.size());
+        assertEquals(methods, ids.size());
+        for (int i = 0; i < methods; i++) {
+            assertTrue(ids.contains(i));
+            assertEquals("method" + i, registry.getName(registry.getId("method" + i)));
+        }
+    }
+}
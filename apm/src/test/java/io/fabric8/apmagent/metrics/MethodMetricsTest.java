@@ -0,0 +1,78 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class MethodMetricsTest {
+
+    @Test
+    public void testLoadOverWindow() {
+        MethodMetrics metrics = new MethodMetrics("foo");
+        for (int i = 0; i < 3; i++) {
+            metrics.update(TimeUnit.MILLISECONDS.toNanos(2));
+        }
+        assertEquals(0.0, metrics.getLoad(), 0);
+
+        metrics.updateSnapshot();
+        assertEquals(6.0, metrics.getLoad(), 0.0001);
+        assertEquals(2.0, metrics.getMean(), 0.0001);
+
+        for (int i = 1; i < MethodMetrics.WINDOW_CYCLES; i++) {
+            metrics.updateSnapshot();
+        }
+        assertEquals(6.0, metrics.getLoad(), 0.0001);
+
+        // the cycle the calls were made in has dropped out of the window
+        metrics.updateSnapshot();
+        assertEquals(0.0, metrics.getLoad(), 0);
+        assertEquals(0.0, metrics.getMean(), 0);
+        assertEquals(0.0, metrics.get99thPercentile(), 0);
+        assertEquals(3, metrics.getCount());
+    }
+
+    @Test
+    public void testLoadUsesExactCount() {
+        MethodMetrics metrics = new MethodMetrics("foo");
+        metrics.addCount(10);
+        metrics.addDuration(TimeUnit.MILLISECONDS.toNanos(1));
+        metrics.updateSnapshot();
+        assertEquals(10.0, metrics.getLoad(), 0.0001);
+    }
+
+    @Test
+    public void testSortedMetrics() {
+        MethodMetrics low = new MethodMetrics("low");
+        MethodMetrics high = new MethodMetrics("high");
+        low.update(TimeUnit.MILLISECONDS.toNanos(1));
+        high.update(TimeUnit.MILLISECONDS.toNanos(3));
+
+        // ranking reads the last snapshots, only housekeeping moves them on
+        MethodMetrics.sortedMetrics(Arrays.asList(low, high));
+        assertEquals(0.0, high.getLoad(), 0);
+
+        MethodMetrics.updateSnapshots(Arrays.asList(low, high));
+        assertEquals(Arrays.asList(high, low), MethodMetrics.sortedMetrics(Arrays.asList(low, high)));
+        assertEquals(75, high.getPercentage());
+        assertEquals(25, low.getPercentage());
+        assertEquals(Arrays.asList(high), MethodMetrics.sortedMetrics(Arrays.asList(low, high), 1));
+    }
+}
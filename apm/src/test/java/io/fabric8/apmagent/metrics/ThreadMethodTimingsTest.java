@@ -0,0 +1,182 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.metrics;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ThreadMethodTimingsTest {
+
+    @Test
+    public void testDrain() {
+        ThreadMethodTimings timings = new ThreadMethodTimings();
+        timings.enter(1);
+        timings.enter(2);
+        timings.exit(2);
+        timings.enter(2);
+        timings.exit(2);
+        timings.exit(1);
+        assertEquals(0, timings.getDepth());
+
+        RecordingMerger merger = drain(timings);
+        assertEquals("{1=1, 2=2}", merger.counts.toString());
+        assertEquals("[2, 2, 1]", merger.sampleIds.toString());
+        for (long elapsed : merger.sampleTimes) {
+            assertTrue(elapsed >= 0);
+        }
+
+        // only what was recorded since the last drain is handed over
+        assertEquals("{}", drain(timings).counts.toString());
+        timings.enter(2);
+        timings.exit(2);
+        merger = drain(timings);
+        assertEquals("{2=1}", merger.counts.toString());
+        assertEquals("[2]", merger.sampleIds.toString());
+    }
+
+    @Test
+    public void testExitUnwindsTheMethodsAnExceptionJumpedOver() {
+        ThreadMethodTimings timings = new ThreadMethodTimings();
+        timings.enter(1);
+        timings.enter(2);
+        timings.enter(3);
+        timings.enter(4);
+        // 4 and 3 threw, the exception was caught in 2 which then returned
+        timings.exit(2);
+        assertEquals(1, timings.getDepth());
+        timings.exit(1);
+        assertEquals(0, timings.getDepth());
+
+        RecordingMerger merger = drain(timings);
+        assertEquals("{1=1, 2=1, 3=1, 4=1}", merger.counts.toString());
+        assertEquals("[4, 3, 2, 1]", merger.sampleIds.toString());
+    }
+
+    @Test
+    public void testExitWithoutEnterIsIgnored() {
+        ThreadMethodTimings timings = new ThreadMethodTimings();
+        timings.enter(1);
+        // metrics were started in the middle of a call to 2
+        timings.exit(2);
+        assertEquals(1, timings.getDepth());
+        timings.exit(1);
+
+        assertEquals("{1=1}", drain(timings).counts.toString());
+    }
+
+    @Test
+    public void testDeepStacksAndHighMethodIds() {
+        ThreadMethodTimings timings = new ThreadMethodTimings();
+        int depth = 100;
+        for (int i = 0; i < depth; i++) {
+            timings.enter(1000 + i);
+        }
+        assertEquals(depth, timings.getDepth());
+        for (int i = depth - 1; i >= 0; i--) {
+            timings.exit(1000 + i);
+        }
+
+        RecordingMerger merger = drain(timings);
+        assertEquals(depth, merger.counts.size());
+        assertEquals(Long.valueOf(1), merger.counts.get(1000));
+        assertEquals(Long.valueOf(1), merger.counts.get(1000 + depth - 1));
+        assertEquals(depth, merger.sampleIds.size());
+    }
+
+    @Test
+    public void testSamplesAreDroppedWhenTheRingIsFullButCountsAreExact() {
+        ThreadMethodTimings timings = new ThreadMethodTimings();
+        int calls = ThreadMethodTimings.SAMPLE_BUFFER_SIZE + 10;
+        for (int i = 0; i < calls; i++) {
+            timings.enter(3);
+            timings.exit(3);
+        }
+
+        RecordingMerger merger = drain(timings);
+        assertEquals(Long.valueOf(calls), merger.counts.get(3));
+        assertEquals(ThreadMethodTimings.SAMPLE_BUFFER_SIZE, merger.sampleIds.size());
+
+        // draining makes room again
+        timings.enter(3);
+        timings.exit(3);
+        merger = drain(timings);
+        assertEquals(Long.valueOf(1), merger.counts.get(3));
+        assertEquals(1, merger.sampleIds.size());
+    }
+
+    @Test
+    public void testDrainWhileRecording() throws Exception {
+        final ThreadMethodTimings timings = new ThreadMethodTimings();
+        final int calls = 200000;
+        Thread producer = new Thread("ThreadMethodTimingsTest producer") {
+            @Override
+            public void run() {
+                for (int i = 0; i < calls; i++) {
+                    timings.enter(i % 100);
+                    timings.exit(i % 100);
+                }
+            }
+        };
+        RecordingMerger merger = new RecordingMerger();
+        producer.start();
+        while (producer.isAlive()) {
+            timings.drain(merger);
+        }
+        producer.join();
+        timings.drain(merger);
+
+        long total = 0;
+        for (long count : merger.counts.values()) {
+            total += count;
+        }
+        assertEquals(calls, total);
+        assertEquals(100, merger.counts.size());
+        assertTrue(merger.sampleIds.size() <= calls);
+        for (int methodId : merger.sampleIds) {
+            assertTrue(methodId >= 0 && methodId < 100);
+        }
+    }
+
+    private static RecordingMerger drain(ThreadMethodTimings timings) {
+        RecordingMerger merger = new RecordingMerger();
+        timings.drain(merger);
+        return merger;
+    }
+
+    private static class RecordingMerger implements ThreadMethodTimings.Merger {
+        final TreeMap<Integer, Long> counts = new TreeMap<Integer, Long>();
+        final List<Integer> sampleIds = new ArrayList<Integer>();
+        final List<Long> sampleTimes = new ArrayList<Long>();
+
+        @Override
+        public void count(int methodId, long count) {
+            Long current = counts.get(methodId);
+            counts.put(methodId, current != null ? current + count : count);
+        }
+
+        @Override
+        public void sample(int methodId, long elapsed) {
+            sampleIds.add(methodId);
+            sampleTimes.add(elapsed);
+        }
+    }
+}
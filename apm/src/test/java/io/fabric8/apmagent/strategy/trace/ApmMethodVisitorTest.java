@@ -0,0 +1,99 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.strategy.trace;
+
+import org.junit.Test;
+import org.objectweb.asm.MethodVisitor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.objectweb.asm.Opcodes.*;
+
+public class ApmMethodVisitorTest {
+
+    @Test
+    public void testPushesTheMethodIdWithTheSmallestInstruction() {
+        assertEquals("BIPUSH 0", enterInstructions(0).get(0));
+        assertEquals("BIPUSH 127", enterInstructions(Byte.MAX_VALUE).get(0));
+        assertEquals("SIPUSH 128", enterInstructions(Byte.MAX_VALUE + 1).get(0));
+        assertEquals("SIPUSH 32767", enterInstructions(Short.MAX_VALUE).get(0));
+        assertEquals("LDC 32768", enterInstructions(Short.MAX_VALUE + 1).get(0));
+        assertEquals("LDC 2147483647", enterInstructions(Integer.MAX_VALUE).get(0));
+    }
+
+    @Test
+    public void testCallsEnterAtTheStartAndExitBeforeReturnsAndThrows() {
+        RecordingMethodVisitor recorder = new RecordingMethodVisitor();
+        ApmMethodVisitor visitor = new ApmMethodVisitor(recorder, 300);
+        visitor.visitCode();
+        visitor.visitInsn(NOP);
+        visitor.visitInsn(IRETURN);
+        visitor.visitInsn(ATHROW);
+        visitor.visitInsn(RETURN);
+
+        List<String> expected = new ArrayList<String>();
+        expected.add("SIPUSH 300");
+        expected.add("INVOKESTATIC io/fabric8/apmagent/ApmAgent.enter(I)V");
+        expected.add("INSN " + NOP);
+        expected.add("SIPUSH 300");
+        expected.add("INVOKESTATIC io/fabric8/apmagent/ApmAgent.exit(I)V");
+        expected.add("INSN " + IRETURN);
+        expected.add("SIPUSH 300");
+        expected.add("INVOKESTATIC io/fabric8/apmagent/ApmAgent.exit(I)V");
+        expected.add("INSN " + ATHROW);
+        expected.add("SIPUSH 300");
+        expected.add("INVOKESTATIC io/fabric8/apmagent/ApmAgent.exit(I)V");
+        expected.add("INSN " + RETURN);
+        assertEquals(expected, recorder.instructions);
+    }
+
+    private static List<String> enterInstructions(int methodId) {
+        RecordingMethodVisitor recorder = new RecordingMethodVisitor();
+        new ApmMethodVisitor(recorder, methodId).visitCode();
+        assertEquals("INVOKESTATIC io/fabric8/apmagent/ApmAgent.enter(I)V", recorder.instructions.get(1));
+        return recorder.instructions;
+    }
+
+    private static class RecordingMethodVisitor extends MethodVisitor {
+        final List<String> instructions = new ArrayList<String>();
+
+        RecordingMethodVisitor() {
+            super(ASM5);
+        }
+
+        @Override
+        public void visitInsn(int opcode) {
+            instructions.add("INSN " + opcode);
+        }
+
+        @Override
+        public void visitIntInsn(int opcode, int operand) {
+            instructions.add((opcode == BIPUSH ? "BIPUSH " : opcode == SIPUSH ? "SIPUSH " : "INT " + opcode + " ") + operand);
+        }
+
+        @Override
+        public void visitLdcInsn(Object value) {
+            instructions.add("LDC " + value);
+        }
+
+        @Override
+        public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+            instructions.add((opcode == INVOKESTATIC ? "INVOKESTATIC " : opcode + " ") + owner + "." + name + desc);
+        }
+    }
+}
@@ -22,6 +22,10 @@ import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.state.ConnectionState;
 import org.apache.curator.framework.state.ConnectionStateListener;
 import io.fabric8.dosgi.impl.Manager;
+import io.fabric8.dosgi.tcp.LengthPrefixedCodec;
+import io.fabric8.dosgi.tcp.ServerInvokerImpl;
+import io.fabric8.dosgi.tcp.StreamInvocationStrategy;
+import io.fabric8.dosgi.tcp.TransportPool;
 import org.osgi.framework.BundleContext;
 
 public class Activator implements ConnectionStateListener {
@@ -31,6 +35,20 @@ public class Activator implements ConnectionStateListener {
     private String uri;
     private String exportedAddress;
     private long timeout = TimeUnit.MINUTES.toMillis(5);
+    private int clientQueueCount;
+    private int clientPoolSize = TransportPool.DEFAULT_POOL_SIZE;
+    private int clientMaxInflight;
+    private String serialization;
+    private int batchSize;
+    private int batchDelay;
+    private int compressThreshold;
+    private int maxInflatedSize = LengthPrefixedCodec.DEFAULT_MAX_INFLATED_SIZE;
+    private String executorType = ServerInvokerImpl.EXECUTOR_SERVICE;
+    private int executorThreads = ServerInvokerImpl.DEFAULT_EXECUTOR_THREADS;
+    private int executorQueueSize = ServerInvokerImpl.DEFAULT_EXECUTOR_QUEUE_SIZE;
+    private int streamChunkSize = StreamInvocationStrategy.DEFAULT_CHUNK_SIZE;
+    private int streamWindow = StreamInvocationStrategy.DEFAULT_WINDOW;
+    private long streamTimeout = StreamInvocationStrategy.DEFAULT_TIMEOUT;
     private CuratorFramework curator;
 
     public void setBundleContext(BundleContext bundleContext) {
@@ -49,6 +67,87 @@ public class Activator implements ConnectionStateListener {
         this.timeout = timeout;
     }
 
+    /**
+     * Sets the number of dispatch queues used to send requests, or 0 to use one per core (up to 4)
+     */
+    public void setClientQueueCount(int clientQueueCount) {
+        this.clientQueueCount = clientQueueCount;
+    }
+
+    public void setClientPoolSize(int clientPoolSize) {
+        this.clientPoolSize = clientPoolSize;
+    }
+
+    public void setClientMaxInflight(int clientMaxInflight) {
+        this.clientMaxInflight = clientMaxInflight;
+    }
+
+    /**
+     * Sets the maximum number of bytes of requests or responses sent in one batch, or 0 to disable batching
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setBatchDelay(int batchDelay) {
+        this.batchDelay = batchDelay;
+    }
+
+    public void setCompressThreshold(int compressThreshold) {
+        this.compressThreshold = compressThreshold;
+    }
+
+    /**
+     * Sets the maximum number of bytes a deflated batch received from a peer may inflate to
+     */
+    public void setMaxInflatedSize(int maxInflatedSize) {
+        this.maxInflatedSize = maxInflatedSize;
+    }
+
+    /**
+     * Sets how calls to exported services are run: "service" for a thread pool per service,
+     * "shared" for one pool for all of them or "work-stealing" for one shared work stealing pool
+     */
+    public void setExecutorType(String executorType) {
+        this.executorType = executorType;
+    }
+
+    public void setExecutorThreads(int executorThreads) {
+        this.executorThreads = executorThreads;
+    }
+
+    public void setExecutorQueueSize(int executorQueueSize) {
+        this.executorQueueSize = executorQueueSize;
+    }
+
+    /**
+     * Sets the size of the chunks streamed responses are sent in
+     */
+    public void setStreamChunkSize(int streamChunkSize) {
+        this.streamChunkSize = streamChunkSize;
+    }
+
+    /**
+     * Sets how many chunks of a streamed response may be sent before the client read them
+     */
+    public void setStreamWindow(int streamWindow) {
+        this.streamWindow = streamWindow;
+    }
+
+    /**
+     * Sets how many milliseconds either side of a streamed response waits for the other before giving up
+     */
+    public void setStreamTimeout(long streamTimeout) {
+        this.streamTimeout = streamTimeout;
+    }
+
+    /**
+     * Sets the serialization strategy used by exported services which do not set the fabric.dosgi.serialization property
+     */
+    public void setSerialization(String serialization) {
+        this.serialization = serialization;
+    }
+
     public void destroy() {
         destroyManager();
         curator = null;
@@ -83,6 +182,22 @@ public class Activator implements ConnectionStateListener {
         destroyManager();
         try {
             manager = new Manager(this.bundleContext, curator, uri, exportedAddress, timeout);
+            if (clientQueueCount > 0) {
+                manager.setClientQueueCount(clientQueueCount);
+            }
+            manager.setClientPoolSize(clientPoolSize);
+            manager.setClientMaxInflight(clientMaxInflight);
+            manager.setDefaultSerialization(serialization);
+            manager.setBatchSize(batchSize);
+            manager.setBatchDelay(batchDelay);
+            manager.setCompressThreshold(compressThreshold);
+            manager.setMaxInflatedSize(maxInflatedSize);
+            manager.setExecutorType(executorType);
+            manager.setExecutorThreads(executorThreads);
+            manager.setExecutorQueueSize(executorQueueSize);
+            manager.setStreamChunkSize(streamChunkSize);
+            manager.setStreamWindow(streamWindow);
+            manager.setStreamTimeout(streamTimeout);
             manager.init();
         } catch (Exception e) {
             throw new RuntimeException("Unable to start DOSGi service: " + e.getMessage(), e);
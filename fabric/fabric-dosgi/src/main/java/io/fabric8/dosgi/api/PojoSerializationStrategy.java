@@ -0,0 +1,756 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.dosgi.api;
+
+import io.fabric8.dosgi.util.ClassLoaderObjectInputStream;
+import org.fusesource.hawtbuf.DataByteArrayInputStream;
+import org.fusesource.hawtbuf.DataByteArrayOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.NotSerializableException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * A compact, schema-less serialization strategy for arbitrary POJO arguments and return values.
+ * </p>
+ * <p>
+ * Unlike {@link ObjectSerializationStrategy} there are no class descriptors in the stream: common JDK types
+ * are written with a one byte tag, numbers use variable length encoding and other objects are written
+ * field by field using reflection data which is computed once per class and then cached. Each class name
+ * is only written once per message and shared or cyclic references are written as back references.
+ * Objects which have no no-arg constructor, and exceptions, fall back to Java serialization.
+ * </p>
+ * <p>
+ * As with Java serialization, only {@link Serializable} classes are written or read field by field, and collections
+ * and maps are only recreated as one of the JDK types written element by element, so a message can't make the
+ * receiver instantiate any other class.
+ * </p>
+ * <p>
+ * Both ends of a call must have the same version of the classes, since fields are matched by position.
+ * </p>
+ */
+public class PojoSerializationStrategy implements SerializationStrategy {
+
+    public static final PojoSerializationStrategy INSTANCE = new PojoSerializationStrategy();
+
+    public static final String NAME = "pojo";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final byte NULL = 0;
+    private static final byte REFERENCE = 1;
+    private static final byte TRUE = 2;
+    private static final byte FALSE = 3;
+    private static final byte BYTE = 4;
+    private static final byte SHORT = 5;
+    private static final byte CHAR = 6;
+    private static final byte INT = 7;
+    private static final byte LONG = 8;
+    private static final byte FLOAT = 9;
+    private static final byte DOUBLE = 10;
+    private static final byte STRING = 11;
+    private static final byte BYTES = 12;
+    private static final byte ARRAY = 13;
+    private static final byte ENUM = 14;
+    private static final byte COLLECTION = 15;
+    private static final byte MAP = 16;
+    private static final byte DATE = 17;
+    private static final byte OBJECT = 18;
+    private static final byte SERIALIZED = 19;
+
+    private static final HashMap<String, Class<?>> PRIMITIVES = new HashMap<String, Class<?>>();
+
+    static {
+        for (Class<?> type : new Class<?>[]{boolean.class, byte.class, char.class, short.class, int.class, long.class, float.class, double.class}) {
+            PRIMITIVES.put(type.getName(), type);
+        }
+    }
+
+    /**
+     * The collection and map types which are written element by element; anything else
+     * which is not a POJO goes through Java serialization so its semantics are preserved.
+     */
+    private static final Set<Class<?>> COLLECTION_TYPES = new HashSet<Class<?>>(Arrays.asList(
+            ArrayList.class, LinkedList.class, HashSet.class, LinkedHashSet.class, TreeSet.class,
+            HashMap.class, LinkedHashMap.class, TreeMap.class, ConcurrentHashMap.class));
+
+    /**
+     * The reflection data is kept with each class rather than in a map, so that caching it does not keep
+     * the class loaders of refreshed or uninstalled bundles reachable; the cached fields refer to their class,
+     * so they could not be the values of a map with weak keys either.
+     */
+    private final ClassValue<ClassInfo> classInfos = new ClassValue<ClassInfo>() {
+        @Override
+        protected ClassInfo computeValue(Class<?> type) {
+            return new ClassInfo(type);
+        }
+    };
+
+    private final ThreadLocal<Context> contexts = new ThreadLocal<Context>() {
+        @Override
+        protected Context initialValue() {
+            return new Context();
+        }
+    };
+
+    public String name() {
+        return NAME;
+    }
+
+    public void encodeRequest(ClassLoader loader, Class<?>[] types, Object[] args, DataByteArrayOutputStream target) throws Exception {
+        Context context = acquireContext();
+        try {
+            int length = args != null ? args.length : 0;
+            target.writeVarInt(length);
+            for (int i = 0; i < length; i++) {
+                writeObject(context, target, args[i]);
+            }
+        } finally {
+            releaseContext(context);
+        }
+    }
+
+    public void decodeRequest(ClassLoader loader, Class<?>[] types, DataByteArrayInputStream source, Object[] target) throws Exception {
+        Context context = acquireContext();
+        try {
+            int length = source.readVarInt();
+            for (int i = 0; i < length; i++) {
+                target[i] = readObject(context, loader, source);
+            }
+        } finally {
+            releaseContext(context);
+        }
+    }
+
+    public void encodeResponse(ClassLoader loader, Class<?> type, Object value, Throwable error, DataByteArrayOutputStream target) throws Exception {
+        if (error != null) {
+            target.writeBoolean(true);
+            writeSerialized(target, error);
+        } else {
+            target.writeBoolean(false);
+            Context context = acquireContext();
+            try {
+                writeObject(context, target, value);
+            } finally {
+                releaseContext(context);
+            }
+        }
+    }
+
+    public void decodeResponse(ClassLoader loader, Class<?> type, DataByteArrayInputStream source, AsyncCallback result) throws Exception {
+        if (source.readBoolean()) {
+            result.onFailure((Throwable) readSerialized(loader, source));
+        } else {
+            Object value;
+            Context context = acquireContext();
+            try {
+                value = readObject(context, loader, source);
+            } finally {
+                releaseContext(context);
+            }
+            result.onSuccess(value);
+        }
+    }
+
+    // Encoding
+    //-------------------------------------------------------------------------
+
+    private void writeObject(Context context, DataByteArrayOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+            return;
+        }
+        Class<?> type = value.getClass();
+        if (type == String.class) {
+            out.writeByte(STRING);
+            writeString(out, (String) value);
+        } else if (type == Integer.class) {
+            out.writeByte(INT);
+            writeInt(out, (Integer) value);
+        } else if (type == Long.class) {
+            out.writeByte(LONG);
+            writeLong(out, (Long) value);
+        } else if (type == Boolean.class) {
+            out.writeByte((Boolean) value ? TRUE : FALSE);
+        } else if (type == Double.class) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (type == Float.class) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) value);
+        } else if (type == Short.class) {
+            out.writeByte(SHORT);
+            out.writeShort((Short) value);
+        } else if (type == Byte.class) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte) value);
+        } else if (type == Character.class) {
+            out.writeByte(CHAR);
+            out.writeChar((Character) value);
+        } else if (type == byte[].class) {
+            byte[] bytes = (byte[]) value;
+            out.writeByte(BYTES);
+            out.writeVarInt(bytes.length);
+            out.write(bytes);
+        } else if (type == Date.class) {
+            out.writeByte(DATE);
+            out.writeLong(((Date) value).getTime());
+        } else if (value instanceof Enum) {
+            out.writeByte(ENUM);
+            writeClass(context, out, ((Enum<?>) value).getDeclaringClass());
+            out.writeVarInt(((Enum<?>) value).ordinal());
+        } else if (writeReference(context, out, value)) {
+            // already written
+        } else if (type.isArray()) {
+            out.writeByte(ARRAY);
+            writeClass(context, out, type.getComponentType());
+            writeArray(context, out, value);
+        } else if (isWrittenAsCollection(value)) {
+            Collection<?> collection = (Collection<?>) value;
+            out.writeByte(COLLECTION);
+            writeClass(context, out, type);
+            out.writeVarInt(collection.size());
+            for (Object element : collection) {
+                writeObject(context, out, element);
+            }
+        } else if (isWrittenAsMap(value)) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            out.writeByte(MAP);
+            writeClass(context, out, type);
+            out.writeVarInt(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeObject(context, out, entry.getKey());
+                writeObject(context, out, entry.getValue());
+            }
+        } else {
+            if (!(value instanceof Serializable)) {
+                throw new NotSerializableException(type.getName());
+            }
+            ClassInfo info = getClassInfo(type);
+            if (info.constructor != null && !isJdkType(type)) {
+                out.writeByte(OBJECT);
+                writeClass(context, out, type);
+                writeFields(context, out, info, value);
+            } else {
+                out.writeByte(SERIALIZED);
+                writeSerialized(out, value);
+            }
+        }
+    }
+
+    /**
+     * Writes a back reference if the object has already been written in this message,
+     * otherwise assigns it the next handle so later occurrences can refer to it
+     */
+    private boolean writeReference(Context context, DataByteArrayOutputStream out, Object value) throws IOException {
+        Integer handle = context.handles.get(value);
+        if (handle != null) {
+            out.writeByte(REFERENCE);
+            out.writeVarInt(handle);
+            return true;
+        }
+        context.handles.put(value, context.handles.size());
+        return false;
+    }
+
+    private void writeClass(Context context, DataByteArrayOutputStream out, Class<?> type) throws IOException {
+        Integer id = context.classIds.get(type);
+        if (id != null) {
+            out.writeVarInt(id + 1);
+        } else {
+            context.classIds.put(type, context.classIds.size());
+            out.writeVarInt(0);
+            writeString(out, type.getName());
+        }
+    }
+
+    private void writeArray(Context context, DataByteArrayOutputStream out, Object array) throws IOException {
+        int length = Array.getLength(array);
+        out.writeVarInt(length);
+        Class<?> componentType = array.getClass().getComponentType();
+        if (componentType == int.class) {
+            for (int value : (int[]) array) {
+                writeInt(out, value);
+            }
+        } else if (componentType == long.class) {
+            for (long value : (long[]) array) {
+                writeLong(out, value);
+            }
+        } else if (componentType == double.class) {
+            for (double value : (double[]) array) {
+                out.writeDouble(value);
+            }
+        } else if (componentType == float.class) {
+            for (float value : (float[]) array) {
+                out.writeFloat(value);
+            }
+        } else if (componentType == boolean.class) {
+            for (boolean value : (boolean[]) array) {
+                out.writeBoolean(value);
+            }
+        } else if (componentType == short.class) {
+            for (short value : (short[]) array) {
+                out.writeShort(value);
+            }
+        } else if (componentType == char.class) {
+            for (char value : (char[]) array) {
+                out.writeChar(value);
+            }
+        } else if (componentType == byte.class) {
+            out.write((byte[]) array);
+        } else {
+            for (Object value : (Object[]) array) {
+                writeObject(context, out, value);
+            }
+        }
+    }
+
+    private void writeFields(Context context, DataByteArrayOutputStream out, ClassInfo info, Object value) throws IOException {
+        try {
+            for (Field field : info.fields) {
+                Class<?> type = field.getType();
+                if (!type.isPrimitive()) {
+                    writeObject(context, out, field.get(value));
+                } else if (type == int.class) {
+                    writeInt(out, field.getInt(value));
+                } else if (type == long.class) {
+                    writeLong(out, field.getLong(value));
+                } else if (type == boolean.class) {
+                    out.writeBoolean(field.getBoolean(value));
+                } else if (type == double.class) {
+                    out.writeDouble(field.getDouble(value));
+                } else if (type == float.class) {
+                    out.writeFloat(field.getFloat(value));
+                } else if (type == short.class) {
+                    out.writeShort(field.getShort(value));
+                } else if (type == char.class) {
+                    out.writeChar(field.getChar(value));
+                } else {
+                    out.writeByte(field.getByte(value));
+                }
+            }
+        } catch (IllegalAccessException e) {
+            throw new IOException("Could not serialize " + info.type.getName() + ": " + e, e);
+        }
+    }
+
+    private static void writeSerialized(DataByteArrayOutputStream out, Object value) throws IOException {
+        // length prefixed so that the object stream can't read ahead into the rest of the message
+        DataByteArrayOutputStream buffer = new DataByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(buffer);
+        oos.writeObject(value);
+        oos.flush();
+        out.writeVarInt(buffer.size());
+        out.write(buffer.getData(), 0, buffer.size());
+    }
+
+    private static void writeString(DataByteArrayOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF8);
+        out.writeVarInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeInt(DataByteArrayOutputStream out, int value) throws IOException {
+        // zig zag encoding keeps small negative numbers small
+        out.writeVarInt((value << 1) ^ (value >> 31));
+    }
+
+    private static void writeLong(DataByteArrayOutputStream out, long value) throws IOException {
+        out.writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * JDK classes usually keep their state in transient fields and custom writeObject methods,
+     * so they are only safe to send using their own serialization
+     */
+    private static boolean isJdkType(Class<?> type) {
+        String name = type.getName();
+        return name.startsWith("java.") || name.startsWith("javax.");
+    }
+
+    private static boolean isWrittenAsCollection(Object value) {
+        if (!(value instanceof Collection) || !COLLECTION_TYPES.contains(value.getClass())) {
+            return false;
+        }
+        // a custom comparator can't be recreated at the other end
+        return !(value instanceof SortedSet) || ((SortedSet<?>) value).comparator() == null;
+    }
+
+    private static boolean isWrittenAsMap(Object value) {
+        if (!(value instanceof Map) || !COLLECTION_TYPES.contains(value.getClass())) {
+            return false;
+        }
+        return !(value instanceof SortedMap) || ((SortedMap<?, ?>) value).comparator() == null;
+    }
+
+    // Decoding
+    //-------------------------------------------------------------------------
+
+    @SuppressWarnings("unchecked")
+    private Object readObject(Context context, ClassLoader loader, DataByteArrayInputStream in) throws IOException, ClassNotFoundException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case REFERENCE:
+                return context.objects.get(in.readVarInt());
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case BYTE:
+                return in.readByte();
+            case SHORT:
+                return in.readShort();
+            case CHAR:
+                return in.readChar();
+            case INT:
+                return readInt(in);
+            case LONG:
+                return readLong(in);
+            case FLOAT:
+                return in.readFloat();
+            case DOUBLE:
+                return in.readDouble();
+            case STRING:
+                return readString(in);
+            case BYTES: {
+                byte[] bytes = new byte[in.readVarInt()];
+                in.readFully(bytes);
+                return bytes;
+            }
+            case DATE:
+                return new Date(in.readLong());
+            case ENUM: {
+                Class<?> type = readClass(context, loader, in);
+                if (!type.isEnum()) {
+                    throw new InvalidClassException(type.getName(), "not an enum");
+                }
+                return type.getEnumConstants()[in.readVarInt()];
+            }
+            case ARRAY: {
+                Class<?> componentType = readClass(context, loader, in);
+                Object array = Array.newInstance(componentType, in.readVarInt());
+                context.objects.add(array);
+                readArray(context, loader, in, array);
+                return array;
+            }
+            case COLLECTION: {
+                Collection<Object> collection = (Collection<Object>) newInstance(getCollectionInfo(readClass(context, loader, in), Collection.class));
+                context.objects.add(collection);
+                int size = in.readVarInt();
+                for (int i = 0; i < size; i++) {
+                    collection.add(readObject(context, loader, in));
+                }
+                return collection;
+            }
+            case MAP: {
+                Map<Object, Object> map = (Map<Object, Object>) newInstance(getCollectionInfo(readClass(context, loader, in), Map.class));
+                context.objects.add(map);
+                int size = in.readVarInt();
+                for (int i = 0; i < size; i++) {
+                    Object key = readObject(context, loader, in);
+                    map.put(key, readObject(context, loader, in));
+                }
+                return map;
+            }
+            case OBJECT: {
+                ClassInfo info = getPojoInfo(readClass(context, loader, in));
+                Object value = newInstance(info);
+                // registered before the fields are read so cyclic references resolve
+                context.objects.add(value);
+                readFields(context, loader, in, info, value);
+                return value;
+            }
+            case SERIALIZED: {
+                Object value = readSerialized(loader, in);
+                context.objects.add(value);
+                return value;
+            }
+            default:
+                throw new StreamCorruptedException("Unexpected type tag: " + tag);
+        }
+    }
+
+    private Class<?> readClass(Context context, ClassLoader loader, DataByteArrayInputStream in) throws IOException, ClassNotFoundException {
+        int id = in.readVarInt();
+        if (id > 0) {
+            return context.classes.get(id - 1);
+        }
+        String name = readString(in);
+        Class<?> type = PRIMITIVES.get(name);
+        if (type == null) {
+            type = Class.forName(name, false, loader != null ? loader : getClass().getClassLoader());
+        }
+        context.classes.add(type);
+        return type;
+    }
+
+    private void readArray(Context context, ClassLoader loader, DataByteArrayInputStream in, Object array) throws IOException, ClassNotFoundException {
+        Class<?> componentType = array.getClass().getComponentType();
+        if (componentType == int.class) {
+            int[] values = (int[]) array;
+            for (int i = 0; i < values.length; i++) {
+                values[i] = readInt(in);
+            }
+        } else if (componentType == long.class) {
+            long[] values = (long[]) array;
+            for (int i = 0; i < values.length; i++) {
+                values[i] = readLong(in);
+            }
+        } else if (componentType == double.class) {
+            double[] values = (double[]) array;
+            for (int i = 0; i < values.length; i++) {
+                values[i] = in.readDouble();
+            }
+        } else if (componentType == float.class) {
+            float[] values = (float[]) array;
+            for (int i = 0; i < values.length; i++) {
+                values[i] = in.readFloat();
+            }
+        } else if (componentType == boolean.class) {
+            boolean[] values = (boolean[]) array;
+            for (int i = 0; i < values.length; i++) {
+                values[i] = in.readBoolean();
+            }
+        } else if (componentType == short.class) {
+            short[] values = (short[]) array;
+            for (int i = 0; i < values.length; i++) {
+                values[i] = in.readShort();
+            }
+        } else if (componentType == char.class) {
+            char[] values = (char[]) array;
+            for (int i = 0; i < values.length; i++) {
+                values[i] = in.readChar();
+            }
+        } else if (componentType == byte.class) {
+            in.readFully((byte[]) array);
+        } else {
+            Object[] values = (Object[]) array;
+            for (int i = 0; i < values.length; i++) {
+                values[i] = readObject(context, loader, in);
+            }
+        }
+    }
+
+    private void readFields(Context context, ClassLoader loader, DataByteArrayInputStream in, ClassInfo info, Object value) throws IOException, ClassNotFoundException {
+        try {
+            for (Field field : info.fields) {
+                Class<?> type = field.getType();
+                if (!type.isPrimitive()) {
+                    field.set(value, readObject(context, loader, in));
+                } else if (type == int.class) {
+                    field.setInt(value, readInt(in));
+                } else if (type == long.class) {
+                    field.setLong(value, readLong(in));
+                } else if (type == boolean.class) {
+                    field.setBoolean(value, in.readBoolean());
+                } else if (type == double.class) {
+                    field.setDouble(value, in.readDouble());
+                } else if (type == float.class) {
+                    field.setFloat(value, in.readFloat());
+                } else if (type == short.class) {
+                    field.setShort(value, in.readShort());
+                } else if (type == char.class) {
+                    field.setChar(value, in.readChar());
+                } else {
+                    field.setByte(value, in.readByte());
+                }
+            }
+        } catch (IllegalAccessException e) {
+            throw new IOException("Could not deserialize " + info.type.getName() + ": " + e, e);
+        }
+    }
+
+    /**
+     * Returns the reflection data of a class received as a collection or map, which must be one of the
+     * types written element by element
+     */
+    private ClassInfo getCollectionInfo(Class<?> type, Class<?> kind) throws InvalidClassException {
+        if (!COLLECTION_TYPES.contains(type) || !kind.isAssignableFrom(type)) {
+            throw new InvalidClassException(type.getName(), "not a supported " + kind.getSimpleName() + " type");
+        }
+        return getClassInfo(type);
+    }
+
+    /**
+     * Returns the reflection data of a class received as an object written field by field, which must be
+     * a Serializable class that is not part of the JDK
+     */
+    private ClassInfo getPojoInfo(Class<?> type) throws InvalidClassException {
+        if (!Serializable.class.isAssignableFrom(type) || isJdkType(type)) {
+            throw new InvalidClassException(type.getName(), "not a Serializable POJO");
+        }
+        return getClassInfo(type);
+    }
+
+    private static Object newInstance(ClassInfo info) throws IOException {
+        if (info.constructor == null) {
+            throw new StreamCorruptedException(info.type.getName() + " has no no-arg constructor");
+        }
+        try {
+            return info.constructor.newInstance();
+        } catch (Exception e) {
+            throw new IOException("Could not create an instance of " + info.type.getName() + ": " + e, e);
+        }
+    }
+
+    private static Object readSerialized(ClassLoader loader, DataByteArrayInputStream in) throws IOException, ClassNotFoundException {
+        byte[] bytes = new byte[in.readVarInt()];
+        in.readFully(bytes);
+        ClassLoaderObjectInputStream ois = new ClassLoaderObjectInputStream(new ByteArrayInputStream(bytes));
+        ois.setClassLoader(loader);
+        return ois.readObject();
+    }
+
+    private static String readString(DataByteArrayInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readVarInt()];
+        in.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    private static int readInt(DataByteArrayInputStream in) throws IOException {
+        int value = in.readVarInt();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long readLong(DataByteArrayInputStream in) throws IOException {
+        long value = in.readVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    // Reflection data and per message state
+    //-------------------------------------------------------------------------
+
+    private ClassInfo getClassInfo(Class<?> type) {
+        return classInfos.get(type);
+    }
+
+    private Context acquireContext() {
+        Context context = contexts.get();
+        if (context.inUse) {
+            // a nested call on the same thread, lets not clobber the outer message's state
+            context = new Context();
+        }
+        context.inUse = true;
+        return context;
+    }
+
+    private static void releaseContext(Context context) {
+        context.clear();
+        context.inUse = false;
+    }
+
+    static final class ClassInfo {
+        final Class<?> type;
+        final Constructor<?> constructor;
+        final Field[] fields;
+
+        ClassInfo(Class<?> type) {
+            this.type = type;
+            Constructor<?> ctor = null;
+            if (!type.isInterface() && !Modifier.isAbstract(type.getModifiers()) && !Throwable.class.isAssignableFrom(type)
+                    && (!(type.isMemberClass() || type.isLocalClass() || type.isAnonymousClass()) || Modifier.isStatic(type.getModifiers()))) {
+                try {
+                    ctor = type.getDeclaredConstructor();
+                    ctor.setAccessible(true);
+                } catch (Exception e) {
+                    ctor = null;
+                }
+            }
+            this.constructor = ctor;
+            if (ctor == null || isJdkType(type)) {
+                // only ever created through the constructor, or sent through java serialization
+                this.fields = new Field[0];
+                return;
+            }
+
+            // super class fields first, then each class's fields in name order so both ends agree
+            List<Field> answer = new ArrayList<Field>();
+            List<Class<?>> hierarchy = new ArrayList<Class<?>>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                hierarchy.add(0, c);
+            }
+            for (Class<?> c : hierarchy) {
+                List<Field> declared = new ArrayList<Field>();
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+                        declared.add(field);
+                    }
+                }
+                Collections.sort(declared, new Comparator<Field>() {
+                    public int compare(Field o1, Field o2) {
+                        return o1.getName().compareTo(o2.getName());
+                    }
+                });
+                answer.addAll(declared);
+            }
+            for (Field field : answer) {
+                field.setAccessible(true);
+            }
+            this.fields = answer.toArray(new Field[answer.size()]);
+        }
+    }
+
+    /**
+     * The class and object handles of the message being encoded or decoded; reused across messages on the same thread
+     */
+    static final class Context {
+        final IdentityHashMap<Object, Integer> handles = new IdentityHashMap<Object, Integer>();
+        final IdentityHashMap<Class<?>, Integer> classIds = new IdentityHashMap<Class<?>, Integer>();
+        final ArrayList<Object> objects = new ArrayList<Object>();
+        final ArrayList<Class<?>> classes = new ArrayList<Class<?>>();
+        boolean inUse;
+
+        void clear() {
+            handles.clear();
+            classIds.clear();
+            objects.clear();
+            classes.clear();
+        }
+    }
+}
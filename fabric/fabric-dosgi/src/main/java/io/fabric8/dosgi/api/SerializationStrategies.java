@@ -0,0 +1,50 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.dosgi.api;
+
+import java.util.Map;
+
+/**
+ * Looks up the serialization strategy named by an exported service or an imported endpoint.
+ */
+public final class SerializationStrategies {
+
+    private SerializationStrategies() {
+    }
+
+    /**
+     * Returns the strategy registered under the given name, falling back to the built in strategies
+     * when none has been registered and to {@link ObjectSerializationStrategy} when no name is given.
+     *
+     * @throws IllegalArgumentException if there is no strategy with that name
+     */
+    public static SerializationStrategy get(Map<String, SerializationStrategy> strategies, String name) {
+        if( name==null || name.length()==0 ) {
+            return ObjectSerializationStrategy.INSTANCE;
+        }
+        SerializationStrategy rc = strategies.get(name);
+        if( rc==null ) {
+            if( PojoSerializationStrategy.NAME.equals(name) ) {
+                rc = PojoSerializationStrategy.INSTANCE;
+            } else if( ObjectSerializationStrategy.INSTANCE.name().equals(name) ) {
+                rc = ObjectSerializationStrategy.INSTANCE;
+            } else {
+                throw new IllegalArgumentException("Could not find the serialization strategy named: "+name);
+            }
+        }
+        return rc;
+    }
+}
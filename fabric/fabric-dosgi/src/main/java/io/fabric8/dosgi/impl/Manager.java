@@ -22,13 +22,18 @@ import org.apache.curator.framework.recipes.cache.TreeCache;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
 import io.fabric8.dosgi.api.Dispatched;
+import io.fabric8.dosgi.api.ObjectSerializationStrategy;
+import io.fabric8.dosgi.api.PojoSerializationStrategy;
 import io.fabric8.dosgi.api.SerializationStrategy;
 import io.fabric8.dosgi.capset.CapabilitySet;
 import io.fabric8.dosgi.capset.SimpleFilter;
 import io.fabric8.dosgi.io.ClientInvoker;
 import io.fabric8.dosgi.io.ServerInvoker;
 import io.fabric8.dosgi.tcp.ClientInvokerImpl;
+import io.fabric8.dosgi.tcp.LengthPrefixedCodec;
 import io.fabric8.dosgi.tcp.ServerInvokerImpl;
+import io.fabric8.dosgi.tcp.StreamInvocationStrategy;
+import io.fabric8.dosgi.tcp.TransportPool;
 import io.fabric8.dosgi.util.AriesFrameworkUtil;
 import io.fabric8.dosgi.util.Utils;
 import io.fabric8.dosgi.util.UuidGenerator;
@@ -83,6 +88,28 @@ public class Manager implements ServiceListener, ListenerHook, EventHook, FindHo
     private static final Logger LOGGER = LoggerFactory.getLogger(Manager.class);
     private static final String DOSGI_REGISTRY = "/fabric/dosgi";
     private static final String FABRIC_ADDRESS = "fabric.address";
+    /**
+     * The name of the serialization strategy used by an exported service, set on the service to override
+     * the default and passed on to the importing side through the endpoint description.
+     */
+    public static final String FABRIC_SERIALIZATION = "fabric.dosgi.serialization";
+    /**
+     * Set on the endpoints of servers which understand the hello frame used to negotiate batching and
+     * compression; clients only send it to those, as older servers would fail on it.
+     */
+    public static final String FABRIC_NEGOTIATION = "fabric.dosgi.negotiation";
+    /**
+     * Set on an exported service to override how its calls are run: service, shared or work-stealing
+     */
+    public static final String FABRIC_EXECUTOR_TYPE = "fabric.dosgi.executorType";
+    /**
+     * Set on an exported service to override the number of threads running its calls
+     */
+    public static final String FABRIC_EXECUTOR_THREADS = "fabric.dosgi.executorThreads";
+    /**
+     * Set on an exported service to override how many of its calls may wait for a thread, 0 for no limit
+     */
+    public static final String FABRIC_EXECUTOR_QUEUE_SIZE = "fabric.dosgi.executorQueueSize";
 
     private final BundleContext bundleContext;
 
@@ -121,6 +148,34 @@ public class Manager implements ServiceListener, ListenerHook, EventHook, FindHo
 
     private final long timeout;
 
+    private int clientQueueCount = ClientInvokerImpl.DEFAULT_QUEUE_COUNT;
+
+    private int clientPoolSize = TransportPool.DEFAULT_POOL_SIZE;
+
+    private int clientMaxInflight;
+
+    private int batchSize;
+
+    private int batchDelay;
+
+    private int compressThreshold;
+
+    private int maxInflatedSize = LengthPrefixedCodec.DEFAULT_MAX_INFLATED_SIZE;
+
+    private String executorType = ServerInvokerImpl.EXECUTOR_SERVICE;
+
+    private int executorThreads = ServerInvokerImpl.DEFAULT_EXECUTOR_THREADS;
+
+    private int executorQueueSize = ServerInvokerImpl.DEFAULT_EXECUTOR_QUEUE_SIZE;
+
+    private int streamChunkSize = StreamInvocationStrategy.DEFAULT_CHUNK_SIZE;
+
+    private int streamWindow = StreamInvocationStrategy.DEFAULT_WINDOW;
+
+    private long streamTimeout = StreamInvocationStrategy.DEFAULT_TIMEOUT;
+
+    private String defaultSerialization = ObjectSerializationStrategy.INSTANCE.name();
+
     private ClientInvoker client;
 
     private ServerInvoker server;
@@ -135,6 +190,10 @@ public class Manager implements ServiceListener, ListenerHook, EventHook, FindHo
         this.exportedServices = new ConcurrentHashMap<ServiceReference, ExportRegistration>();
         this.listeners = new ConcurrentHashMap<ListenerInfo, SimpleFilter>();
         this.serializationStrategies = new ConcurrentHashMap<String, SerializationStrategy>();
+        // protobuf is left out as hawtbuf-proto is an optional dependency
+        for (SerializationStrategy strategy : new SerializationStrategy[] { ObjectSerializationStrategy.INSTANCE, PojoSerializationStrategy.INSTANCE }) {
+            this.serializationStrategies.put(strategy.name(), strategy);
+        }
         this.remoteEndpoints = new CapabilitySet<EndpointDescription>(
                 Arrays.asList(Constants.OBJECTCLASS, ENDPOINT_FRAMEWORK_UUID), false);
         this.bundleContext = context;
@@ -146,8 +205,28 @@ public class Manager implements ServiceListener, ListenerHook, EventHook, FindHo
 
     public void init() throws Exception {
         // Create client and server
-        this.client = new ClientInvokerImpl(queue, timeout, serializationStrategies);
-        this.server = new ServerInvokerImpl(uri, queue, serializationStrategies);
+        ClientInvokerImpl clientInvoker = new ClientInvokerImpl(queue, timeout, serializationStrategies);
+        clientInvoker.setQueueCount(clientQueueCount);
+        clientInvoker.setPoolSize(clientPoolSize);
+        clientInvoker.setMaxInflight(clientMaxInflight);
+        clientInvoker.setBatchSize(batchSize);
+        clientInvoker.setBatchDelay(batchDelay);
+        clientInvoker.setCompressThreshold(compressThreshold);
+        clientInvoker.setMaxInflatedSize(maxInflatedSize);
+        clientInvoker.setStreamTimeout(streamTimeout);
+        this.client = clientInvoker;
+        ServerInvokerImpl serverInvoker = new ServerInvokerImpl(uri, queue, serializationStrategies);
+        serverInvoker.setBatchSize(batchSize);
+        serverInvoker.setBatchDelay(batchDelay);
+        serverInvoker.setCompressThreshold(compressThreshold);
+        serverInvoker.setMaxInflatedSize(maxInflatedSize);
+        serverInvoker.setExecutorType(executorType);
+        serverInvoker.setExecutorThreads(executorThreads);
+        serverInvoker.setExecutorQueueSize(executorQueueSize);
+        serverInvoker.setStreamChunkSize(streamChunkSize);
+        serverInvoker.setStreamWindow(streamWindow);
+        serverInvoker.setStreamTimeout(streamTimeout);
+        this.server = serverInvoker;
         this.client.start();
         this.server.start();
         // ZooKeeper tracking
@@ -176,6 +255,67 @@ public class Manager implements ServiceListener, ListenerHook, EventHook, FindHo
         }
     }
 
+    public void setClientQueueCount(int clientQueueCount) {
+        this.clientQueueCount = clientQueueCount;
+    }
+
+    public void setClientPoolSize(int clientPoolSize) {
+        this.clientPoolSize = clientPoolSize;
+    }
+
+    public void setClientMaxInflight(int clientMaxInflight) {
+        this.clientMaxInflight = clientMaxInflight;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setBatchDelay(int batchDelay) {
+        this.batchDelay = batchDelay;
+    }
+
+    public void setCompressThreshold(int compressThreshold) {
+        this.compressThreshold = compressThreshold;
+    }
+
+    public void setMaxInflatedSize(int maxInflatedSize) {
+        this.maxInflatedSize = maxInflatedSize;
+    }
+
+    public void setExecutorType(String executorType) {
+        this.executorType = executorType;
+    }
+
+    public void setExecutorThreads(int executorThreads) {
+        this.executorThreads = executorThreads;
+    }
+
+    public void setExecutorQueueSize(int executorQueueSize) {
+        this.executorQueueSize = executorQueueSize;
+    }
+
+    public void setStreamChunkSize(int streamChunkSize) {
+        this.streamChunkSize = streamChunkSize;
+    }
+
+    public void setStreamWindow(int streamWindow) {
+        this.streamWindow = streamWindow;
+    }
+
+    public void setStreamTimeout(long streamTimeout) {
+        this.streamTimeout = streamTimeout;
+    }
+
+    public void setDefaultSerialization(String defaultSerialization) {
+        if (defaultSerialization != null && defaultSerialization.length() > 0) {
+            if (!serializationStrategies.containsKey(defaultSerialization)) {
+                throw new IllegalArgumentException("Could not find the serialization strategy named: " + defaultSerialization);
+            }
+            this.defaultSerialization = defaultSerialization;
+        }
+    }
+
     public void destroy() throws IOException {
         for (Map<Long, ImportRegistration> registrations : this.importedServices.values()) {
             for (ImportRegistration registration : registrations.values()) {
@@ -369,6 +509,12 @@ public class Manager implements ServiceListener, ListenerHook, EventHook, FindHo
         properties.put(SERVICE_IMPORTED_CONFIGS, new String[] { CONFIG });
         properties.put(ENDPOINT_FRAMEWORK_UUID, this.uuid);
         properties.put(FABRIC_ADDRESS, fabricAddress);
+        Object serialization = properties.get(FABRIC_SERIALIZATION);
+        if (serialization == null) {
+            serialization = defaultSerialization;
+            properties.put(FABRIC_SERIALIZATION, serialization);
+        }
+        properties.put(FABRIC_NEGOTIATION, Boolean.TRUE.toString());
 
         String uuid = UuidGenerator.getUUID();
         properties.put(ENDPOINT_ID, uuid);
@@ -384,7 +530,10 @@ public class Manager implements ServiceListener, ListenerHook, EventHook, FindHo
             public void unget() {
                 reference.getBundle().getBundleContext().ungetService(reference);
             }
-        }, AriesFrameworkUtil.getClassLoader(reference.getBundle()));
+        }, AriesFrameworkUtil.getClassLoader(reference.getBundle()), serialization.toString(),
+                stringValue(properties.get(FABRIC_EXECUTOR_TYPE)),
+                integerValue(properties.get(FABRIC_EXECUTOR_THREADS)),
+                integerValue(properties.get(FABRIC_EXECUTOR_QUEUE_SIZE)));
 
         String descStr = Utils.getEndpointDescriptionXML(description);
         // Publish in ZooKeeper
@@ -393,6 +542,20 @@ public class Manager implements ServiceListener, ListenerHook, EventHook, FindHo
         return new ExportRegistration(reference, description, nodePath);
     }
 
+    private static String stringValue(Object value) {
+        return value != null ? value.toString() : null;
+    }
+
+    private static Integer integerValue(Object value) {
+        if (value == null) {
+            return null;
+        } else if (value instanceof Number) {
+            return ((Number) value).intValue();
+        } else {
+            return Integer.valueOf(value.toString().trim());
+        }
+    }
+
     //
     // Import logic
     //
@@ -480,7 +643,12 @@ public class Manager implements ServiceListener, ListenerHook, EventHook, FindHo
                 }
             }
             String address = (String) description.getProperties().get(FABRIC_ADDRESS);
-            InvocationHandler handler = client.getProxy(address, description.getId(), classLoader);
+            // endpoints published without the property come from older exporters which always used java serialization
+            String serialization = (String) description.getProperties().get(FABRIC_SERIALIZATION);
+            if (Boolean.parseBoolean(String.valueOf(description.getProperties().get(FABRIC_NEGOTIATION)))) {
+                client.setNegotiationSupported(address);
+            }
+            InvocationHandler handler = client.getProxy(address, description.getId(), classLoader, serialization);
             return Proxy.newProxyInstance(classLoader, interfaces.toArray(new Class[interfaces.size()]), handler);
         }
 
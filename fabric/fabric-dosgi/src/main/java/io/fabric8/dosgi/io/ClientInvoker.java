@@ -21,4 +21,16 @@ public interface ClientInvoker extends Service {
 
     InvocationHandler getProxy(String address, String service, ClassLoader classLoader);
 
+    /**
+     * Creates a proxy handler which uses the named serialization strategy for the methods
+     * which do not select one with a {@link io.fabric8.dosgi.api.Serialization} annotation.
+     */
+    InvocationHandler getProxy(String address, String service, ClassLoader classLoader, String serialization);
+
+    /**
+     * Records that the server at the given address has advertised that it understands the hello frame
+     * used to negotiate batching and compression. Connections to other addresses never send it.
+     */
+    void setNegotiationSupported(String address);
+
 }
@@ -21,6 +21,22 @@ public interface ServerInvoker extends Service {
 
     void registerService(String id, ServiceFactory service, ClassLoader classLoader);
 
+    /**
+     * Registers a service which uses the named serialization strategy for the methods
+     * which do not select one with a {@link io.fabric8.dosgi.api.Serialization} annotation.
+     */
+    void registerService(String id, ServiceFactory service, ClassLoader classLoader, String serialization);
+
+    /**
+     * Registers a service whose calls are run as configured for it rather than with the invoker's defaults.
+     *
+     * @param executorType      how the calls are run, or null for the default
+     * @param executorThreads   the number of threads running the calls, or null for the default
+     * @param executorQueueSize how many calls may wait for a thread, or null for the default
+     */
+    void registerService(String id, ServiceFactory service, ClassLoader classLoader, String serialization,
+                         String executorType, Integer executorThreads, Integer executorQueueSize);
+
     void unregisterService(String id);
 
 
@@ -125,46 +125,47 @@ public class AsyncInvocationStrategy implements InvocationStrategy {
 
         private final ClassLoader loader;
         private final Method method;
-        private final DataByteArrayOutputStream responseStream;
-        private final Runnable onComplete;
+        private final ResponseChannel response;
         private final SerializationStrategy serializationStrategy;
-        private final int pos;
         // Used to protect against sending multiple responses.
         final AtomicBoolean responded = new AtomicBoolean(false);
 
-        public ServiceResponse(ClassLoader loader, Method method, DataByteArrayOutputStream responseStream, Runnable onComplete, SerializationStrategy serializationStrategy) {
+        public ServiceResponse(ClassLoader loader, Method method, ResponseChannel response, SerializationStrategy serializationStrategy) {
             this.loader = loader;
             this.method = method;
-            this.responseStream = responseStream;
-            this.onComplete = onComplete;
+            this.response = response;
             this.serializationStrategy = serializationStrategy;
-            pos = responseStream.position();
         }
 
         public void send(Throwable error, Object value) {
             if( responded.compareAndSet(false, true) ) {
                 Class resultType = getResultType(method);
+                DataByteArrayOutputStream responseStream = null;
                 try {
+                    responseStream = response.newFrame();
                     serializationStrategy.encodeResponse(loader, resultType, value, error, responseStream);
                 } catch (Exception e) {
-                    // we failed to encode the response.. reposition and write that error.
+                    // we failed to encode the response.. start over and write that error.
                     try {
-                        responseStream.position(pos);
+                        responseStream = response.newFrame();
                         serializationStrategy.encodeResponse(loader, resultType, value, new RemoteException(e.toString()), responseStream);
                     } catch (Exception unexpected) {
                         unexpected.printStackTrace();
                     }
                 } finally {
-                    onComplete.run();
+                    if (responseStream != null) {
+                        response.send(responseStream);
+                    }
+                    response.close();
                 }
             }
         }
 
 
     }
-    public void service(SerializationStrategy serializationStrategy, ClassLoader loader, Method method, Object target, DataByteArrayInputStream requestStream, final DataByteArrayOutputStream responseStream, final Runnable onComplete) {
+    public void service(SerializationStrategy serializationStrategy, ClassLoader loader, Method method, Object target, DataByteArrayInputStream requestStream, ResponseChannel response) {
 
-        final ServiceResponse helper = new ServiceResponse(loader, method, responseStream, onComplete, serializationStrategy);
+        final ServiceResponse helper = new ServiceResponse(loader, method, response, serializationStrategy);
         try {
 
             Object[] new_args = new Object[method.getParameterTypes().length];
@@ -185,4 +186,8 @@ public class AsyncInvocationStrategy implements InvocationStrategy {
 
     }
 
+    public boolean isFlowControlled() {
+        return false;
+    }
+
 }
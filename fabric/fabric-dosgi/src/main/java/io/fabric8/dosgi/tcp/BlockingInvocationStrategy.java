@@ -85,9 +85,9 @@ public class BlockingInvocationStrategy implements InvocationStrategy {
         return new BlockingResponseFuture(loader, method, serializationStrategy);
     }
 
-    public void service(SerializationStrategy serializationStrategy, ClassLoader loader, Method method, Object target, DataByteArrayInputStream requestStream, DataByteArrayOutputStream responseStream, Runnable onComplete) {
+    public void service(SerializationStrategy serializationStrategy, ClassLoader loader, Method method, Object target, DataByteArrayInputStream requestStream, ResponseChannel response) {
 
-        int pos = responseStream.position();
+        DataByteArrayOutputStream responseStream = null;
         try {
 
             Object value = null;
@@ -106,21 +106,29 @@ public class BlockingInvocationStrategy implements InvocationStrategy {
                 }
             }
 
+            responseStream = response.newFrame();
             serializationStrategy.encodeResponse(loader, method.getReturnType(), value, error, responseStream);
 
         } catch(Exception e) {
 
-            // we failed to encode the response.. reposition and write that error.
+            // we failed to encode the response.. start over and write that error.
             try {
-                responseStream.position(pos);
+                responseStream = response.newFrame();
                 serializationStrategy.encodeResponse(loader, method.getReturnType(), null, new RemoteException(e.toString()), responseStream);
             } catch (Exception unexpected) {
                 unexpected.printStackTrace();
             }
 
         } finally {
-            onComplete.run();
+            if (responseStream != null) {
+                response.send(responseStream);
+            }
+            response.close();
         }
     }
 
+    public boolean isFlowControlled() {
+        return false;
+    }
+
 }
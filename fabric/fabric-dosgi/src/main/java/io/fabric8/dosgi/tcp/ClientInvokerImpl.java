@@ -18,9 +18,15 @@ package io.fabric8.dosgi.tcp;
 import java.io.IOException;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -29,6 +35,7 @@ import java.util.concurrent.atomic.AtomicLong;
 import io.fabric8.dosgi.api.Dispatched;
 import io.fabric8.dosgi.api.ObjectSerializationStrategy;
 import io.fabric8.dosgi.api.Serialization;
+import io.fabric8.dosgi.api.SerializationStrategies;
 import io.fabric8.dosgi.api.SerializationStrategy;
 import io.fabric8.dosgi.io.ClientInvoker;
 import io.fabric8.dosgi.io.ProtocolCodec;
@@ -38,6 +45,7 @@ import org.fusesource.hawtbuf.BufferEditor;
 import org.fusesource.hawtbuf.DataByteArrayInputStream;
 import org.fusesource.hawtbuf.DataByteArrayOutputStream;
 import org.fusesource.hawtbuf.UTF8Buffer;
+import org.fusesource.hawtdispatch.Dispatch;
 import org.fusesource.hawtdispatch.DispatchQueue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,6 +54,11 @@ public class ClientInvokerImpl implements ClientInvoker, Dispatched {
 
     public static final long DEFAULT_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
 
+    /**
+     * By default requests are spread over one dispatch queue per core, up to 4 queues
+     */
+    public static final int DEFAULT_QUEUE_COUNT = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
     protected static final Logger LOGGER = LoggerFactory.getLogger(ClientInvokerImpl.class);
 
     private final static HashMap<Class,String> CLASS_TO_PRIMITIVE = new HashMap<Class, String>(8, 1.0F);
@@ -63,11 +76,23 @@ public class ClientInvokerImpl implements ClientInvoker, Dispatched {
 
     protected final AtomicLong correlationGenerator = new AtomicLong();
     protected final DispatchQueue queue;
-    protected final Map<String, TransportPool> transports = new HashMap<String, TransportPool>();
+    protected final ConcurrentMap<String, TransportPool[]> transports = new ConcurrentHashMap<String, TransportPool[]>();
     protected final AtomicBoolean running = new AtomicBoolean(false);
-    protected final Map<Long, ResponseFuture> requests = new HashMap<Long, ResponseFuture>();
+    protected final ConcurrentMap<Long, ResponseFuture> requests = new ConcurrentHashMap<Long, ResponseFuture>();
     protected final long timeout;
     protected final Map<String, SerializationStrategy> serializationStrategies;
+    protected final AtomicInteger nextPool = new AtomicInteger();
+    protected final Set<String> negotiatingAddresses = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    protected int queueCount = DEFAULT_QUEUE_COUNT;
+    protected int poolSize = TransportPool.DEFAULT_POOL_SIZE;
+    protected int maxInflight;
+    protected int batchSize;
+    protected int batchDelay;
+    protected int compressThreshold;
+    protected int maxInflatedSize = LengthPrefixedCodec.DEFAULT_MAX_INFLATED_SIZE;
+    protected long streamTimeout = StreamInvocationStrategy.DEFAULT_TIMEOUT;
+    protected DispatchQueue[] queues;
 
     public ClientInvokerImpl(DispatchQueue queue, Map<String, SerializationStrategy> serializationStrategies) {
         this(queue, DEFAULT_TIMEOUT, serializationStrategies);
@@ -88,6 +113,12 @@ public class ClientInvokerImpl implements ClientInvoker, Dispatched {
     }
 
     public void start(Runnable onComplete) throws Exception {
+        // the first queue is the one we were given, the others are created to share the load
+        queues = new DispatchQueue[Math.max(1, queueCount)];
+        queues[0] = queue;
+        for (int i = 1; i < queues.length; i++) {
+            queues[i] = Dispatch.createQueue("fabric-dosgi-client-" + i);
+        }
         running.set(true);
         if (onComplete != null) {
             onComplete.run();
@@ -100,23 +131,25 @@ public class ClientInvokerImpl implements ClientInvoker, Dispatched {
 
     public void stop(final Runnable onComplete) {
         if (running.compareAndSet(true, false)) {
-            queue().execute(new Runnable() {
+            ArrayList<TransportPool> pools = new ArrayList<TransportPool>();
+            for (TransportPool[] addressPools : transports.values()) {
+                pools.addAll(Arrays.asList(addressPools));
+            }
+            transports.clear();
+            final AtomicInteger latch = new AtomicInteger(pools.size() + 1);
+            final Runnable countDown = new Runnable() {
                 public void run() {
-                    final AtomicInteger latch = new AtomicInteger(transports.size());
-                    final Runnable countDown = new Runnable() {
-                        public void run() {
-                            if (latch.decrementAndGet() == 0) {
-                                if (onComplete != null) {
-                                    onComplete.run();
-                                }
-                            }
+                    if (latch.decrementAndGet() == 0) {
+                        if (onComplete != null) {
+                            onComplete.run();
                         }
-                    };
-                    for (TransportPool pool : transports.values()) {
-                        pool.stop(countDown);
                     }
                 }
-            });
+            };
+            for (TransportPool pool : pools) {
+                pool.stop(countDown);
+            }
+            countDown.run();
         } else {
             if (onComplete != null) {
                 onComplete.run();
@@ -125,7 +158,19 @@ public class ClientInvokerImpl implements ClientInvoker, Dispatched {
     }
 
     public InvocationHandler getProxy(String address, String service, ClassLoader classLoader) {
-        return new ProxyInvocationHandler(address, service, classLoader);
+        return getProxy(address, service, classLoader, null);
+    }
+
+    public InvocationHandler getProxy(String address, String service, ClassLoader classLoader, String serialization) {
+        return new ProxyInvocationHandler(address, service, classLoader, getSerializationStrategy(serialization));
+    }
+
+    public void setNegotiationSupported(String address) {
+        negotiatingAddresses.add(address);
+    }
+
+    protected SerializationStrategy getSerializationStrategy(String name) {
+        return SerializationStrategies.get(serializationStrategies, name);
     }
 
     protected void onCommand(TransportPool pool, Object data) {
@@ -133,10 +178,18 @@ public class ClientInvokerImpl implements ClientInvoker, Dispatched {
             DataByteArrayInputStream bais = new DataByteArrayInputStream( (Buffer) data);
             int size = bais.readInt();
             long correlation = bais.readVarLong();
-            pool.onDone(correlation);
-            ResponseFuture response = requests.remove(correlation);
+            ResponseFuture response = requests.get(correlation);
+            // a streamed response spans several frames, the call is only done with the last one
+            if( !(response instanceof StreamInvocationStrategy.StreamResponseFuture) ) {
+                pool.onDone(correlation);
+                requests.remove(correlation);
+            }
             if( response!=null ) {
                 response.set(bais);
+                if( response instanceof StreamInvocationStrategy.StreamResponseFuture && ((StreamInvocationStrategy.StreamResponseFuture) response).isComplete() ) {
+                    pool.onDone(correlation);
+                    requests.remove(correlation);
+                }
             }
         } catch (Exception e) {
             LOGGER.info("Error while reading response", e);
@@ -144,6 +197,10 @@ public class ClientInvokerImpl implements ClientInvoker, Dispatched {
     }
 
     protected void onFailure(Object id, Throwable throwable) {
+        if( id==null ) {
+            // a credit frame, nobody is waiting for it
+            return;
+        }
         ResponseFuture response = requests.remove(id);
         if( response!=null ) {
             response.fail(throwable);
@@ -183,19 +240,20 @@ public class ClientInvokerImpl implements ClientInvoker, Dispatched {
             Buffer signature = new UTF8Buffer(sb.toString()).buffer();
 
             Serialization annotation = method.getAnnotation(Serialization.class);
-            SerializationStrategy serializationStrategy;
+            // without an annotation the strategy of the proxy the call goes through is used
+            SerializationStrategy serializationStrategy = null;
             if( annotation!=null ) {
                 serializationStrategy = serializationStrategies.get(annotation.value());
                 if( serializationStrategy==null ) {
                     throw new RuntimeException("Could not find the serialization strategy named: "+annotation.value());
                 }
-            } else {
-                serializationStrategy = ObjectSerializationStrategy.INSTANCE;
             }
 
             final InvocationStrategy strategy;
             if( AsyncInvocationStrategy.isAsyncMethod(method) ) {
                 strategy = AsyncInvocationStrategy.INSTANCE;
+            } else if( StreamInvocationStrategy.isStreamMethod(method) ) {
+                strategy = StreamInvocationStrategy.INSTANCE;
             } else {
                 strategy = BlockingInvocationStrategy.INSTANCE;
             }
@@ -239,7 +297,8 @@ public class ClientInvokerImpl implements ClientInvoker, Dispatched {
         MethodData methodData = getMethodData(method);
         writeBuffer(baos, methodData.signature);
 
-        final ResponseFuture future = methodData.invocationStrategy.request(methodData.serializationStrategy, classLoader, method, args, baos);
+        SerializationStrategy serializationStrategy = methodData.serializationStrategy!=null ? methodData.serializationStrategy : handler.serializationStrategy;
+        final ResponseFuture future = methodData.invocationStrategy.request(serializationStrategy, classLoader, method, args, baos);
 
         // toBuffer() is better than toByteArray() since it avoids an
         // array copy.
@@ -251,28 +310,176 @@ public class ClientInvokerImpl implements ClientInvoker, Dispatched {
         editor.writeInt(command.length);
         handler.lastRequestSize = command.length;
 
-        queue().execute(new Runnable() {
-            public void run() {
-                try {
-                    TransportPool pool = transports.get(address);
-                    if (pool == null) {
-                        pool = new InvokerTransportPool(address, queue());
-                        transports.put(address, pool);
-                        pool.start();
+        // the correlation table is concurrent so the request can be handed straight
+        // to the dispatch queue of the chosen pool rather than going through a single queue
+        requests.put(correlation, future);
+        try {
+            final TransportPool pool = getTransportPool(address);
+            if( future instanceof StreamInvocationStrategy.StreamResponseFuture ) {
+                StreamInvocationStrategy.StreamResponseFuture stream = (StreamInvocationStrategy.StreamResponseFuture) future;
+                stream.setCreditSender(new StreamInvocationStrategy.CreditSender() {
+                    public void sendCredit(long streamId, int credits) {
+                        ClientInvokerImpl.this.sendCredit(address, streamId, credits);
                     }
-                    requests.put(correlation, future);
-                    pool.offer(command, correlation);
-                } catch (Exception e) {
-                    LOGGER.info("Error while sending request", e);
-                    future.fail(e);
-                }
+                });
+                stream.setOnClose(new Runnable() {
+                    public void run() {
+                        // the reader gave up on the stream, don't keep the call around until the server ends it
+                        requests.remove(correlation);
+                        pool.done(correlation);
+                    }
+                });
+                stream.setReadTimeout(streamTimeout);
             }
-        });
+            pool.offer(command, correlation);
+        } catch (Exception e) {
+            LOGGER.info("Error while sending request", e);
+            requests.remove(correlation);
+            future.fail(e);
+        }
 
         // TODO: make that configurable, that's only for tests
         return future.get(timeout, TimeUnit.MILLISECONDS);
     }
 
+    /**
+     * Returns one of the transport pools for the given address, spreading the requests
+     * over the pools so that each dispatch queue handles a share of them
+     */
+    protected TransportPool getTransportPool(String address) throws Exception {
+        TransportPool[] pools = transports.get(address);
+        if (pools == null) {
+            DispatchQueue[] queues = this.queues;
+            if (queues == null) {
+                throw new IllegalStateException("DOSGi Client not started");
+            }
+            pools = new TransportPool[queues.length];
+            for (int i = 0; i < pools.length; i++) {
+                pools[i] = new InvokerTransportPool(address, queues[i]);
+            }
+            TransportPool[] existing = transports.putIfAbsent(address, pools);
+            if (existing != null) {
+                pools = existing;
+            } else {
+                for (TransportPool pool : pools) {
+                    pool.start();
+                }
+            }
+        }
+        if (pools.length == 1) {
+            return pools[0];
+        }
+        return pools[(nextPool.getAndIncrement() & Integer.MAX_VALUE) % pools.length];
+    }
+
+    public int getQueueCount() {
+        return queueCount;
+    }
+
+    /**
+     * Sets the number of dispatch queues the requests are spread over; each queue has its own
+     * pool of transports to every remote address. Must be set before the invoker is started.
+     */
+    public void setQueueCount(int queueCount) {
+        this.queueCount = queueCount;
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * Sets the maximum number of transports each dispatch queue opens to a remote address
+     */
+    public void setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+    }
+
+    public int getMaxInflight() {
+        return maxInflight;
+    }
+
+    /**
+     * Sets the maximum number of requests awaiting a response on a single transport, or 0 for no limit.
+     * Further requests are queued until a response arrives or another transport can be opened.
+     */
+    public void setMaxInflight(int maxInflight) {
+        this.maxInflight = maxInflight;
+    }
+
+    public long getStreamTimeout() {
+        return streamTimeout;
+    }
+
+    /**
+     * Sets how many milliseconds the reader of a streamed response waits for the next chunk, or 0 to wait forever
+     */
+    public void setStreamTimeout(long streamTimeout) {
+        this.streamTimeout = streamTimeout;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets the maximum number of bytes of requests coalesced into one batch frame, or 0 to send each on its own.
+     * Batching is only used on connections where the peer negotiated it.
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public int getBatchDelay() {
+        return batchDelay;
+    }
+
+    /**
+     * Sets how many milliseconds requests may be held back while a batch fills up
+     */
+    public void setBatchDelay(int batchDelay) {
+        this.batchDelay = batchDelay;
+    }
+
+    public int getCompressThreshold() {
+        return compressThreshold;
+    }
+
+    /**
+     * Sets the size in bytes from which batches are deflated, or 0 to never compress
+     */
+    public void setCompressThreshold(int compressThreshold) {
+        this.compressThreshold = compressThreshold;
+    }
+
+    public int getMaxInflatedSize() {
+        return maxInflatedSize;
+    }
+
+    /**
+     * Sets the maximum size in bytes a deflated batch from a peer may inflate to
+     */
+    public void setMaxInflatedSize(int maxInflatedSize) {
+        this.maxInflatedSize = maxInflatedSize;
+    }
+
+    protected void sendCredit(String address, long streamId, int credits) {
+        try {
+            DataByteArrayOutputStream baos = new DataByteArrayOutputStream(32);
+            baos.writeInt(0); // we don't know the size yet...
+            baos.writeVarLong(0);
+            writeBuffer(baos, StreamInvocationStrategy.CREDIT_SERVICE);
+            baos.writeVarLong(streamId);
+            baos.writeVarInt(credits);
+            Buffer command = baos.toBuffer();
+            command.buffer().bigEndianEditor().writeInt(command.length);
+            // no response is expected so it is not tracked as in flight
+            getTransportPool(address).offer(command, null);
+        } catch (Exception e) {
+            LOGGER.info("Error while sending stream credits", e);
+        }
+    }
+
     private void writeBuffer(DataByteArrayOutputStream baos, Buffer value) throws IOException {
         baos.writeVarInt(value.length);
         baos.write(value);
@@ -283,12 +490,18 @@ public class ClientInvokerImpl implements ClientInvoker, Dispatched {
         final String address;
         final UTF8Buffer service;
         final ClassLoader classLoader;
+        final SerializationStrategy serializationStrategy;
         int lastRequestSize = 250;
 
         public ProxyInvocationHandler(String address, String service, ClassLoader classLoader) {
+            this(address, service, classLoader, ObjectSerializationStrategy.INSTANCE);
+        }
+
+        public ProxyInvocationHandler(String address, String service, ClassLoader classLoader, SerializationStrategy serializationStrategy) {
             this.address = address;
             this.service = new UTF8Buffer(service);
             this.classLoader = classLoader;
+            this.serializationStrategy = serializationStrategy;
         }
 
         public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
@@ -300,17 +513,22 @@ public class ClientInvokerImpl implements ClientInvoker, Dispatched {
     protected class InvokerTransportPool extends TransportPool {
 
         public InvokerTransportPool(String uri, DispatchQueue queue) {
-            super(uri, queue, TransportPool.DEFAULT_POOL_SIZE, timeout << 1);
+            super(uri, queue, ClientInvokerImpl.this.poolSize, timeout << 1, ClientInvokerImpl.this.maxInflight);
         }
 
         @Override
         protected Transport createTransport(String uri) throws Exception {
-            return new TcpTransportFactory().connect(uri);
+            TcpTransport transport = new TcpTransportFactory().connect(uri);
+            transport.setBatchDelay(batchDelay);
+            return transport;
         }
 
         @Override
         protected ProtocolCodec createCodec() {
-            return new LengthPrefixedCodec();
+            // older servers don't know about the hello frame, so only send it to those which advertised it
+            LengthPrefixedCodec codec = new LengthPrefixedCodec(batchSize, compressThreshold, negotiatingAddresses.contains(uri));
+            codec.setMaxInflatedSize(maxInflatedSize);
+            return codec;
         }
 
         @Override
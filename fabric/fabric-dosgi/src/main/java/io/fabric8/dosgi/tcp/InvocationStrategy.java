@@ -30,5 +30,14 @@ public interface InvocationStrategy {
 
     public ResponseFuture request(SerializationStrategy serializationStrategy, ClassLoader loader, Method method, Object[] args, DataByteArrayOutputStream requestStream) throws Exception;
 
-    void service(SerializationStrategy serializationStrategy, ClassLoader loader, Method method, Object target, DataByteArrayInputStream requestStream, DataByteArrayOutputStream responseStream, Runnable onComplete);
+    /**
+     * Invokes the method on the target and sends its response through the channel, which it closes once done
+     */
+    void service(SerializationStrategy serializationStrategy, ClassLoader loader, Method method, Object target, DataByteArrayInputStream requestStream, ResponseChannel response);
+
+    /**
+     * @return true if the response is flow controlled by the client, so {@link #service} may block waiting for
+     * credits and must not run on the dispatch queue of a service
+     */
+    boolean isFlowControlled();
 }
@@ -23,14 +23,58 @@ import java.nio.ByteBuffer;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.Queue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 import io.fabric8.dosgi.io.ProtocolCodec;
 import org.fusesource.hawtbuf.Buffer;
 
+/**
+ * <p>
+ * Encodes each command as a frame prefixed by its length.
+ * </p>
+ * <p>
+ * Batching and compression are opt-in and negotiated per connection: a codec with either of them enabled
+ * which initiates the connection first sends a hello frame listing the frame formats it can read. Peers
+ * which know about it answer with their own hello and from then on both sides may coalesce the pending
+ * frames into a single batch frame, whose length has the high bit set and which may be deflated.
+ * </p>
+ * <p>
+ * Older peers would take the hello for a request to an unknown service and fail on it, so the client only
+ * sends it to servers whose endpoints advertise {@link io.fabric8.dosgi.impl.Manager#FABRIC_NEGOTIATION}.
+ * During a rolling upgrade connections to servers which are not upgraded yet keep using plain frames,
+ * and the upgraded servers only batch on connections from clients which sent the hello.
+ * </p>
+ */
 public class LengthPrefixedCodec implements ProtocolCodec {
 
+    static final int BATCH_FLAG = 0x80000000;
+    static final byte ENCODING_NONE = 0;
+    static final byte ENCODING_DEFLATE = 1;
+    static final byte FEATURE_BATCH = 0x01;
+    static final byte FEATURE_DEFLATE = 0x02;
+
+    /**
+     * The default maximum number of bytes a deflated batch may inflate to
+     */
+    public static final int DEFAULT_MAX_INFLATED_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Looks like a request with correlation id 0 for a service which is never registered
+     */
+    static final byte[] HELLO_PREFIX;
+    static {
+        byte[] service = "fabric-dosgi.negotiate".getBytes();
+        HELLO_PREFIX = new byte[2 + service.length];
+        HELLO_PREFIX[0] = 0; // var long correlation id
+        HELLO_PREFIX[1] = (byte) service.length; // var int length
+        System.arraycopy(service, 0, HELLO_PREFIX, 2, service.length);
+    }
+    static final int HELLO_SIZE = 4 + HELLO_PREFIX.length + 1;
 
     final int write_buffer_size = 1024 * 64;
     long write_counter = 0L;
@@ -39,6 +83,34 @@ public class LengthPrefixedCodec implements ProtocolCodec {
     final Queue<ByteBuffer> next_write_buffers = new LinkedList<ByteBuffer>();
     int next_write_size = 0;
 
+    int batchSize;
+    int compressThreshold;
+    int maxInflatedSize = DEFAULT_MAX_INFLATED_SIZE;
+    boolean initiator;
+    boolean helloSent;
+    byte peerFeatures;
+    ByteBuffer batch_buffer;
+    Deflater deflater;
+    Inflater inflater;
+
+    public LengthPrefixedCodec() {
+    }
+
+    /**
+     * @param batchSize         the maximum number of bytes of pending frames coalesced in one write, or 0 to not batch
+     * @param compressThreshold the minimum number of bytes for a batch to be deflated, or 0 to not compress
+     * @param initiator         true on the side opening the connection, when the peer is known to understand
+     *                          the hello frame which starts the negotiation
+     */
+    public LengthPrefixedCodec(int batchSize, int compressThreshold, boolean initiator) {
+        this.batchSize = batchSize;
+        this.compressThreshold = compressThreshold;
+        this.initiator = initiator;
+        if (initiator && isBatchingEnabled()) {
+            sendHello();
+        }
+    }
+
     public boolean full() {
         return false;
     }
@@ -54,7 +126,50 @@ public class LengthPrefixedCodec implements ProtocolCodec {
                 }
             }
         }
-        return true;
+        return batch_buffer == null || batch_buffer.remaining() == 0;
+    }
+
+    /**
+     * Sets the maximum number of bytes a deflated batch from the peer may inflate to; larger ones are rejected
+     */
+    public void setMaxInflatedSize(int maxInflatedSize) {
+        this.maxInflatedSize = maxInflatedSize;
+    }
+
+    public int getMaxInflatedSize() {
+        return maxInflatedSize;
+    }
+
+    /**
+     * Releases the native memory held by the deflater and inflater, once the transport is done with the codec
+     */
+    public void close() {
+        if (deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+        if (inflater != null) {
+            inflater.end();
+            inflater = null;
+        }
+    }
+
+    boolean isBatchingEnabled() {
+        return batchSize > 0 || compressThreshold > 0;
+    }
+
+    /**
+     * @return true once the peer has said it can read batch frames and we are configured to send them
+     */
+    public boolean isBatching() {
+        return isBatchingEnabled() && (peerFeatures & FEATURE_BATCH) != 0;
+    }
+
+    /**
+     * @return true if frames are being batched and there is room for more in the next write
+     */
+    public boolean canHoldForBatch() {
+        return isBatching() && batchSize > 0 && next_write_size < batchSize;
     }
 
     public void setWritableByteChannel(WritableByteChannel channel) {
@@ -82,7 +197,23 @@ public class LengthPrefixedCodec implements ProtocolCodec {
 
     public BufferState flush() throws IOException {
         final long writeCounterBeforeFlush = write_counter;
-        while(!next_write_buffers.isEmpty()) {
+        if (isBatching()) {
+            while (true) {
+                if (batch_buffer == null || batch_buffer.remaining() == 0) {
+                    batch_buffer = nextBatch();
+                    if (batch_buffer == null) {
+                        break;
+                    }
+                }
+                int bytesWritten = write_channel.write(batch_buffer);
+                write_counter += bytesWritten;
+                if (batch_buffer.remaining() > 0) {
+                    break;
+                }
+            }
+        }
+        // a frame left partially written when batching got negotiated is finished here
+        while((batch_buffer == null || batch_buffer.remaining() == 0) && !next_write_buffers.isEmpty()) {
             final ByteBuffer nextBuffer = next_write_buffers.peek();
             if (nextBuffer.remaining() < 1) {
                 next_write_buffers.remove();
@@ -105,6 +236,97 @@ public class LengthPrefixedCodec implements ProtocolCodec {
         return BufferState.NOT_EMPTY;
     }
 
+    /**
+     * Takes as many pending frames as fit in the batch size and encodes them into a single buffer.
+     * A lone frame which does not need compressing is sent as is.
+     */
+    private ByteBuffer nextBatch() throws IOException {
+        ByteBuffer first = next_write_buffers.peek();
+        if (first == null) {
+            return null;
+        }
+        // a partially written frame has to be finished on its own
+        if (first.position() != 0) {
+            return null;
+        }
+        int count = 0;
+        int size = 0;
+        for (ByteBuffer b : next_write_buffers) {
+            if (count > 0 && size + b.remaining() > batchSize) {
+                break;
+            }
+            count++;
+            size += b.remaining();
+        }
+        boolean compress = compressThreshold > 0 && size >= compressThreshold && (peerFeatures & FEATURE_DEFLATE) != 0;
+        if (count == 1 && !compress) {
+            next_write_buffers.remove();
+            next_write_size -= size;
+            return first;
+        }
+
+        byte[] data = new byte[size];
+        int offset = 0;
+        for (int i = 0; i < count; i++) {
+            ByteBuffer b = next_write_buffers.remove();
+            int length = b.remaining();
+            b.get(data, offset, length);
+            offset += length;
+        }
+        next_write_size -= size;
+
+        if (compress) {
+            byte[] compressed = deflate(data);
+            if (compressed != null) {
+                ByteBuffer rc = ByteBuffer.allocate(4 + 1 + 4 + compressed.length);
+                rc.putInt(BATCH_FLAG | rc.capacity());
+                rc.put(ENCODING_DEFLATE);
+                rc.putInt(size);
+                rc.put(compressed);
+                rc.flip();
+                return rc;
+            }
+        }
+        ByteBuffer rc = ByteBuffer.allocate(4 + 1 + size);
+        rc.putInt(BATCH_FLAG | rc.capacity());
+        rc.put(ENCODING_NONE);
+        rc.put(data);
+        rc.flip();
+        return rc;
+    }
+
+    /**
+     * @return the deflated data or null if it did not get any smaller
+     */
+    private byte[] deflate(byte[] data) {
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.BEST_SPEED);
+        }
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] out = new byte[data.length];
+        int length = 0;
+        while (!deflater.finished() && length < out.length) {
+            length += deflater.deflate(out, length, out.length - length);
+        }
+        if (!deflater.finished()) {
+            return null;
+        }
+        return Arrays.copyOf(out, length);
+    }
+
+    private void sendHello() {
+        ByteBuffer hello = ByteBuffer.allocate(HELLO_SIZE);
+        hello.putInt(HELLO_SIZE);
+        hello.put(HELLO_PREFIX);
+        hello.put((byte) (FEATURE_BATCH | FEATURE_DEFLATE));
+        hello.flip();
+        next_write_buffers.add(hello);
+        next_write_size += HELLO_SIZE;
+        helloSent = true;
+    }
+
     public long getWriteCounter() {
         return write_counter;
     }
@@ -113,6 +335,8 @@ public class LengthPrefixedCodec implements ProtocolCodec {
     int read_buffer_size = 1024 * 64;
     ReadableByteChannel read_channel = null;
     ByteBuffer read_buffer = ByteBuffer.allocate(4);
+    boolean read_batch;
+    final Queue<Buffer> next_read_buffers = new LinkedList<Buffer>();
 
 
     public void setReadableByteChannel(ReadableByteChannel channel) {
@@ -128,6 +352,14 @@ public class LengthPrefixedCodec implements ProtocolCodec {
 
     public Object read() throws IOException {
         while(true) {
+            if (!next_read_buffers.isEmpty()) {
+                Buffer rc = next_read_buffers.remove();
+                if (isHello(rc)) {
+                    onHello(rc);
+                    continue;
+                }
+                return rc;
+            }
             if( read_buffer.remaining()!=0 ) {
                 // keep reading from the channel until we fill the read buffer..
                 int count = read_channel.read(read_buffer);
@@ -144,6 +376,11 @@ public class LengthPrefixedCodec implements ProtocolCodec {
                 if( read_buffer.capacity() == 4 ) {
                     // Finding out the
                     int size = read_buffer.getInt(0);
+                    read_batch = (size & BATCH_FLAG) != 0;
+                    size &= ~BATCH_FLAG;
+                    if( read_batch && size < 5 ) {
+                        throw new ProtocolException("Expecting a batch size greater than 4");
+                    }
                     if( size < 4 ) {
                         throw new ProtocolException("Expecting a size greater than 3");
                     }
@@ -162,9 +399,89 @@ public class LengthPrefixedCodec implements ProtocolCodec {
                     // finish loading the rest of the buffer..
                     Buffer rc = new Buffer(read_buffer);
                     read_buffer = ByteBuffer.allocate(4);
-                    return rc;
+                    if (read_batch) {
+                        readBatch(rc);
+                    } else if (isHello(rc)) {
+                        onHello(rc);
+                    } else {
+                        return rc;
+                    }
+                }
+            }
+        }
+    }
+
+    private void readBatch(Buffer frame) throws IOException {
+        byte[] data = frame.data;
+        int offset = frame.offset + 5;
+        int end = frame.offset + frame.length;
+        byte encoding = data[frame.offset + 4];
+        if (encoding == ENCODING_DEFLATE) {
+            int size = ByteBuffer.wrap(data, offset, 4).getInt();
+            if (size < 0 || size > maxInflatedSize) {
+                throw new ProtocolException("Invalid inflated batch size: " + size + ", the maximum is " + maxInflatedSize);
+            }
+            data = inflate(data, offset + 4, end - offset - 4, size);
+            offset = 0;
+            end = size;
+        } else if (encoding != ENCODING_NONE) {
+            throw new ProtocolException("Unknown batch encoding: " + encoding);
+        }
+        while (offset < end) {
+            if (end - offset < 4) {
+                throw new ProtocolException("Truncated frame in batch");
+            }
+            int size = ByteBuffer.wrap(data, offset, 4).getInt();
+            if (size < 4 || size > end - offset) {
+                throw new ProtocolException("Invalid frame size in batch: " + size);
+            }
+            next_read_buffers.add(new Buffer(data, offset, size));
+            offset += size;
+        }
+    }
+
+    private byte[] inflate(byte[] data, int offset, int length, int size) throws IOException {
+        if (inflater == null) {
+            inflater = new Inflater();
+        }
+        inflater.reset();
+        inflater.setInput(data, offset, length);
+        byte[] rc = new byte[size];
+        try {
+            int count = 0;
+            while (count < size && !inflater.finished()) {
+                int inflated = inflater.inflate(rc, count, size - count);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
                 }
+                count += inflated;
+            }
+            if (count != size) {
+                throw new ProtocolException("Expected " + size + " bytes in deflated batch but got " + count);
             }
+        } catch (DataFormatException e) {
+            throw new ProtocolException("Invalid deflated batch: " + e.getMessage());
+        }
+        return rc;
+    }
+
+    static boolean isHello(Buffer frame) {
+        if (frame.length != HELLO_SIZE) {
+            return false;
+        }
+        for (int i = 0; i < HELLO_PREFIX.length; i++) {
+            if (frame.data[frame.offset + 4 + i] != HELLO_PREFIX[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void onHello(Buffer frame) {
+        peerFeatures = frame.data[frame.offset + HELLO_SIZE - 1];
+        if (!helloSent) {
+            // answer so the peer knows it can send us batches too
+            sendHello();
         }
     }
 
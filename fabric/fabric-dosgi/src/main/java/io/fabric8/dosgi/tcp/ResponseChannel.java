@@ -0,0 +1,59 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.dosgi.tcp;
+
+import java.io.IOException;
+
+import org.fusesource.hawtbuf.DataByteArrayOutputStream;
+
+/**
+ * <p>
+ * The server side of a call, through which an {@link InvocationStrategy} sends the response frames.
+ * Most calls answer with a single frame; streamed responses send several, flow controlled by the credits
+ * the client grants.
+ * </p>
+ */
+public interface ResponseChannel {
+
+    /**
+     * @return a buffer for the next frame, with the frame header already written
+     */
+    DataByteArrayOutputStream newFrame() throws IOException;
+
+    void send(DataByteArrayOutputStream frame);
+
+    /**
+     * Makes the response known as a stream so the client can grant it credits
+     * @return the stream id
+     */
+    long openStream();
+
+    /**
+     * Waits until the client granted a credit for the next chunk of the stream
+     * @return false if the stream was cancelled or the client stopped granting credits
+     */
+    boolean acquire() throws InterruptedException;
+
+    /**
+     * @return the size of the chunks a stream is sent in
+     */
+    int getChunkSize();
+
+    /**
+     * Releases the service once the last frame was sent, must be called exactly once
+     */
+    void close();
+}
@@ -17,7 +17,9 @@ package io.fabric8.dosgi.tcp;
 
 import io.fabric8.dosgi.api.Dispatched;
 import io.fabric8.dosgi.api.ObjectSerializationStrategy;
+import io.fabric8.dosgi.api.RejectedInvocationException;
 import io.fabric8.dosgi.api.Serialization;
+import io.fabric8.dosgi.api.SerializationStrategies;
 import io.fabric8.dosgi.api.SerializationStrategy;
 import io.fabric8.dosgi.io.*;
 import org.fusesource.hawtbuf.*;
@@ -25,16 +27,29 @@ import org.fusesource.hawtdispatch.DispatchQueue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import java.io.EOFException;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Array;
 import java.lang.reflect.Method;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ServerInvokerImpl implements ServerInvoker, Dispatched {
 
@@ -51,11 +66,40 @@ public class ServerInvokerImpl implements ServerInvoker, Dispatched {
         PRIMITIVE_TO_CLASS.put("D", double.class);
     }
 
-    protected final ExecutorService blockingExecutor = Executors.newFixedThreadPool(8);
+    /**
+     * Each exported service gets its own thread pool
+     */
+    public static final String EXECUTOR_SERVICE = "service";
+    /**
+     * All exported services share one thread pool
+     */
+    public static final String EXECUTOR_SHARED = "shared";
+    /**
+     * All exported services share one work stealing pool, best suited to services which rarely block
+     */
+    public static final String EXECUTOR_WORK_STEALING = "work-stealing";
+
+    public static final int DEFAULT_EXECUTOR_THREADS = 8;
+    public static final int DEFAULT_EXECUTOR_QUEUE_SIZE = 1000;
+
+    protected String executorType = EXECUTOR_SERVICE;
+    protected int executorThreads = DEFAULT_EXECUTOR_THREADS;
+    protected int executorQueueSize = DEFAULT_EXECUTOR_QUEUE_SIZE;
+    protected final Map<String, ExecutorService> sharedExecutors = new HashMap<String, ExecutorService>();
+    protected int streamChunkSize = StreamInvocationStrategy.DEFAULT_CHUNK_SIZE;
+    protected int streamWindow = StreamInvocationStrategy.DEFAULT_WINDOW;
+    protected long streamTimeout = StreamInvocationStrategy.DEFAULT_TIMEOUT;
+    protected final ConcurrentHashMap<Long, InvokerResponseChannel> streams = new ConcurrentHashMap<Long, InvokerResponseChannel>();
+    protected final AtomicLong streamIdGenerator = new AtomicLong();
+    protected MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
     protected final DispatchQueue queue;
     private final Map<String, SerializationStrategy> serializationStrategies;
     protected final TransportServer server;
     protected final Map<UTF8Buffer, ServiceFactoryHolder> holders = new HashMap<UTF8Buffer, ServiceFactoryHolder>();
+    protected int batchSize;
+    protected int batchDelay;
+    protected int compressThreshold;
+    protected int maxInflatedSize = LengthPrefixedCodec.DEFAULT_MAX_INFLATED_SIZE;
 
     static class MethodData {
 
@@ -75,11 +119,19 @@ public class ServerInvokerImpl implements ServerInvoker, Dispatched {
         private final ServiceFactory factory;
         private final ClassLoader loader;
         private final Class clazz;
+        private final SerializationStrategy serializationStrategy;
         private HashMap<Buffer, MethodData> method_cache = new HashMap<Buffer, MethodData>();
+        private ServiceExecutor executor;
+        private ObjectName objectName;
 
         public ServiceFactoryHolder(ServiceFactory factory, ClassLoader loader) {
+            this(factory, loader, ObjectSerializationStrategy.INSTANCE);
+        }
+
+        public ServiceFactoryHolder(ServiceFactory factory, ClassLoader loader, SerializationStrategy serializationStrategy) {
             this.factory = factory;
             this.loader = loader;
+            this.serializationStrategy = serializationStrategy;
             Object o = factory.get();
             clazz = o.getClass();
             factory.unget();
@@ -105,13 +157,15 @@ public class ServerInvokerImpl implements ServerInvoker, Dispatched {
                         throw new RuntimeException("Could not find the serialization strategy named: "+annotation.value());
                     }
                 } else {
-                    serializationStrategy = ObjectSerializationStrategy.INSTANCE;
+                    serializationStrategy = this.serializationStrategy;
                 }
 
 
                 final InvocationStrategy invocationStrategy;
                 if( AsyncInvocationStrategy.isAsyncMethod(method) ) {
                     invocationStrategy = AsyncInvocationStrategy.INSTANCE;
+                } else if( StreamInvocationStrategy.isStreamMethod(method) ) {
+                    invocationStrategy = StreamInvocationStrategy.INSTANCE;
                 } else {
                     invocationStrategy = BlockingInvocationStrategy.INSTANCE;
                 }
@@ -160,19 +214,218 @@ public class ServerInvokerImpl implements ServerInvoker, Dispatched {
     }
 
     public void registerService(final String id, final ServiceFactory service, final ClassLoader classLoader) {
+        registerService(id, service, classLoader, null);
+    }
+
+    public void registerService(final String id, final ServiceFactory service, final ClassLoader classLoader, String serialization) {
+        registerService(id, service, classLoader, serialization, null, null, null);
+    }
+
+    public void registerService(final String id, final ServiceFactory service, final ClassLoader classLoader, String serialization,
+                                String executorType, Integer executorThreads, Integer executorQueueSize) {
+        final SerializationStrategy serializationStrategy = getSerializationStrategy(serialization);
+        final String type = executorType != null ? executorType : this.executorType;
+        final int threads = executorThreads != null ? executorThreads : this.executorThreads;
+        final int queueSize = executorQueueSize != null ? executorQueueSize : this.executorQueueSize;
+        if (!EXECUTOR_SERVICE.equals(type) && !EXECUTOR_SHARED.equals(type) && !EXECUTOR_WORK_STEALING.equals(type)) {
+            throw new IllegalArgumentException("Unknown executor type: " + type);
+        }
         queue().execute(new Runnable() {
             public void run() {
-                holders.put(new UTF8Buffer(id), new ServiceFactoryHolder(service, classLoader));
+                ServiceFactoryHolder holder = new ServiceFactoryHolder(service, classLoader, serializationStrategy);
+                holder.executor = createServiceExecutor(id, holder.clazz, type, threads, queueSize);
+                holder.objectName = registerMBean(holder.executor);
+                disposeHolder(holders.put(new UTF8Buffer(id), holder));
             }
         });
     }
 
+    protected SerializationStrategy getSerializationStrategy(String name) {
+        return SerializationStrategies.get(serializationStrategies, name);
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets the maximum number of bytes of responses coalesced into one batch frame, or 0 to send each on its own.
+     * Batching is only used on connections where the peer negotiated it.
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public int getBatchDelay() {
+        return batchDelay;
+    }
+
+    /**
+     * Sets how many milliseconds responses may be held back while a batch fills up
+     */
+    public void setBatchDelay(int batchDelay) {
+        this.batchDelay = batchDelay;
+    }
+
+    public int getCompressThreshold() {
+        return compressThreshold;
+    }
+
+    /**
+     * Sets the size in bytes from which batches are deflated, or 0 to never compress
+     */
+    public void setCompressThreshold(int compressThreshold) {
+        this.compressThreshold = compressThreshold;
+    }
+
+    public int getMaxInflatedSize() {
+        return maxInflatedSize;
+    }
+
+    /**
+     * Sets the maximum size in bytes a deflated batch from a peer may inflate to
+     */
+    public void setMaxInflatedSize(int maxInflatedSize) {
+        this.maxInflatedSize = maxInflatedSize;
+    }
+
     public void unregisterService(final String id) {
         queue().execute(new Runnable() {
             public void run() {
-                holders.remove(new UTF8Buffer(id));
+                disposeHolder(holders.remove(new UTF8Buffer(id)));
+            }
+        });
+    }
+
+    /**
+     * @param threads the size of the service's own pool, or the number of calls to it which may run at once
+     *                on a shared pool
+     */
+    protected ServiceExecutor createServiceExecutor(String id, Class<?> clazz, String type, int threads, int queueSize) {
+        if (EXECUTOR_SERVICE.equals(type)) {
+            return new ServiceExecutor(id, clazz.getName(), createThreadPool(clazz.getSimpleName(), threads), true, threads, queueSize);
+        }
+        return new ServiceExecutor(id, clazz.getName(), getSharedExecutor(type), false, threads, queueSize);
+    }
+
+    /**
+     * Returns the pool of the given type shared by the services, which is sized by the invoker's executorThreads
+     */
+    protected synchronized ExecutorService getSharedExecutor(String type) {
+        ExecutorService sharedExecutor = sharedExecutors.get(type);
+        if (sharedExecutor == null) {
+            if (EXECUTOR_WORK_STEALING.equals(type)) {
+                sharedExecutor = new ForkJoinPool(executorThreads, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+            } else if (EXECUTOR_SHARED.equals(type)) {
+                sharedExecutor = createThreadPool("shared", executorThreads);
+            } else {
+                throw new IllegalArgumentException("Unknown executor type: " + type);
+            }
+            sharedExecutors.put(type, sharedExecutor);
+        }
+        return sharedExecutor;
+    }
+
+    private ExecutorService createThreadPool(final String name, int threads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "fabric-dosgi-" + name + "-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
             }
         });
+        // idle services should not hold on to threads
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private ObjectName registerMBean(ServiceExecutor executor) {
+        if (mbeanServer == null) {
+            return null;
+        }
+        try {
+            ObjectName name = new ObjectName("io.fabric8.dosgi:type=ServiceExecutor,service=" + ObjectName.quote(executor.getServiceClass()) + ",id=" + ObjectName.quote(executor.getServiceId()));
+            mbeanServer.registerMBean(executor, name);
+            return name;
+        } catch (Exception e) {
+            LOGGER.debug("Could not register the executor mbean of service " + executor.getServiceId(), e);
+            return null;
+        }
+    }
+
+    private void disposeHolder(ServiceFactoryHolder holder) {
+        if (holder == null) {
+            return;
+        }
+        holder.executor.shutdown();
+        if (holder.objectName != null) {
+            try {
+                mbeanServer.unregisterMBean(holder.objectName);
+            } catch (Exception e) {
+                LOGGER.debug("Could not unregister mbean " + holder.objectName, e);
+            }
+        }
+    }
+
+    public String getExecutorType() {
+        return executorType;
+    }
+
+    /**
+     * Sets how the calls to blocking services are run: on a pool per service (the default), on one shared pool,
+     * or on one shared work stealing pool. Must be set before any service is registered, services may
+     * override it when they are registered.
+     */
+    public void setExecutorType(String executorType) {
+        this.executorType = executorType;
+    }
+
+    public int getExecutorThreads() {
+        return executorThreads;
+    }
+
+    /**
+     * Sets the number of threads of each service pool, or of the shared pool
+     */
+    public void setExecutorThreads(int executorThreads) {
+        this.executorThreads = executorThreads;
+    }
+
+    public int getExecutorQueueSize() {
+        return executorQueueSize;
+    }
+
+    /**
+     * Sets how many calls to a service may wait for a thread before further ones are rejected, or 0 for no limit
+     */
+    public void setExecutorQueueSize(int executorQueueSize) {
+        this.executorQueueSize = executorQueueSize;
+    }
+
+    /**
+     * Sets the size of the chunks streamed responses are sent in
+     */
+    public void setStreamChunkSize(int streamChunkSize) {
+        this.streamChunkSize = streamChunkSize;
+    }
+
+    /**
+     * Sets how many chunks of a streamed response may be sent before the client acknowledged reading them
+     */
+    public void setStreamWindow(int streamWindow) {
+        this.streamWindow = streamWindow;
+    }
+
+    /**
+     * Sets how long a streamed response waits for the client to read further before it is abandoned
+     */
+    public void setStreamTimeout(long streamTimeout) {
+        this.streamTimeout = streamTimeout;
+    }
+
+    public void setMBeanServer(MBeanServer mbeanServer) {
+        this.mbeanServer = mbeanServer;
     }
 
     public void start() throws Exception {
@@ -190,7 +443,16 @@ public class ServerInvokerImpl implements ServerInvoker, Dispatched {
     public void stop(final Runnable onComplete) {
         this.server.stop(new Runnable() {
             public void run() {
-                blockingExecutor.shutdown();
+                for (ServiceFactoryHolder holder : new ArrayList<ServiceFactoryHolder>(holders.values())) {
+                    disposeHolder(holder);
+                }
+                holders.clear();
+                synchronized (ServerInvokerImpl.this) {
+                    for (ExecutorService sharedExecutor : sharedExecutors.values()) {
+                        sharedExecutor.shutdown();
+                    }
+                    sharedExecutors.clear();
+                }
                 if (onComplete != null) {
                     onComplete.run();
                 }
@@ -208,6 +470,10 @@ public class ServerInvokerImpl implements ServerInvoker, Dispatched {
             // Use UTF8Buffer instead of string to avoid encoding/decoding UTF-8 strings
             // for every request.
             final UTF8Buffer service = readBuffer(bais).utf8();
+            if( StreamInvocationStrategy.CREDIT_SERVICE.equals(service) ) {
+                onCredit(bais.readVarLong(), bais.readVarInt());
+                return;
+            }
             final Buffer encoded_method = readBuffer(bais);
 
             final ServiceFactoryHolder holder = holders.get(service);
@@ -217,49 +483,136 @@ public class ServerInvokerImpl implements ServerInvoker, Dispatched {
 
             Runnable task = new Runnable() {
                 public void run() {
-
-                    final DataByteArrayOutputStream baos = new DataByteArrayOutputStream();
-                    try {
-                        baos.writeInt(0); // make space for the size field.
-                        baos.writeVarLong(correlation);
-                    } catch (IOException e) { // should not happen
-                        throw new RuntimeException(e);
-                    }
-
                     // Lets decode the remaining args on the target's executor
-                    // to take cpu load off the
-                    methodData.invocationStrategy.service(methodData.serializationStrategy, holder.loader, methodData.method, svc, bais, baos, new Runnable() {
-                        public void run() {
-                            holder.factory.unget();
-                            final Buffer command = baos.toBuffer();
-
-                            // Update the size field.
-                            BufferEditor editor = command.buffer().bigEndianEditor();
-                            editor.writeInt(command.length);
-
-                            queue().execute(new Runnable() {
-                                public void run() {
-                                    transport.offer(command);
-                                }
-                            });
-                        }
-                    });
+                    // to take cpu load off the dispatch queue
+                    methodData.invocationStrategy.service(methodData.serializationStrategy, holder.loader, methodData.method, svc, bais, new InvokerResponseChannel(transport, correlation, holder));
                 }
             };
 
             Executor executor;
-            if( svc instanceof Dispatched ) {
+            if( svc instanceof Dispatched && !methodData.invocationStrategy.isFlowControlled() ) {
+                // streams block while waiting for credits so they never run on a dispatch queue
                 executor = ((Dispatched)svc).queue();
             } else {
-                executor = blockingExecutor;
+                executor = holder.executor;
+            }
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                holder.factory.unget();
+                sendError(transport, correlation, holder, methodData, new RejectedInvocationException(e.getMessage()));
             }
-            executor.execute(task);
 
         } catch (Exception e) {
             LOGGER.info("Error while reading request", e);
         }
     }
 
+    protected void onCredit(long streamId, int credits) {
+        InvokerResponseChannel stream = streams.get(streamId);
+        if( stream!=null ) {
+            if( credits < 0 ) {
+                stream.cancel();
+            } else {
+                stream.credits.release(credits);
+            }
+        }
+    }
+
+    protected void cancelStreams(Transport transport) {
+        for( InvokerResponseChannel stream : streams.values() ) {
+            if( stream.transport == transport ) {
+                stream.cancel();
+            }
+        }
+    }
+
+    /**
+     * Sends the response frames of a call. The chunks of a streamed response are read on the service
+     * executor, which blocks whenever the client has no credits left.
+     */
+    class InvokerResponseChannel implements ResponseChannel {
+
+        final Transport transport;
+        final long correlation;
+        final ServiceFactoryHolder holder;
+        final Semaphore credits = new Semaphore(streamWindow);
+        volatile boolean cancelled;
+        long id = -1;
+
+        InvokerResponseChannel(Transport transport, long correlation, ServiceFactoryHolder holder) {
+            this.transport = transport;
+            this.correlation = correlation;
+            this.holder = holder;
+        }
+
+        public DataByteArrayOutputStream newFrame() throws IOException {
+            DataByteArrayOutputStream baos = new DataByteArrayOutputStream();
+            baos.writeInt(0); // make space for the size field.
+            baos.writeVarLong(correlation);
+            return baos;
+        }
+
+        public void send(DataByteArrayOutputStream frame) {
+            final Buffer command = frame.toBuffer();
+            BufferEditor editor = command.buffer().bigEndianEditor();
+            editor.writeInt(command.length);
+            queue().execute(new Runnable() {
+                public void run() {
+                    transport.offer(command);
+                }
+            });
+        }
+
+        public long openStream() {
+            id = streamIdGenerator.incrementAndGet();
+            streams.put(id, this);
+            return id;
+        }
+
+        public boolean acquire() throws InterruptedException {
+            if( cancelled ) {
+                return false;
+            }
+            if( !credits.tryAcquire(streamTimeout, TimeUnit.MILLISECONDS) ) {
+                LOGGER.info("Giving up stream " + id + " of service " + holder.clazz.getName() + " as the client did not read it for " + streamTimeout + " ms");
+                cancelled = true;
+            }
+            return !cancelled;
+        }
+
+        public int getChunkSize() {
+            return streamChunkSize;
+        }
+
+        void cancel() {
+            cancelled = true;
+            // wake up the sender so it notices
+            credits.release();
+        }
+
+        public void close() {
+            if( id >= 0 ) {
+                streams.remove(id);
+            }
+            holder.factory.unget();
+        }
+    }
+
+    /**
+     * Answers a request which could not be handed to the service, from the dispatch queue
+     */
+    private void sendError(Transport transport, long correlation, ServiceFactoryHolder holder, MethodData methodData, Throwable error) throws Exception {
+        DataByteArrayOutputStream baos = new DataByteArrayOutputStream();
+        baos.writeInt(0); // make space for the size field.
+        baos.writeVarLong(correlation);
+        methodData.serializationStrategy.encodeResponse(holder.loader, methodData.method.getReturnType(), null, error, baos);
+        Buffer command = baos.toBuffer();
+        BufferEditor editor = command.buffer().bigEndianEditor();
+        editor.writeInt(command.length);
+        transport.offer(command);
+    }
+
     private Buffer readBuffer(DataByteArrayInputStream bais) throws IOException {
         byte b[] = new byte[bais.readVarInt()];
         bais.readFully(b);
@@ -269,7 +622,10 @@ public class ServerInvokerImpl implements ServerInvoker, Dispatched {
     class InvokerAcceptListener implements TransportAcceptListener {
 
         public void onAccept(TransportServer transportServer, TcpTransport transport) {
-            transport.setProtocolCodec(new LengthPrefixedCodec());
+            LengthPrefixedCodec codec = new LengthPrefixedCodec(batchSize, compressThreshold, false);
+            codec.setMaxInflatedSize(maxInflatedSize);
+            transport.setProtocolCodec(codec);
+            transport.setBatchDelay(batchDelay);
             transport.setDispatchQueue(queue());
             transport.setTransportListener(new InvokerTransportListener());
             transport.start();
@@ -293,6 +649,7 @@ public class ServerInvokerImpl implements ServerInvoker, Dispatched {
             if (!transport.isDisposed() && !(error instanceof EOFException)) {
                 LOGGER.info("Transport failure", error);
             }
+            cancelStreams(transport);
         }
 
         public void onTransportConnected(Transport transport) {
@@ -300,6 +657,7 @@ public class ServerInvokerImpl implements ServerInvoker, Dispatched {
         }
 
         public void onTransportDisconnected(Transport transport) {
+            cancelStreams(transport);
         }
     }
 
@@ -0,0 +1,176 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.dosgi.tcp;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Runs the calls of one exported service, acting as a bulkhead: at most maxThreads calls run at once
+ * and at most maxQueueSize more wait, any further call is rejected straight away instead of piling up.
+ * </p>
+ * <p>
+ * The calls either run on a pool owned by this executor or on a pool shared by all services,
+ * in which case only the queue bound isolates the services from each other.
+ * </p>
+ */
+public class ServiceExecutor implements Executor, ServiceExecutorMBean {
+
+    private final String serviceId;
+    private final String serviceClass;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+    private final int maxThreads;
+    private final int maxQueueSize;
+
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong queueTime = new AtomicLong();
+    private final AtomicLong maxQueueTime = new AtomicLong();
+    private final AtomicLong executionTime = new AtomicLong();
+    private final AtomicLong maxExecutionTime = new AtomicLong();
+
+    /**
+     * @param maxQueueSize the maximum number of calls waiting for a thread, or 0 for no limit
+     * @param ownsExecutor true if the executor is dedicated to this service and should be shut down with it
+     */
+    public ServiceExecutor(String serviceId, String serviceClass, ExecutorService executor, boolean ownsExecutor, int maxThreads, int maxQueueSize) {
+        this.serviceId = serviceId;
+        this.serviceClass = serviceClass;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        this.maxThreads = maxThreads;
+        this.maxQueueSize = maxQueueSize;
+    }
+
+    /**
+     * @throws RejectedExecutionException if the service has too many calls waiting
+     */
+    public void execute(final Runnable task) {
+        if (maxQueueSize > 0 && pending.incrementAndGet() > maxThreads + maxQueueSize) {
+            pending.decrementAndGet();
+            rejected.incrementAndGet();
+            throw new RejectedExecutionException("Service " + serviceClass + " has " + maxQueueSize + " calls waiting already");
+        } else if (maxQueueSize <= 0) {
+            pending.incrementAndGet();
+        }
+        final long queued = System.nanoTime();
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    long start = System.nanoTime();
+                    record(queueTime, maxQueueTime, start - queued);
+                    active.incrementAndGet();
+                    try {
+                        task.run();
+                    } finally {
+                        active.decrementAndGet();
+                        pending.decrementAndGet();
+                        record(executionTime, maxExecutionTime, System.nanoTime() - start);
+                        completed.incrementAndGet();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.decrementAndGet();
+            rejected.incrementAndGet();
+            throw e;
+        }
+    }
+
+    private static void record(AtomicLong total, AtomicLong max, long nanos) {
+        total.addAndGet(nanos);
+        long current = max.get();
+        while (nanos > current && !max.compareAndSet(current, nanos)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Stops the pool if it is dedicated to this service, letting the calls already accepted finish
+     */
+    public void shutdown() {
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    public String getServiceId() {
+        return serviceId;
+    }
+
+    public String getServiceClass() {
+        return serviceClass;
+    }
+
+    public int getQueueSize() {
+        return Math.max(0, pending.get() - active.get());
+    }
+
+    public int getMaxQueueSize() {
+        return maxQueueSize;
+    }
+
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public double getAverageQueueTimeMicros() {
+        long count = completed.get();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(queueTime.get()) / (double) count;
+    }
+
+    public long getMaxQueueTimeMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxQueueTime.get());
+    }
+
+    public double getAverageExecutionTimeMicros() {
+        long count = completed.get();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(executionTime.get()) / (double) count;
+    }
+
+    public long getMaxExecutionTimeMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxExecutionTime.get());
+    }
+
+    public void resetStatistics() {
+        completed.set(0);
+        rejected.set(0);
+        queueTime.set(0);
+        maxQueueTime.set(0);
+        executionTime.set(0);
+        maxExecutionTime.set(0);
+    }
+}
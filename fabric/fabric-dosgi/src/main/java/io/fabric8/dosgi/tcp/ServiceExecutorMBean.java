@@ -0,0 +1,48 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.dosgi.tcp;
+
+/**
+ * Statistics of the executor running the calls of one exported service
+ */
+public interface ServiceExecutorMBean {
+
+    String getServiceId();
+
+    String getServiceClass();
+
+    int getQueueSize();
+
+    int getMaxQueueSize();
+
+    int getActiveCount();
+
+    int getMaxThreads();
+
+    long getCompletedCount();
+
+    long getRejectedCount();
+
+    double getAverageQueueTimeMicros();
+
+    long getMaxQueueTimeMicros();
+
+    double getAverageExecutionTimeMicros();
+
+    long getMaxExecutionTimeMicros();
+
+    void resetStatistics();
+}
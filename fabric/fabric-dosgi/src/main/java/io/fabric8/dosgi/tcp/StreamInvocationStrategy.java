@@ -0,0 +1,397 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.dosgi.tcp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import io.fabric8.dosgi.api.AsyncCallback;
+import io.fabric8.dosgi.api.SerializationStrategy;
+import org.fusesource.hawtbuf.DataByteArrayInputStream;
+import org.fusesource.hawtbuf.DataByteArrayOutputStream;
+import org.fusesource.hawtbuf.UTF8Buffer;
+import org.fusesource.hawtdispatch.Dispatch;
+
+/**
+ * <p>
+ * Invokes methods returning an {@link InputStream} and sends the stream back in chunks rather than as a
+ * single response, so neither side ever holds the whole payload in memory.
+ * </p>
+ * <p>
+ * All the frames of a call carry its correlation id and start with a kind: START with the id of the stream
+ * on the server, then DATA frames and finally END, or ERROR with the serialized exception. The server only
+ * sends as many DATA frames as the client granted credits for; the client starts with a window of credits
+ * and grants one more each time its reader consumed a chunk, or cancels the stream when it is closed early.
+ * </p>
+ * <p>
+ * A stream which is cancelled, or which the client stopped reading for longer than the server's stream
+ * timeout, ends with an ERROR frame so the call is always completed on the client. The reader gives up
+ * with a {@link SocketTimeoutException} if no chunk arrives within the client's stream timeout.
+ * </p>
+ */
+public class StreamInvocationStrategy implements InvocationStrategy {
+
+    public static final StreamInvocationStrategy INSTANCE = new StreamInvocationStrategy();
+
+    /**
+     * The service name of the frames clients send to grant credits to, or cancel, a stream
+     */
+    public static final UTF8Buffer CREDIT_SERVICE = new UTF8Buffer("fabric-dosgi.credit");
+
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    public static final int DEFAULT_WINDOW = 4;
+    public static final long DEFAULT_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
+
+    static final byte START = 0;
+    static final byte DATA = 1;
+    static final byte END = 2;
+    static final byte ERROR = 3;
+
+    static public boolean isStreamMethod(Method method) {
+        return method.getReturnType() == InputStream.class;
+    }
+
+    /**
+     * Sends credit frames for a stream to the server it comes from
+     */
+    public interface CreditSender {
+        /**
+         * @param credits the number of further chunks the server may send, or a negative number to cancel the stream
+         */
+        void sendCredit(long streamId, int credits);
+    }
+
+    public ResponseFuture request(SerializationStrategy serializationStrategy, ClassLoader loader, Method method, Object[] args, DataByteArrayOutputStream target) throws Exception {
+        assert Dispatch.getCurrentQueue() == null : "You should not do blocking RPC class when executing on a dispatch queue";
+
+        serializationStrategy.encodeRequest(loader, method.getParameterTypes(), args, target);
+        return new StreamResponseFuture(loader, serializationStrategy);
+    }
+
+    public boolean isFlowControlled() {
+        return true;
+    }
+
+    public void service(SerializationStrategy serializationStrategy, ClassLoader loader, Method method, Object target, DataByteArrayInputStream requestStream, ResponseChannel response) {
+        InputStream in = null;
+        try {
+            try {
+                Class<?>[] types = method.getParameterTypes();
+                final Object[] args = new Object[types.length];
+                serializationStrategy.decodeRequest(loader, types, requestStream, args);
+                in = (InputStream) method.invoke(target, args);
+            } catch (Throwable t) {
+                sendError(serializationStrategy, loader, response, t instanceof InvocationTargetException ? t.getCause() : t);
+                return;
+            }
+
+            if (in != null) {
+                DataByteArrayOutputStream frame = response.newFrame();
+                frame.writeByte(START);
+                frame.writeVarLong(response.openStream());
+                response.send(frame);
+
+                byte[] chunk = new byte[response.getChunkSize()];
+                while (true) {
+                    if (!response.acquire()) {
+                        sendError(serializationStrategy, loader, response, new IOException("The stream was cancelled or not read for too long"));
+                        return;
+                    }
+                    int count = 0;
+                    int read = 0;
+                    while (count < chunk.length && (read = in.read(chunk, count, chunk.length - count)) >= 0) {
+                        count += read;
+                    }
+                    if (count > 0) {
+                        frame = response.newFrame();
+                        frame.writeByte(DATA);
+                        frame.write(chunk, 0, count);
+                        response.send(frame);
+                    }
+                    if (read < 0) {
+                        break;
+                    }
+                }
+            }
+            DataByteArrayOutputStream frame = response.newFrame();
+            frame.writeByte(END);
+            response.send(frame);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable t) {
+            sendError(serializationStrategy, loader, response, t);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+            response.close();
+        }
+    }
+
+    private void sendError(SerializationStrategy serializationStrategy, ClassLoader loader, ResponseChannel response, Throwable error) {
+        try {
+            DataByteArrayOutputStream frame = response.newFrame();
+            frame.writeByte(ERROR);
+            serializationStrategy.encodeResponse(loader, InputStream.class, null, error, frame);
+            response.send(frame);
+        } catch (Exception unexpected) {
+            unexpected.printStackTrace();
+        }
+    }
+
+    /**
+     * Completes with the stream as soon as the server started sending it, and then feeds it the chunks
+     */
+    class StreamResponseFuture implements ResponseFuture, AsyncCallback<Object> {
+
+        private final ClassLoader loader;
+        private final SerializationStrategy serializationStrategy;
+        private final CountDownLatch started = new CountDownLatch(1);
+        private CreditSender creditSender;
+        private Runnable onClose;
+        private long readTimeout;
+        private volatile ChunkedInputStream stream;
+        private volatile Throwable error;
+        private volatile boolean complete;
+
+        StreamResponseFuture(ClassLoader loader, SerializationStrategy serializationStrategy) {
+            this.loader = loader;
+            this.serializationStrategy = serializationStrategy;
+        }
+
+        void setCreditSender(CreditSender creditSender) {
+            this.creditSender = creditSender;
+        }
+
+        /**
+         * @param onClose run when the reader gave up on the stream before its last frame was received
+         */
+        void setOnClose(Runnable onClose) {
+            this.onClose = onClose;
+        }
+
+        /**
+         * @param readTimeout how many milliseconds the reader waits for the next chunk, or 0 to wait forever
+         */
+        void setReadTimeout(long readTimeout) {
+            this.readTimeout = readTimeout;
+        }
+
+        /**
+         * @return true once the last frame of the call was received
+         */
+        boolean isComplete() {
+            return complete;
+        }
+
+        public void set(DataByteArrayInputStream source) throws Exception {
+            byte kind = source.readByte();
+            switch (kind) {
+                case START:
+                    stream = new ChunkedInputStream(source.readVarLong(), creditSender, readTimeout, new Runnable() {
+                        public void run() {
+                            complete = true;
+                            if (onClose != null) {
+                                onClose.run();
+                            }
+                        }
+                    });
+                    started.countDown();
+                    break;
+                case DATA:
+                    byte[] data = new byte[source.available()];
+                    source.readFully(data);
+                    if (stream != null) {
+                        stream.offer(data);
+                    }
+                    break;
+                case END:
+                    complete = true;
+                    if (stream != null) {
+                        stream.offer(ChunkedInputStream.END_OF_STREAM);
+                    }
+                    started.countDown();
+                    break;
+                case ERROR:
+                    try {
+                        serializationStrategy.decodeResponse(loader, InputStream.class, source, this);
+                    } catch (Throwable e) {
+                        onFailure(e);
+                    }
+                    break;
+                default:
+                    onFailure(new IOException("Unexpected stream frame: " + kind));
+            }
+        }
+
+        public Object get(long timeout, TimeUnit unit) throws Exception {
+            if (!started.await(timeout, unit)) {
+                throw new TimeoutException();
+            }
+            if (stream == null && error != null) {
+                throw new ExecutionException(error);
+            }
+            return stream;
+        }
+
+        public void fail(Throwable throwable) {
+            onFailure(throwable);
+        }
+
+        public void onSuccess(Object result) {
+        }
+
+        public void onFailure(Throwable failure) {
+            complete = true;
+            error = failure;
+            if (stream != null) {
+                stream.fail(failure);
+            }
+            started.countDown();
+        }
+    }
+
+    /**
+     * Hands the chunks received from the server to the reader, granting a credit for each one it consumed
+     */
+    static class ChunkedInputStream extends InputStream {
+
+        static final byte[] END_OF_STREAM = new byte[0];
+
+        private final long id;
+        private final CreditSender creditSender;
+        private final long readTimeout;
+        private final Runnable onClose;
+        private final LinkedBlockingQueue<Object> chunks = new LinkedBlockingQueue<Object>();
+        private byte[] current;
+        private int position;
+        private boolean ended;
+
+        /**
+         * @param readTimeout how many milliseconds to wait for the next chunk, or 0 to wait forever
+         * @param onClose     run when the stream is closed or timed out before its end was received
+         */
+        ChunkedInputStream(long id, CreditSender creditSender, long readTimeout, Runnable onClose) {
+            this.id = id;
+            this.creditSender = creditSender;
+            this.readTimeout = readTimeout;
+            this.onClose = onClose;
+        }
+
+        void offer(byte[] chunk) {
+            chunks.offer(chunk);
+        }
+
+        void fail(Throwable failure) {
+            chunks.offer(failure);
+        }
+
+        private boolean next() throws IOException {
+            if (ended) {
+                return false;
+            }
+            if (current != null && position >= current.length) {
+                current = null;
+                if (creditSender != null) {
+                    creditSender.sendCredit(id, 1);
+                }
+            }
+            if (current == null) {
+                Object chunk;
+                try {
+                    chunk = readTimeout > 0 ? chunks.poll(readTimeout, TimeUnit.MILLISECONDS) : chunks.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+                if (chunk == null) {
+                    close();
+                    throw new SocketTimeoutException("No data received on stream " + id + " for " + readTimeout + " ms");
+                }
+                if (chunk instanceof Throwable) {
+                    ended = true;
+                    Throwable failure = (Throwable) chunk;
+                    throw failure instanceof IOException ? (IOException) failure : new IOException(failure.toString(), failure);
+                }
+                if (chunk == END_OF_STREAM) {
+                    ended = true;
+                    return false;
+                }
+                current = (byte[]) chunk;
+                position = 0;
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            while (next()) {
+                if (position < current.length) {
+                    return current[position++] & 0xff;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (next()) {
+                int count = Math.min(len, current.length - position);
+                if (count > 0) {
+                    System.arraycopy(current, position, b, off, count);
+                    position += count;
+                    return count;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return current != null ? current.length - position : 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!ended) {
+                ended = true;
+                chunks.clear();
+                if (creditSender != null) {
+                    creditSender.sendCredit(id, -1);
+                }
+                if (onClose != null) {
+                    onClose.run();
+                }
+            }
+        }
+    }
+}
@@ -290,6 +290,8 @@ public class TcpTransport implements Transport {
 
     int max_read_rate;
     int max_write_rate;
+    int batchDelay;
+    boolean batchFlushScheduled;
     protected RateLimitingChannel rateLimitingChannel;
 
     class RateLimitingChannel implements ReadableByteChannel, WritableByteChannel {
@@ -577,6 +579,9 @@ public class TcpTransport implements Transport {
             writeSource.cancel();
             writeSource=null;
         }
+        if( codec instanceof LengthPrefixedCodec ) {
+            ((LengthPrefixedCodec) codec).close();
+        }
         this.codec = null;
     }
 
@@ -607,6 +612,14 @@ public class TcpTransport implements Transport {
                 default:
                     if( drained ) {
                         drained = false;
+                        if( holdForBatch() ) {
+                            scheduleBatchFlush();
+                        } else {
+                            resumeWrite();
+                        }
+                    } else if( batchFlushScheduled && !holdForBatch() ) {
+                        // the batch filled up before the delay expired
+                        batchFlushScheduled = false;
                         resumeWrite();
                     }
                     return true;
@@ -619,6 +632,22 @@ public class TcpTransport implements Transport {
     }
 
 
+    private boolean holdForBatch() {
+        return batchDelay > 0 && codec instanceof LengthPrefixedCodec && ((LengthPrefixedCodec) codec).canHoldForBatch();
+    }
+
+    private void scheduleBatchFlush() {
+        batchFlushScheduled = true;
+        dispatchQueue.executeAfter(batchDelay, TimeUnit.MILLISECONDS, new Runnable() {
+            public void run() {
+                if( batchFlushScheduled ) {
+                    batchFlushScheduled = false;
+                    resumeWrite();
+                }
+            }
+        });
+    }
+
     boolean drained = true;
     /**
      *
@@ -825,4 +854,17 @@ public class TcpTransport implements Transport {
         this.max_write_rate = max_write_rate;
     }
 
+    public int getBatchDelay() {
+        return batchDelay;
+    }
+
+    /**
+     * Sets how many milliseconds outbound commands may be held back so they can be sent in one batch,
+     * once batching has been negotiated by the {@link LengthPrefixedCodec}. With 0 everything which
+     * was offered while the dispatch queue was busy is sent together.
+     */
+    public void setBatchDelay(int batchDelay) {
+        this.batchDelay = batchDelay;
+    }
+
 }
@@ -45,20 +45,30 @@ public abstract class TransportPool implements Service {
     protected final DispatchQueue queue;
     protected final LinkedList<Pair> pending = new LinkedList<Pair>();
     protected final Map<Transport, TransportState> transports = new HashMap<Transport, TransportState>();
+    protected final Map<Object, TransportState> inflight = new HashMap<Object, TransportState>();
     protected AtomicBoolean running = new AtomicBoolean(false);
 
     protected int poolSize;
     protected long evictionDelay;
+    protected int maxInflight;
 
     public TransportPool(String uri, DispatchQueue queue) {
         this(uri, queue, DEFAULT_POOL_SIZE, DEFAULT_EVICTION_DELAY);
     }
 
     public TransportPool(String uri, DispatchQueue queue, int poolSize, long evictionDelay) {
+        this(uri, queue, poolSize, evictionDelay, 0);
+    }
+
+    /**
+     * @param maxInflight the maximum number of requests awaiting a response on each transport, or 0 for no limit
+     */
+    public TransportPool(String uri, DispatchQueue queue, int poolSize, long evictionDelay, int maxInflight) {
         this.uri = uri;
         this.queue = queue;
         this.poolSize = poolSize;
         this.evictionDelay = evictionDelay;
+        this.maxInflight = maxInflight;
     }
 
     protected abstract Transport createTransport(String uri) throws Exception;
@@ -70,13 +80,27 @@ public abstract class TransportPool implements Service {
     protected abstract void onFailure(Object id, Throwable throwable);
 
     protected void onDone(Object id) {
-        for (TransportState state : transports.values()) {
-            if (state.inflight.remove(id)) {
-                break;
+        TransportState state = inflight.remove(id);
+        if (state != null) {
+            state.inflight.remove(id);
+            if (!pending.isEmpty() && state.transport != null && transports.get(state.transport) == state) {
+                // the transport may have been at its inflight limit
+                offerPending(state.transport, state);
             }
         }
     }
 
+    /**
+     * Releases the slot of a request which won't get any further response, such as a stream closed by its reader
+     */
+    public void done(final Object id) {
+        queue.execute(new Runnable() {
+            public void run() {
+                onDone(id);
+            }
+        });
+    }
+
     public void offer(final Object data, final Object id) {
         if (!running.get()) {
             throw new IllegalStateException("Transport pool stopped");
@@ -97,13 +121,29 @@ public abstract class TransportPool implements Service {
     }
 
     protected boolean doOffer(Transport transport, Object command, Object id) {
-        transports.get(transport).inflight.add(id);
+        if (id != null) {
+            TransportState state = transports.get(transport);
+            state.inflight.add(id);
+            inflight.put(id, state);
+        }
         return transport.offer(command);
     }
 
+    protected boolean isAcceptingRequests(TransportState state) {
+        return maxInflight <= 0 || state.inflight.size() < maxInflight;
+    }
+
+    protected void offerPending(Transport transport, TransportState state) {
+        while (pending.size() > 0 && !transport.full() && isAcceptingRequests(state)) {
+            Pair pair = pending.removeFirst();
+            boolean accepted = doOffer(transport, pair.command, pair.id);
+            assert accepted: "Should have been accepted since the transport was not full";
+        }
+    }
+
     protected Transport getIdleTransport() {
         for (Map.Entry<Transport, TransportState> entry : transports.entrySet()) {
-            if (entry.getValue().time > 0) {
+            if (entry.getValue().time > 0 && isAcceptingRequests(entry.getValue())) {
                 return entry.getKey();
             }
         }
@@ -141,15 +181,23 @@ public abstract class TransportPool implements Service {
                                     Pair p = pending.removeFirst();
                                     onFailure(p.id, new IOException("Transport stopped"));
                                 }
-                                onComplete.run();
+                                if (onComplete != null) {
+                                    onComplete.run();
+                                }
                             }
                         }
                     };
+                    if (transports.isEmpty()) {
+                        latch.set(1);
+                        coutDown.run();
+                        return;
+                    }
                     while (!transports.isEmpty()) {
                         Transport transport = transports.keySet().iterator().next();
                         TransportState state = transports.remove(transport);
                         if (state != null) {
                             for (Object id : state.inflight) {
+                                inflight.remove(id);
                                 onFailure(id, new IOException("Transport stopped"));
                             }
                         }
@@ -157,7 +205,7 @@ public abstract class TransportPool implements Service {
                     }
                 }
             });
-        } else {
+        } else if (onComplete != null) {
             onComplete.run();
         }
     }
@@ -168,7 +216,7 @@ public abstract class TransportPool implements Service {
         transport.setDispatchQueue(queue);
         transport.setProtocolCodec(createCodec());
         transport.setTransportListener(new Listener());
-        transports.put(transport, new TransportState());
+        transports.put(transport, new TransportState(transport));
         transport.start();
     }
 
@@ -184,9 +232,15 @@ public abstract class TransportPool implements Service {
 
     protected static class TransportState {
         long time;
+        final Transport transport;
         final Set<Object> inflight;
 
         public TransportState() {
+            this(null);
+        }
+
+        public TransportState(Transport transport) {
+            this.transport = transport;
             time = 0;
             inflight = new HashSet<Object>();
         }
@@ -199,22 +253,22 @@ public abstract class TransportPool implements Service {
         }
 
         public void onRefill(final Transport transport) {
-            while (pending.size() > 0 &&  !transport.full()) {
-                Pair pair = pending.removeFirst();
-                boolean accepted = doOffer(transport, pair.command, pair.id);
-                assert accepted: "Should have been accepted since the transport was not full";
+            TransportState current = transports.get(transport);
+            if (current == null) {
+                return;
             }
+            offerPending(transport, current);
 
             if( transport.full() ) {
-                transports.get(transport).time = 0L;
+                current.time = 0L;
             } else {
                 final long time = System.currentTimeMillis();
-                transports.get(transport).time = time;
+                current.time = time;
                 if (evictionDelay > 0) {
                     queue.executeAfter(evictionDelay, TimeUnit.MILLISECONDS, new Runnable() {
                         public void run() {
                             TransportState state = transports.get(transport);
-                            if (state != null && state.time == time) {
+                            if (state != null && state.time == time && state.inflight.isEmpty()) {
                                 transports.remove(transport);
                                 transport.stop();
                             }
@@ -231,6 +285,7 @@ public abstract class TransportPool implements Service {
                 TransportState state = transports.remove(transport);
                 if (state != null) {
                     for (Object id : state.inflight) {
+                        inflight.remove(id);
                         onFailure(id, error);
                     }
                 }
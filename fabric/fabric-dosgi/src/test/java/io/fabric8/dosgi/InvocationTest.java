@@ -15,13 +15,18 @@
  */
 package io.fabric8.dosgi;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Proxy;
 import java.lang.reflect.UndeclaredThrowableException;
+import java.net.SocketTimeoutException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -36,6 +41,10 @@ import org.junit.Test;
 
 import static org.fusesource.hawtdispatch.Dispatch.createQueue;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class InvocationTest {
     final static long MILLIS_IN_A_NANO = TimeUnit.MILLISECONDS.toNanos(1);
@@ -100,6 +109,52 @@ public class InvocationTest {
         }
     }
 
+    @Test(timeout=30*1000)
+    public void testMultipleQueuesWithInflightLimit() throws Exception {
+
+        DispatchQueue queue = Dispatch.createQueue();
+        HashMap<String, SerializationStrategy> map = new HashMap<String, SerializationStrategy>();
+        map.put("protobuf", new ProtobufSerializationStrategy());
+
+        ServerInvokerImpl server = new ServerInvokerImpl("tcp://localhost:0", queue, map);
+        server.start();
+
+        ClientInvokerImpl client = new ClientInvokerImpl(queue, map);
+        client.setQueueCount(3);
+        client.setPoolSize(1);
+        client.setMaxInflight(1);
+        client.start();
+
+        try {
+            server.registerService("service-id", new ServerInvoker.ServiceFactory() {
+                public Object get() {
+                    return new HelloImpl();
+                }
+                public void unget() {
+                }
+            }, HelloImpl.class.getClassLoader());
+
+            InvocationHandler handler = client.getProxy(server.getConnectAddress(), "service-id", HelloImpl.class.getClassLoader());
+            Hello hello  = (Hello) Proxy.newProxyInstance(HelloImpl.class.getClassLoader(), new Class[] { Hello.class }, handler);
+
+            // more requests than connections so some have to wait for a response before being sent
+            List<AsyncCallbackFuture<String>> futures = new ArrayList<AsyncCallbackFuture<String>>();
+            for (int i = 0; i < 50; i++) {
+                AsyncCallbackFuture<String> future = new AsyncCallbackFuture<String>();
+                hello.hello("Fabric " + i, future);
+                futures.add(future);
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                assertEquals("Hello Fabric " + i + "!", futures.get(i).get(5, TimeUnit.SECONDS));
+            }
+            assertEquals("Hello World!", hello.helloworld());
+        }
+        finally {
+            server.stop();
+            client.stop();
+        }
+    }
+
     @Test(timeout=30*1000)
     public void testOverflowAsync() throws Exception {
 
@@ -473,6 +528,295 @@ public class InvocationTest {
         }
     }
 
+    @Test(timeout=30*1000)
+    public void testStreamedResult() throws Exception {
+
+        DispatchQueue queue = Dispatch.createQueue();
+        HashMap<String, SerializationStrategy> map = new HashMap<String, SerializationStrategy>();
+
+        ServerInvokerImpl server = new ServerInvokerImpl("tcp://localhost:0", queue, map);
+        server.setStreamChunkSize(1024);
+        server.setStreamWindow(2);
+        server.start();
+
+        ClientInvokerImpl client = new ClientInvokerImpl(queue, map);
+        client.start();
+
+        try {
+            server.registerService("service-id", new ServerInvoker.ServiceFactory() {
+                public Object get() {
+                    return new DownloadImpl();
+                }
+                public void unget() {
+                }
+            }, DownloadImpl.class.getClassLoader());
+
+            InvocationHandler handler = client.getProxy(server.getConnectAddress(), "service-id", DownloadImpl.class.getClassLoader());
+            Download download = (Download) Proxy.newProxyInstance(DownloadImpl.class.getClassLoader(), new Class[] { Download.class }, handler);
+
+            // Far more data than the flow control window allows in flight.
+            InputStream is = download.download(256 * 1024);
+            int count = 0;
+            int b;
+            while ((b = is.read()) >= 0) {
+                assertEquals(count % 251, b);
+                count++;
+            }
+            is.close();
+            assertEquals(256 * 1024, count);
+
+            // Closing early cancels the remaining transfer, the connection stays usable.
+            is = download.download(1024 * 1024);
+            assertEquals(0, is.read());
+            is.close();
+            assertNull(download.download(-1));
+
+            is = download.download(10);
+            assertEquals(10, is.read(new byte[100]));
+            assertEquals(-1, is.read());
+        }
+        finally {
+            server.stop();
+            client.stop();
+        }
+    }
+
+    @Test(timeout=30*1000)
+    public void testBatchDelay() throws Exception {
+
+        DispatchQueue queue = Dispatch.createQueue();
+        HashMap<String, SerializationStrategy> map = new HashMap<String, SerializationStrategy>();
+
+        ServerInvokerImpl server = new ServerInvokerImpl("tcp://localhost:0", queue, map);
+        server.start();
+
+        ClientInvokerImpl client = new ClientInvokerImpl(queue, map);
+        client.setQueueCount(1);
+        client.setPoolSize(1);
+        client.setBatchSize(64 * 1024);
+        client.setBatchDelay(500);
+        client.setNegotiationSupported(server.getConnectAddress());
+        client.start();
+
+        try {
+            server.registerService("service-id", new ServerInvoker.ServiceFactory() {
+                public Object get() {
+                    return new HelloImpl();
+                }
+                public void unget() {
+                }
+            }, HelloImpl.class.getClassLoader());
+
+            InvocationHandler handler = client.getProxy(server.getConnectAddress(), "service-id", HelloImpl.class.getClassLoader());
+            Hello hello  = (Hello) Proxy.newProxyInstance(HelloImpl.class.getClassLoader(), new Class[] { Hello.class }, handler);
+
+            // The first request goes out with the hello, batching starts once the server answered it.
+            assertEquals("Hello World!", hello.helloworld());
+
+            // The next requests are held back until the batch delay expires and then sent together.
+            long start = System.nanoTime();
+            List<AsyncCallbackFuture<String>> futures = new ArrayList<AsyncCallbackFuture<String>>();
+            for (int i = 0; i < 10; i++) {
+                AsyncCallbackFuture<String> future = new AsyncCallbackFuture<String>();
+                hello.hello("Fabric " + i, future);
+                futures.add(future);
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                assertEquals("Hello Fabric " + i + "!", futures.get(i).get(5, TimeUnit.SECONDS));
+            }
+            long elapsed = System.nanoTime() - start;
+            assertTrue("responses after " + elapsed / MILLIS_IN_A_NANO + " ms", elapsed >= 400 * MILLIS_IN_A_NANO);
+        }
+        finally {
+            server.stop();
+            client.stop();
+        }
+    }
+
+    @Test(timeout=30*1000)
+    public void testRejectedInvocation() throws Exception {
+
+        DispatchQueue queue = Dispatch.createQueue();
+        HashMap<String, SerializationStrategy> map = new HashMap<String, SerializationStrategy>();
+
+        ServerInvokerImpl server = new ServerInvokerImpl("tcp://localhost:0", queue, map);
+        server.start();
+
+        // one connection, so the requests reach the server in the order they are sent
+        ClientInvokerImpl client = new ClientInvokerImpl(queue, map);
+        client.setQueueCount(1);
+        client.setPoolSize(1);
+        client.start();
+
+        try {
+            final BlockingImpl blockingImpl = new BlockingImpl();
+            server.registerService("service-id", new ServerInvoker.ServiceFactory() {
+                public Object get() {
+                    return blockingImpl;
+                }
+                public void unget() {
+                }
+            }, BlockingImpl.class.getClassLoader(), null, ServerInvokerImpl.EXECUTOR_SERVICE, 1, 1);
+
+            InvocationHandler handler = client.getProxy(server.getConnectAddress(), "service-id", BlockingImpl.class.getClassLoader());
+            Blocking blocking = (Blocking) Proxy.newProxyInstance(BlockingImpl.class.getClassLoader(), new Class[] { Blocking.class }, handler);
+
+            // The service runs one call and queues one more, the third one is turned down.
+            AsyncCallbackFuture<String> running = new AsyncCallbackFuture<String>();
+            blocking.call("running", running);
+            assertTrue(blockingImpl.started.await(5, TimeUnit.SECONDS));
+            AsyncCallbackFuture<String> queued = new AsyncCallbackFuture<String>();
+            blocking.call("queued", queued);
+            AsyncCallbackFuture<String> rejected = new AsyncCallbackFuture<String>();
+            blocking.call("rejected", rejected);
+            try {
+                rejected.get(5, TimeUnit.SECONDS);
+                fail("Expected the call to be rejected");
+            } catch (ExecutionException e) {
+                assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof RejectedInvocationException);
+            }
+
+            blockingImpl.release.countDown();
+            assertEquals("running", running.get(5, TimeUnit.SECONDS));
+            assertEquals("queued", queued.get(5, TimeUnit.SECONDS));
+        }
+        finally {
+            server.stop();
+            client.stop();
+        }
+    }
+
+    public static interface Blocking {
+        void call(String name, AsyncCallback<String> callback);
+    }
+
+    public static class BlockingImpl implements Blocking {
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        public void call(String name, AsyncCallback<String> callback) {
+            started.countDown();
+            try {
+                release.await();
+                callback.onSuccess(name);
+            } catch (InterruptedException e) {
+                callback.onFailure(e);
+            }
+        }
+    }
+
+    @Test(timeout=30*1000)
+    public void testStreamTimeouts() throws Exception {
+
+        DispatchQueue queue = Dispatch.createQueue();
+        HashMap<String, SerializationStrategy> map = new HashMap<String, SerializationStrategy>();
+
+        ServerInvokerImpl server = new ServerInvokerImpl("tcp://localhost:0", queue, map);
+        server.setStreamChunkSize(1024);
+        server.setStreamWindow(1);
+        server.setStreamTimeout(500);
+        server.start();
+
+        ClientInvokerImpl client = new ClientInvokerImpl(queue, map);
+        client.setStreamTimeout(1000);
+        client.start();
+
+        final StallingDownloadImpl stallingImpl = new StallingDownloadImpl();
+        try {
+            server.registerService("service-id", new ServerInvoker.ServiceFactory() {
+                public Object get() {
+                    return new DownloadImpl();
+                }
+                public void unget() {
+                }
+            }, DownloadImpl.class.getClassLoader());
+            server.registerService("stalling-id", new ServerInvoker.ServiceFactory() {
+                public Object get() {
+                    return stallingImpl;
+                }
+                public void unget() {
+                }
+            }, StallingDownloadImpl.class.getClassLoader());
+
+            InvocationHandler handler = client.getProxy(server.getConnectAddress(), "service-id", DownloadImpl.class.getClassLoader());
+            Download download = (Download) Proxy.newProxyInstance(DownloadImpl.class.getClassLoader(), new Class[] { Download.class }, handler);
+            handler = client.getProxy(server.getConnectAddress(), "stalling-id", StallingDownloadImpl.class.getClassLoader());
+            Download stalling = (Download) Proxy.newProxyInstance(StallingDownloadImpl.class.getClassLoader(), new Class[] { Download.class }, handler);
+
+            // The server gives up on a stream the client stopped reading and ends it with an error.
+            InputStream is = download.download(256 * 1024);
+            assertEquals(0, is.read());
+            Thread.sleep(1500);
+            try {
+                while (is.read() >= 0) {
+                }
+                fail("Expected the stream to be failed by the server");
+            } catch (IOException e) {
+                assertFalse(e instanceof SocketTimeoutException);
+            }
+            is.close();
+
+            // The client gives up on a stream the server stopped sending.
+            is = stalling.download(10);
+            try {
+                is.read();
+                fail("Expected the read to time out");
+            } catch (SocketTimeoutException e) {
+                // expected
+            }
+            is.close();
+            stallingImpl.release.countDown();
+
+            // The connection stays usable.
+            is = download.download(10);
+            assertEquals(10, is.read(new byte[100]));
+            assertEquals(-1, is.read());
+        }
+        finally {
+            stallingImpl.release.countDown();
+            server.stop();
+            client.stop();
+        }
+    }
+
+    public static class StallingDownloadImpl implements Download {
+
+        final CountDownLatch release = new CountDownLatch(1);
+
+        public InputStream download(final int size) {
+            return new InputStream() {
+                public int read() throws IOException {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException();
+                    }
+                    return -1;
+                }
+            };
+        }
+    }
+
+    public static interface Download {
+        InputStream download(int size);
+    }
+
+    public static class DownloadImpl implements Download {
+
+        public InputStream download(final int size) {
+            if (size < 0) {
+                return null;
+            }
+            return new InputStream() {
+                int pos;
+                public int read() {
+                    return pos < size ? pos++ % 251 : -1;
+                }
+            };
+        }
+    }
+
     public static interface Hello {
         String hello(String name);
 
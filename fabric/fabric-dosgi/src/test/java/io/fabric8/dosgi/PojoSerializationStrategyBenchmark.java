@@ -0,0 +1,135 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.dosgi;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import io.fabric8.dosgi.api.ObjectSerializationStrategy;
+import io.fabric8.dosgi.api.PojoSerializationStrategy;
+import io.fabric8.dosgi.api.SerializationStrategy;
+import org.fusesource.hawtbuf.DataByteArrayInputStream;
+import org.fusesource.hawtbuf.DataByteArrayOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the requests per second encoded and decoded by {@link PojoSerializationStrategy} against
+ * {@link ObjectSerializationStrategy} for a request carrying an order with a number of lines. The gc profiler
+ * reports the bytes allocated per request as <code>gc.alloc.rate.norm</code>.
+ * <p/>
+ * Run with <code>mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=io.fabric8.dosgi.PojoSerializationStrategyBenchmark</code>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PojoSerializationStrategyBenchmark {
+
+    private static final ClassLoader LOADER = PojoSerializationStrategyBenchmark.class.getClassLoader();
+
+    @Param({"pojo", "object"})
+    public String strategyName;
+
+    @Param({"1", "10"})
+    public int lines;
+
+    private SerializationStrategy strategy;
+    private Object[] args;
+    private Class<?>[] types;
+    private byte[] encoded;
+
+    @Setup
+    public void setup() throws Exception {
+        strategy = PojoSerializationStrategy.NAME.equals(strategyName) ? PojoSerializationStrategy.INSTANCE : ObjectSerializationStrategy.INSTANCE;
+        args = new Object[]{createOrder(lines), "customer-1", 5};
+        types = new Class<?>[args.length];
+        Arrays.fill(types, Object.class);
+        DataByteArrayOutputStream out = new DataByteArrayOutputStream();
+        strategy.encodeRequest(LOADER, types, args, out);
+        encoded = Arrays.copyOf(out.getData(), out.size());
+    }
+
+    @Benchmark
+    public int encode() throws Exception {
+        DataByteArrayOutputStream out = new DataByteArrayOutputStream();
+        strategy.encodeRequest(LOADER, types, args, out);
+        return out.size();
+    }
+
+    @Benchmark
+    public Object[] decode() throws Exception {
+        Object[] target = new Object[types.length];
+        strategy.decodeRequest(LOADER, types, new DataByteArrayInputStream(encoded), target);
+        return target;
+    }
+
+    private static Order createOrder(int lines) {
+        Order order = new Order();
+        order.id = 1234567890123L;
+        order.customer = "customer-1";
+        order.created = new Date(1400000000000L);
+        for (int i = 0; i < lines; i++) {
+            OrderLine line = new OrderLine();
+            line.product = "product-" + i;
+            line.price = 9.99 * i;
+            line.quantity = i;
+            order.lines.add(line);
+        }
+        order.attributes.put("priority", "high");
+        order.attributes.put("channel", "web");
+        return order;
+    }
+
+    public static class Order implements Serializable {
+        long id;
+        String customer;
+        Date created;
+        List<OrderLine> lines = new ArrayList<OrderLine>();
+        Map<String, String> attributes = new HashMap<String, String>();
+    }
+
+    public static class OrderLine implements Serializable {
+        String product;
+        double price;
+        int quantity;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(PojoSerializationStrategyBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class).build()).run();
+    }
+}
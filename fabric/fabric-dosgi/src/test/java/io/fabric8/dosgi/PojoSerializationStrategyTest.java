@@ -0,0 +1,259 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.dosgi;
+
+import io.fabric8.dosgi.api.AsyncCallback;
+import io.fabric8.dosgi.api.ObjectSerializationStrategy;
+import io.fabric8.dosgi.api.PojoSerializationStrategy;
+import io.fabric8.dosgi.api.SerializationStrategy;
+import org.fusesource.hawtbuf.DataByteArrayInputStream;
+import org.fusesource.hawtbuf.DataByteArrayOutputStream;
+import org.junit.Test;
+
+import java.io.InvalidClassException;
+import java.io.NotSerializableException;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PojoSerializationStrategyTest {
+
+    private static final ClassLoader LOADER = PojoSerializationStrategyTest.class.getClassLoader();
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Test
+    public void testPojoRoundTrip() throws Exception {
+        Order order = createOrder(3);
+        Object[] args = roundTrip(PojoSerializationStrategy.INSTANCE, order, "text", 42, -7L, null, Status.SHIPPED);
+
+        Order copy = (Order) args[0];
+        assertEquals(order.id, copy.id);
+        assertEquals(order.customer, copy.customer);
+        assertEquals(order.created, copy.created);
+        assertEquals(order.status, copy.status);
+        assertEquals(order.lines.size(), copy.lines.size());
+        assertEquals(order.lines.get(1).product, copy.lines.get(1).product);
+        assertEquals(order.lines.get(1).price, copy.lines.get(1).price, 0.0);
+        assertEquals(order.attributes, copy.attributes);
+        assertArrayEquals(order.quantities, copy.quantities);
+        assertEquals(0, copy.cached);
+
+        assertEquals("text", args[1]);
+        assertEquals(42, args[2]);
+        assertEquals(-7L, args[3]);
+        assertNull(args[4]);
+        assertSame(Status.SHIPPED, args[5]);
+    }
+
+    @Test
+    public void testSharedAndCyclicReferences() throws Exception {
+        Node first = new Node();
+        Node second = new Node();
+        first.next = second;
+        second.next = first;
+        Object[] args = roundTrip(PojoSerializationStrategy.INSTANCE, first, second, new Node[]{first, second});
+
+        Node a = (Node) args[0];
+        Node b = (Node) args[1];
+        assertSame(b, a.next);
+        assertSame(a, b.next);
+        Node[] array = (Node[]) args[2];
+        assertSame(a, array[0]);
+        assertSame(b, array[1]);
+    }
+
+    @Test
+    public void testJdkTypes() throws Exception {
+        TreeMap<String, Integer> sorted = new TreeMap<String, Integer>(String.CASE_INSENSITIVE_ORDER);
+        sorted.put("b", 2);
+        sorted.put("A", 1);
+        List<String> fixed = Arrays.asList("x", "y");
+        Object[] args = roundTrip(PojoSerializationStrategy.INSTANCE, sorted, fixed, new byte[]{1, 2, 3}, new int[]{Integer.MIN_VALUE, 0, Integer.MAX_VALUE}, 'c', 1.5f, (short) 3, (byte) 4, true);
+
+        assertEquals(sorted, args[0]);
+        assertEquals(1, ((TreeMap) args[0]).get("a"));
+        assertEquals(fixed, args[1]);
+        assertArrayEquals(new byte[]{1, 2, 3}, (byte[]) args[2]);
+        assertArrayEquals(new int[]{Integer.MIN_VALUE, 0, Integer.MAX_VALUE}, (int[]) args[3]);
+        assertEquals('c', args[4]);
+        assertEquals(1.5f, args[5]);
+        assertEquals((short) 3, args[6]);
+        assertEquals((byte) 4, args[7]);
+        assertEquals(true, args[8]);
+    }
+
+    @Test
+    public void testResponses() throws Exception {
+        Order order = createOrder(2);
+        Result result = new Result();
+        decodeResponse(PojoSerializationStrategy.INSTANCE, encodeResponse(PojoSerializationStrategy.INSTANCE, order, null), result);
+        assertEquals(order.customer, ((Order) result.value).customer);
+
+        result = new Result();
+        decodeResponse(PojoSerializationStrategy.INSTANCE, encodeResponse(PojoSerializationStrategy.INSTANCE, null, new IllegalStateException("boom")), result);
+        assertTrue(result.error instanceof IllegalStateException);
+        assertEquals("boom", result.error.getMessage());
+    }
+
+    @Test
+    public void testSmallerThanObjectSerialization() throws Exception {
+        Object[] args = new Object[]{createOrder(10), "customer-1", 5};
+
+        int pojoSize = encodeRequest(PojoSerializationStrategy.INSTANCE, args).length;
+        int objectSize = encodeRequest(ObjectSerializationStrategy.INSTANCE, args).length;
+        assertTrue("pojo " + pojoSize + " bytes, object " + objectSize + " bytes", pojoSize < objectSize);
+    }
+
+    @Test(expected = NotSerializableException.class)
+    public void testNotSerializablePojoIsNotEncoded() throws Exception {
+        encodeRequest(PojoSerializationStrategy.INSTANCE, new Object[]{new Plain()});
+    }
+
+    @Test(expected = InvalidClassException.class)
+    public void testNotSerializablePojoIsNotDecoded() throws Exception {
+        byte[] data = encodeRequest(PojoSerializationStrategy.INSTANCE, new Object[]{new Valid()});
+        replace(data, Valid.class.getName(), Plain.class.getName());
+        PojoSerializationStrategy.INSTANCE.decodeRequest(LOADER, types(1), new DataByteArrayInputStream(data), new Object[1]);
+    }
+
+    @Test(expected = InvalidClassException.class)
+    public void testOtherClassIsNotDecodedAsCollection() throws Exception {
+        byte[] data = encodeRequest(PojoSerializationStrategy.INSTANCE, new Object[]{new ArrayList<String>()});
+        replace(data, ArrayList.class.getName(), Throwable.class.getName());
+        PojoSerializationStrategy.INSTANCE.decodeRequest(LOADER, types(1), new DataByteArrayInputStream(data), new Object[1]);
+    }
+
+    /**
+     * Swaps a class name written in an encoded message for another one of the same length
+     */
+    private static void replace(byte[] data, String name, String replacement) {
+        byte[] from = name.getBytes(UTF8);
+        byte[] to = replacement.getBytes(UTF8);
+        assertEquals(from.length, to.length);
+        for (int i = 0; i + from.length <= data.length; i++) {
+            if (Arrays.equals(from, Arrays.copyOfRange(data, i, i + from.length))) {
+                System.arraycopy(to, 0, data, i, to.length);
+                return;
+            }
+        }
+        throw new AssertionError(name + " not found");
+    }
+
+    private static Object[] roundTrip(SerializationStrategy strategy, Object... args) throws Exception {
+        Object[] answer = new Object[args.length];
+        strategy.decodeRequest(LOADER, types(args.length), new DataByteArrayInputStream(encodeRequest(strategy, args)), answer);
+        return answer;
+    }
+
+    private static byte[] encodeRequest(SerializationStrategy strategy, Object[] args) throws Exception {
+        DataByteArrayOutputStream baos = new DataByteArrayOutputStream();
+        strategy.encodeRequest(LOADER, types(args.length), args, baos);
+        return Arrays.copyOf(baos.getData(), baos.size());
+    }
+
+    private static byte[] encodeResponse(SerializationStrategy strategy, Object value, Throwable error) throws Exception {
+        DataByteArrayOutputStream baos = new DataByteArrayOutputStream();
+        strategy.encodeResponse(LOADER, Object.class, value, error, baos);
+        return Arrays.copyOf(baos.getData(), baos.size());
+    }
+
+    private static void decodeResponse(SerializationStrategy strategy, byte[] data, Result result) throws Exception {
+        strategy.decodeResponse(LOADER, Object.class, new DataByteArrayInputStream(data), result);
+    }
+
+    private static Class<?>[] types(int length) {
+        Class<?>[] types = new Class<?>[length];
+        Arrays.fill(types, Object.class);
+        return types;
+    }
+
+    private static Order createOrder(int lines) {
+        Order order = new Order();
+        order.id = 1234567890123L;
+        order.customer = "customer-1";
+        order.created = new Date(1400000000000L);
+        order.status = Status.NEW;
+        order.quantities = new int[lines];
+        for (int i = 0; i < lines; i++) {
+            OrderLine line = new OrderLine();
+            line.product = "product-" + i;
+            line.price = 9.99 * i;
+            line.quantity = i;
+            order.lines.add(line);
+            order.quantities[i] = i;
+        }
+        order.attributes.put("priority", "high");
+        order.attributes.put("channel", "web");
+        order.cached = 99;
+        return order;
+    }
+
+    static class Result implements AsyncCallback<Object> {
+        Object value;
+        Throwable error;
+
+        public void onSuccess(Object result) {
+            this.value = result;
+        }
+
+        public void onFailure(Throwable failure) {
+            this.error = failure;
+        }
+    }
+
+    enum Status {
+        NEW, SHIPPED
+    }
+
+    static class Order implements Serializable {
+        long id;
+        String customer;
+        Date created;
+        Status status;
+        List<OrderLine> lines = new ArrayList<OrderLine>();
+        Map<String, String> attributes = new HashMap<String, String>();
+        int[] quantities;
+        transient int cached;
+    }
+
+    static class OrderLine implements Serializable {
+        String product;
+        double price;
+        int quantity;
+    }
+
+    static class Node implements Serializable {
+        Node next;
+    }
+
+    static class Valid implements Serializable {
+    }
+
+    static class Plain {
+    }
+}
@@ -18,8 +18,13 @@ package io.fabric8.dosgi.tcp;
 import static org.easymock.EasyMock.*;
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.net.ProtocolException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
 
@@ -131,6 +136,159 @@ public class LengthPrefixedCodecTest {
 		assertEquals(bytesThatWillBeWritten, codec.getWriteCounter());
 	}
 
+	@Test
+	public void testBatchingIsNegotiated() throws Exception {
+		LengthPrefixedCodec client = new LengthPrefixedCodec(1024, 0, true);
+		LengthPrefixedCodec server = new LengthPrefixedCodec();
+
+		// until the server answered the hello the client sends plain frames
+		client.write(frame("request-1"));
+		byte[] sent = flush(client);
+		assertEquals(LengthPrefixedCodec.HELLO_SIZE + frame("request-1").length, sent.length);
+		assertEquals(false, client.isBatching());
+		assertEquals("request-1", payload(read(server, sent)));
+
+		server.write(frame("response-1"));
+		assertEquals("response-1", payload(read(client, flush(server))));
+		assertEquals(true, client.isBatching());
+		// the server was not configured to batch, it only agreed to read batches
+		assertEquals(false, server.isBatching());
+
+		client.write(frame("request-2"));
+		client.write(frame("request-3"));
+		sent = flush(client);
+		assertTrue((ByteBuffer.wrap(sent).getInt() & LengthPrefixedCodec.BATCH_FLAG) != 0);
+		assertEquals("request-2", payload(read(server, sent)));
+		assertEquals("request-3", payload(server.read()));
+	}
+
+	@Test
+	public void testWithoutHelloAnswerFramesStayPlain() throws Exception {
+		LengthPrefixedCodec client = new LengthPrefixedCodec(1024, 16, true);
+		flush(client);
+
+		client.write(frame("request-1"));
+		client.write(frame("request-2"));
+		assertEquals(frame("request-1").length * 2, flush(client).length);
+	}
+
+	@Test
+	public void testNoHelloUnlessPeerAdvertisedIt() throws Exception {
+		LengthPrefixedCodec client = new LengthPrefixedCodec(1024, 16, false);
+
+		client.write(frame("request-1"));
+		byte[] sent = flush(client);
+		assertEquals(frame("request-1").length, sent.length);
+		assertEquals("request-1", payload(read(new LengthPrefixedCodec(), sent)));
+		assertEquals(false, client.isBatching());
+	}
+
+	@Test
+	public void testLargeFramesAreDeflated() throws Exception {
+		LengthPrefixedCodec client = new LengthPrefixedCodec(0, 256, true);
+		LengthPrefixedCodec server = new LengthPrefixedCodec();
+		read(server, flush(client));
+		read(client, flush(server));
+
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			sb.append("repeated content ");
+		}
+		String large = sb.toString();
+		client.write(frame(large));
+		client.write(frame("small"));
+		byte[] sent = flush(client);
+		assertTrue(sent.length < frame(large).length);
+
+		assertEquals(large, payload(read(server, sent)));
+		assertEquals("small", payload(server.read()));
+	}
+
+	@Test
+	public void testInflatedSizeAboveMaximumIsRejected() throws Exception {
+		LengthPrefixedCodec client = new LengthPrefixedCodec(0, 256, true);
+		LengthPrefixedCodec server = new LengthPrefixedCodec();
+		server.setMaxInflatedSize(1024);
+		read(server, flush(client));
+		read(client, flush(server));
+
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			sb.append("repeated content ");
+		}
+		client.write(frame(sb.toString()));
+		try {
+			read(server, flush(client));
+			fail("Should have rejected the batch");
+		} catch (ProtocolException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("1024"));
+		}
+	}
+
+	@Test
+	public void testNegativeInflatedSizeIsRejected() throws Exception {
+		ByteBuffer batch = ByteBuffer.allocate(4 + 1 + 4 + 4);
+		batch.putInt(LengthPrefixedCodec.BATCH_FLAG | batch.capacity());
+		batch.put(LengthPrefixedCodec.ENCODING_DEFLATE);
+		batch.putInt(-1);
+		batch.putInt(0);
+		try {
+			read(new LengthPrefixedCodec(), batch.array());
+			fail("Should have rejected the batch");
+		} catch (ProtocolException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("-1"));
+		}
+	}
+
+	@Test
+	public void testCloseReleasesCompressors() throws Exception {
+		LengthPrefixedCodec client = new LengthPrefixedCodec(0, 16, true);
+		LengthPrefixedCodec server = new LengthPrefixedCodec();
+		read(server, flush(client));
+		read(client, flush(server));
+
+		String payload = "repeated content repeated content repeated content";
+		client.write(frame(payload));
+		assertEquals(payload, payload(read(server, flush(client))));
+		assertNotNull(client.deflater);
+		assertNotNull(server.inflater);
+
+		client.close();
+		server.close();
+		assertNull(client.deflater);
+		assertNull(server.inflater);
+	}
+
+	private static Buffer frame(String payload) {
+		byte[] data = payload.getBytes();
+		ByteBuffer frame = ByteBuffer.allocate(4 + data.length);
+		frame.putInt(frame.capacity());
+		frame.put(data);
+		return new Buffer(frame.array());
+	}
+
+	private static String payload(Object frame) {
+		Buffer buffer = (Buffer) frame;
+		return new String(buffer.data, buffer.offset + 4, buffer.length - 4);
+	}
+
+	private static byte[] flush(LengthPrefixedCodec codec) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		codec.setWritableByteChannel(Channels.newChannel(out));
+		codec.flush();
+		return out.toByteArray();
+	}
+
+	private static Object read(LengthPrefixedCodec codec, byte[] data) throws Exception {
+		codec.setReadableByteChannel(Channels.newChannel(new ByteArrayInputStream(data)));
+		try {
+			return codec.read();
+		} catch (EOFException e) {
+			// the data only held frames the codec handles itself
+			return null;
+		}
+	}
+
 	private IAnswer<Integer> createWriteAnswer(final int length) {
 		return new IAnswer<Integer>() {
 			@Override
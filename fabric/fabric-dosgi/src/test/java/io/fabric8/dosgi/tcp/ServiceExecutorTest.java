@@ -0,0 +1,114 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.dosgi.tcp;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ServiceExecutorTest {
+
+    private ExecutorService pool;
+
+    @Before
+    public void setUp() throws Exception {
+        pool = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void testRejectsWhenQueueIsFull() throws Exception {
+        ServiceExecutor executor = new ServiceExecutor("id", "service", pool, true, 2, 1);
+        final CountDownLatch started = new CountDownLatch(2);
+        final CountDownLatch release = new CountDownLatch(1);
+        Runnable blocking = new Runnable() {
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        executor.execute(blocking);
+        executor.execute(blocking);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        executor.execute(blocking);
+        assertEquals(2, executor.getActiveCount());
+        assertEquals(1, executor.getQueueSize());
+        try {
+            executor.execute(blocking);
+            fail("Expected the call to be rejected");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        assertEquals(1, executor.getRejectedCount());
+
+        release.countDown();
+        executor.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(3, executor.getCompletedCount());
+        assertEquals(0, executor.getQueueSize());
+        assertEquals(0, executor.getActiveCount());
+    }
+
+    @Test
+    public void testRecordsExecutionTime() throws Exception {
+        ServiceExecutor executor = new ServiceExecutor("id", "service", pool, false, 2, 0);
+        final CountDownLatch done = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            public void run() {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        // the statistics are updated right after the task returns
+        for (int i = 0; i < 100 && executor.getCompletedCount() == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, executor.getCompletedCount());
+        assertTrue(executor.getMaxExecutionTimeMicros() >= TimeUnit.MILLISECONDS.toMicros(20));
+        assertTrue(executor.getAverageExecutionTimeMicros() > 0);
+
+        // a shared pool is left running
+        executor.shutdown();
+        assertTrue(!pool.isShutdown());
+
+        executor.resetStatistics();
+        assertEquals(0, executor.getCompletedCount());
+        assertEquals(0, executor.getMaxExecutionTimeMicros());
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.git;
+
+/**
+ * Statistics and settings of the background maintenance of the git data store repository
+ */
+public interface GitMaintenanceMBean {
+
+    String OBJECT_NAME = "io.fabric8:type=GitMaintenance";
+
+    /**
+     * Number of loose objects above which a full gc is run
+     */
+    long getLooseObjectThreshold();
+
+    void setLooseObjectThreshold(long threshold);
+
+    /**
+     * Number of pack files above which a full gc is run
+     */
+    long getPackFileThreshold();
+
+    void setPackFileThreshold(long threshold);
+
+    /**
+     * Number of loose refs above which the refs are packed
+     */
+    long getLooseRefThreshold();
+
+    void setLooseRefThreshold(long threshold);
+
+    long getLooseObjects();
+
+    long getLooseObjectsSize();
+
+    long getPackedObjects();
+
+    long getPackFiles();
+
+    long getPackedObjectsSize();
+
+    long getLooseRefs();
+
+    long getGcCount();
+
+    long getPackRefsCount();
+
+    long getLastDuration();
+
+    long getTotalDuration();
+
+    long getLastReclaimedSize();
+
+    long getLastRunTime();
+
+    String getLastError();
+
+    /**
+     * Schedules a full gc regardless of the thresholds
+     */
+    void runGc();
+}
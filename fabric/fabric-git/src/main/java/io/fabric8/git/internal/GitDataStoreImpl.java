@@ -28,7 +28,6 @@ import io.fabric8.api.ProfileRegistry;
 import io.fabric8.api.Profiles;
 import io.fabric8.api.RuntimeProperties;
 import io.fabric8.api.Version;
-import io.fabric8.api.VersionBuilder;
 import io.fabric8.api.VersionSequence;
 import io.fabric8.api.jcip.ThreadSafe;
 import io.fabric8.api.scr.AbstractComponent;
@@ -36,10 +35,12 @@ import io.fabric8.api.scr.Configurer;
 import io.fabric8.api.scr.ValidatingReference;
 import io.fabric8.api.visibility.VisibleForExternal;
 import io.fabric8.common.util.Files;
+import io.fabric8.common.util.JMXUtils;
 import io.fabric8.common.util.Strings;
 import io.fabric8.common.util.Zips;
 import io.fabric8.git.GitDataStore;
 import io.fabric8.git.GitListener;
+import io.fabric8.git.GitMaintenanceMBean;
 import io.fabric8.git.GitProxyService;
 import io.fabric8.git.GitService;
 import io.fabric8.git.PullPushPolicy;
@@ -56,6 +57,7 @@ import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
 import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
 import java.net.Proxy;
@@ -83,6 +85,9 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock.ReadLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
 
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
 import org.apache.commons.io.filefilter.WildcardFileFilter;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.recipes.shared.SharedCount;
@@ -115,11 +120,6 @@ import io.fabric8.api.gravia.IllegalStateAssertion;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
-
-
 /**
  * A git based implementation of {@link DataStore} which stores the profile
  * configuration versions in a branch per version and directory per profile.
@@ -138,8 +138,6 @@ public final class GitDataStoreImpl extends AbstractComponent implements GitData
     private static final String GIT_REMOTE_USER = "gitRemoteUser";
     private static final String GIT_REMOTE_PASSWORD = "gitRemotePassword";
     private static final String GIT_GC_ON_LOAD = "gitGcOnLoad";
-    private static final int GIT_COMMIT_SHORT_LENGTH = 7;
-    private static final int MAX_COMMITS_WITHOUT_GC = 40;
     private static final long AQUIRE_LOCK_TIMEOUT = 25 * 1000L;
 
     @Reference(referenceInterface = CuratorFramework.class)
@@ -159,13 +157,13 @@ public final class GitDataStoreImpl extends AbstractComponent implements GitData
     private Configurer configurer;
     
     private final ScheduledExecutorService threadPool = Executors.newSingleThreadScheduledExecutor();
+    private final GitMaintenance gitMaintenance = new GitMaintenance(threadPool);
 
     private final ImportExportHandler importExportHandler = new ImportExportHandler();
     private final GitDataStoreListener gitListener = new GitDataStoreListener();
     private final ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock();
     private final boolean strictLockAssert = true;
 
-    private int commitsWithoutGC = MAX_COMMITS_WITHOUT_GC;
     private Map<String, String> dataStoreProperties;
     private ProxySelector defaultProxySelector;
     private PullPushPolicy pullPushPolicy;
@@ -183,8 +181,12 @@ public final class GitDataStoreImpl extends AbstractComponent implements GitData
     private long gitRemotePollInterval = 60 * 1000L;
     @Property(name = GIT_GC_ON_LOAD, label = "Run Git GC", description = "Whether or not to run Git GC on load of the Git repo", boolValue = false)
     private boolean gitGcOnLoad = false;
+    @Property(name = "gitGcLooseObjectThreshold", label = "Git GC Loose Objects", description = "The number of loose objects above which Git GC runs in the background", longValue = GitMaintenance.DEFAULT_LOOSE_OBJECT_THRESHOLD)
+    private long gitGcLooseObjectThreshold = GitMaintenance.DEFAULT_LOOSE_OBJECT_THRESHOLD;
+    @Property(name = "gitGcPackFileThreshold", label = "Git GC Pack Files", description = "The number of pack files above which Git GC runs in the background", longValue = GitMaintenance.DEFAULT_PACK_FILE_THRESHOLD)
+    private long gitGcPackFileThreshold = GitMaintenance.DEFAULT_PACK_FILE_THRESHOLD;
     
-    private final LoadingCache<String, Version> versionCache = CacheBuilder.newBuilder().build(new VersionCacheLoader());
+    private final VersionCache versionCache = new VersionCache();
     private final Set<String> versions = new HashSet<String>();
 
     @Activate
@@ -265,6 +267,16 @@ public final class GitDataStoreImpl extends AbstractComponent implements GitData
         // Get initial versions
         getInitialVersions();
 
+        // Keep the repository packed in the background
+        gitMaintenance.setGit(getGit());
+        gitMaintenance.setLooseObjectThreshold(gitGcLooseObjectThreshold);
+        gitMaintenance.setPackFileThreshold(gitGcPackFileThreshold);
+        try {
+            JMXUtils.registerMBean(new StandardMBean(gitMaintenance, GitMaintenanceMBean.class), ManagementFactory.getPlatformMBeanServer(), new ObjectName(GitMaintenanceMBean.OBJECT_NAME));
+        } catch (Exception e) {
+            LOGGER.warn("Cannot register git maintenance MBean due " + e.getMessage());
+        }
+
         // poll logic in case of remote git repo
         if(gitRemoteUrl != null) {
             // i need this old logic in case of remote repos
@@ -331,26 +343,9 @@ public final class GitDataStoreImpl extends AbstractComponent implements GitData
         }
 
         if (gitGcOnLoad) {
-            LockHandle writeLock = aquireWriteLock();
-            try {
-                GitOperation<Void> gitop = new GitOperation<Void>() {
-                    public Void call(Git git, GitContext context) throws Exception {
-                            long before = System.currentTimeMillis();
-                            try {
-                                git.gc().call();
-                                LOGGER.debug("git gc took " + ((System.currentTimeMillis() - before)) + " ms.");
-                            } catch (GitAPIException e) {
-                                LOGGER.debug("git gc threw an exception!", e);                    
-                            }
-                            return null;
-                    }
-                };      
-                executeInternal(new GitContext(), null, gitop);
-            } finally {
-                writeLock.unlock();
-            }
+            gitMaintenance.runGc();
         }
-    
+
         //It is not safe to assume that we will get notified by the ShareCounter, if the component is not activated
         // when the SharedCounter gets updated.
         //Also we cannot rely on the remote url change event, as it will only trigger when there is an actual change.
@@ -362,6 +357,12 @@ public final class GitDataStoreImpl extends AbstractComponent implements GitData
         
         // Remove the GitListener
         gitService.get().removeGitListener(gitListener);
+
+        try {
+            JMXUtils.unregisterMBean(ManagementFactory.getPlatformMBeanServer(), new ObjectName(GitMaintenanceMBean.OBJECT_NAME));
+        } catch (Exception e) {
+            LOGGER.debug("Cannot unregister git maintenance MBean due " + e.getMessage(), e);
+        }
         
         // Shutdown the thread pool
         threadPool.shutdown();
@@ -473,20 +474,28 @@ public final class GitDataStoreImpl extends AbstractComponent implements GitData
         return Collections.unmodifiableMap(dataStoreProperties);
     }
 
+    /**
+     * Returns the version from its cached snapshot, which is reloaded when the heads of its branches moved.
+     * This does not take the data store lock, snapshots are immutable and loaded from git objects only.
+     */
     private Version getVersionFromCache(String versionId, String profileId) {
-        LockHandle writeLock = aquireWriteLock();
+        assertValid();
+        ClassLoader tccl = Thread.currentThread().getContextClassLoader();
         try {
-            assertValid();
+            Thread.currentThread().setContextClassLoader(GitDataStoreImpl.class.getClassLoader());
+            Git git = getGit();
+            Repository repository = git.getRepository();
             String branch = GitHelpers.getProfileBranch(versionId, profileId);
-            if (GitHelpers.localBranchExists(getGit(), branch)) {
-                return versionCache.get(versionId);
-            } else {
+            Ref masterRef = repository.getRef("refs/heads/" + GitHelpers.MASTER_BRANCH);
+            Ref versionRef = repository.getRef("refs/heads/" + versionId);
+            if (repository.getRef("refs/heads/" + branch) == null || masterRef == null || versionRef == null) {
                 return null;
             }
+            return versionCache.getVersion(repository, versionId, masterRef.getObjectId(), versionRef.getObjectId());
         } catch (Exception e) {
             throw FabricException.launderThrowable(e);
         } finally {
-            writeLock.unlock();
+            Thread.currentThread().setContextClassLoader(tccl);
         }
     }
 
@@ -1002,7 +1011,6 @@ public final class GitDataStoreImpl extends AbstractComponent implements GitData
 
             if (context.isRequireCommit()) {
                 doCommit(git, context);
-                versionCache.invalidateAll();
                 notificationRequired = true;
             }
 
@@ -1048,11 +1056,8 @@ public final class GitDataStoreImpl extends AbstractComponent implements GitData
             // git commit -m message
             git.commit().setMessage(message).call();
 
-            if (--commitsWithoutGC < 0) {
-                commitsWithoutGC = MAX_COMMITS_WITHOUT_GC;
-                LOGGER.debug("Performing 'git gc' after {} commits", MAX_COMMITS_WITHOUT_GC);
-                git.gc().call();
-            }
+            // Packing happens in the background, outside of the data store lock
+            gitMaintenance.commitPerformed();
         } catch (GitAPIException ex) {
             throw FabricException.launderThrowable(ex);
         }
@@ -1074,14 +1079,12 @@ public final class GitDataStoreImpl extends AbstractComponent implements GitData
         PullPolicyResult pullResult = pullPushPolicy.doPull(context, getCredentialsProvider(), allowVersionDelete);
         if (pullResult.getLastException() == null) {
             if (pullResult.localUpdateRequired()) {
-                versionCache.invalidateAll();
                 notificationRequired = true;
             }
             Set<String> pullVersions = pullResult.getVersions();
             if (!pullVersions.isEmpty() && !pullVersions.equals(versions)) {
                 versions.clear();
                 versions.addAll(pullVersions);
-                versionCache.invalidateAll();
                 notificationRequired = true;
             }
             if (pullResult.remoteUpdateRequired()) {
@@ -1138,14 +1141,6 @@ public final class GitDataStoreImpl extends AbstractComponent implements GitData
         return relativePath.replace(File.separatorChar, '/');
     }
     
-    private Map<String, String> getVersionAttributes(Git git, GitContext context, String versionId) throws IOException {
-        byte[] content = GitHelpers.getContentOfObject(git, versionId, GitHelpers.VERSION_ATTRIBUTES, true);
-        if (content == null) {
-            return Collections.emptyMap();
-        }
-        return DataStoreUtils.toMap(content);
-    }
-
     private void setVersionAttributes(Git git, GitContext context, String versionId, Map<String, String> attributes) throws IOException, GitAPIException {
         File rootDirectory = GitHelpers.getRootGitDirectory(git);
         File file = new File(rootDirectory, GitHelpers.VERSION_ATTRIBUTES);
@@ -1292,8 +1287,8 @@ public final class GitDataStoreImpl extends AbstractComponent implements GitData
 
         @Override
         public void onReceivePack() {
+            // Cached versions are checked against their branch heads on access
             assertValid();
-            versionCache.invalidateAll();
         }
         
         private void runRemoteUrlChanged(final String updateUrl) {
@@ -1713,113 +1708,4 @@ public final class GitDataStoreImpl extends AbstractComponent implements GitData
             return pattern.replace(File.separatorChar, '/');
         }
     }
-    
-    class VersionCacheLoader extends CacheLoader<String, Version> {
-        
-        @Override
-        public Version load(final String versionId) {
-            assertWriteLock();
-            GitOperation<Version> gitop = new GitOperation<Version>() {
-                public Version call(Git git, GitContext context) throws Exception {
-                    String revision = git.getRepository().getRefDatabase().getRef(versionId).getObjectId().getName();
-                    return loadVersion(git, context, versionId, revision);
-                }
-            };
-            GitContext context = new GitContext();
-            return executeInternal(context, null, gitop);
-        }
-        
-        private Version loadVersion(Git git, GitContext context, String versionId, String revision) throws Exception {
-            VersionBuilder vbuilder = VersionBuilder.Factory.create(versionId).setRevision(revision);
-            vbuilder.setAttributes(getVersionAttributes(git, context, versionId));
-            populateVersionBuilder(git, context, vbuilder, "master", versionId);
-            populateVersionBuilder(git, context, vbuilder, versionId, versionId);
-            return vbuilder.getVersion();
-        }
-
-        private void populateVersionBuilder(Git git, GitContext context, VersionBuilder builder, String branch, String versionId) throws GitAPIException, IOException {
-            checkoutRequiredProfileBranch(git, context, branch, null);
-            File profilesDir = GitHelpers.getProfilesDirectory(git);
-            if (profilesDir.exists()) {
-                String[] files = profilesDir.list();
-                if (files != null) {
-                    for (String childName : files) {
-                        Path childPath = profilesDir.toPath().resolve(childName);
-                        if (childPath.toFile().isDirectory()) {
-                            RevCommit lastCommit = GitHelpers.getProfileLastCommit(git, branch, childName);
-                            if (lastCommit != null) {
-                                populateProfile(git, builder, branch, versionId, childPath.toFile(), "");
-                            }
-                        }
-                    }
-                }
-            }
-        }
-
-        private void populateProfile(Git git, VersionBuilder versionBuilder, String branch, String versionId, File profileFile, String prefix) throws IOException {
-            String profileName = profileFile.getName();
-            String profileId = profileName;
-            if (profileId.endsWith(Profiles.PROFILE_FOLDER_SUFFIX)) {
-                profileId = prefix + profileId.substring(0, profileId.length() - Profiles.PROFILE_FOLDER_SUFFIX.length());
-            } else {
-                // lets recurse all children
-                File[] files = profileFile.listFiles();
-                if (files != null) {
-                    for (File childFile : files) {
-                        if (childFile.isDirectory()) {
-                            populateProfile(git, versionBuilder, branch, versionId, childFile, prefix + profileFile.getName() + "-");
-                        }
-                    }
-                }
-                return;
-            }
-
-            RevCommit lastCommit = GitHelpers.getProfileLastCommit(git, branch, profileName);
-            String lastModified = lastCommit != null ? lastCommit.getId().abbreviate(GIT_COMMIT_SHORT_LENGTH).name() : "";
-            Map<String, byte[]> fileConfigurations = doGetFileConfigurations(git, profileId);
-            
-            ProfileBuilder profileBuilder = ProfileBuilder.Factory.create(versionId, profileId);
-            profileBuilder.setFileConfigurations(fileConfigurations).setLastModified(lastModified);
-            versionBuilder.addProfile(profileBuilder.getProfile());
-        }
-
-        private Map<String, byte[]> doGetFileConfigurations(Git git, String profileId) throws IOException {
-            Map<String, byte[]> configurations = new HashMap<String, byte[]>();
-            File profileDirectory = GitHelpers.getProfileDirectory(git, profileId);
-            populateFileConfigurations(configurations, profileDirectory, profileDirectory);
-            return configurations;
-        }
-
-        private void populateFileConfigurations(Map<String, byte[]> configurations, File profileDirectory, File directory) throws IOException {
-            File[] files = directory.listFiles();
-            if (files != null) {
-                for (File file : files) {
-                    if (file.isFile()) {
-                        String relativePath = getFilePattern(profileDirectory, file);
-                        configurations.put(relativePath, loadFileConfiguration(file));
-                    } else if (file.isDirectory()) {
-                        populateFileConfigurations(configurations, profileDirectory, file);
-                    }
-                }
-            }
-        }
-
-        private byte[] loadFileConfiguration(File file) throws IOException {
-            if (file.isDirectory()) {
-                // Not sure why we do this, but for directory pids, lets recurse...
-                StringBuilder buf = new StringBuilder();
-                File[] files = file.listFiles();
-                if (files != null) {
-                    for (File child : files) {
-                        String value = Files.toString(child);
-                        buf.append(String.format("%s = %s\n", child.getName(), value));
-                    }
-                }
-                return buf.toString().getBytes();
-            } else if (file.exists() && file.isFile()) {
-                return Files.readBytes(file);
-            }
-            return null;
-        }
-    }
 }
@@ -34,6 +34,7 @@ import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectLoader;
 import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.lib.StoredConfig;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevWalk;
@@ -253,11 +254,23 @@ public class GitHelpers {
         if (ref == null) {
             return null;
         }
-        RevCommit rw = new RevWalk(git.getRepository()).parseCommit(ref.getObjectId());
-        ObjectId objectId = objectIdOfResource(git, rw, fileName);
+        return getContentOfObject(git.getRepository(), ref.getObjectId(), fileName, onlyFromTheCommit);
+    }
+
+    /**
+     * Fetches the content of a file as of the given commit
+     * @param repository
+     * @param commitId the commit to read the file from
+     * @param fileName name of the file to fetch
+     * @param onlyFromTheCommit if <code>true</code>, return content only if the file is different than in parent commit(s)
+     * @return content of file or <code>null</code> if no such file exists
+     */
+    public static byte[] getContentOfObject(Repository repository, ObjectId commitId, String fileName, boolean onlyFromTheCommit) throws IOException {
+        RevCommit rw = new RevWalk(repository).parseCommit(commitId);
+        ObjectId objectId = objectIdOfResource(repository, rw, fileName);
         if (objectId != null) {
             if (!onlyFromTheCommit) {
-                ObjectLoader loader = git.getRepository().open(objectId);
+                ObjectLoader loader = repository.open(objectId);
                 return loader.getBytes();
             } else {
                 // if the objectId is the same as in *all* parent commits, than this resource is actually
@@ -266,8 +279,8 @@ public class GitHelpers {
                 boolean change = false;
                 if (parents != null && parents.length > 0) {
                     for (RevCommit parent : parents) {
-                        RevCommit prc = new RevWalk(git.getRepository()).parseCommit(parent.getId());
-                        ObjectId parentObjectId = objectIdOfResource(git, prc, fileName);
+                        RevCommit prc = new RevWalk(repository).parseCommit(parent.getId());
+                        ObjectId parentObjectId = objectIdOfResource(repository, prc, fileName);
                         if (parentObjectId == null || !parentObjectId.equals(objectId)) {
                             change = true;
                             break;
@@ -276,15 +289,15 @@ public class GitHelpers {
                 } else {
                     change = true;
                 }
-                return change ? git.getRepository().open(objectId).getBytes() : null;
+                return change ? repository.open(objectId).getBytes() : null;
             }
         } else {
             return null;
         }
     }
 
-    private static ObjectId objectIdOfResource(Git git, RevCommit rw, String fileName) throws IOException {
-        TreeWalk tw = new TreeWalk(git.getRepository());
+    private static ObjectId objectIdOfResource(Repository repository, RevCommit rw, String fileName) throws IOException {
+        TreeWalk tw = new TreeWalk(repository);
         if (rw.getTree() == null)
             return null;
         tw.addTree(rw.getTree());
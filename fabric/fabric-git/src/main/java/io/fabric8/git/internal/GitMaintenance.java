@@ -0,0 +1,264 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.git.internal;
+
+import io.fabric8.git.GitMaintenanceMBean;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.GC;
+import org.eclipse.jgit.lib.Repository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the data store repository packed in the background.
+ *
+ * Commits only request a check, which runs on the data store executor and without the data store lock.
+ * jgit collects garbage safely next to concurrent readers and writers, and loose objects younger than
+ * the prune expiry are kept so that the objects of commits made meanwhile are never lost.
+ */
+final class GitMaintenance implements GitMaintenanceMBean {
+
+    private static final transient Logger LOGGER = LoggerFactory.getLogger(GitMaintenance.class);
+
+    // Same defaults as 'git gc --auto'
+    static final long DEFAULT_LOOSE_OBJECT_THRESHOLD = 6700;
+    static final long DEFAULT_PACK_FILE_THRESHOLD = 50;
+    static final long DEFAULT_LOOSE_REF_THRESHOLD = 100;
+    static final long CHECK_DELAY = 10 * 1000L;
+
+    private final ScheduledExecutorService executor;
+    private final AtomicBoolean checkScheduled = new AtomicBoolean();
+    private volatile Git git;
+
+    private volatile long looseObjectThreshold = DEFAULT_LOOSE_OBJECT_THRESHOLD;
+    private volatile long packFileThreshold = DEFAULT_PACK_FILE_THRESHOLD;
+    private volatile long looseRefThreshold = DEFAULT_LOOSE_REF_THRESHOLD;
+
+    private volatile GC.RepoStatistics statistics;
+    private volatile long gcCount;
+    private volatile long packRefsCount;
+    private volatile long lastDuration;
+    private volatile long totalDuration;
+    private volatile long lastReclaimedSize;
+    private volatile long lastRunTime;
+    private volatile String lastError;
+
+    GitMaintenance(ScheduledExecutorService executor) {
+        this.executor = executor;
+    }
+
+    void setGit(Git git) {
+        this.git = git;
+    }
+
+    /**
+     * Requests a threshold check after a commit, requests arriving while one is pending are coalesced
+     */
+    void commitPerformed() {
+        if (checkScheduled.compareAndSet(false, true)) {
+            executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    checkScheduled.set(false);
+                    maintain(false);
+                }
+
+                @Override
+                public String toString() {
+                    return "GitMaintenanceCheckTask";
+                }
+            }, CHECK_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void runGc() {
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                maintain(true);
+            }
+
+            @Override
+            public String toString() {
+                return "GitMaintenanceGcTask";
+            }
+        });
+    }
+
+    /**
+     * Runs a gc when forced or when the loose object or pack file count is exceeded,
+     * otherwise packs the refs when there are too many loose ones.
+     */
+    void maintain(boolean force) {
+        Git git = this.git;
+        Repository repository = git != null ? git.getRepository() : null;
+        if (!(repository instanceof FileRepository)) {
+            return;
+        }
+        // jgit loads resources through the TCCL, see [FABRIC-887]
+        ClassLoader tccl = Thread.currentThread().getContextClassLoader();
+        try {
+            Thread.currentThread().setContextClassLoader(GitMaintenance.class.getClassLoader());
+            GC gc = new GC((FileRepository) repository);
+            GC.RepoStatistics before = gc.getStatistics();
+            statistics = before;
+            boolean runGc = force || before.numberOfLooseObjects > looseObjectThreshold || before.numberOfPackFiles > packFileThreshold;
+            boolean runPackRefs = !runGc && before.numberOfLooseRefs > looseRefThreshold;
+            if (!runGc && !runPackRefs) {
+                return;
+            }
+
+            long start = System.currentTimeMillis();
+            if (runGc) {
+                LOGGER.debug("Performing 'git gc' with {} loose objects in {} pack files", before.numberOfLooseObjects, before.numberOfPackFiles);
+                gc.gc();
+                gcCount++;
+            } else {
+                LOGGER.debug("Packing {} loose refs", before.numberOfLooseRefs);
+                gc.packRefs();
+                packRefsCount++;
+            }
+            long duration = System.currentTimeMillis() - start;
+
+            GC.RepoStatistics after = gc.getStatistics();
+            statistics = after;
+            lastDuration = duration;
+            totalDuration += duration;
+            lastReclaimedSize = size(before) - size(after);
+            lastRunTime = start;
+            lastError = null;
+            LOGGER.debug("git maintenance took {} ms and reclaimed {} bytes", duration, lastReclaimedSize);
+        } catch (Exception e) {
+            lastError = e.toString();
+            LOGGER.debug("git maintenance threw an exception!", e);
+            LOGGER.warn("Error during git maintenance due " + e.getMessage() + ". This exception is ignored.");
+        } finally {
+            Thread.currentThread().setContextClassLoader(tccl);
+        }
+    }
+
+    private static long size(GC.RepoStatistics statistics) {
+        return statistics.sizeOfLooseObjects + statistics.sizeOfPackedObjects;
+    }
+
+    @Override
+    public long getLooseObjectThreshold() {
+        return looseObjectThreshold;
+    }
+
+    @Override
+    public void setLooseObjectThreshold(long threshold) {
+        this.looseObjectThreshold = threshold;
+    }
+
+    @Override
+    public long getPackFileThreshold() {
+        return packFileThreshold;
+    }
+
+    @Override
+    public void setPackFileThreshold(long threshold) {
+        this.packFileThreshold = threshold;
+    }
+
+    @Override
+    public long getLooseRefThreshold() {
+        return looseRefThreshold;
+    }
+
+    @Override
+    public void setLooseRefThreshold(long threshold) {
+        this.looseRefThreshold = threshold;
+    }
+
+    @Override
+    public long getLooseObjects() {
+        GC.RepoStatistics statistics = this.statistics;
+        return statistics != null ? statistics.numberOfLooseObjects : -1;
+    }
+
+    @Override
+    public long getLooseObjectsSize() {
+        GC.RepoStatistics statistics = this.statistics;
+        return statistics != null ? statistics.sizeOfLooseObjects : -1;
+    }
+
+    @Override
+    public long getPackedObjects() {
+        GC.RepoStatistics statistics = this.statistics;
+        return statistics != null ? statistics.numberOfPackedObjects : -1;
+    }
+
+    @Override
+    public long getPackFiles() {
+        GC.RepoStatistics statistics = this.statistics;
+        return statistics != null ? statistics.numberOfPackFiles : -1;
+    }
+
+    @Override
+    public long getPackedObjectsSize() {
+        GC.RepoStatistics statistics = this.statistics;
+        return statistics != null ? statistics.sizeOfPackedObjects : -1;
+    }
+
+    @Override
+    public long getLooseRefs() {
+        GC.RepoStatistics statistics = this.statistics;
+        return statistics != null ? statistics.numberOfLooseRefs : -1;
+    }
+
+    @Override
+    public long getGcCount() {
+        return gcCount;
+    }
+
+    @Override
+    public long getPackRefsCount() {
+        return packRefsCount;
+    }
+
+    @Override
+    public long getLastDuration() {
+        return lastDuration;
+    }
+
+    @Override
+    public long getTotalDuration() {
+        return totalDuration;
+    }
+
+    @Override
+    public long getLastReclaimedSize() {
+        return lastReclaimedSize;
+    }
+
+    @Override
+    public long getLastRunTime() {
+        return lastRunTime;
+    }
+
+    @Override
+    public String getLastError() {
+        return lastError;
+    }
+}
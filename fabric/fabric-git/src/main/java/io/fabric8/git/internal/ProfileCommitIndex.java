@@ -0,0 +1,305 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.git.internal;
+
+import io.fabric8.api.Profiles;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves the last commit that modified each profile directory of a branch.
+ *
+ * All requested profiles are resolved in a single walk over the commit graph, which only diffs the
+ * profile trees that differ between a commit and its parents. Results are kept in a side index keyed
+ * by branch, profile path and tree id, together with the head each branch was last indexed at, so that later
+ * lookups only walk the commits added since. The same tree can be introduced by different commits on different
+ * branches, which is why entries are never shared between branches. When a branch was rewritten so that its
+ * indexed head is no longer part of it, its entries are dropped and rebuilt. The index is persisted next to
+ * the repository.
+ */
+public final class ProfileCommitIndex {
+
+    private static final transient Logger LOGGER = LoggerFactory.getLogger(ProfileCommitIndex.class);
+
+    static final String INDEX_FILE = "fabric-profile-commits";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String HEAD_PREFIX = "head ";
+    private static final String FORMAT = "# profile commit index 2";
+
+    private final String profilesPath = GitHelpers.CONFIGS_PROFILES.replace(File.separatorChar, '/');
+    private final Map<String, Map<String, ObjectId>> commits = new HashMap<>();
+    private final Map<String, ObjectId> heads = new HashMap<>();
+    private final File indexFile;
+    private boolean loaded;
+
+    public ProfileCommitIndex(File indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    public ProfileCommitIndex(Repository repository) {
+        this(new File(repository.getDirectory(), INDEX_FILE));
+    }
+
+    /**
+     * Returns the last commit that modified each of the given profiles
+     *
+     * @param branch the branch the head belongs to
+     * @param head the commit the profiles were read from
+     * @param profiles the profile directory trees keyed by their path relative to the profiles directory
+     * @return the last commit id keyed by profile path, profiles without one are missing
+     */
+    public synchronized Map<String, ObjectId> getLastCommits(Repository repository, String branch, ObjectId head, Map<String, ObjectId> profiles) throws IOException {
+        load();
+        ObjectReader reader = repository.newObjectReader();
+        try {
+            boolean modified = false;
+            Map<String, ObjectId> branchCommits = commits.get(branch);
+            ObjectId indexedHead = heads.get(branch);
+            if (!head.equals(indexedHead)) {
+                if (branchCommits == null || indexedHead == null || !isAncestor(reader, indexedHead, head)) {
+                    // The branch is new or was rewritten, its entries may point to commits no longer part of it
+                    branchCommits = new HashMap<>();
+                    commits.put(branch, branchCommits);
+                } else {
+                    // Index the commits added since the last time, newer commits win
+                    walk(reader, head, indexedHead, branchCommits, null);
+                }
+                heads.put(branch, head.copy());
+                modified = true;
+            }
+
+            Set<String> pending = new HashSet<>();
+            for (Map.Entry<String, ObjectId> entry : profiles.entrySet()) {
+                if (!branchCommits.containsKey(key(entry.getKey(), entry.getValue()))) {
+                    pending.add(key(entry.getKey(), entry.getValue()));
+                }
+            }
+            if (!pending.isEmpty()) {
+                // Profile trees not seen yet, walk the full history until all of them are known
+                walk(reader, head, null, branchCommits, pending);
+                modified = true;
+            }
+
+            Map<String, ObjectId> result = new HashMap<>();
+            for (Map.Entry<String, ObjectId> entry : profiles.entrySet()) {
+                ObjectId commit = branchCommits.get(key(entry.getKey(), entry.getValue()));
+                if (commit != null) {
+                    result.put(entry.getKey(), commit);
+                }
+            }
+            if (modified) {
+                save();
+            }
+            return result;
+        } finally {
+            reader.release();
+        }
+    }
+
+    /**
+     * Returns true if the given commit still exists and is reachable from the head
+     */
+    private boolean isAncestor(ObjectReader reader, ObjectId commit, ObjectId head) throws IOException {
+        RevWalk revWalk = new RevWalk(reader);
+        try {
+            return revWalk.isMergedInto(revWalk.parseCommit(commit), revWalk.parseCommit(head));
+        } catch (MissingObjectException e) {
+            LOGGER.debug("Indexed commit " + commit.getName() + " no longer exists", e);
+            return false;
+        }
+    }
+
+    /**
+     * Walks the history from the given head, newest commits first, recording the commit that introduced each profile tree.
+     * Without pending keys every change found overrides the index and the walk stops at the given commit,
+     * otherwise only the pending keys are recorded and the walk ends as soon as all of them are resolved.
+     */
+    private void walk(ObjectReader reader, ObjectId head, ObjectId stop, Map<String, ObjectId> branchCommits, Set<String> pending) throws IOException {
+        RevWalk revWalk = new RevWalk(reader);
+        revWalk.sort(RevSort.COMMIT_TIME_DESC);
+        revWalk.markStart(revWalk.parseCommit(head));
+        if (stop != null) {
+            revWalk.markUninteresting(revWalk.parseCommit(stop));
+        }
+        Set<String> recorded = new HashSet<>();
+        RevCommit commit;
+        while ((commit = revWalk.next()) != null) {
+            for (Map.Entry<String, ObjectId> entry : getModifiedProfiles(reader, revWalk, commit).entrySet()) {
+                String key = key(entry.getKey(), entry.getValue());
+                if (pending == null ? recorded.add(key) : pending.remove(key)) {
+                    branchCommits.put(key, commit.copy());
+                }
+            }
+            if (pending != null && pending.isEmpty()) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Returns the profile trees of the given commit that differ from all of its parents
+     */
+    private Map<String, ObjectId> getModifiedProfiles(ObjectReader reader, RevWalk revWalk, RevCommit commit) throws IOException {
+        ObjectId tree = getProfilesTree(reader, commit.getTree());
+        if (tree == null) {
+            return new HashMap<>();
+        }
+        Map<String, ObjectId> result = null;
+        for (RevCommit parent : commit.getParents()) {
+            ObjectId parentTree = getProfilesTree(reader, revWalk.parseCommit(parent).getTree());
+            Map<String, ObjectId> modified = new HashMap<>();
+            if (!tree.equals(parentTree)) {
+                diff(reader, tree, parentTree, modified);
+            }
+            if (result == null) {
+                result = modified;
+            } else {
+                // Changes in a merge only count when they differ from every parent
+                result.keySet().retainAll(modified.keySet());
+            }
+            if (result.isEmpty()) {
+                return result;
+            }
+        }
+        if (result == null) {
+            result = new HashMap<>();
+            diff(reader, tree, null, result);
+        }
+        return result;
+    }
+
+    private ObjectId getProfilesTree(ObjectReader reader, RevTree tree) throws IOException {
+        TreeWalk walk = TreeWalk.forPath(reader, profilesPath, tree);
+        return walk != null && walk.getFileMode(0) == FileMode.TREE ? walk.getObjectId(0) : null;
+    }
+
+    private void diff(ObjectReader reader, ObjectId tree, ObjectId parentTree, Map<String, ObjectId> modified) throws IOException {
+        TreeWalk walk = new TreeWalk(reader);
+        walk.addTree(tree);
+        if (parentTree != null) {
+            walk.addTree(parentTree);
+        } else {
+            walk.addTree(new EmptyTreeIterator());
+        }
+        walk.setFilter(TreeFilter.ANY_DIFF);
+        walk.setRecursive(false);
+        while (walk.next()) {
+            if (walk.getFileMode(0) != FileMode.TREE) {
+                continue;
+            }
+            String path = walk.getPathString();
+            if (path.endsWith(Profiles.PROFILE_FOLDER_SUFFIX)) {
+                modified.put(path, walk.getObjectId(0));
+            } else {
+                walk.enterSubtree();
+            }
+        }
+    }
+
+    private static String key(String path, ObjectId tree) {
+        return tree.getName() + " " + path;
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!indexFile.exists()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), UTF_8))) {
+            String line = reader.readLine();
+            if (!FORMAT.equals(line)) {
+                // Written by an older version, which shared entries between branches
+                LOGGER.debug("Ignoring outdated profile commit index " + indexFile);
+                return;
+            }
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(HEAD_PREFIX)) {
+                    String[] parts = line.substring(HEAD_PREFIX.length()).split(" ", 2);
+                    heads.put(parts[1], ObjectId.fromString(parts[0]));
+                } else if (line.length() > 0 && !line.startsWith("#")) {
+                    String[] parts = line.split(" ", 4);
+                    Map<String, ObjectId> branchCommits = commits.get(parts[2]);
+                    if (branchCommits == null) {
+                        branchCommits = new HashMap<>();
+                        commits.put(parts[2], branchCommits);
+                    }
+                    branchCommits.put(key(parts[3], ObjectId.fromString(parts[0])), ObjectId.fromString(parts[1]));
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Ignoring unreadable profile commit index " + indexFile + " due " + e.getMessage());
+            heads.clear();
+            commits.clear();
+        }
+    }
+
+    private void save() {
+        File tmpFile = new File(indexFile.getPath() + ".tmp");
+        try {
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), UTF_8))) {
+                writer.write(FORMAT + "\n");
+                writer.write("# last commit of each profile tree per branch\n");
+                for (Map.Entry<String, ObjectId> entry : heads.entrySet()) {
+                    writer.write(HEAD_PREFIX + entry.getValue().getName() + " " + entry.getKey() + "\n");
+                }
+                for (Map.Entry<String, Map<String, ObjectId>> branchEntry : commits.entrySet()) {
+                    for (Map.Entry<String, ObjectId> entry : branchEntry.getValue().entrySet()) {
+                        String key = entry.getKey();
+                        int split = key.indexOf(' ');
+                        writer.write(key.substring(0, split) + " " + entry.getValue().getName() + " " + branchEntry.getKey() + " " + key.substring(split + 1) + "\n");
+                    }
+                }
+            }
+            Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.warn("Cannot write profile commit index " + indexFile + " due " + e.getMessage());
+        }
+    }
+}
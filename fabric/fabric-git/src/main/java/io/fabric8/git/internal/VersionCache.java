@@ -0,0 +1,261 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.git.internal;
+
+import io.fabric8.api.Profile;
+import io.fabric8.api.ProfileBuilder;
+import io.fabric8.api.Profiles;
+import io.fabric8.api.Version;
+import io.fabric8.api.VersionBuilder;
+import io.fabric8.utils.DataStoreUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+/**
+ * Caches versions as immutable snapshots loaded straight from the git object database, without touching the working tree.
+ *
+ * A snapshot remembers the master and version branch heads it was built from and is only handed out while both
+ * heads are unchanged. When they moved, profiles whose directory tree did not change are carried over from the
+ * previous snapshot as they are, and the new snapshot is published with a compare-and-set so readers never lock.
+ * Like the working tree based loading this replaces, profiles without any commit are left out of the version.
+ */
+final class VersionCache {
+
+    private static final int GIT_COMMIT_SHORT_LENGTH = 7;
+
+    private final String profilesPath = GitHelpers.CONFIGS_PROFILES.replace(File.separatorChar, '/');
+    private final ConcurrentMap<String, VersionSnapshot> snapshots = new ConcurrentHashMap<>();
+    private ProfileCommitIndex profileCommitIndex;
+
+    /**
+     * Returns the version as of the given branch heads, reloading its snapshot when the cached one is older
+     */
+    Version getVersion(Repository repository, String versionId, ObjectId masterHead, ObjectId versionHead) throws IOException {
+        VersionSnapshot snapshot = snapshots.get(versionId);
+        if (snapshot == null || !snapshot.isCurrent(masterHead, versionHead)) {
+            VersionSnapshot updated = load(repository, versionId, masterHead, versionHead, snapshot);
+            publish(versionId, snapshot, updated);
+            snapshot = updated;
+        }
+        return snapshot.getVersion();
+    }
+
+    /**
+     * Replaces the expected snapshot with the updated one, unless another reader published a snapshot in the meantime
+     */
+    boolean publish(String versionId, VersionSnapshot expected, VersionSnapshot updated) {
+        if (expected == null) {
+            return snapshots.putIfAbsent(versionId, updated) == null;
+        } else {
+            return snapshots.replace(versionId, expected, updated);
+        }
+    }
+
+    VersionSnapshot getSnapshot(String versionId) {
+        return snapshots.get(versionId);
+    }
+
+    void invalidate(String versionId) {
+        snapshots.remove(versionId);
+    }
+
+    private synchronized ProfileCommitIndex getProfileCommitIndex(Repository repository) {
+        if (profileCommitIndex == null) {
+            profileCommitIndex = new ProfileCommitIndex(repository);
+        }
+        return profileCommitIndex;
+    }
+
+    VersionSnapshot load(Repository repository, String versionId, ObjectId masterHead, ObjectId versionHead, VersionSnapshot previous) throws IOException {
+        Map<String, ProfileSnapshot> masterProfiles = new HashMap<>();
+        Map<String, ProfileSnapshot> versionProfiles = new HashMap<>();
+        ObjectReader reader = repository.newObjectReader();
+        try {
+            RevWalk revWalk = new RevWalk(reader);
+            populateProfiles(repository, reader, GitHelpers.MASTER_BRANCH, revWalk.parseCommit(masterHead), versionId, previous != null ? previous.masterProfiles : null, masterProfiles);
+            populateProfiles(repository, reader, versionId, revWalk.parseCommit(versionHead), versionId, previous != null ? previous.versionProfiles : null, versionProfiles);
+        } finally {
+            reader.release();
+        }
+
+        VersionBuilder vbuilder = VersionBuilder.Factory.create(versionId).setRevision(versionHead.getName());
+        vbuilder.setAttributes(getVersionAttributes(repository, versionHead));
+        for (ProfileSnapshot snapshot : masterProfiles.values()) {
+            vbuilder.addProfile(snapshot.getProfile());
+        }
+        for (ProfileSnapshot snapshot : versionProfiles.values()) {
+            vbuilder.addProfile(snapshot.getProfile());
+        }
+        return new VersionSnapshot(masterHead, versionHead, vbuilder.getVersion(), masterProfiles, versionProfiles);
+    }
+
+    /**
+     * Reads the version attributes as of the given head, not the branch ref which may have moved since
+     */
+    private Map<String, String> getVersionAttributes(Repository repository, ObjectId versionHead) throws IOException {
+        byte[] content = GitHelpers.getContentOfObject(repository, versionHead, GitHelpers.VERSION_ATTRIBUTES, true);
+        if (content == null) {
+            return Collections.emptyMap();
+        }
+        return DataStoreUtils.toMap(content);
+    }
+
+    private void populateProfiles(Repository repository, ObjectReader reader, String branch, RevCommit commit, String versionId,
+                                  Map<String, ProfileSnapshot> previous, Map<String, ProfileSnapshot> result) throws IOException {
+        TreeWalk profilesWalk = TreeWalk.forPath(reader, profilesPath, commit.getTree());
+        if (profilesWalk == null || !profilesWalk.isSubtree()) {
+            return;
+        }
+        Map<String, String> profilePaths = new HashMap<>();
+        Map<String, ObjectId> profileTrees = new HashMap<>();
+        collectProfiles(reader, profilesWalk.getObjectId(0), "", "", profilePaths, profileTrees);
+
+        Map<String, ObjectId> changedTrees = new HashMap<>();
+        for (Map.Entry<String, String> entry : profilePaths.entrySet()) {
+            String profileId = entry.getKey();
+            ProfileSnapshot snapshot = previous != null ? previous.get(profileId) : null;
+            ObjectId profileTree = profileTrees.get(entry.getValue());
+            if (snapshot != null && snapshot.getTreeId().equals(profileTree)) {
+                result.put(profileId, snapshot);
+            } else {
+                changedTrees.put(entry.getValue(), profileTree);
+            }
+        }
+        if (changedTrees.isEmpty()) {
+            return;
+        }
+
+        // Resolve the last commits of all changed profiles in one go
+        Map<String, ObjectId> lastCommits = getProfileCommitIndex(repository).getLastCommits(repository, branch, commit, changedTrees);
+        for (Map.Entry<String, String> entry : profilePaths.entrySet()) {
+            String path = entry.getValue();
+            ObjectId lastCommit = lastCommits.get(path);
+            if (changedTrees.containsKey(path) && lastCommit != null) {
+                ObjectId profileTree = changedTrees.get(path);
+                Profile profile = loadProfile(reader, versionId, entry.getKey(), profileTree, lastCommit);
+                result.put(entry.getKey(), new ProfileSnapshot(profileTree, profile));
+            }
+        }
+    }
+
+    private void collectProfiles(ObjectReader reader, ObjectId treeId, String path, String prefix, Map<String, String> profilePaths, Map<String, ObjectId> profileTrees) throws IOException {
+        TreeWalk walk = new TreeWalk(reader);
+        walk.addTree(treeId);
+        walk.setRecursive(false);
+        while (walk.next()) {
+            if (!walk.isSubtree()) {
+                continue;
+            }
+            String name = walk.getNameString();
+            String childPath = path + name;
+            if (name.endsWith(Profiles.PROFILE_FOLDER_SUFFIX)) {
+                String profileId = prefix + name.substring(0, name.length() - Profiles.PROFILE_FOLDER_SUFFIX.length());
+                profilePaths.put(profileId, childPath);
+                profileTrees.put(childPath, walk.getObjectId(0));
+            } else {
+                // lets recurse all children
+                collectProfiles(reader, walk.getObjectId(0), childPath + "/", prefix + name + "-", profilePaths, profileTrees);
+            }
+        }
+    }
+
+    private Profile loadProfile(ObjectReader reader, String versionId, String profileId, ObjectId profileTree, ObjectId lastCommit) throws IOException {
+        Map<String, byte[]> fileConfigurations = new HashMap<String, byte[]>();
+        TreeWalk walk = new TreeWalk(reader);
+        walk.addTree(profileTree);
+        walk.setRecursive(true);
+        while (walk.next()) {
+            fileConfigurations.put(walk.getPathString(), reader.open(walk.getObjectId(0)).getBytes());
+        }
+
+        String lastModified = lastCommit.abbreviate(GIT_COMMIT_SHORT_LENGTH).name();
+
+        ProfileBuilder profileBuilder = ProfileBuilder.Factory.create(versionId, profileId);
+        profileBuilder.setFileConfigurations(fileConfigurations).setLastModified(lastModified);
+        return profileBuilder.getProfile();
+    }
+
+    /**
+     * An immutable view of a version as loaded from the given branch heads
+     */
+    static final class VersionSnapshot {
+
+        private final ObjectId masterHead;
+        private final ObjectId versionHead;
+        private final Version version;
+        private final Map<String, ProfileSnapshot> masterProfiles;
+        private final Map<String, ProfileSnapshot> versionProfiles;
+
+        VersionSnapshot(ObjectId masterHead, ObjectId versionHead, Version version, Map<String, ProfileSnapshot> masterProfiles, Map<String, ProfileSnapshot> versionProfiles) {
+            this.masterHead = masterHead;
+            this.versionHead = versionHead;
+            this.version = version;
+            this.masterProfiles = Collections.unmodifiableMap(masterProfiles);
+            this.versionProfiles = Collections.unmodifiableMap(versionProfiles);
+        }
+
+        boolean isCurrent(ObjectId masterHead, ObjectId versionHead) {
+            return this.masterHead.equals(masterHead) && this.versionHead.equals(versionHead);
+        }
+
+        Version getVersion() {
+            return version;
+        }
+
+        ProfileSnapshot getMasterProfile(String profileId) {
+            return masterProfiles.get(profileId);
+        }
+
+        ProfileSnapshot getVersionProfile(String profileId) {
+            return versionProfiles.get(profileId);
+        }
+    }
+
+    /**
+     * A loaded profile together with the git tree it was loaded from
+     */
+    static final class ProfileSnapshot {
+
+        private final ObjectId treeId;
+        private final Profile profile;
+
+        ProfileSnapshot(ObjectId treeId, Profile profile) {
+            this.treeId = treeId;
+            this.profile = profile;
+        }
+
+        ObjectId getTreeId() {
+            return treeId;
+        }
+
+        Profile getProfile() {
+            return profile;
+        }
+    }
+}
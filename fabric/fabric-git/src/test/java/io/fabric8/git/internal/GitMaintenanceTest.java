@@ -0,0 +1,198 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.git.internal;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jgit.api.Git;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class GitMaintenanceTest {
+
+    private File dir;
+    private Git git;
+    private RecordingExecutor executor;
+    private GitMaintenance maintenance;
+
+    @Before
+    public void initGitRepo() throws Exception {
+        dir = new File("target/git-maintenance-repo");
+        FileUtils.deleteDirectory(dir);
+        git = Git.init().setDirectory(dir).call();
+        for (int i = 0; i < 5; i++) {
+            commit("fabric/profiles/default.profile/a.properties", "a=" + i);
+        }
+        executor = new RecordingExecutor();
+        maintenance = new GitMaintenance(executor);
+        maintenance.setGit(git);
+    }
+
+    @Test
+    public void doNothingBelowTheThresholds() throws Exception {
+        maintenance.maintain(false);
+
+        assertThat(maintenance.getGcCount(), equalTo(0L));
+        assertThat(maintenance.getPackRefsCount(), equalTo(0L));
+        assertTrue(maintenance.getLooseObjects() > 0);
+        assertThat(maintenance.getPackFiles(), equalTo(0L));
+        assertThat(maintenance.getLastRunTime(), equalTo(0L));
+    }
+
+    @Test
+    public void gcWhenThereAreTooManyLooseObjects() throws Exception {
+        long looseObjects = countLooseObjects();
+        maintenance.setLooseObjectThreshold(looseObjects - 1);
+        maintenance.maintain(false);
+
+        assertThat(maintenance.getGcCount(), equalTo(1L));
+        assertThat(maintenance.getPackRefsCount(), equalTo(0L));
+        assertThat(maintenance.getLooseObjects(), equalTo(0L));
+        assertThat(maintenance.getPackFiles(), equalTo(1L));
+        assertTrue(maintenance.getPackedObjects() >= looseObjects);
+        assertTrue(maintenance.getLastRunTime() > 0);
+        assertThat(maintenance.getTotalDuration(), equalTo(maintenance.getLastDuration()));
+        assertThat(maintenance.getLastError(), nullValue());
+    }
+
+    @Test
+    public void gcWhenThereAreTooManyPackFiles() throws Exception {
+        maintenance.maintain(true);
+        assertThat(maintenance.getPackFiles(), equalTo(1L));
+
+        maintenance.setPackFileThreshold(1);
+        maintenance.maintain(false);
+        assertThat(maintenance.getGcCount(), equalTo(1L));
+
+        maintenance.setPackFileThreshold(0);
+        maintenance.maintain(false);
+        assertThat(maintenance.getGcCount(), equalTo(2L));
+        assertThat(maintenance.getPackFiles(), equalTo(1L));
+    }
+
+    @Test
+    public void onlyPackRefsWhenThereAreTooManyLooseRefs() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            git.branchCreate().setName("1." + i).call();
+        }
+        maintenance.setLooseRefThreshold(2);
+        maintenance.maintain(false);
+
+        assertThat(maintenance.getGcCount(), equalTo(0L));
+        assertThat(maintenance.getPackRefsCount(), equalTo(1L));
+        // only the symbolic HEAD ref is left loose
+        assertThat(maintenance.getLooseRefs(), equalTo(1L));
+        assertTrue("Loose objects should be left alone", maintenance.getLooseObjects() > 0);
+        assertThat(maintenance.getPackFiles(), equalTo(0L));
+    }
+
+    @Test
+    public void coalesceCheckRequests() throws Exception {
+        maintenance.commitPerformed();
+        maintenance.commitPerformed();
+        maintenance.commitPerformed();
+        assertThat(executor.tasks.size(), equalTo(1));
+
+        maintenance.setLooseObjectThreshold(0);
+        executor.tasks.get(0).run();
+        assertThat(maintenance.getGcCount(), equalTo(1L));
+
+        // once the check has run the next commit requests another one
+        maintenance.commitPerformed();
+        assertThat(executor.tasks.size(), equalTo(2));
+    }
+
+    @Test
+    public void runGcIgnoresTheThresholds() throws Exception {
+        maintenance.runGc();
+        assertThat(executor.tasks.size(), equalTo(1));
+        executor.tasks.get(0).run();
+
+        assertThat(maintenance.getGcCount(), equalTo(1L));
+        assertThat(maintenance.getLooseObjects(), equalTo(0L));
+        assertTrue(maintenance.getLastReclaimedSize() > 0);
+    }
+
+    @Test
+    public void reportNoStatisticsWithoutARepository() throws Exception {
+        GitMaintenance maintenance = new GitMaintenance(executor);
+        maintenance.maintain(true);
+
+        assertThat(maintenance.getGcCount(), equalTo(0L));
+        assertThat(maintenance.getLooseObjects(), equalTo(-1L));
+        assertThat(maintenance.getPackFiles(), equalTo(-1L));
+    }
+
+    private long countLooseObjects() {
+        long count = 0;
+        File[] dirs = new File(dir, ".git/objects").listFiles();
+        for (File objectDir : dirs) {
+            if (objectDir.getName().length() == 2) {
+                count += objectDir.list().length;
+            }
+        }
+        return count;
+    }
+
+    private void commit(String... pathsAndContents) throws Exception {
+        for (int i = 0; i < pathsAndContents.length; i += 2) {
+            File file = new File(dir, pathsAndContents[i]);
+            file.getParentFile().mkdirs();
+            FileWriter writer = new FileWriter(file);
+            IOUtils.write(pathsAndContents[i + 1], writer);
+            writer.close();
+        }
+        git.add().addFilepattern(".").call();
+        git.commit().setMessage("update " + pathsAndContents[0]).call();
+    }
+
+    /**
+     * Keeps the tasks instead of running them, so that the test decides when they run
+     */
+    private static class RecordingExecutor extends ScheduledThreadPoolExecutor {
+        private final List<Runnable> tasks = new ArrayList<Runnable>();
+
+        RecordingExecutor() {
+            super(1);
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            tasks.add(command);
+            return null;
+        }
+
+        @Override
+        public Future<?> submit(Runnable task) {
+            tasks.add(task);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.git.internal;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ResetCommand.ResetType;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class ProfileCommitIndexTest {
+
+    private File dir;
+    private Git git;
+
+    @Before
+    public void initGitRepo() throws Exception {
+        dir = new File("target/profile-commit-index-repo");
+        FileUtils.deleteDirectory(dir);
+        git = Git.init().setDirectory(dir).call();
+    }
+
+    @Test
+    public void resolveLastCommitsInOneWalk() throws Exception {
+        RevCommit first = commit("fabric/profiles/default.profile/a.properties", "a=1", "fabric/profiles/foo/bar.profile/b.properties", "b=1");
+        RevCommit second = commit("fabric/profiles/default.profile/a.properties", "a=2");
+        RevCommit third = commit("fabric/README", "unrelated");
+
+        ProfileCommitIndex index = new ProfileCommitIndex(git.getRepository());
+        Map<String, ObjectId> commits = index.getLastCommits(git.getRepository(), "master", third, profileTrees(third, "default.profile", "foo/bar.profile"));
+        assertThat(commits.get("default.profile"), equalTo((ObjectId) second));
+        assertThat(commits.get("foo/bar.profile"), equalTo((ObjectId) first));
+    }
+
+    @Test
+    public void updateIncrementallyAndPersist() throws Exception {
+        RevCommit first = commit("fabric/profiles/default.profile/a.properties", "a=1", "fabric/profiles/foo/bar.profile/b.properties", "b=1");
+        ProfileCommitIndex index = new ProfileCommitIndex(git.getRepository());
+        index.getLastCommits(git.getRepository(), "master", first, profileTrees(first, "default.profile", "foo/bar.profile"));
+
+        RevCommit second = commit("fabric/profiles/foo/bar.profile/b.properties", "b=2");
+        Map<String, ObjectId> commits = index.getLastCommits(git.getRepository(), "master", second, profileTrees(second, "default.profile", "foo/bar.profile"));
+        assertThat(commits.get("default.profile"), equalTo((ObjectId) first));
+        assertThat(commits.get("foo/bar.profile"), equalTo((ObjectId) second));
+
+        // Reverting to an earlier tree is attributed to the revert
+        RevCommit third = commit("fabric/profiles/foo/bar.profile/b.properties", "b=1");
+        commits = index.getLastCommits(git.getRepository(), "master", third, profileTrees(third, "foo/bar.profile"));
+        assertThat(commits.get("foo/bar.profile"), equalTo((ObjectId) third));
+
+        ProfileCommitIndex reloaded = new ProfileCommitIndex(git.getRepository());
+        commits = reloaded.getLastCommits(git.getRepository(), "master", third, profileTrees(third, "default.profile", "foo/bar.profile"));
+        assertThat(commits.get("default.profile"), equalTo((ObjectId) first));
+        assertThat(commits.get("foo/bar.profile"), equalTo((ObjectId) third));
+    }
+
+    @Test
+    public void keepBranchesApart() throws Exception {
+        RevCommit first = commit("fabric/profiles/default.profile/a.properties", "a=1");
+        ProfileCommitIndex index = new ProfileCommitIndex(git.getRepository());
+        Map<String, ObjectId> commits = index.getLastCommits(git.getRepository(), "master", first, profileTrees(first, "default.profile"));
+        assertThat(commits.get("default.profile"), equalTo((ObjectId) first));
+
+        // The same tree comes back on another branch through a later commit
+        git.checkout().setCreateBranch(true).setName("1.0").call();
+        commit("fabric/profiles/default.profile/a.properties", "a=2");
+        RevCommit revert = commit("fabric/profiles/default.profile/a.properties", "a=1");
+        commits = index.getLastCommits(git.getRepository(), "1.0", revert, profileTrees(revert, "default.profile"));
+        assertThat(commits.get("default.profile"), equalTo((ObjectId) revert));
+
+        commits = index.getLastCommits(git.getRepository(), "master", first, profileTrees(first, "default.profile"));
+        assertThat(commits.get("default.profile"), equalTo((ObjectId) first));
+
+        ProfileCommitIndex reloaded = new ProfileCommitIndex(git.getRepository());
+        commits = reloaded.getLastCommits(git.getRepository(), "master", first, profileTrees(first, "default.profile"));
+        assertThat(commits.get("default.profile"), equalTo((ObjectId) first));
+        commits = reloaded.getLastCommits(git.getRepository(), "1.0", revert, profileTrees(revert, "default.profile"));
+        assertThat(commits.get("default.profile"), equalTo((ObjectId) revert));
+    }
+
+    @Test
+    public void rebuildRewrittenBranch() throws Exception {
+        RevCommit first = commit("fabric/profiles/default.profile/a.properties", "a=1");
+        commit("fabric/profiles/default.profile/a.properties", "a=2");
+        RevCommit revert = commit("fabric/profiles/default.profile/a.properties", "a=1");
+        ProfileCommitIndex index = new ProfileCommitIndex(git.getRepository());
+        Map<String, ObjectId> commits = index.getLastCommits(git.getRepository(), "master", revert, profileTrees(revert, "default.profile"));
+        assertThat(commits.get("default.profile"), equalTo((ObjectId) revert));
+
+        // Resetting the branch drops the revert, the tree now comes from the first commit
+        git.reset().setMode(ResetType.HARD).setRef(first.getName()).call();
+        commits = index.getLastCommits(git.getRepository(), "master", first, profileTrees(first, "default.profile"));
+        assertThat(commits.get("default.profile"), equalTo((ObjectId) first));
+    }
+
+    private RevCommit commit(String... pathsAndContents) throws Exception {
+        for (int i = 0; i < pathsAndContents.length; i += 2) {
+            File file = new File(dir, pathsAndContents[i]);
+            file.getParentFile().mkdirs();
+            FileWriter writer = new FileWriter(file);
+            IOUtils.write(pathsAndContents[i + 1], writer);
+            writer.close();
+        }
+        git.add().addFilepattern(".").call();
+        return git.commit().setMessage("update " + pathsAndContents[0]).call();
+    }
+
+    private Map<String, ObjectId> profileTrees(RevCommit commit, String... paths) throws Exception {
+        Map<String, ObjectId> trees = new HashMap<>();
+        for (String path : paths) {
+            TreeWalk walk = TreeWalk.forPath(git.getRepository(), "fabric/profiles/" + path, commit.getTree());
+            trees.put(path, walk.getObjectId(0));
+        }
+        return trees;
+    }
+}
@@ -0,0 +1,171 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.git.internal;
+
+import io.fabric8.api.Version;
+import io.fabric8.git.internal.VersionCache.VersionSnapshot;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class VersionCacheTest {
+
+    private File dir;
+    private Git git;
+    private RevCommit master;
+
+    @Before
+    public void initGitRepo() throws Exception {
+        dir = new File("target/version-cache-repo");
+        FileUtils.deleteDirectory(dir);
+        git = Git.init().setDirectory(dir).call();
+        master = commit("fabric/profiles/default.profile/a.properties", "a=1", "fabric/profiles/foo/bar.profile/b.properties", "b=1");
+        git.checkout().setCreateBranch(true).setName("1.0").call();
+    }
+
+    @Test
+    public void reuseProfilesWithUnchangedTrees() throws Exception {
+        VersionCache cache = new VersionCache();
+        RevCommit first = commit("fabric/profiles/default.profile/a.properties", "a=2");
+        VersionSnapshot previous = cache.load(git.getRepository(), "1.0", master, first, null);
+
+        RevCommit second = commit("fabric/profiles/foo/bar.profile/b.properties", "b=2");
+        VersionSnapshot snapshot = cache.load(git.getRepository(), "1.0", master, second, previous);
+        assertSame(previous.getMasterProfile("default"), snapshot.getMasterProfile("default"));
+        assertSame(previous.getMasterProfile("foo-bar"), snapshot.getMasterProfile("foo-bar"));
+        assertSame(previous.getVersionProfile("default"), snapshot.getVersionProfile("default"));
+        assertNotSame(previous.getVersionProfile("foo-bar"), snapshot.getVersionProfile("foo-bar"));
+
+        Version version = snapshot.getVersion();
+        assertThat(version.getRevision(), equalTo(second.getName()));
+        assertThat(version.getProfile("default").getProfileHash(), equalTo(first.abbreviate(7).name()));
+        assertThat(version.getProfile("foo-bar").getProfileHash(), equalTo(second.abbreviate(7).name()));
+        assertThat(new String(version.getProfile("foo-bar").getFileConfiguration("b.properties"), "UTF-8"), equalTo("b=2"));
+    }
+
+    @Test
+    public void readAttributesAtTheGivenHead() throws Exception {
+        RevCommit first = commit("version.attributes", "attribute=first");
+        commit("version.attributes", "attribute=second");
+
+        Version version = new VersionCache().getVersion(git.getRepository(), "1.0", master, first);
+        assertThat(version.getRevision(), equalTo(first.getName()));
+        assertThat(version.getAttributes().get("attribute"), equalTo("first"));
+    }
+
+    @Test
+    public void publishOnlyOverTheExpectedSnapshot() throws Exception {
+        VersionCache cache = new VersionCache();
+        VersionSnapshot first = cache.load(git.getRepository(), "1.0", master, master, null);
+        VersionSnapshot second = cache.load(git.getRepository(), "1.0", master, master, first);
+        VersionSnapshot third = cache.load(git.getRepository(), "1.0", master, master, first);
+
+        assertTrue(cache.publish("1.0", null, first));
+        assertFalse(cache.publish("1.0", null, second));
+        assertSame(first, cache.getSnapshot("1.0"));
+
+        assertTrue(cache.publish("1.0", first, second));
+        assertFalse(cache.publish("1.0", first, third));
+        assertSame(second, cache.getSnapshot("1.0"));
+
+        cache.invalidate("1.0");
+        assertFalse(cache.publish("1.0", second, third));
+        assertTrue(cache.getSnapshot("1.0") == null);
+    }
+
+    @Test
+    public void reloadWhenHeadsMove() throws Exception {
+        VersionCache cache = new VersionCache();
+        Version version = cache.getVersion(git.getRepository(), "1.0", master, master);
+        assertSame(version, cache.getVersion(git.getRepository(), "1.0", master, master));
+
+        RevCommit commit = commit("fabric/profiles/default.profile/a.properties", "a=2");
+        Version updated = cache.getVersion(git.getRepository(), "1.0", master, commit);
+        assertThat(updated.getRevision(), equalTo(commit.getName()));
+        assertTrue(cache.getSnapshot("1.0").isCurrent(master, commit));
+        assertSame(updated, cache.getVersion(git.getRepository(), "1.0", master, commit));
+    }
+
+    @Test
+    public void concurrentReloads() throws Exception {
+        final VersionCache cache = new VersionCache();
+        cache.getVersion(git.getRepository(), "1.0", master, master);
+        final RevCommit commit = commit("fabric/profiles/foo/bar.profile/b.properties", "b=2");
+
+        int threads = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Version>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(new Callable<Version>() {
+                    @Override
+                    public Version call() throws Exception {
+                        start.await();
+                        return cache.getVersion(git.getRepository(), "1.0", master, commit);
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<Version> future : futures) {
+                Version version = future.get(30, TimeUnit.SECONDS);
+                assertThat(version.getRevision(), equalTo(commit.getName()));
+                assertThat(new String(version.getProfile("foo-bar").getFileConfiguration("b.properties"), "UTF-8"), equalTo("b=2"));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Exactly one of the reloaded snapshots got published, later readers use it as it is
+        VersionSnapshot snapshot = cache.getSnapshot("1.0");
+        assertTrue(snapshot.isCurrent(master, commit));
+        assertSame(snapshot.getVersion(), cache.getVersion(git.getRepository(), "1.0", master, commit));
+    }
+
+    private RevCommit commit(String... pathsAndContents) throws Exception {
+        for (int i = 0; i < pathsAndContents.length; i += 2) {
+            File file = new File(dir, pathsAndContents[i]);
+            file.getParentFile().mkdirs();
+            FileWriter writer = new FileWriter(file);
+            IOUtils.write(pathsAndContents[i + 1], writer);
+            writer.close();
+        }
+        git.add().addFilepattern(".").call();
+        return git.commit().setMessage("update " + pathsAndContents[0]).call();
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.maven.proxy;
+
+/**
+ * Statistics and settings of the caches of the maven proxy
+ */
+public interface MavenProxyCacheMBean {
+
+    String OBJECT_NAME = "io.fabric8:type=MavenProxyCache";
+
+    /**
+     * Default time in seconds a missing artifact is remembered
+     */
+    long getNegativeTtl();
+
+    void setNegativeTtl(long seconds);
+
+    /**
+     * Default time in seconds resolved metadata and SNAPSHOT versions are remembered
+     */
+    long getMetadataTtl();
+
+    void setMetadataTtl(long seconds);
+
+    int getMaxEntries();
+
+    int getNegativeSize();
+
+    long getNegativeHits();
+
+    long getNegativeMisses();
+
+    int getMetadataSize();
+
+    long getMetadataHits();
+
+    long getMetadataMisses();
+
+    int getSnapshotSize();
+
+    long getSnapshotHits();
+
+    long getSnapshotMisses();
+
+    /**
+     * Drops everything cached for the given path and the artifact it belongs to
+     */
+    void invalidate(String path);
+
+    void invalidateAll();
+}
@@ -16,11 +16,17 @@
 package io.fabric8.maven.proxy.impl;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousFileChannel;
 import java.nio.channels.CompletionHandler;
 import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -43,7 +49,17 @@ import io.fabric8.utils.ThreadFactory;
 
 public class MavenDownloadProxyServlet extends MavenProxyServletSupport {
 
+    static final long[] UNSATISFIABLE_RANGE = new long[0];
+
+    private static final int MAX_ETAGS = 10000;
+
     private final ConcurrentMap<String, ArtifactDownloadFuture> requestMap = new ConcurrentHashMap<>();
+    private final Map<String, ETag> etags = new LinkedHashMap<String, ETag>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ETag> eldest) {
+            return size() > MAX_ETAGS;
+        }
+    };
     private final int threadMaximumPoolSize;
     private ThreadPoolExecutor executorService;
 
@@ -107,6 +123,7 @@ public class MavenDownloadProxyServlet extends MavenProxyServletSupport {
 
         final AsynchronousFileChannel channel = (AsynchronousFileChannel) req.getAttribute(AsynchronousFileChannel.class.getName());
         if (channel != null) {
+            final ArtifactDownloadFuture download = (ArtifactDownloadFuture) req.getAttribute(ArtifactDownloadFuture.class.getName());
             long size = (Long) req.getAttribute(AsynchronousFileChannel.class.getName() + ".size");
             long pos = (Long) req.getAttribute(AsynchronousFileChannel.class.getName() + ".position");
             int read = (Integer) req.getAttribute(AsynchronousFileChannel.class.getName() + ".read");
@@ -118,6 +135,7 @@ public class MavenDownloadProxyServlet extends MavenProxyServletSupport {
                     req.setAttribute(AsynchronousFileChannel.class.getName() + ".position", pos);
                     req.setAttribute(ByteBuffer.class.getName(), secondBuffer);
                     req.setAttribute(ByteBuffer.class.getName() + ".second", buffer);
+                    prepareRead(secondBuffer, pos, size);
                     channel.read(secondBuffer, pos, asyncContext, new CompletionHandler<Integer, AsyncContext>() {
                         @Override
                         public void completed(Integer result, AsyncContext attachment) {
@@ -128,6 +146,7 @@ public class MavenDownloadProxyServlet extends MavenProxyServletSupport {
                         @Override
                         public void failed(Throwable exc, AsyncContext attachment) {
                             Closeables.closeQuietly(channel);
+                            download.release();
                             resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
                             attachment.complete();
                         }
@@ -138,10 +157,12 @@ public class MavenDownloadProxyServlet extends MavenProxyServletSupport {
                 resp.flushBuffer();
                 if (pos == size) {
                     Closeables.closeQuietly(channel);
+                    download.release();
                     asyncContext.complete();
                 }
             } else {
                 Closeables.closeQuietly(channel);
+                download.release();
                 resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
                 asyncContext.complete();
             }
@@ -157,7 +178,10 @@ public class MavenDownloadProxyServlet extends MavenProxyServletSupport {
                 @Override
                 public void run() {
                     try {
-                        File file = download(path);
+                        File file = resolve(path);
+                        if (file != null) {
+                            future.setETag(isMetadataRequest(path) ? computeETag(file) : getETag(file));
+                        }
                         future.setValue(file);
                     } catch (Throwable t) {
                         future.setValue(t);
@@ -169,56 +193,67 @@ public class MavenDownloadProxyServlet extends MavenProxyServletSupport {
         }
         masterFuture.addListener(new FutureListener<ArtifactDownloadFuture>() {
             @Override
-            public void operationComplete(ArtifactDownloadFuture future) {
+            public void operationComplete(final ArtifactDownloadFuture future) {
                 Object value = future.getValue();
                 if (value instanceof Throwable) {
                     LOGGER.warn("Error while downloading artifact: {}", ((Throwable) value).getMessage(), value);
                     resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
                 } else if (value instanceof File) {
                     File artifactFile = (File) value;
-                    AsynchronousFileChannel channel = null;
-                    try {
-                        channel = AsynchronousFileChannel.open(artifactFile.toPath(), StandardOpenOption.READ);
-                        LOGGER.info("Writing response for file : {}", path);
-                        resp.setStatus(HttpServletResponse.SC_OK);
-                        resp.setContentType("application/octet-stream");
-                        resp.setDateHeader("Date", System.currentTimeMillis());
-                        resp.setHeader("Connection", "close");
-                        resp.setHeader("Server", "MavenProxy Proxy/" + FabricConstants.FABRIC_VERSION);
-                        long size = artifactFile.length();
-                        if (size < Integer.MAX_VALUE) {
-                            resp.setContentLength((int) size);
-                        }
-                        if ("GET".equals(req.getMethod())) {
-                            // Store attributes and start reading
-                            req.setAttribute(AsynchronousFileChannel.class.getName(), channel);
-                            ByteBuffer buffer = ByteBuffer.allocate(1024 * 64);
-                            ByteBuffer secondBuffer = ByteBuffer.allocate(1024 * 64);
-                            req.setAttribute(ByteBuffer.class.getName(), secondBuffer);
-                            req.setAttribute(ByteBuffer.class.getName() + ".second", buffer);
-                            req.setAttribute(AsynchronousFileChannel.class.getName() + ".position", 0l);
-                            req.setAttribute(AsynchronousFileChannel.class.getName() + ".size", size);
-                            channel.read(secondBuffer, 0, asyncContext, new CompletionHandler<Integer, AsyncContext>() {
-                                @Override
-                                public void completed(Integer result, AsyncContext attachment) {
-                                    req.setAttribute(AsynchronousFileChannel.class.getName() + ".read", result);
-                                    attachment.dispatch();
+                    String etag = future.getETag();
+                    long lastModified = artifactFile.lastModified();
+                    long size = artifactFile.length();
+                    resp.setDateHeader("Date", System.currentTimeMillis());
+                    resp.setHeader("Server", "MavenProxy Proxy/" + FabricConstants.FABRIC_VERSION);
+                    resp.setHeader("ETag", etag);
+                    resp.setDateHeader("Last-Modified", lastModified);
+                    resp.setHeader("Accept-Ranges", "bytes");
+                    if (isNotModified(req, etag, lastModified)) {
+                        LOGGER.debug("Artifact not modified : {}", path);
+                        resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                    } else {
+                        long[] range = getRange(req, etag, lastModified, size);
+                        if (range == UNSATISFIABLE_RANGE) {
+                            resp.setHeader("Content-Range", "bytes */" + size);
+                            resp.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                        } else {
+                            try {
+                                long start = range != null ? range[0] : 0;
+                                long end = range != null ? range[1] + 1 : size;
+                                LOGGER.info("Writing response for file : {}", path);
+                                if (range != null) {
+                                    resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                                    resp.setHeader("Content-Range", "bytes " + start + "-" + (end - 1) + "/" + size);
+                                } else {
+                                    resp.setStatus(HttpServletResponse.SC_OK);
                                 }
-
-                                @Override
-                                public void failed(Throwable exc, AsyncContext attachment) {
-                                    resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-                                    attachment.complete();
+                                resp.setContentType("application/octet-stream");
+                                if (end - start < Integer.MAX_VALUE) {
+                                    resp.setContentLength((int) (end - start));
+                                } else {
+                                    resp.setHeader("Content-Length", Long.toString(end - start));
                                 }
-                            });
-                        } else if ("HEAD".equals(req.getMethod())) {
-                            asyncContext.complete();
+                                if ("GET".equals(req.getMethod()) && end > start) {
+                                    // Only requests which send content need the artifact copied out of the repository.
+                                    // The copy is made on the executor, as this listener may run on the container thread
+                                    final long contentStart = start;
+                                    final long contentEnd = end;
+                                    executorService.execute(new Runnable() {
+                                        @Override
+                                        public void run() {
+                                            sendContent(req, resp, asyncContext, future, contentStart, contentEnd);
+                                        }
+                                    });
+                                } else {
+                                    future.release();
+                                    asyncContext.complete();
+                                }
+                                return;
+                            } catch (Exception e) {
+                                LOGGER.warn("Error while sending artifact: {}", e.getMessage(), e);
+                                resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                            }
                         }
-                        return;
-                    } catch (Exception e) {
-                        Closeables.closeQuietly(channel);
-                        LOGGER.warn("Error while sending artifact: {}", e.getMessage(), e);
-                        resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
                     }
                 } else {
                     resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
@@ -233,13 +268,229 @@ public class MavenDownloadProxyServlet extends MavenProxyServletSupport {
         });
     }
 
+    /**
+     * Copies the artifact out of the repository if needed and starts streaming <code>[start, end)</code> of it,
+     * the download is released once the content was sent
+     */
+    private void sendContent(final HttpServletRequest req, final HttpServletResponse resp, AsyncContext asyncContext,
+                             final ArtifactDownloadFuture future, long start, long end) {
+        AsynchronousFileChannel channel = null;
+        try {
+            channel = AsynchronousFileChannel.open(future.getContent().toPath(), StandardOpenOption.READ);
+            // Store attributes and start reading, the download is released once the content was sent
+            final AsynchronousFileChannel contentChannel = channel;
+            req.setAttribute(ArtifactDownloadFuture.class.getName(), future);
+            req.setAttribute(AsynchronousFileChannel.class.getName(), channel);
+            ByteBuffer buffer = ByteBuffer.allocate(1024 * 64);
+            ByteBuffer secondBuffer = ByteBuffer.allocate(1024 * 64);
+            req.setAttribute(ByteBuffer.class.getName(), secondBuffer);
+            req.setAttribute(ByteBuffer.class.getName() + ".second", buffer);
+            req.setAttribute(AsynchronousFileChannel.class.getName() + ".position", start);
+            req.setAttribute(AsynchronousFileChannel.class.getName() + ".size", end);
+            prepareRead(secondBuffer, start, end);
+            channel.read(secondBuffer, start, asyncContext, new CompletionHandler<Integer, AsyncContext>() {
+                @Override
+                public void completed(Integer result, AsyncContext attachment) {
+                    req.setAttribute(AsynchronousFileChannel.class.getName() + ".read", result);
+                    attachment.dispatch();
+                }
+
+                @Override
+                public void failed(Throwable exc, AsyncContext attachment) {
+                    Closeables.closeQuietly(contentChannel);
+                    future.release();
+                    resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                    attachment.complete();
+                }
+            });
+        } catch (Exception e) {
+            Closeables.closeQuietly(channel);
+            LOGGER.warn("Error while sending artifact: {}", e.getMessage(), e);
+            resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            future.release();
+            try {
+                asyncContext.complete();
+            } catch (IllegalStateException ise) {
+                // Ignore, the response must have already been sent with an error
+            }
+        }
+    }
+
+    /**
+     * Limits the next read to the remaining bytes of the response
+     */
+    private static void prepareRead(ByteBuffer buffer, long position, long end) {
+        buffer.clear();
+        buffer.limit((int) Math.min(buffer.capacity(), end - position));
+    }
+
+    /**
+     * Computes a strong entity tag from the SHA-1 checksum of the artifact
+     */
+    static String computeETag(File file) throws IOException, NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-1");
+        try (InputStream is = new FileInputStream(file)) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = is.read(buffer)) >= 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        StringBuilder sb = new StringBuilder("\"");
+        for (byte b : digest.digest()) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Returns the entity tag of a resolved artifact, which is only computed again when its timestamp or size changed
+     */
+    String getETag(File file) throws IOException, NoSuchAlgorithmException {
+        String key = file.getAbsolutePath();
+        long lastModified = file.lastModified();
+        long size = file.length();
+        synchronized (etags) {
+            ETag etag = etags.get(key);
+            if (etag != null && etag.lastModified == lastModified && etag.size == size) {
+                return etag.value;
+            }
+        }
+        String value = computeETag(file);
+        synchronized (etags) {
+            etags.put(key, new ETag(value, lastModified, size));
+        }
+        return value;
+    }
+
+    /**
+     * Checks If-None-Match and, when it is absent, If-Modified-Since
+     */
+    static boolean isNotModified(HttpServletRequest req, String etag, long lastModified) {
+        String ifNoneMatch = req.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            return matches(ifNoneMatch, etag);
+        }
+        long ifModifiedSince = getDateHeader(req, "If-Modified-Since");
+        return ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+    private static boolean matches(String header, String etag) {
+        for (String tag : header.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long getDateHeader(HttpServletRequest req, String name) {
+        try {
+            return req.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the first and last byte of a single "bytes" Range, or null to send the whole artifact.
+     * Multiple ranges are not supported and answered with the whole artifact, as allowed by RFC 7233.
+     */
+    static long[] getRange(HttpServletRequest req, String etag, long lastModified, long size) {
+        String header = req.getHeader("Range");
+        if (header == null || !header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return null;
+        }
+        String ifRange = req.getHeader("If-Range");
+        if (ifRange != null) {
+            if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+                if (!ifRange.equals(etag)) {
+                    return null;
+                }
+            } else if (getDateHeader(req, "If-Range") / 1000 != lastModified / 1000) {
+                return null;
+            }
+        }
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        long start;
+        long end;
+        try {
+            if (dash == 0) {
+                // suffix range: the last n bytes
+                long suffix = Long.parseLong(spec.substring(1).trim());
+                if (suffix <= 0) {
+                    return UNSATISFIABLE_RANGE;
+                }
+                start = Math.max(0, size - suffix);
+                end = size - 1;
+            } else {
+                start = Long.parseLong(spec.substring(0, dash).trim());
+                String last = spec.substring(dash + 1).trim();
+                end = last.isEmpty() ? size - 1 : Math.min(Long.parseLong(last), size - 1);
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (start >= size || start > end) {
+            return UNSATISFIABLE_RANGE;
+        }
+        return new long[] {start, end};
+    }
+
+    private static final class ETag {
+
+        private final String value;
+        private final long lastModified;
+        private final long size;
+
+        private ETag(String value, long lastModified, long size) {
+            this.value = value;
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+    }
+
     private class ArtifactDownloadFuture extends DefaultFuture<ArtifactDownloadFuture> {
 
         private final AtomicInteger participants = new AtomicInteger();
         private final String path;
+        private final boolean temporary;
+        private volatile String etag;
+        private File copy;
 
         private ArtifactDownloadFuture(String path) {
             this.path = path;
+            this.temporary = isMetadataRequest(path);
+        }
+
+        /**
+         * Returns the file to send, artifacts are copied out of the local repository the first time they are needed
+         */
+        public synchronized File getContent() throws IOException {
+            File file = (File) getValue();
+            if (temporary) {
+                return file;
+            }
+            if (copy == null) {
+                copy = copyArtifact(file);
+            }
+            return copy;
+        }
+
+        public String getETag() {
+            return etag;
+        }
+
+        public void setETag(String etag) {
+            this.etag = etag;
         }
 
         public void lock() {
@@ -250,9 +501,14 @@ public class MavenDownloadProxyServlet extends MavenProxyServletSupport {
             if (participants.decrementAndGet() == 0) {
                 requestMap.remove(path);
                 Object v = getValue();
-                if (v instanceof File) {
+                if (temporary && v instanceof File) {
                     ((File) v).delete();
                 }
+                synchronized (this) {
+                    if (copy != null) {
+                        copy.delete();
+                    }
+                }
             }
         }
 
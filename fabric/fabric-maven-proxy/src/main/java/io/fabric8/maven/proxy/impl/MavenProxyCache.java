@@ -0,0 +1,326 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.maven.proxy.impl;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.fabric8.maven.proxy.MavenProxyCacheMBean;
+import org.eclipse.aether.repository.RemoteRepository;
+
+/**
+ * Remembers what the remote repositories answered for a while, so that repeated requests
+ * for missing artifacts, maven-metadata.xml and SNAPSHOT versions do not go remote every time.
+ *
+ * Every cache is bounded and evicts the least recently used entries. Time to live can be
+ * configured per repository id, a time to live of 0 disables caching for that repository.
+ */
+public class MavenProxyCache implements MavenProxyCacheMBean {
+
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+    public static final long DEFAULT_NEGATIVE_TTL = 300;
+    public static final long DEFAULT_METADATA_TTL = 60;
+
+    /**
+     * Cached value of metadata a repository does not have
+     */
+    static final Object MISSING = new Object();
+
+    private final int maxEntries;
+    private final TtlCache negative;
+    private final TtlCache metadata;
+    private final TtlCache snapshots;
+    private final ConcurrentMap<String, Long> negativeTtls = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Long> metadataTtls = new ConcurrentHashMap<>();
+    private volatile long negativeTtl = DEFAULT_NEGATIVE_TTL;
+    private volatile long metadataTtl = DEFAULT_METADATA_TTL;
+
+    public MavenProxyCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public MavenProxyCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.negative = new TtlCache(maxEntries);
+        this.metadata = new TtlCache(maxEntries);
+        this.snapshots = new TtlCache(maxEntries);
+    }
+
+    /**
+     * @return true if the artifact at the given path was recently not found
+     */
+    public boolean isMissing(String path) {
+        return negative.get(path) != null;
+    }
+
+    /**
+     * Remembers a failed lookup, for the shortest time to live of the repositories it was looked up in
+     */
+    public void putMissing(String path, List<RemoteRepository> repositories) {
+        long ttl = negativeTtl;
+        if (repositories != null && !repositories.isEmpty()) {
+            ttl = Long.MAX_VALUE;
+            for (RemoteRepository repository : repositories) {
+                ttl = Math.min(ttl, getNegativeTtl(repository.getId()));
+            }
+        }
+        negative.put(path, Boolean.TRUE, ttl);
+    }
+
+    /**
+     * @return the parsed metadata, {@link #MISSING} or null if the repository has to be asked
+     */
+    public Object getMetadata(String repositoryId, String path) {
+        return metadata.get(path + "@" + repositoryId);
+    }
+
+    public void putMetadata(String repositoryId, String path, Object value) {
+        metadata.put(path + "@" + repositoryId, value != null ? value : MISSING, getMetadataTtl(repositoryId));
+    }
+
+    /**
+     * @return the recently resolved file of a SNAPSHOT artifact
+     */
+    public File getSnapshot(String path) {
+        File file = (File) snapshots.get(path);
+        return file != null && file.exists() ? file : null;
+    }
+
+    /**
+     * Remembers a resolved SNAPSHOT, for the shortest metadata time to live of the repositories it was resolved from
+     */
+    public void putSnapshot(String path, File file, List<RemoteRepository> repositories) {
+        long ttl = metadataTtl;
+        if (repositories != null && !repositories.isEmpty()) {
+            ttl = Long.MAX_VALUE;
+            for (RemoteRepository repository : repositories) {
+                ttl = Math.min(ttl, getMetadataTtl(repository.getId()));
+            }
+        }
+        snapshots.put(path, file, ttl);
+    }
+
+    public long getNegativeTtl(String repositoryId) {
+        Long ttl = negativeTtls.get(repositoryId);
+        return ttl != null ? ttl : negativeTtl;
+    }
+
+    public void setNegativeTtl(String repositoryId, long seconds) {
+        negativeTtls.put(repositoryId, seconds);
+    }
+
+    public long getMetadataTtl(String repositoryId) {
+        Long ttl = metadataTtls.get(repositoryId);
+        return ttl != null ? ttl : metadataTtl;
+    }
+
+    public void setMetadataTtl(String repositoryId, long seconds) {
+        metadataTtls.put(repositoryId, seconds);
+    }
+
+    @Override
+    public long getNegativeTtl() {
+        return negativeTtl;
+    }
+
+    @Override
+    public void setNegativeTtl(long seconds) {
+        this.negativeTtl = seconds;
+    }
+
+    @Override
+    public long getMetadataTtl() {
+        return metadataTtl;
+    }
+
+    @Override
+    public void setMetadataTtl(long seconds) {
+        this.metadataTtl = seconds;
+    }
+
+    @Override
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    @Override
+    public int getNegativeSize() {
+        return negative.size();
+    }
+
+    @Override
+    public long getNegativeHits() {
+        return negative.hits.get();
+    }
+
+    @Override
+    public long getNegativeMisses() {
+        return negative.misses.get();
+    }
+
+    @Override
+    public int getMetadataSize() {
+        return metadata.size();
+    }
+
+    @Override
+    public long getMetadataHits() {
+        return metadata.hits.get();
+    }
+
+    @Override
+    public long getMetadataMisses() {
+        return metadata.misses.get();
+    }
+
+    @Override
+    public int getSnapshotSize() {
+        return snapshots.size();
+    }
+
+    @Override
+    public long getSnapshotHits() {
+        return snapshots.hits.get();
+    }
+
+    @Override
+    public long getSnapshotMisses() {
+        return snapshots.misses.get();
+    }
+
+    /**
+     * Drops the entries of the artifact directory (groupId/artifactId) the given path belongs to,
+     * which covers the artifact itself, its versions and the maven-metadata.xml files.
+     */
+    @Override
+    public void invalidate(String path) {
+        if (path == null) {
+            return;
+        }
+        negative.remove(path);
+        snapshots.remove(path);
+        String prefix = path;
+        for (int i = 0; i < 2; i++) {
+            int idx = prefix.lastIndexOf('/');
+            if (idx <= 0) {
+                break;
+            }
+            prefix = prefix.substring(0, idx);
+        }
+        prefix = prefix + "/";
+        negative.removePrefix(prefix);
+        metadata.removePrefix(prefix);
+        snapshots.removePrefix(prefix);
+    }
+
+    @Override
+    public void invalidateAll() {
+        negative.clear();
+        metadata.clear();
+        snapshots.clear();
+    }
+
+    /**
+     * A bounded LRU map whose entries expire
+     */
+    static final class TtlCache {
+
+        private final LinkedHashMap<String, Entry> map;
+        final AtomicLong hits = new AtomicLong();
+        final AtomicLong misses = new AtomicLong();
+
+        TtlCache(final int maxEntries) {
+            this.map = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    return size() > maxEntries;
+                }
+            };
+        }
+
+        Object get(String key) {
+            Object value = null;
+            synchronized (map) {
+                Entry entry = map.get(key);
+                if (entry != null) {
+                    if (entry.expiry - System.nanoTime() > 0) {
+                        value = entry.value;
+                    } else {
+                        map.remove(key);
+                    }
+                }
+            }
+            (value != null ? hits : misses).incrementAndGet();
+            return value;
+        }
+
+        void put(String key, Object value, long ttl) {
+            if (ttl <= 0) {
+                return;
+            }
+            Entry entry = new Entry(value, System.nanoTime() + TimeUnit.SECONDS.toNanos(ttl));
+            synchronized (map) {
+                map.put(key, entry);
+            }
+        }
+
+        void remove(String key) {
+            synchronized (map) {
+                map.remove(key);
+            }
+        }
+
+        void removePrefix(String prefix) {
+            synchronized (map) {
+                for (Iterator<String> it = map.keySet().iterator(); it.hasNext(); ) {
+                    if (it.next().startsWith(prefix)) {
+                        it.remove();
+                    }
+                }
+            }
+        }
+
+        void clear() {
+            synchronized (map) {
+                map.clear();
+            }
+        }
+
+        int size() {
+            synchronized (map) {
+                return map.size();
+            }
+        }
+    }
+
+    private static final class Entry {
+
+        private final Object value;
+        private final long expiry;
+
+        private Entry(Object value, long expiry) {
+            this.value = value;
+            this.expiry = expiry;
+        }
+    }
+}
@@ -16,6 +16,7 @@
 package io.fabric8.maven.proxy.impl;
 
 import java.io.File;
+import java.lang.management.ManagementFactory;
 import java.util.Collections;
 import java.util.Dictionary;
 import java.util.HashMap;
@@ -25,15 +26,20 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
 import io.fabric8.api.RuntimeProperties;
 import io.fabric8.api.jcip.GuardedBy;
 import io.fabric8.api.jcip.ThreadSafe;
 import io.fabric8.api.scr.AbstractComponent;
 import io.fabric8.api.scr.Configurer;
 import io.fabric8.api.scr.ValidatingReference;
+import io.fabric8.common.util.JMXUtils;
 import io.fabric8.deployer.ProjectDeployer;
 import io.fabric8.maven.MavenResolver;
 import io.fabric8.maven.proxy.MavenProxy;
+import io.fabric8.maven.proxy.MavenProxyCacheMBean;
 import io.fabric8.zookeeper.ZkPath;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.state.ConnectionState;
@@ -63,6 +69,8 @@ public final class MavenProxyRegistrationHandler extends AbstractComponent imple
 
     private static final String DEFAULT_ROLE = "admin";
     private static final String DEFAULT_REALM = "karaf";
+    private static final String NEGATIVE_CACHE_TTL = "negativeCacheTtl";
+    private static final String METADATA_CACHE_TTL = "metadataCacheTtl";
 
     private static final String DEFAULT_LOCAL_REPOSITORY = System.getProperty("karaf.data") + File.separator + "maven" + File.separator + "proxy" + File.separator + "downloads";
 
@@ -83,6 +91,7 @@ public final class MavenProxyRegistrationHandler extends AbstractComponent imple
 
     @GuardedBy("volatile") private volatile MavenDownloadProxyServlet mavenDownloadProxyServlet;
     @GuardedBy("volatile") private volatile MavenUploadProxyServlet mavenUploadProxyServlet;
+    @GuardedBy("volatile") private volatile MavenProxyCache mavenProxyCache;
 
     @GuardedBy("volatile")
     @Property(name = "realm", label = "Jaas Realm", description = "The Jaas Realm to use for uploads", value = DEFAULT_REALM)
@@ -97,6 +106,13 @@ public final class MavenProxyRegistrationHandler extends AbstractComponent imple
     @Property(name = "threadMaximumPoolSize", label = "Thread pool maximum size", description = "Maximum number of concurrent threads used for the DownloadMavenProxy servlet", intValue = 5)
     private int threadMaximumPoolSize;
 
+    @Property(name = "cacheMaxEntries", label = "Cache size", description = "Maximum number of missing artifacts, metadata and SNAPSHOT versions remembered each", intValue = MavenProxyCache.DEFAULT_MAX_ENTRIES)
+    private int cacheMaxEntries = MavenProxyCache.DEFAULT_MAX_ENTRIES;
+    @Property(name = NEGATIVE_CACHE_TTL, label = "Missing artifact cache time", description = "Seconds a missing artifact is remembered, can be set per repository with negativeCacheTtl.<repository id>", longValue = MavenProxyCache.DEFAULT_NEGATIVE_TTL)
+    private long negativeCacheTtl = MavenProxyCache.DEFAULT_NEGATIVE_TTL;
+    @Property(name = METADATA_CACHE_TTL, label = "Metadata cache time", description = "Seconds resolved metadata and SNAPSHOT versions are remembered, can be set per repository with metadataCacheTtl.<repository id>", longValue = MavenProxyCache.DEFAULT_METADATA_TTL)
+    private long metadataCacheTtl = MavenProxyCache.DEFAULT_METADATA_TTL;
+
     @Property(name = "upload", label = "Upload repository", description = "The path to hold uploaded artifacts", value = "${runtime.data}/data/maven/upload")
     private String uploadRepository;
 
@@ -116,10 +132,19 @@ public final class MavenProxyRegistrationHandler extends AbstractComponent imple
             uploadRepository = runtimeProperties.get().getProperty("runtime.data") + "/maven/upload";
         }
 
+        // Both servlets share the cache, so that uploads invalidate what downloads remembered
+        this.mavenProxyCache = createCache(configuration);
         this.mavenDownloadProxyServlet = new MavenDownloadProxyServlet(mavenResolver.get(), runtimeProperties.get(), projectDeployer.get(), threadMaximumPoolSize);
+        this.mavenDownloadProxyServlet.setCache(mavenProxyCache);
         this.mavenDownloadProxyServlet.start();
         this.mavenUploadProxyServlet = new MavenUploadProxyServlet(mavenResolver.get(), runtimeProperties.get(), projectDeployer.get(), new File(uploadRepository));
+        this.mavenUploadProxyServlet.setCache(mavenProxyCache);
         this.mavenUploadProxyServlet.start();
+        try {
+            JMXUtils.registerMBean(new StandardMBean(mavenProxyCache, MavenProxyCacheMBean.class), ManagementFactory.getPlatformMBeanServer(), new ObjectName(MavenProxyCacheMBean.OBJECT_NAME));
+        } catch (Exception e) {
+            LOGGER.warn("Failed to register maven proxy cache MBean, due to:" + e.getMessage());
+        }
         try {
             HttpContext base = httpService.get().createDefaultHttpContext();
             HttpContext secure = new MavenSecureHttpContext(base, realm, role);
@@ -141,6 +166,12 @@ public final class MavenProxyRegistrationHandler extends AbstractComponent imple
             mavenUploadProxyServlet.stop();
         }
 
+        try {
+            JMXUtils.unregisterMBean(ManagementFactory.getPlatformMBeanServer(), new ObjectName(MavenProxyCacheMBean.OBJECT_NAME));
+        } catch (Exception e) {
+            LOGGER.debug("Failed to unregister maven proxy cache MBean", e);
+        }
+
         try {
             httpService.get().unregister("/maven/download");
             httpService.get().unregister("/maven/upload");
@@ -154,6 +185,25 @@ public final class MavenProxyRegistrationHandler extends AbstractComponent imple
         }
     }
 
+    private MavenProxyCache createCache(Map<String, ?> configuration) {
+        MavenProxyCache cache = new MavenProxyCache(cacheMaxEntries);
+        cache.setNegativeTtl(negativeCacheTtl);
+        cache.setMetadataTtl(metadataCacheTtl);
+        for (Map.Entry<String, ?> entry : configuration.entrySet()) {
+            String key = entry.getKey();
+            try {
+                if (key.startsWith(NEGATIVE_CACHE_TTL + ".")) {
+                    cache.setNegativeTtl(key.substring(NEGATIVE_CACHE_TTL.length() + 1), Long.parseLong(String.valueOf(entry.getValue()).trim()));
+                } else if (key.startsWith(METADATA_CACHE_TTL + ".")) {
+                    cache.setMetadataTtl(key.substring(METADATA_CACHE_TTL.length() + 1), Long.parseLong(String.valueOf(entry.getValue()).trim()));
+                }
+            } catch (NumberFormatException e) {
+                LOGGER.warn("Ignoring invalid cache time " + key + " = " + entry.getValue());
+            }
+        }
+        return cache;
+    }
+
     private Dictionary<String, String> createParams(String name) {
         Dictionary<String, String> d = new Hashtable<String, String>();
         d.put("servlet-name", name);
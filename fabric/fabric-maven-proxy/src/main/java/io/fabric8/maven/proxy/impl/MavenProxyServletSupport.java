@@ -58,6 +58,7 @@ import org.eclipse.aether.metadata.Metadata;
 import org.eclipse.aether.repository.RemoteRepository;
 import org.eclipse.aether.resolution.MetadataRequest;
 import org.eclipse.aether.resolution.MetadataResult;
+import org.eclipse.aether.transfer.MetadataNotFoundException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -103,6 +104,8 @@ public class MavenProxyServletSupport extends HttpServlet implements MavenProxy
 
     final MavenResolver resolver;
 
+    protected MavenProxyCache cache = new MavenProxyCache();
+
     public MavenProxyServletSupport(MavenResolver resolver, RuntimeProperties runtimeProperties, ProjectDeployer projectDeployer, File uploadRepository) {
         this.resolver = resolver;
         this.runtimeProperties = runtimeProperties;
@@ -130,6 +133,30 @@ public class MavenProxyServletSupport extends HttpServlet implements MavenProxy
 
     @Override
     public File download(String path) throws InvalidMavenArtifactRequest {
+        File file = resolve(path);
+        if (file == null || isMetadataRequest(path)) {
+            return file;
+        }
+        try {
+            return copyArtifact(file);
+        } catch (IOException e) {
+            LOGGER.warn(String.format("Could not copy artifact : %s due to %s", path, e.getMessage()), e);
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the path asks for maven-metadata.xml, which {@link #resolve(String)} answers with a temporary file
+     */
+    protected static boolean isMetadataRequest(String path) {
+        return path != null && ARTIFACT_METADATA_URL_REGEX.matcher(path).matches();
+    }
+
+    /**
+     * Resolves the given path without copying artifacts out of the local repository.
+     * Metadata is merged into a temporary file, artifacts are returned as the file in the local repository.
+     */
+    protected File resolve(String path) throws InvalidMavenArtifactRequest {
         if (path == null) {
             throw new InvalidMavenArtifactRequest();
         }
@@ -147,10 +174,16 @@ public class MavenProxyServletSupport extends HttpServlet implements MavenProxy
                     return null;
                 }
                 List<MetadataRequest> requests = new ArrayList<>();
+                List<org.apache.maven.artifact.repository.metadata.Metadata> found = new ArrayList<>();
                 for (RemoteRepository repository : repositories) {
-                    MetadataRequest request = new MetadataRequest(metadata, repository, null);
-                    request.setFavorLocalRepository(false);
-                    requests.add(request);
+                    Object cached = cache.getMetadata(repository.getId(), path);
+                    if (cached instanceof org.apache.maven.artifact.repository.metadata.Metadata) {
+                        found.add((org.apache.maven.artifact.repository.metadata.Metadata) cached);
+                    } else if (cached == null) {
+                        MetadataRequest request = new MetadataRequest(metadata, repository, null);
+                        request.setFavorLocalRepository(false);
+                        requests.add(request);
+                    }
                 }
                 MetadataRequest request = new MetadataRequest(metadata, null, null);
                 request.setFavorLocalRepository(true);
@@ -163,23 +196,31 @@ public class MavenProxyServletSupport extends HttpServlet implements MavenProxy
                 boolean merged = false;
                 List<MetadataResult> results = system.resolveMetadata(session, requests);
                 for (MetadataResult result : results) {
+                    org.apache.maven.artifact.repository.metadata.Metadata m = null;
                     if (result.getMetadata() != null && result.getMetadata().getFile() != null) {
                         FileInputStream fis = new FileInputStream( result.getMetadata().getFile() );
-                        org.apache.maven.artifact.repository.metadata.Metadata m = new MetadataXpp3Reader().read( fis, false );
+                        m = new MetadataXpp3Reader().read( fis, false );
                         fis.close();
-                        if (m.getVersioning() != null) {
-                            mr.getVersioning().setLastUpdated(latestTimestamp(mr.getVersioning().getLastUpdated(), m.getVersioning().getLastUpdated()));
-                            mr.getVersioning().setLatest(latestVersion(mr.getVersioning().getLatest(), m.getVersioning().getLatest()));
-                            mr.getVersioning().setRelease(latestVersion(mr.getVersioning().getRelease(), m.getVersioning().getRelease()));
-                            for (String v : m.getVersioning().getVersions()) {
-                                if (!mr.getVersioning().getVersions().contains(v)) {
-                                    mr.getVersioning().getVersions().add(v);
-                                }
+                        found.add(m);
+                    }
+                    RemoteRepository repository = result.getRequest().getRepository();
+                    if (repository != null && (result.getException() == null || result.getException() instanceof MetadataNotFoundException)) {
+                        cache.putMetadata(repository.getId(), path, m);
+                    }
+                }
+                for (org.apache.maven.artifact.repository.metadata.Metadata m : found) {
+                    if (m.getVersioning() != null) {
+                        mr.getVersioning().setLastUpdated(latestTimestamp(mr.getVersioning().getLastUpdated(), m.getVersioning().getLastUpdated()));
+                        mr.getVersioning().setLatest(latestVersion(mr.getVersioning().getLatest(), m.getVersioning().getLatest()));
+                        mr.getVersioning().setRelease(latestVersion(mr.getVersioning().getRelease(), m.getVersioning().getRelease()));
+                        for (String v : m.getVersioning().getVersions()) {
+                            if (!mr.getVersioning().getVersions().contains(v)) {
+                                mr.getVersioning().getVersions().add(v);
                             }
-                            mr.getVersioning().getSnapshotVersions().addAll(m.getVersioning().getSnapshotVersions());
                         }
-                        merged = true;
+                        mr.getVersioning().getSnapshotVersions().addAll(m.getVersioning().getSnapshotVersions());
                     }
+                    merged = true;
                 }
                 if (merged) {
                     Collections.sort(mr.getVersioning().getVersions(), VERSION_COMPARATOR);
@@ -199,19 +240,39 @@ public class MavenProxyServletSupport extends HttpServlet implements MavenProxy
         } else if (artifactMatcher.matches()) {
             LOGGER.info("Received request for maven artifact : {}", path);
             Artifact artifact = convertPathToArtifact(path);
+            if (cache.isMissing(path)) {
+                LOGGER.debug("Artifact recently not found : {}", artifact);
+                return null;
+            }
             try {
-                File download = resolver.resolveFile(artifact);
-                File tmpFile = Files.createTempFile(runtimeProperties.getDataPath());
-                Files.copy(download, tmpFile);
-                return tmpFile;
+                File download = artifact.isSnapshot() ? cache.getSnapshot(path) : null;
+                if (download == null) {
+                    download = resolver.resolveFile(artifact);
+                    if (artifact.isSnapshot()) {
+                        cache.putSnapshot(path, download, repositories);
+                    }
+                }
+                return download;
             } catch (Exception e) {
                 LOGGER.warn(String.format("Could not find artifact : %s due to %s", artifact, e.getMessage()), e);
+                cache.putMissing(path, repositories);
                 return null;
             }
         }
         return null;
     }
 
+    /**
+     * Copies a resolved artifact to a temporary file, so that the local repository can be updated while it is sent
+     */
+    protected File copyArtifact(File file) throws IOException {
+        File tmpFile = Files.createTempFile(runtimeProperties.getDataPath());
+        Files.copy(file, tmpFile);
+        // Keep the timestamp of the artifact for Last-Modified
+        tmpFile.setLastModified(file.lastModified());
+        return tmpFile;
+    }
+
     private Comparator<String> VERSION_COMPARATOR = new Comparator<String>() {
         @Override
         public int compare(String v1, String v2) {
@@ -303,6 +364,7 @@ public class MavenProxyServletSupport extends HttpServlet implements MavenProxy
             try {
                 File target = new File(uploadRepository, path);
                 Files.copy(file, target);
+                cache.invalidate(path);
                 LOGGER.info("Maven metadata installed");
             } catch (Exception e) {
                 result = UploadContext.ERROR;
@@ -317,6 +379,7 @@ public class MavenProxyServletSupport extends HttpServlet implements MavenProxy
 
                 File target = new File(uploadRepository, path);
                 Files.copy(file, target);
+                cache.invalidate(path);
 
                 result.setGroupId(artifact.getGroupId());
                 result.setArtifactId(artifact.getArtifactId());
@@ -545,6 +608,14 @@ public class MavenProxyServletSupport extends HttpServlet implements MavenProxy
         return tmpFile;
     }
 
+    public MavenProxyCache getCache() {
+        return cache;
+    }
+
+    public void setCache(MavenProxyCache cache) {
+        this.cache = cache;
+    }
+
     public ProjectDeployer getProjectDeployer() {
         return projectDeployer;
     }
@@ -0,0 +1,99 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.maven.proxy.impl;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.eclipse.aether.repository.RemoteRepository;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MavenProxyCacheTest {
+
+    private static final String ARTIFACT = "io/fabric8/fabric-core/1.0/fabric-core-1.0.jar";
+    private static final String METADATA = "io/fabric8/fabric-core/maven-metadata.xml";
+
+    private final RemoteRepository central = new RemoteRepository.Builder("central", "default", "http://repo1.maven.org/maven2/").build();
+    private final RemoteRepository snapshots = new RemoteRepository.Builder("snapshots", "default", "http://localhost/snapshots/").build();
+
+    @Test
+    public void testNegativeCache() throws Exception {
+        MavenProxyCache cache = new MavenProxyCache();
+        assertFalse(cache.isMissing(ARTIFACT));
+        cache.putMissing(ARTIFACT, Arrays.asList(central, snapshots));
+        assertTrue(cache.isMissing(ARTIFACT));
+        assertEquals(1, cache.getNegativeHits());
+        assertEquals(1, cache.getNegativeMisses());
+
+        // A repository that disables negative caching wins
+        cache.invalidateAll();
+        cache.setNegativeTtl("snapshots", 0);
+        cache.putMissing(ARTIFACT, Arrays.asList(central, snapshots));
+        assertFalse(cache.isMissing(ARTIFACT));
+        cache.putMissing(ARTIFACT, Collections.singletonList(central));
+        assertTrue(cache.isMissing(ARTIFACT));
+    }
+
+    @Test
+    public void testBoundedSize() throws Exception {
+        MavenProxyCache cache = new MavenProxyCache(2);
+        cache.putMissing("a", null);
+        cache.putMissing("b", null);
+        assertTrue(cache.isMissing("a"));
+        cache.putMissing("c", null);
+        assertEquals(2, cache.getNegativeSize());
+        assertTrue(cache.isMissing("a"));
+        assertFalse(cache.isMissing("b"));
+    }
+
+    @Test
+    public void testMetadataPerRepository() throws Exception {
+        MavenProxyCache cache = new MavenProxyCache();
+        cache.setMetadataTtl("snapshots", 0);
+        Object metadata = new Object();
+        cache.putMetadata("central", METADATA, metadata);
+        cache.putMetadata("snapshots", METADATA, metadata);
+        assertSame(metadata, cache.getMetadata("central", METADATA));
+        assertNull(cache.getMetadata("snapshots", METADATA));
+
+        cache.putMetadata("central", "io/fabric8/fabric-api/maven-metadata.xml", null);
+        assertSame(MavenProxyCache.MISSING, cache.getMetadata("central", "io/fabric8/fabric-api/maven-metadata.xml"));
+    }
+
+    @Test
+    public void testInvalidateOnUpload() throws Exception {
+        MavenProxyCache cache = new MavenProxyCache();
+        File file = File.createTempFile("fabric-core", ".jar");
+        file.deleteOnExit();
+        cache.putMissing(ARTIFACT, null);
+        cache.putMetadata("central", METADATA, new Object());
+        cache.putSnapshot("io/fabric8/fabric-core/1.1-SNAPSHOT/fabric-core-1.1-SNAPSHOT.jar", file, null);
+        cache.putMetadata("central", "io/fabric8/fabric-api/maven-metadata.xml", new Object());
+
+        cache.invalidate(ARTIFACT);
+        assertFalse(cache.isMissing(ARTIFACT));
+        assertNull(cache.getMetadata("central", METADATA));
+        assertNull(cache.getSnapshot("io/fabric8/fabric-core/1.1-SNAPSHOT/fabric-core-1.1-SNAPSHOT.jar"));
+        assertEquals(1, cache.getMetadataSize());
+    }
+}
@@ -24,13 +24,19 @@ import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousFileChannel;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
+import java.util.TimeZone;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.jar.JarEntry;
 import java.util.jar.JarOutputStream;
 import java.util.regex.Matcher;
@@ -224,6 +230,219 @@ public class MavenProxyServletSupportTest {
         assertEquals("io.fabric8:fabric8-karaf:zip:distro:LATEST",servlet.convertToMavenUrl("io/fabric8/fabric8-karaf/LATEST/fabric8-karaf-LATEST-distro.zip"));
     }
 
+    @Test(timeout=30000)
+    public void testConditionalDownload() throws Exception {
+        File file = new File("target/etag-test.jar");
+        FileUtils.writeStringToFile(file, "hello");
+        String etag = MavenDownloadProxyServlet.computeETag(file);
+        assertEquals("\"aaf4c61ddcc5e8a2dabede0f3b482cd9aea9434d\"", etag);
+
+        long lastModified = 1420070400000L;
+        assertFalse(MavenDownloadProxyServlet.isNotModified(createRequest(), etag, lastModified));
+        assertTrue(MavenDownloadProxyServlet.isNotModified(createRequest("If-None-Match", "\"other\", " + etag), etag, lastModified));
+        assertTrue(MavenDownloadProxyServlet.isNotModified(createRequest("If-None-Match", "*"), etag, lastModified));
+        assertFalse(MavenDownloadProxyServlet.isNotModified(createRequest("If-None-Match", "\"other\""), etag, lastModified));
+        assertTrue(MavenDownloadProxyServlet.isNotModified(createRequest("If-Modified-Since", "Thu, 01 Jan 2015 00:00:00 GMT"), etag, lastModified));
+        assertFalse(MavenDownloadProxyServlet.isNotModified(createRequest("If-Modified-Since", "Wed, 31 Dec 2014 23:59:59 GMT"), etag, lastModified));
+        // If-None-Match takes precedence over If-Modified-Since
+        assertFalse(MavenDownloadProxyServlet.isNotModified(createRequest("If-None-Match", "\"other\"", "If-Modified-Since", "Thu, 01 Jan 2015 00:00:00 GMT"), etag, lastModified));
+    }
+
+    @Test(timeout=30000)
+    public void testDownloadRange() throws Exception {
+        String etag = "\"abc\"";
+        long lastModified = 1420070400000L;
+        assertNull(MavenDownloadProxyServlet.getRange(createRequest(), etag, lastModified, 100));
+        assertArrayEquals(new long[] {10, 19}, MavenDownloadProxyServlet.getRange(createRequest("Range", "bytes=10-19"), etag, lastModified, 100));
+        assertArrayEquals(new long[] {10, 99}, MavenDownloadProxyServlet.getRange(createRequest("Range", "bytes=10-"), etag, lastModified, 100));
+        assertArrayEquals(new long[] {10, 99}, MavenDownloadProxyServlet.getRange(createRequest("Range", "bytes=10-1000"), etag, lastModified, 100));
+        assertArrayEquals(new long[] {80, 99}, MavenDownloadProxyServlet.getRange(createRequest("Range", "bytes=-20"), etag, lastModified, 100));
+        assertSame(MavenDownloadProxyServlet.UNSATISFIABLE_RANGE, MavenDownloadProxyServlet.getRange(createRequest("Range", "bytes=100-"), etag, lastModified, 100));
+        assertNull(MavenDownloadProxyServlet.getRange(createRequest("Range", "bytes=0-1,5-6"), etag, lastModified, 100));
+        assertNull(MavenDownloadProxyServlet.getRange(createRequest("Range", "items=0-1"), etag, lastModified, 100));
+
+        // If-Range only honours the range while the artifact did not change
+        assertArrayEquals(new long[] {10, 19}, MavenDownloadProxyServlet.getRange(createRequest("Range", "bytes=10-19", "If-Range", etag), etag, lastModified, 100));
+        assertNull(MavenDownloadProxyServlet.getRange(createRequest("Range", "bytes=10-19", "If-Range", "\"other\""), etag, lastModified, 100));
+        assertArrayEquals(new long[] {10, 19}, MavenDownloadProxyServlet.getRange(createRequest("Range", "bytes=10-19", "If-Range", "Thu, 01 Jan 2015 00:00:00 GMT"), etag, lastModified, 100));
+        assertNull(MavenDownloadProxyServlet.getRange(createRequest("Range", "bytes=10-19", "If-Range", "Wed, 31 Dec 2014 00:00:00 GMT"), etag, lastModified, 100));
+    }
+
+    @Test(timeout=30000)
+    public void testETagIsOnlyComputedOnce() throws Exception {
+        File file = new File("target/etag-cache-test.jar");
+        FileUtils.writeStringToFile(file, "hello");
+        file.setLastModified(1420070400000L);
+        MavenDownloadProxyServlet servlet = new MavenDownloadProxyServlet(null, new MockRuntimeProperties(), projectDeployer, 1);
+        String etag = servlet.getETag(file);
+        assertEquals(MavenDownloadProxyServlet.computeETag(file), etag);
+
+        // Same timestamp and size, the cached tag is used without reading the file
+        FileUtils.writeStringToFile(file, "world");
+        file.setLastModified(1420070400000L);
+        assertEquals(etag, servlet.getETag(file));
+
+        file.setLastModified(1420070401000L);
+        assertEquals(MavenDownloadProxyServlet.computeETag(file), servlet.getETag(file));
+    }
+
+    @Test(timeout=30000)
+    public void testStreamRange() throws Exception {
+        final String old = System.getProperty("karaf.data");
+        System.setProperty("karaf.data", new File("target").getCanonicalPath());
+        FileUtils.deleteDirectory(new File("target/tmp"));
+        try {
+            final File artifact = new File("target/range-test.jar");
+            byte[] content = new byte[200000];
+            for (int i = 0; i < content.length; i++) {
+                content[i] = (byte) i;
+            }
+            FileUtils.writeByteArrayToFile(artifact, content);
+
+            MavenDownloadProxyServlet servlet = new MavenDownloadProxyServlet(createResolver(), new MockRuntimeProperties(), projectDeployer, 1) {
+                @Override
+                protected File resolve(String path) {
+                    return artifact;
+                }
+            };
+
+            // Every read completion dispatches the request again, until the last chunk completes it
+            final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+            final AsyncContext context = EasyMock.createNiceMock(AsyncContext.class);
+            EasyMock.makeThreadSafe(context, true);
+            context.dispatch();
+            EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+                @Override
+                public Object answer() throws Throwable {
+                    events.add("dispatch");
+                    return null;
+                }
+            }).anyTimes();
+            context.complete();
+            EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+                @Override
+                public Object answer() throws Throwable {
+                    events.add("complete");
+                    return null;
+                }
+            }).anyTimes();
+            EasyMock.replay(context);
+
+            final Map<String, Object> attributes = new HashMap<>();
+            HttpServletRequest request = new HttpServletRequestWrapper(createRequest("Range", "bytes=1000-150999")) {
+                @Override
+                public String getMethod() {
+                    return "GET";
+                }
+
+                @Override
+                public String getPathInfo() {
+                    return "/org/acme/acme-core/1.0/acme-core-1.0.jar";
+                }
+
+                @Override
+                public AsyncContext startAsync() {
+                    return context;
+                }
+
+                @Override
+                public Object getAttribute(String name) {
+                    return attributes.get(name);
+                }
+
+                @Override
+                public void setAttribute(String name, Object o) {
+                    attributes.put(name, o);
+                }
+            };
+
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            final ServletOutputStream outputStream = new ServletOutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    baos.write(b);
+                }
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    baos.write(b, off, len);
+                }
+            };
+            final Map<String, Object> headers = new HashMap<>();
+            final int[] status = new int[1];
+            HttpServletResponse response = new HttpServletResponseWrapper(EasyMock.createNiceMock(HttpServletResponse.class)) {
+                @Override
+                public void setStatus(int sc) {
+                    status[0] = sc;
+                }
+
+                @Override
+                public void setHeader(String name, String value) {
+                    headers.put(name, value);
+                }
+
+                @Override
+                public void setContentLength(int len) {
+                    headers.put("Content-Length", len);
+                }
+
+                @Override
+                public ServletOutputStream getOutputStream() {
+                    return outputStream;
+                }
+            };
+
+            servlet.start();
+            try {
+                servlet.doGet(request, response);
+                String event;
+                int dispatches = 0;
+                while ("dispatch".equals(event = events.poll(10, TimeUnit.SECONDS))) {
+                    dispatches++;
+                    servlet.doGet(request, response);
+                }
+                assertEquals("complete", event);
+                assertEquals(3, dispatches);
+            } finally {
+                servlet.stop();
+            }
+
+            assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, status[0]);
+            assertEquals("bytes 1000-150999/200000", headers.get("Content-Range"));
+            assertEquals(150000, headers.get("Content-Length"));
+            assertArrayEquals(Arrays.copyOfRange(content, 1000, 151000), baos.toByteArray());
+            // The copy sent is removed once the range was streamed
+            String[] tmpFiles = new File("target/tmp/tmp").list();
+            assertTrue(tmpFiles == null || tmpFiles.length == 0);
+        } finally {
+            if (old != null) {
+                System.setProperty("karaf.data", old);
+            }
+        }
+    }
+
+    private HttpServletRequest createRequest(String... headers) throws Exception {
+        Map<String, String> map = new HashMap<>();
+        for (int i = 0; i < headers.length; i += 2) {
+            map.put(headers[i], headers[i + 1]);
+        }
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        HttpServletRequest req = EasyMock.createMock(HttpServletRequest.class);
+        for (String name : Arrays.asList("If-None-Match", "If-Modified-Since", "Range", "If-Range")) {
+            String value = map.get(name);
+            EasyMock.expect(req.getHeader(name)).andReturn(value).anyTimes();
+            if (value == null) {
+                EasyMock.expect(req.getDateHeader(name)).andReturn(-1L).anyTimes();
+            } else if (value.startsWith("\"") || value.startsWith("*")) {
+                EasyMock.expect(req.getDateHeader(name)).andThrow(new IllegalArgumentException()).anyTimes();
+            } else {
+                EasyMock.expect(req.getDateHeader(name)).andReturn(format.parse(value).getTime()).anyTimes();
+            }
+        }
+        EasyMock.replay(req);
+        return req;
+    }
+
     @Test(timeout=30000)
     public void testStartServlet() throws Exception {
         String old = System.getProperty("karaf.data");
@@ -556,6 +775,8 @@ public class MavenProxyServletSupportTest {
             EasyMock.expect(request.getMethod()).andReturn("GET");
             EasyMock.expect(request.getPathInfo()).andReturn("org.apache.camel/camel-core/2.13.0/camel-core-2.13.0-sources.jar");
             EasyMock.expect(request.startAsync()).andReturn(context);
+            EasyMock.expect(request.getHeader((String) EasyMock.anyObject())).andReturn(null).anyTimes();
+            EasyMock.expect(request.getDateHeader((String) EasyMock.anyObject())).andReturn(-1L).anyTimes();
             context.setTimeout(EasyMock.anyInt());
             EasyMock.expectLastCall();
 
@@ -568,7 +789,7 @@ public class MavenProxyServletSupportTest {
             response.setContentType((String) EasyMock.anyObject());
             EasyMock.expectLastCall();
             response.setDateHeader((String) EasyMock.anyObject(), EasyMock.anyLong());
-            EasyMock.expectLastCall();
+            EasyMock.expectLastCall().anyTimes();
             response.setHeader((String) EasyMock.anyObject(), (String) EasyMock.anyObject());
             EasyMock.expectLastCall().anyTimes();
 
@@ -24,10 +24,10 @@ public class CallDetailRecord {
 
 	private final long callTimeNanos;
 	private final String error;
-	private final Date callDate;
+	private final long callTimeMillis;
 	public CallDetailRecord(long callTimeNanos, String error) {
 		super();
-		this.callDate = new Date();
+		this.callTimeMillis = System.currentTimeMillis();
 		this.callTimeNanos = callTimeNanos;
 		this.error = error;
 	}
@@ -41,6 +41,6 @@ public class CallDetailRecord {
 	}
 	
 	public Date getCallDate() {
-		return callDate;
+		return new Date(callTimeMillis);
 	}
 }
@@ -0,0 +1,365 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the outcome of gateway calls without locking or allocating on the calling thread.
+ * <p/>
+ * Calls are written into a bounded ring buffer of pre-allocated slots (using the sequence per slot
+ * algorithm of Dmitry Vyukov's bounded queue) and a single background thread drains the buffer into
+ * {@link Histogram} instances per mapping rule and per backend service. If the background thread
+ * falls behind, calls are dropped and counted rather than blocking the event loop.
+ * <p/>
+ * As backend services come and go, only the histograms of the most recently called backends are kept
+ * and {@link #retainBackends(Collection)} drops those of the backends which are no longer mapped.
+ */
+public class CallDetailRecorder {
+    private static final transient Logger LOG = LoggerFactory.getLogger(CallDetailRecorder.class);
+
+    public static final int DEFAULT_CAPACITY = 8192;
+    public static final long DEFAULT_DRAIN_INTERVAL_MILLIS = 100;
+    public static final int DEFAULT_MAX_BACKENDS = 1024;
+
+    private final Slot[] slots;
+    private final int mask;
+    private final AtomicLong enqueuePosition = new AtomicLong();
+    private long dequeuePosition;
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final long drainIntervalMillis;
+    private final int maxBackends;
+    private ScheduledExecutorService executor;
+
+    // the aggregates are only written by the draining thread
+    private final Histogram callTimeMicros = new Histogram();
+    private final ConcurrentHashMap<String, Histogram> ruleCallTimeMicros = new ConcurrentHashMap<String, Histogram>();
+    private final ConcurrentHashMap<String, Histogram> backendCallTimeMicros = new ConcurrentHashMap<String, Histogram>();
+    // the same histograms in the order the backends were last called in, evicting the least recently called
+    private final LinkedHashMap<String, Histogram> backendsByLastCall = new LinkedHashMap<String, Histogram>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Histogram> eldest) {
+            if (size() > maxBackends) {
+                backendCallTimeMicros.remove(eldest.getKey());
+                return true;
+            }
+            return false;
+        }
+    };
+    private final AtomicLong errors = new AtomicLong();
+    private volatile long totalCallTimeNanos;
+    private volatile long lastCallTimeMillis;
+    private volatile String lastError;
+
+    public CallDetailRecorder() {
+        this(DEFAULT_CAPACITY, DEFAULT_DRAIN_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param capacity            the number of calls which can be buffered; rounded up to a power of two
+     * @param drainIntervalMillis how often the background thread aggregates the buffered calls
+     */
+    public CallDetailRecorder(int capacity, long drainIntervalMillis) {
+        this(capacity, drainIntervalMillis, DEFAULT_MAX_BACKENDS);
+    }
+
+    /**
+     * @param capacity            the number of calls which can be buffered; rounded up to a power of two
+     * @param drainIntervalMillis how often the background thread aggregates the buffered calls
+     * @param maxBackends         the number of backend services whose histograms are kept
+     */
+    public CallDetailRecorder(int capacity, long drainIntervalMillis, int maxBackends) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot(i);
+        }
+        this.mask = size - 1;
+        this.drainIntervalMillis = drainIntervalMillis;
+        this.maxBackends = Math.max(1, maxBackends);
+    }
+
+    /**
+     * Starts the background thread which aggregates the recorded calls
+     */
+    public synchronized void start() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "Gateway CallDetailRecorder");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        drain();
+                    } catch (Throwable e) {
+                        LOG.warn("Failed to aggregate call detail records: " + e, e);
+                    }
+                }
+            }, drainIntervalMillis, drainIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops the background thread, aggregating any calls which are still buffered
+     */
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(drainIntervalMillis * 10, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            executor = null;
+            drain();
+        }
+    }
+
+    /**
+     * Records a completed call
+     *
+     * @param rule           the mapping rule which routed the call or null if it was not routed
+     * @param backend        the backend service the call was proxied to or null if it was not proxied
+     * @param startTimeNanos the {@link System#nanoTime()} when the call started
+     * @param status         the status code returned to the client
+     * @param error          a description of the error or null if the call did not fail
+     * @return false if the buffer was full and the call was dropped
+     */
+    public boolean record(String rule, String backend, long startTimeNanos, int status, String error) {
+        long durationNanos = System.nanoTime() - startTimeNanos;
+        long position = enqueuePosition.get();
+        while (true) {
+            Slot slot = slots[(int) position & mask];
+            long difference = slot.sequence - position;
+            if (difference == 0) {
+                if (enqueuePosition.compareAndSet(position, position + 1)) {
+                    slot.rule = rule;
+                    slot.backend = backend;
+                    slot.durationNanos = durationNanos;
+                    slot.timeMillis = System.currentTimeMillis();
+                    slot.status = status;
+                    slot.error = error;
+                    // publishes the fields written above to the draining thread
+                    slot.sequence = position + 1;
+                    return true;
+                }
+                position = enqueuePosition.get();
+            } else if (difference < 0) {
+                dropped.incrementAndGet();
+                return false;
+            } else {
+                position = enqueuePosition.get();
+            }
+        }
+    }
+
+    /**
+     * Records the given call detail record
+     */
+    public boolean record(CallDetailRecord cdr) {
+        return record(null, null, System.nanoTime() - cdr.getCallTimeNanos(), 0, cdr.getError());
+    }
+
+    /**
+     * Aggregates all the buffered calls; this is normally done by the background thread
+     *
+     * @return the number of calls aggregated
+     */
+    public synchronized int drain() {
+        int count = 0;
+        while (true) {
+            Slot slot = slots[(int) dequeuePosition & mask];
+            if (slot.sequence != dequeuePosition + 1) {
+                break;
+            }
+            aggregate(slot);
+            slot.rule = null;
+            slot.backend = null;
+            slot.error = null;
+            slot.sequence = dequeuePosition + slots.length;
+            dequeuePosition++;
+            count++;
+        }
+        return count;
+    }
+
+    private void aggregate(Slot slot) {
+        long micros = slot.durationNanos / 1000;
+        callTimeMicros.record(micros);
+        totalCallTimeNanos += slot.durationNanos;
+        if (slot.rule != null) {
+            getOrCreate(ruleCallTimeMicros, slot.rule).record(micros);
+        }
+        if (slot.backend != null) {
+            Histogram histogram = backendsByLastCall.get(slot.backend);
+            if (histogram == null) {
+                histogram = new Histogram();
+                backendCallTimeMicros.put(slot.backend, histogram);
+                backendsByLastCall.put(slot.backend, histogram);
+            }
+            histogram.record(micros);
+        }
+        if (slot.error != null || slot.status >= 500) {
+            errors.incrementAndGet();
+        }
+        if (slot.error != null) {
+            lastError = new Date(slot.timeMillis) + ":" + slot.error;
+        }
+        if (slot.timeMillis > lastCallTimeMillis) {
+            lastCallTimeMillis = slot.timeMillis;
+        }
+    }
+
+    private static Histogram getOrCreate(ConcurrentHashMap<String, Histogram> map, String key) {
+        Histogram answer = map.get(key);
+        if (answer == null) {
+            answer = new Histogram();
+            Histogram old = map.putIfAbsent(key, answer);
+            if (old != null) {
+                answer = old;
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * Drops the histograms of the backend services which are not in the given collection
+     */
+    public synchronized void retainBackends(Collection<String> backends) {
+        Iterator<String> iterator = backendsByLastCall.keySet().iterator();
+        while (iterator.hasNext()) {
+            String backend = iterator.next();
+            if (!backends.contains(backend)) {
+                iterator.remove();
+                backendCallTimeMicros.remove(backend);
+            }
+        }
+    }
+
+    // Statistics
+    //-------------------------------------------------------------------------
+
+    /**
+     * Returns the number of calls aggregated so far
+     */
+    public long getCount() {
+        return callTimeMicros.getCount();
+    }
+
+    public long getAverageCallTimeNanos() {
+        long count = callTimeMicros.getCount();
+        return count > 0 ? totalCallTimeNanos / count : 0;
+    }
+
+    public Histogram getCallTimeMicros() {
+        return callTimeMicros;
+    }
+
+    /**
+     * Returns the call time histograms keyed by mapping rule
+     */
+    public Map<String, Histogram> getRuleCallTimeMicros() {
+        return new TreeMap<String, Histogram>(ruleCallTimeMicros);
+    }
+
+    /**
+     * Returns the call time histograms keyed by backend service
+     */
+    public Map<String, Histogram> getBackendCallTimeMicros() {
+        return new TreeMap<String, Histogram>(backendCallTimeMicros);
+    }
+
+    /**
+     * Returns the number of calls which failed or returned a server error status
+     */
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    /**
+     * Returns the time of the most recent call or null if no calls have been aggregated
+     */
+    public Date getLastCallDate() {
+        long time = lastCallTimeMillis;
+        return time > 0 ? new Date(time) : null;
+    }
+
+    /**
+     * Returns the number of calls which were dropped because the buffer was full
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public int getCapacity() {
+        return slots.length;
+    }
+
+    public int getMaxBackends() {
+        return maxBackends;
+    }
+
+    public synchronized void resetStatistics() {
+        callTimeMicros.reset();
+        ruleCallTimeMicros.clear();
+        backendCallTimeMicros.clear();
+        backendsByLastCall.clear();
+        errors.set(0);
+        dropped.set(0);
+        totalCallTimeNanos = 0;
+        lastCallTimeMillis = 0;
+        lastError = null;
+    }
+
+    private static final class Slot {
+        volatile long sequence;
+        String rule;
+        String backend;
+        long durationNanos;
+        long timeMillis;
+        int status;
+        String error;
+
+        Slot(long sequence) {
+            this.sequence = sequence;
+        }
+    }
+}
@@ -15,14 +15,16 @@
  */
 package io.fabric8.gateway;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import io.fabric8.gateway.loadbalancer.KeyedService;
 
 import java.util.Collections;
 import java.util.List;
 
 /**
  */
-public class ServiceDTO implements ServiceDetails {
+public class ServiceDTO implements ServiceDetails, KeyedService {
     @JsonProperty
     private String id;
 
@@ -53,6 +55,16 @@ public class ServiceDTO implements ServiceDetails {
                 '}';
     }
 
+    /**
+     * Ids are only unique within the services of one path, so load balancers shared by several paths
+     * identify a service by its id together with its URLs
+     */
+    @Override
+    @JsonIgnore
+    public Object getLoadBalancerKey() {
+        return id + " " + services;
+    }
+
     public String getId() {
         return id;
     }
@@ -15,40 +15,71 @@
  */
 package io.fabric8.gateway;
 
+import io.fabric8.gateway.loadbalancer.LoadBalancers;
+
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Maintains a mapping of services which is then use by the proxy to update in process
  * proxy handlers, or used to create new proxy handers
+ * <p/>
+ * Lookups use an immutable {@link ServiceSnapshot} per path which is only rebuilt when
+ * a service on that path is updated or removed.
  */
 public class ServiceMap {
-    private ConcurrentHashMap<String, Map<String, ServiceDetails>> map = new ConcurrentHashMap<String, Map<String, ServiceDetails>>();
+    private final Map<String, Map<String, ServiceDetails>> map = new LinkedHashMap<String, Map<String, ServiceDetails>>();
+    private final ConcurrentHashMap<String, ServiceSnapshot> snapshots = new ConcurrentHashMap<String, ServiceSnapshot>();
+    private final CopyOnWriteArrayList<ServiceMapListener> listeners = new CopyOnWriteArrayList<ServiceMapListener>();
 
     /**
-     * Returns a list of all the current services for the given path
+     * Returns an immutable list of all the current services for the given path
      */
     public List<ServiceDetails> getServices(String path) {
-        Map<String, ServiceDetails> pathMap = getPathMap(path);
-        return new ArrayList<ServiceDetails>(pathMap.values());
+        return getSnapshot(path).getServices();
+    }
+
+    /**
+     * Returns the current snapshot of the services for the given path
+     */
+    public ServiceSnapshot getSnapshot(String path) {
+        ServiceSnapshot answer = snapshots.get(path);
+        return answer != null ? answer : ServiceSnapshot.EMPTY;
     }
 
     /**
      * Returns a list of all the current paths for the services
      */
     public List<String> getPaths() {
-        return new ArrayList<String>(map.keySet());
+        return new ArrayList<String>(snapshots.keySet());
     }
 
     /**
      * When a service is added or updated
+     * <p/>
+     * Updating a service replaces the details with the same id. Listeners are only told the old details have been
+     * removed if they refer to another backend, i.e. their {@link LoadBalancers#getServiceKey(Object) key} changed.
      */
     public void serviceUpdated(String path, ServiceDetails service) {
         // ignore services with empty services
         if (!service.getServices().isEmpty()) {
-            getPathMap(path).put(service.getId(), service);
+            ServiceDetails old;
+            synchronized (map) {
+                Map<String, ServiceDetails> pathMap = map.get(path);
+                if (pathMap == null) {
+                    pathMap = new LinkedHashMap<String, ServiceDetails>();
+                    map.put(path, pathMap);
+                }
+                old = pathMap.put(service.getId(), service);
+                updateSnapshot(path, pathMap);
+            }
+            if (old != null && !LoadBalancers.getServiceKey(old).equals(LoadBalancers.getServiceKey(service))) {
+                fireServiceRemoved(path, old);
+            }
         }
     }
 
@@ -56,17 +87,43 @@ public class ServiceMap {
      * When a service is added or updated
      */
     public void serviceRemoved(String path, ServiceDetails service) {
-        getPathMap(path).remove(service.getId());
+        ServiceDetails old = null;
+        synchronized (map) {
+            Map<String, ServiceDetails> pathMap = map.get(path);
+            if (pathMap != null) {
+                old = pathMap.remove(service.getId());
+                if (pathMap.isEmpty()) {
+                    map.remove(path);
+                }
+                updateSnapshot(path, pathMap);
+            }
+        }
 
         // lets update any in progress proxy handlers using this service
+        if (old != null) {
+            fireServiceRemoved(path, old);
+        }
+    }
+
+    public void addListener(ServiceMapListener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(ServiceMapListener listener) {
+        listeners.remove(listener);
+    }
+
+    protected void fireServiceRemoved(String path, ServiceDetails service) {
+        for (ServiceMapListener listener : listeners) {
+            listener.serviceRemoved(path, service);
+        }
     }
 
-    protected Map<String, ServiceDetails> getPathMap(String path) {
-        Map<String, ServiceDetails> initial = new ConcurrentHashMap<String, ServiceDetails>();
-        Map<String, ServiceDetails> answer = map.putIfAbsent(path, initial);
-        if (answer == null) {
-            answer = initial;
+    private void updateSnapshot(String path, Map<String, ServiceDetails> pathMap) {
+        if (pathMap.isEmpty()) {
+            snapshots.remove(path);
+        } else {
+            snapshots.put(path, new ServiceSnapshot(pathMap.values()));
         }
-        return answer;
     }
 }
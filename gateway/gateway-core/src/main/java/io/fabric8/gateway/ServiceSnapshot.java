@@ -0,0 +1,165 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway;
+
+import io.fabric8.common.util.Strings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An immutable view of the services registered on a path (such as a virtual host) of a {@link ServiceMap}
+ * with the service URLs already parsed, so that routing a connection does not need to parse or copy anything.
+ * <p/>
+ * A new snapshot is created by the {@link ServiceMap} whenever a service on the path is updated or removed.
+ */
+public final class ServiceSnapshot {
+    private static final transient Logger LOG = LoggerFactory.getLogger(ServiceSnapshot.class);
+
+    public static final ServiceSnapshot EMPTY = new ServiceSnapshot(Collections.<ServiceDetails>emptyList());
+
+    private static final String[] NO_SCHEMES = new String[0];
+
+    private final List<ServiceDetails> services;
+    private final IdentityHashMap<ServiceDetails, URI[]> endpoints = new IdentityHashMap<ServiceDetails, URI[]>();
+    // the scheme arrays are the constants of each protocol so we can index by identity
+    private final ConcurrentHashMap<String[], Endpoints> endpointsBySchemes = new ConcurrentHashMap<String[], Endpoints>();
+
+    public ServiceSnapshot(Collection<ServiceDetails> services) {
+        this.services = Collections.unmodifiableList(new ArrayList<ServiceDetails>(services));
+        for (ServiceDetails service : this.services) {
+            List<URI> uris = new ArrayList<URI>();
+            for (String urlString : service.getServices()) {
+                if (Strings.notEmpty(urlString)) {
+                    try {
+                        uris.add(new URI(urlString));
+                    } catch (URISyntaxException e) {
+                        LOG.warn("Failed to parse URI: " + urlString + ". " + e, e);
+                    }
+                }
+            }
+            endpoints.put(service, uris.toArray(new URI[uris.size()]));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ServiceSnapshot" + services;
+    }
+
+    /**
+     * Returns all the services
+     */
+    public List<ServiceDetails> getServices() {
+        return services;
+    }
+
+    public boolean isEmpty() {
+        return services.isEmpty();
+    }
+
+    /**
+     * Returns the parsed URIs of the given service in the order they were registered
+     */
+    public URI[] getEndpoints(ServiceDetails service) {
+        URI[] answer = endpoints.get(service);
+        return answer != null ? answer : new URI[0];
+    }
+
+    /**
+     * Returns the services which expose a URI with one of the given schemes. The result is cached so the
+     * same array instance should be passed each time, such as the constant schemes of a protocol.
+     */
+    public Endpoints getEndpoints(String[] schemes) {
+        if (schemes == null) {
+            schemes = NO_SCHEMES;
+        }
+        Endpoints answer = endpointsBySchemes.get(schemes);
+        if (answer == null) {
+            answer = new Endpoints(schemes);
+            Endpoints existing = endpointsBySchemes.putIfAbsent(schemes, answer);
+            if (existing != null) {
+                answer = existing;
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * The services of a snapshot which can be reached using some given schemes, with the first matching URI of each
+     */
+    public final class Endpoints {
+        private final List<ServiceDetails> services;
+        private final IdentityHashMap<ServiceDetails, URI> uris = new IdentityHashMap<ServiceDetails, URI>();
+
+        Endpoints(String[] schemes) {
+            List<ServiceDetails> list = new ArrayList<ServiceDetails>();
+            for (Map.Entry<ServiceDetails, URI[]> entry : endpoints.entrySet()) {
+                for (URI uri : entry.getValue()) {
+                    if (contains(schemes, uri.getScheme())) {
+                        uris.put(entry.getKey(), uri);
+                        break;
+                    }
+                }
+            }
+            // keep the order of the snapshot so load balancers behave consistently
+            for (ServiceDetails service : ServiceSnapshot.this.services) {
+                if (uris.containsKey(service)) {
+                    list.add(service);
+                }
+            }
+            this.services = Collections.unmodifiableList(list);
+        }
+
+        /**
+         * Returns the services which expose at least one URI with a matching scheme
+         */
+        public List<ServiceDetails> getServices() {
+            return services;
+        }
+
+        public boolean isEmpty() {
+            return services.isEmpty();
+        }
+
+        /**
+         * Returns the first URI of the given service with a matching scheme or null if it has none
+         */
+        public URI getEndpoint(ServiceDetails service) {
+            return uris.get(service);
+        }
+    }
+
+    private static boolean contains(String[] schemes, String scheme) {
+        if (schemes != null && scheme != null) {
+            for (String value : schemes) {
+                if (scheme.equals(value)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
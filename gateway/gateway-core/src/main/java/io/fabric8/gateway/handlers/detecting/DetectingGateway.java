@@ -16,16 +16,23 @@
 package io.fabric8.gateway.handlers.detecting;
 
 import io.fabric8.common.util.ShutdownTracker;
-import io.fabric8.common.util.Strings;
+import io.fabric8.gateway.Histogram;
 import io.fabric8.gateway.ServiceDetails;
 import io.fabric8.gateway.ServiceMap;
+import io.fabric8.gateway.ServiceMapListener;
+import io.fabric8.gateway.ServiceSnapshot;
 import io.fabric8.gateway.SocketWrapper;
 import io.fabric8.gateway.handlers.detecting.protocol.ssl.SslConfig;
 import io.fabric8.gateway.handlers.detecting.protocol.ssl.SslSocketWrapper;
+import io.fabric8.gateway.handlers.detecting.protocol.ssl.SslStatistics;
 import io.fabric8.gateway.handlers.loadbalancer.ClientRequestFacadeFactory;
 import io.fabric8.gateway.handlers.loadbalancer.ConnectionParameters;
 import io.fabric8.gateway.loadbalancer.ClientRequestFacade;
+import io.fabric8.gateway.loadbalancer.BackendStatistics;
+import io.fabric8.gateway.loadbalancer.FeedbackLoadBalancer;
 import io.fabric8.gateway.loadbalancer.LoadBalancer;
+import io.fabric8.gateway.loadbalancer.StickyLoadBalancer;
+import io.fabric8.gateway.loadbalancer.StickySessionTable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.vertx.java.core.AsyncResult;
@@ -43,6 +50,9 @@ import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -69,14 +79,25 @@ public class DetectingGateway implements DetectingGatewayMBean {
     final AtomicLong receivedConnectionAttempts = new AtomicLong();
     final AtomicLong successfulConnectionAttempts = new AtomicLong();
     final AtomicLong failedConnectionAttempts = new AtomicLong();
-    HashSet<SocketWrapper> socketsConnecting = new HashSet<SocketWrapper>();
-    HashSet<ConnectedSocketInfo> socketsConnected = new HashSet<ConnectedSocketInfo>();
+    // these are updated from the event loops and timers so must be thread safe
+    final Set<SocketWrapper> socketsConnecting = Collections.newSetFromMap(new ConcurrentHashMap<SocketWrapper, Boolean>());
+    final Set<ConnectedSocketInfo> socketsConnected = Collections.newSetFromMap(new ConcurrentHashMap<ConnectedSocketInfo, Boolean>());
+    final ConcurrentHashMap<String, ProtocolStatistics> protocolStatistics = new ConcurrentHashMap<String, ProtocolStatistics>();
     private ShutdownTracker shutdownTacker = new ShutdownTracker();
 
     private int port;
     private String host;
     private NetServer server;
 
+    // a NetClient is bound to the event loop which created it so lets keep one per event loop
+    private final ThreadLocal<NetClient> netClients = new ThreadLocal<NetClient>();
+    private final CopyOnWriteArrayList<NetClient> allNetClients = new CopyOnWriteArrayList<NetClient>();
+    private boolean tcpNoDelay = true;
+    private boolean tcpKeepAlive = true;
+    private int sendBufferSize = -1;
+    private int receiveBufferSize = -1;
+    private int backendConnectTimeout = 10000;
+
     private FutureHandler<AsyncResult<NetServer>> listenFuture = new FutureHandler<AsyncResult<NetServer>>() {
         @Override
         public void handle(AsyncResult<NetServer> event) {
@@ -97,7 +118,22 @@ public class DetectingGateway implements DetectingGatewayMBean {
     }
 
 
+    private final ServiceMapListener serviceRemovalListener = new ServiceMapListener() {
+        @Override
+        public void serviceRemoved(String path, ServiceDetails service) {
+            if (serviceLoadBalancer instanceof StickyLoadBalancer) {
+                ((StickyLoadBalancer) serviceLoadBalancer).removeService(service);
+            } else if (serviceLoadBalancer instanceof FeedbackLoadBalancer) {
+                ((FeedbackLoadBalancer) serviceLoadBalancer).removeService(service);
+            }
+        }
+    };
+
     public void init() {
+        if (serviceMap != null && (serviceLoadBalancer instanceof StickyLoadBalancer || serviceLoadBalancer instanceof FeedbackLoadBalancer)) {
+            // lets not keep state about services which have gone away
+            serviceMap.addListener(serviceRemovalListener);
+        }
         server = vertx.createNetServer().connectHandler(new DetectingGatewayNetSocketHandler(this));
         if (host != null) {
             server = server.listen(port, host, listenFuture);
@@ -107,6 +143,9 @@ public class DetectingGateway implements DetectingGatewayMBean {
     }
 
     public void destroy() {
+        if (serviceMap != null) {
+            serviceMap.removeListener(serviceRemovalListener);
+        }
         server.close();
         for (SocketWrapper socket : new ArrayList<>(socketsConnecting)) {
             handleConnectFailure(socket, null);
@@ -114,6 +153,10 @@ public class DetectingGateway implements DetectingGatewayMBean {
         for (ConnectedSocketInfo socket : new ArrayList<>(socketsConnected)) {
             handleShutdown(socket);
         }
+        for (NetClient netClient : allNetClients) {
+            netClient.close();
+        }
+        allNetClients.clear();
     }
 
     public String getHost() {
@@ -179,7 +222,8 @@ public class DetectingGateway implements DetectingGatewayMBean {
         return rc;
     }
 
-    SSLContext sslContext;
+    private volatile SSLContext sslContext;
+    private final SslStatistics sslStatistics = new SslStatistics();
     SslSocketWrapper.ClientAuth clientAuth = SslSocketWrapper.ClientAuth.WANT;
 
     public void setShutdownTacker(ShutdownTracker shutdownTacker) {
@@ -193,16 +237,57 @@ public class DetectingGateway implements DetectingGatewayMBean {
         private final URI url;
         private final SocketWrapper from;
         private final NetSocket to;
+        private final ServiceDetails service;
+        private final int initialBytes;
+        private final Pump toServer;
+        private final Pump toClient;
 
-        public ConnectedSocketInfo(ConnectionParameters params, URI url, SocketWrapper from, NetSocket to) {
+        public ConnectedSocketInfo(ConnectionParameters params, URI url, SocketWrapper from, NetSocket to, ServiceDetails service, int initialBytes) {
             this.params = params;
             this.url = url;
             this.from = from;
             this.to = to;
+            this.service = service;
+            this.initialBytes = initialBytes;
+            this.toServer = Pump.createPump(from.readStream(), to);
+            this.toClient = Pump.createPump(to, from.writeStream());
+        }
+
+        long getBytesPumped() {
+            return initialBytes + (long) toServer.bytesPumped() + toClient.bytesPumped();
         }
     }
 
+    /**
+     * The histograms of a single protocol
+     */
+    static class ProtocolStatistics {
+        final Histogram detectionLatencyMicros = new Histogram();
+        final Histogram connectLatencyMicros = new Histogram();
+        final Histogram bytesPumped = new Histogram();
+    }
+
+    ProtocolStatistics getProtocolStatistics(String protocol) {
+        if (protocol == null) {
+            protocol = "unknown";
+        }
+        ProtocolStatistics answer = protocolStatistics.get(protocol);
+        if (answer == null) {
+            ProtocolStatistics created = new ProtocolStatistics();
+            answer = protocolStatistics.putIfAbsent(protocol, created);
+            if (answer == null) {
+                answer = created;
+            }
+        }
+        return answer;
+    }
+
+    private static long microsSince(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+    }
+
     public void handle(final SocketWrapper socket) {
+        final long acceptTime = System.nanoTime();
         shutdownTacker.retain();
         receivedConnectionAttempts.incrementAndGet();
         socketsConnecting.add(socket);
@@ -247,26 +332,22 @@ public class DetectingGateway implements DetectingGatewayMBean {
                                 disabledCypherSuites = sslConfig.getDisabledCypherSuites();
                                 enabledCipherSuites = sslConfig.getEnabledCipherSuites();
                             }
-                            if (sslContext == null) {
-                                try {
-                                    if (sslConfig != null) {
-                                        sslContext = SSLContext.getInstance(sslConfig.getProtocol());
-                                        sslContext.init(sslConfig.getKeyManagers(), sslConfig.getTrustManagers(), null);
-                                    } else {
-                                        sslContext = SSLContext.getDefault();
-                                    }
-                                } catch (Exception e) {
-                                    handleConnectFailure(socket, "Could initialize SSL: " + e);
-                                    return;
-                                }
+                            SSLContext sslContext;
+                            try {
+                                sslContext = getSslContext();
+                            } catch (Exception e) {
+                                handleConnectFailure(socket, "Could initialize SSL: " + e);
+                                return;
                             }
 
                             // lets wrap it up in a SslSocketWrapper.
                             SslSocketWrapper sslSocketWrapper = new SslSocketWrapper(socket);
+                            sslSocketWrapper.setStatistics(sslStatistics);
                             sslSocketWrapper.putBackHeader(received);
                             sslSocketWrapper.initServer(sslContext, clientAuth, disabledCypherSuites, enabledCipherSuites);
 
                             // Undo initial connection accounting since we will be redoing @ the SSL level.
+                            getProtocolStatistics("ssl").detectionLatencyMicros.record(microsSince(acceptTime));
                             socketsConnecting.remove(socket);
                             receivedConnectionAttempts.decrementAndGet();
 
@@ -282,7 +363,8 @@ public class DetectingGateway implements DetectingGatewayMBean {
                                             socket.remoteAddress(), url.getHost(), url.getPort()));
                                     ConnectionParameters params = new ConnectionParameters();
                                     params.protocol = "http";
-                                    createClient(params, socket, url, received);
+                                    getProtocolStatistics(params.protocol).detectionLatencyMicros.record(microsSince(acceptTime));
+                                    createClient(params, socket, url, received, null);
                                     return;
                                 } catch (URISyntaxException e) {
                                     handleConnectFailure(socket, "Could not build valid connect URI: "+e);
@@ -301,6 +383,7 @@ public class DetectingGateway implements DetectingGatewayMBean {
                                         connectionParameters.protocol = protocol.getProtocolName();
                                     if (connectionParameters.protocolSchemes == null)
                                         connectionParameters.protocolSchemes = protocol.getProtocolSchemes();
+                                    getProtocolStatistics(connectionParameters.protocol).detectionLatencyMicros.record(microsSince(acceptTime));
                                     route(socket, connectionParameters, received);
                                 }
                             });
@@ -332,48 +415,35 @@ public class DetectingGateway implements DetectingGatewayMBean {
         if( params.protocolVirtualHost==null ) {
             params.protocolVirtualHost = defaultVirtualHost;
         }
-        HashSet<String> schemes = new HashSet<String>(Arrays.asList(params.protocolSchemes));
         if(params.protocolVirtualHost!=null) {
-            List<ServiceDetails> services = serviceMap.getServices(params.protocolVirtualHost);
+            ServiceSnapshot.Endpoints endpoints = serviceMap.getSnapshot(params.protocolVirtualHost).getEndpoints(params.protocolSchemes);
 
             // Lets try again with the defaultVirtualHost
-            if( services.isEmpty() && !params.protocolVirtualHost.equals(defaultVirtualHost) ) {
+            if( endpoints.isEmpty() && !params.protocolVirtualHost.equals(defaultVirtualHost) ) {
                 params.protocolVirtualHost = defaultVirtualHost;
-                services = serviceMap.getServices(params.protocolVirtualHost);
+                endpoints = serviceMap.getSnapshot(params.protocolVirtualHost).getEndpoints(params.protocolSchemes);
             }
 
-            LOG.debug(String.format("%d services match the virtual host", services.size()));
+            List<ServiceDetails> services = endpoints.getServices();
+            LOG.debug("{} services match the virtual host", services.size());
             if (!services.isEmpty()) {
                 ClientRequestFacade clientRequestFacade = clientRequestFacadeFactory.create(socket, params);
                 ServiceDetails serviceDetails = serviceLoadBalancer.choose(services, clientRequestFacade);
                 if (serviceDetails != null) {
-                    List<String> urlStrings = serviceDetails.getServices();
-                    LOG.debug("Selected service exposes the following URLS: {}", urlStrings);
-                    for (String urlString : urlStrings) {
-                        if (Strings.notEmpty(urlString)) {
-                            // lets create a client for this request...
-                            try {
-                                URI uri = new URI(urlString);
-                                //URL url = new URL(urlString);
-                                String urlProtocol = uri.getScheme();
-                                if (schemes.contains(urlProtocol)) {
-                                    if( !socket.remoteAddress().toString().equals(clientRequestFacade.getClientRequestKey())  ) {
-                                        LOG.info(String.format("Connecting client from '%s' (with key '%s') requesting virtual host '%s' to '%s:%d' using the %s protocol",
-                                            socket.remoteAddress(), clientRequestFacade.getClientRequestKey(), params.protocolVirtualHost, uri.getHost(), uri.getPort(), params.protocol
-                                          ));
-                                    } else {
-                                        LOG.info(String.format("Connecting client from '%s' requesting virtual host '%s' to '%s:%d' using the %s protocol",
-                                            socket.remoteAddress(), params.protocolVirtualHost, uri.getHost(), uri.getPort(), params.protocol
-                                          ));
-                                    }
-
-                                    client = createClient(params, socket, uri, received);
-                                    break;
-                                }
-                            } catch (URISyntaxException e) {
-                                LOG.warn("Failed to parse URI: " + urlString + ". " + e, e);
-                            }
+                    // lets create a client for this request...
+                    URI uri = endpoints.getEndpoint(serviceDetails);
+                    if (uri != null) {
+                        if( !socket.remoteAddress().toString().equals(clientRequestFacade.getClientRequestKey())  ) {
+                            LOG.info(String.format("Connecting client from '%s' (with key '%s') requesting virtual host '%s' to '%s:%d' using the %s protocol",
+                                socket.remoteAddress(), clientRequestFacade.getClientRequestKey(), params.protocolVirtualHost, uri.getHost(), uri.getPort(), params.protocol
+                              ));
+                        } else {
+                            LOG.info(String.format("Connecting client from '%s' requesting virtual host '%s' to '%s:%d' using the %s protocol",
+                                socket.remoteAddress(), params.protocolVirtualHost, uri.getHost(), uri.getPort(), params.protocol
+                              ));
                         }
+
+                        client = createClient(params, socket, uri, received, serviceDetails);
                     }
                 }
             }
@@ -388,19 +458,33 @@ public class DetectingGateway implements DetectingGatewayMBean {
     /**
      * Creates a new client for the given URL and handler
      */
-    private NetClient createClient(final ConnectionParameters params, final SocketWrapper socketFromClient, final URI url, final Buffer received) {
-        NetClient netClient = vertx.createNetClient();
+    private NetClient createClient(final ConnectionParameters params, final SocketWrapper socketFromClient, final URI url, final Buffer received, final ServiceDetails service) {
+        NetClient netClient = getNetClient();
+        // the http gateway is not chosen by the load balancer
+        final FeedbackLoadBalancer feedback = service != null ? getFeedbackLoadBalancer() : null;
+        final long connectStart = System.nanoTime();
+        if (feedback != null) {
+            feedback.requestStarted(service);
+        }
         return netClient.connect(url.getPort(), url.getHost(), new Handler<AsyncResult<NetSocket>>() {
             public void handle(final AsyncResult<NetSocket> asyncSocket) {
 
                 if( !asyncSocket.succeeded() ) {
+                    if (feedback != null) {
+                        feedback.requestCompleted(service, false);
+                    }
                     handleConnectFailure(socketFromClient, String.format("Could not connect to '%s'", url));
                 } else {
                     final NetSocket socketToServer = asyncSocket.result();
+                    long connectLatency = System.nanoTime() - connectStart;
+                    if (feedback != null) {
+                        feedback.responseReceived(service, connectLatency);
+                    }
+                    getProtocolStatistics(params.protocol).connectLatencyMicros.record(TimeUnit.NANOSECONDS.toMicros(connectLatency));
 
                     successfulConnectionAttempts.incrementAndGet();
                     socketsConnecting.remove(socketFromClient);
-                    final ConnectedSocketInfo connectedInfo = new ConnectedSocketInfo(params, url, socketFromClient, socketToServer);
+                    final ConnectedSocketInfo connectedInfo = new ConnectedSocketInfo(params, url, socketFromClient, socketToServer, service, received.length());
                     socketsConnected.add(connectedInfo);
 
                     Handler<Void> endHandler = new Handler<Void>() {
@@ -421,8 +505,8 @@ public class DetectingGateway implements DetectingGatewayMBean {
                     socketToServer.exceptionHandler(exceptionHandler);
 
                     socketToServer.write(received);
-                    Pump.createPump(socketToServer, socketFromClient.writeStream()).start();
-                    Pump.createPump(socketFromClient.readStream(), socketToServer).start();
+                    connectedInfo.toClient.start();
+                    connectedInfo.toServer.start();
                 }
             }
         });
@@ -430,6 +514,11 @@ public class DetectingGateway implements DetectingGatewayMBean {
 
     private void handleShutdown(ConnectedSocketInfo connectedInfo) {
         if( socketsConnected.remove(connectedInfo) ) {
+            getProtocolStatistics(connectedInfo.params.protocol).bytesPumped.record(connectedInfo.getBytesPumped());
+            FeedbackLoadBalancer feedback = getFeedbackLoadBalancer();
+            if (feedback != null && connectedInfo.service != null) {
+                feedback.requestCompleted(connectedInfo.service, true);
+            }
             connectedInfo.from.close();
             connectedInfo.to.close();
             shutdownTacker.release();
@@ -453,6 +542,7 @@ public class DetectingGateway implements DetectingGatewayMBean {
 
     public void setSslConfig(SslConfig sslConfig) {
         this.sslConfig = sslConfig;
+        this.sslContext = null;
     }
 
 
@@ -490,6 +580,122 @@ public class DetectingGateway implements DetectingGatewayMBean {
         this.connectionTimeout = connectionTimeout;
     }
 
+    public long getStickySessionHits() {
+        StickySessionTable<Object> table = getStickySessionTable();
+        return table != null ? table.getHits() : 0;
+    }
+
+    public long getStickySessionMisses() {
+        StickySessionTable<Object> table = getStickySessionTable();
+        return table != null ? table.getMisses() : 0;
+    }
+
+    public long getStickySessionEvictions() {
+        StickySessionTable<Object> table = getStickySessionTable();
+        return table != null ? table.getEvictions() : 0;
+    }
+
+    public int getStickySessionCount() {
+        StickySessionTable<Object> table = getStickySessionTable();
+        return table != null ? table.size() : 0;
+    }
+
+    public String[] getBackendStatistics() {
+        ArrayList<String> rc = new ArrayList<>();
+        FeedbackLoadBalancer feedback = getFeedbackLoadBalancer();
+        if (feedback != null) {
+            for (Map.Entry<String, BackendStatistics> entry : feedback.getBackendStatistics().entrySet()) {
+                rc.add(entry.getKey() + " " + entry.getValue());
+            }
+        }
+        return rc.toArray(new String[rc.size()]);
+    }
+
+    public String[] getDetectionLatencyMicros() {
+        ArrayList<String> rc = new ArrayList<>();
+        for (Map.Entry<String, ProtocolStatistics> entry : new TreeMap<>(protocolStatistics).entrySet()) {
+            rc.add(entry.getKey() + " " + entry.getValue().detectionLatencyMicros);
+        }
+        return rc.toArray(new String[rc.size()]);
+    }
+
+    public String[] getConnectLatencyMicros() {
+        ArrayList<String> rc = new ArrayList<>();
+        for (Map.Entry<String, ProtocolStatistics> entry : new TreeMap<>(protocolStatistics).entrySet()) {
+            rc.add(entry.getKey() + " " + entry.getValue().connectLatencyMicros);
+        }
+        return rc.toArray(new String[rc.size()]);
+    }
+
+    public String[] getBytesPumped() {
+        ArrayList<String> rc = new ArrayList<>();
+        for (Map.Entry<String, ProtocolStatistics> entry : new TreeMap<>(protocolStatistics).entrySet()) {
+            rc.add(entry.getKey() + " " + entry.getValue().bytesPumped);
+        }
+        return rc.toArray(new String[rc.size()]);
+    }
+
+    public long getSslHandshakes() {
+        return sslStatistics.getHandshakes();
+    }
+
+    public long getSslResumedHandshakes() {
+        return sslStatistics.getResumedHandshakes();
+    }
+
+    public long getSslFailedHandshakes() {
+        return sslStatistics.getFailedHandshakes();
+    }
+
+    public String getSslHandshakeLatencyMicros() {
+        return sslStatistics.getHandshakeLatencyMicros().toString();
+    }
+
+    public void resetStatistics() {
+        protocolStatistics.clear();
+        sslStatistics.reset();
+    }
+
+    /**
+     * Returns the SSLContext shared by all the SSL connections, creating it on first use.
+     * Sharing the context is what lets clients resume their sessions from its session cache.
+     */
+    protected SSLContext getSslContext() throws Exception {
+        SSLContext answer = sslContext;
+        if (answer == null) {
+            synchronized (this) {
+                answer = sslContext;
+                if (answer == null) {
+                    if (sslConfig != null) {
+                        answer = sslConfig.createSSLContext();
+                    } else {
+                        answer = SSLContext.getDefault();
+                    }
+                    sslContext = answer;
+                }
+            }
+        }
+        return answer;
+    }
+
+    public SslStatistics getSslStatistics() {
+        return sslStatistics;
+    }
+
+    protected FeedbackLoadBalancer getFeedbackLoadBalancer() {
+        if (serviceLoadBalancer instanceof FeedbackLoadBalancer) {
+            return (FeedbackLoadBalancer) serviceLoadBalancer;
+        }
+        return null;
+    }
+
+    protected StickySessionTable<Object> getStickySessionTable() {
+        if (serviceLoadBalancer instanceof StickyLoadBalancer) {
+            return ((StickyLoadBalancer) serviceLoadBalancer).getRequestCache();
+        }
+        return null;
+    }
+
     public int getPort() {
         return port;
     }
@@ -497,4 +703,75 @@ public class DetectingGateway implements DetectingGatewayMBean {
     public void setPort(int port) {
         this.port = port;
     }
+
+    /**
+     * Returns the client used to connect to the services from the current event loop
+     */
+    protected NetClient getNetClient() {
+        NetClient answer = netClients.get();
+        if (answer == null) {
+            answer = vertx.createNetClient();
+            answer.setTCPNoDelay(tcpNoDelay);
+            answer.setTCPKeepAlive(tcpKeepAlive);
+            answer.setConnectTimeout(backendConnectTimeout);
+            if (sendBufferSize > 0) {
+                answer.setSendBufferSize(sendBufferSize);
+            }
+            if (receiveBufferSize > 0) {
+                answer.setReceiveBufferSize(receiveBufferSize);
+            }
+            netClients.set(answer);
+            allNetClients.add(answer);
+        }
+        return answer;
+    }
+
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    public boolean isTcpKeepAlive() {
+        return tcpKeepAlive;
+    }
+
+    public void setTcpKeepAlive(boolean tcpKeepAlive) {
+        this.tcpKeepAlive = tcpKeepAlive;
+    }
+
+    public int getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    /**
+     * Sets the TCP send buffer size of the connections to the services; zero or less uses the OS default
+     */
+    public void setSendBufferSize(int sendBufferSize) {
+        this.sendBufferSize = sendBufferSize;
+    }
+
+    public int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    /**
+     * Sets the TCP receive buffer size of the connections to the services; zero or less uses the OS default
+     */
+    public void setReceiveBufferSize(int receiveBufferSize) {
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
+    public int getBackendConnectTimeout() {
+        return backendConnectTimeout;
+    }
+
+    /**
+     * Sets the number of milliseconds to wait for a connection to a service to be established
+     */
+    public void setBackendConnectTimeout(int backendConnectTimeout) {
+        this.backendConnectTimeout = backendConnectTimeout;
+    }
 }
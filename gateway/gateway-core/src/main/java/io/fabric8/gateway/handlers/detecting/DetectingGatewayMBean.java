@@ -34,5 +34,49 @@ public interface DetectingGatewayMBean {
     public String[] getConnectedClients();
     public long getConnectionTimeout();
     public void setConnectionTimeout(long connectionTimeout);
+    public long getStickySessionHits();
+    public long getStickySessionMisses();
+    public long getStickySessionEvictions();
+    public int getStickySessionCount();
+
+    /**
+     * Returns the outstanding connections, failures and connect latency of each service
+     * when using a least connections or peak EWMA load balancer
+     */
+    public String[] getBackendStatistics();
+
+    /**
+     * Returns a histogram summary per protocol of the time taken to detect the protocol of a client connection
+     */
+    public String[] getDetectionLatencyMicros();
+
+    /**
+     * Returns a histogram summary per protocol of the time taken to connect to the chosen service
+     */
+    public String[] getConnectLatencyMicros();
+
+    /**
+     * Returns a histogram summary per protocol of the bytes proxied over each closed connection
+     */
+    public String[] getBytesPumped();
+
+    /**
+     * Returns the number of completed SSL handshakes, including the resumed ones
+     */
+    public long getSslHandshakes();
+
+    /**
+     * Returns the number of SSL handshakes which resumed a cached session
+     */
+    public long getSslResumedHandshakes();
+
+    public long getSslFailedHandshakes();
+
+    /**
+     * Returns a histogram summary of the time taken to complete the SSL handshakes
+     */
+    public String getSslHandshakeLatencyMicros();
+
+    public void resetStatistics();
 
 }
@@ -53,6 +53,9 @@ public class SslConfig {
     String disabledCypherSuites;
     String enabledCipherSuites;
 
+    private int sessionCacheSize = 20480;
+    private int sessionTimeout = 86400;
+
     public SslConfig() {
     }
 
@@ -167,6 +170,21 @@ public class SslConfig {
       return keyManagers;
     }
 
+    /**
+     * Creates a server side SSLContext for this configuration with its session cache sized so that
+     * returning clients can resume their session with an abbreviated handshake
+     */
+    public synchronized SSLContext createSSLContext() throws GeneralSecurityException, IOException {
+        SSLContext sslContext = SSLContext.getInstance(getProtocol());
+        sslContext.init(getKeyManagers(), getTrustManagers(), null);
+        SSLSessionContext sessionContext = sslContext.getServerSessionContext();
+        if (sessionContext != null) {
+            sessionContext.setSessionCacheSize(sessionCacheSize);
+            sessionContext.setSessionTimeout(sessionTimeout);
+        }
+        return sslContext;
+    }
+
     public String getProtocol() {
         return protocol;
     }
@@ -305,4 +323,26 @@ public class SslConfig {
         this.enabledCipherSuites = enabledCipherSuites;
     }
 
+    public int getSessionCacheSize() {
+        return sessionCacheSize;
+    }
+
+    /**
+     * Sets the maximum number of SSL sessions kept for resumption; zero means no limit
+     */
+    public void setSessionCacheSize(int sessionCacheSize) {
+        this.sessionCacheSize = sessionCacheSize;
+    }
+
+    public int getSessionTimeout() {
+        return sessionTimeout;
+    }
+
+    /**
+     * Sets the number of seconds a cached SSL session can be resumed for; zero means no limit
+     */
+    public void setSessionTimeout(int sessionTimeout) {
+        this.sessionTimeout = sessionTimeout;
+    }
+
 }
@@ -29,6 +29,7 @@ import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 
+import static javax.net.ssl.SSLEngineResult.HandshakeStatus.FINISHED;
 import static javax.net.ssl.SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING;
 
 /**
@@ -47,6 +48,35 @@ public class SslSocketWrapper extends SocketWrapper implements ReadStream<SslSoc
     private Handler<Throwable> plainExceptionHandler;
     private boolean failed = false;
 
+    private SslStatistics statistics;
+    private long handshakeStartMillis;
+    private long handshakeStartNanos;
+    private boolean handshakeCompleted;
+
+    /**
+     * The engine output is always copied into a vert.x buffer before the pump loops return, so
+     * each event loop thread can reuse the same pair of scratch buffers across all its connections.
+     */
+    private static final ThreadLocal<ByteBuffer[]> SCRATCH_BUFFERS = new ThreadLocal<ByteBuffer[]>() {
+        @Override
+        protected ByteBuffer[] initialValue() {
+            return new ByteBuffer[2];
+        }
+    };
+    private static final int READ_SCRATCH = 0;
+    private static final int WRITE_SCRATCH = 1;
+
+    private static ByteBuffer scratchBuffer(int index, int size) {
+        ByteBuffer[] buffers = SCRATCH_BUFFERS.get();
+        ByteBuffer answer = buffers[index];
+        if (answer == null || answer.capacity() < size) {
+            answer = ByteBuffer.allocate(size);
+            buffers[index] = answer;
+        }
+        answer.clear();
+        return answer;
+    }
+
     //////////////////////////////////////////////////////////////////////////
     //
     // ReadStream<SslSocketWrapper> interface impl.
@@ -82,7 +112,7 @@ public class SslSocketWrapper extends SocketWrapper implements ReadStream<SslSoc
 
             if( encryptedReadBuffer!=null && plainReadBuffer==null && !encryptedReadBufferUnderflow ) {
                 ByteBuffer input = ByteBuffer.wrap(encryptedReadBuffer.getBytes());
-                ByteBuffer output = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+                ByteBuffer output = scratchBuffer(READ_SCRATCH, engine.getSession().getApplicationBufferSize());
 
                 try {
                     boolean done = false;
@@ -90,6 +120,7 @@ public class SslSocketWrapper extends SocketWrapper implements ReadStream<SslSoc
                         done = true;
 
                         SSLEngineResult result = engine.unwrap(input, output);
+                        checkHandshakeFinished(result);
                         switch( result.getStatus() ) {
                             case CLOSED:
                                 engine.closeInbound();
@@ -273,13 +304,14 @@ public class SslSocketWrapper extends SocketWrapper implements ReadStream<SslSoc
 
             if( plainWriteBuffer!=null ) {
                 ByteBuffer input = ByteBuffer.wrap(plainWriteBuffer.getBytes());
-                ByteBuffer output = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+                ByteBuffer output = scratchBuffer(WRITE_SCRATCH, engine.getSession().getPacketBufferSize());
 
                 try {
                     boolean done = false;
                     while( !done ) {
                         done = true;
                         SSLEngineResult result = engine.wrap(input, output);
+                        checkHandshakeFinished(result);
                         switch( result.getStatus() ) {
                             case OK:
                                 switch(engine.getHandshakeStatus()) {
@@ -442,7 +474,16 @@ public class SslSocketWrapper extends SocketWrapper implements ReadStream<SslSoc
         }
     }
 
+    /**
+     * Sets the statistics to which the outcome of the handshake is reported
+     */
+    public void setStatistics(SslStatistics statistics) {
+        this.statistics = statistics;
+    }
+
     private void init() {
+        handshakeStartMillis = System.currentTimeMillis();
+        handshakeStartNanos = System.nanoTime();
         this.next.readStream().dataHandler(new Handler<Buffer>() {
             @Override
             public void handle(Buffer buffer) {
@@ -524,7 +565,21 @@ public class SslSocketWrapper extends SocketWrapper implements ReadStream<SslSoc
         }
     }
 
+    private void checkHandshakeFinished(SSLEngineResult result) {
+        if (result.getHandshakeStatus() == FINISHED && !handshakeCompleted) {
+            handshakeCompleted = true;
+            if (statistics != null) {
+                // a resumed session was created by an earlier handshake
+                boolean resumed = engine.getSession().getCreationTime() < handshakeStartMillis;
+                statistics.handshakeCompleted(resumed, System.nanoTime() - handshakeStartNanos);
+            }
+        }
+    }
+
     private void onFailure(Throwable error) {
+        if (!failed && !handshakeCompleted && statistics != null) {
+            statistics.handshakeFailed();
+        }
         failed = true;
         Handler<Throwable> handler = plainExceptionHandler;
         if( handler!=null ) {
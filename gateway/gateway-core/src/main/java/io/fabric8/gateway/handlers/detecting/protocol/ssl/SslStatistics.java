@@ -0,0 +1,81 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.handlers.detecting.protocol.ssl;
+
+import io.fabric8.gateway.Histogram;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the SSL handshakes completed by the {@link SslSocketWrapper} instances which share it,
+ * distinguishing full handshakes from abbreviated ones which resumed a cached session.
+ */
+public class SslStatistics {
+    private final AtomicLong handshakes = new AtomicLong();
+    private final AtomicLong resumedHandshakes = new AtomicLong();
+    private final AtomicLong failedHandshakes = new AtomicLong();
+    private final Histogram handshakeLatencyMicros = new Histogram();
+
+    void handshakeCompleted(boolean resumed, long durationNanos) {
+        handshakes.incrementAndGet();
+        if (resumed) {
+            resumedHandshakes.incrementAndGet();
+        }
+        handshakeLatencyMicros.record(durationNanos / 1000);
+    }
+
+    void handshakeFailed() {
+        failedHandshakes.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of completed handshakes, including the resumed ones
+     */
+    public long getHandshakes() {
+        return handshakes.get();
+    }
+
+    /**
+     * Returns the number of completed handshakes which resumed a cached session rather than doing a full key exchange
+     */
+    public long getResumedHandshakes() {
+        return resumedHandshakes.get();
+    }
+
+    public long getFailedHandshakes() {
+        return failedHandshakes.get();
+    }
+
+    public Histogram getHandshakeLatencyMicros() {
+        return handshakeLatencyMicros;
+    }
+
+    public void reset() {
+        handshakes.set(0);
+        resumedHandshakes.set(0);
+        failedHandshakes.set(0);
+        handshakeLatencyMicros.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "SslStatistics{" +
+                "handshakes=" + handshakes +
+                ", resumedHandshakes=" + resumedHandshakes +
+                ", failedHandshakes=" + failedHandshakes +
+                '}';
+    }
+}
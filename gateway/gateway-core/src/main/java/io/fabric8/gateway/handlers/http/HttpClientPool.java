@@ -0,0 +1,420 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.handlers.http;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vertx.java.core.Context;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.http.HttpClient;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of keep alive vert.x {@link HttpClient} instances keyed by backend host:port.
+ * <p/>
+ * A vert.x HttpClient can only be used from the event loop which created it, so each event loop
+ * thread gets its own set of clients; the connections of a client are then reused across requests
+ * rather than doing a fresh TCP handshake for every proxied request. Clients which have not been used
+ * for {@link #getIdleTimeout()} milliseconds are closed by a periodic timer on their event loop.
+ * <p/>
+ * vert.x 2 does not expose how long a request waits for a connection of a client, so the pool records the
+ * time to first byte: from the client being acquired until the backend's response headers arrive.
+ */
+public class HttpClientPool {
+    private static final transient Logger LOG = LoggerFactory.getLogger(HttpClientPool.class);
+
+    private final Vertx vertx;
+    private boolean keepAlive = true;
+    private boolean pipelining = false;
+    private int maxConnectionsPerHost = 20;
+    private int connectTimeout = 5000;
+    private long idleTimeout = 60000;
+
+    private final ThreadLocal<EventLoopClients> eventLoopClients = new ThreadLocal<EventLoopClients>();
+    private final CopyOnWriteArrayList<EventLoopClients> allEventLoopClients = new CopyOnWriteArrayList<EventLoopClients>();
+    private volatile boolean closed;
+
+    private final AtomicInteger inUse = new AtomicInteger();
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong responseCount = new AtomicLong();
+    private final AtomicLong clientsCreated = new AtomicLong();
+    private final AtomicLong clientsEvicted = new AtomicLong();
+    private final AtomicLong totalTimeToFirstByteNanos = new AtomicLong();
+    private final AtomicLong maxTimeToFirstByteNanos = new AtomicLong();
+
+    public HttpClientPool(Vertx vertx) {
+        this.vertx = vertx;
+    }
+
+    @Override
+    public String toString() {
+        return "HttpClientPool{" +
+                "keepAlive=" + keepAlive +
+                ", pipelining=" + pipelining +
+                ", maxConnectionsPerHost=" + maxConnectionsPerHost +
+                ", idleTimeout=" + idleTimeout +
+                '}';
+    }
+
+    /**
+     * Borrows a client for the host and port of the given URL. The returned lease must be
+     * {@link Lease#release() released} once the proxied exchange has completed or failed.
+     *
+     * Must be called from a vert.x event loop.
+     */
+    public Lease acquire(URL url) {
+        if (closed) {
+            throw new IllegalStateException("The HttpClientPool has been closed");
+        }
+        EventLoopClients clients = eventLoopClients.get();
+        if (clients == null) {
+            clients = new EventLoopClients(vertx.currentContext());
+            eventLoopClients.set(clients);
+            allEventLoopClients.add(clients);
+            clients.startEviction();
+        }
+        int port = url.getPort();
+        if (port < 0) {
+            port = url.getDefaultPort();
+        }
+        PooledClient pooledClient = clients.getOrCreate(url.getHost(), port);
+        pooledClient.inFlight.incrementAndGet();
+        pooledClient.lastUsed = System.currentTimeMillis();
+        inUse.incrementAndGet();
+        requestCount.incrementAndGet();
+        return new Lease(pooledClient);
+    }
+
+    /**
+     * Closes all the pooled clients, each on the event loop which owns it
+     */
+    public void close() {
+        closed = true;
+        for (EventLoopClients clients : allEventLoopClients) {
+            clients.close();
+        }
+        allEventLoopClients.clear();
+    }
+
+    protected HttpClient createClient(String host, int port) {
+        HttpClient client = vertx.createHttpClient();
+        client.setHost(host);
+        client.setPort(port);
+        client.setKeepAlive(keepAlive);
+        client.setPipelining(keepAlive && pipelining);
+        client.setMaxPoolSize(maxConnectionsPerHost);
+        client.setConnectTimeout(connectTimeout);
+        client.setTCPKeepAlive(true);
+        client.setTCPNoDelay(true);
+        clientsCreated.incrementAndGet();
+        return client;
+    }
+
+    // Statistics
+    //-------------------------------------------------------------------------
+
+    /**
+     * Returns the number of requests currently using a pooled client
+     */
+    public int getInUseCount() {
+        return inUse.get();
+    }
+
+    /**
+     * Returns the number of pooled clients which currently have no requests in flight
+     */
+    public int getIdleCount() {
+        int answer = 0;
+        for (EventLoopClients clients : allEventLoopClients) {
+            for (PooledClient pooledClient : clients.snapshot()) {
+                if (pooledClient.inFlight.get() == 0) {
+                    answer++;
+                }
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * Returns the number of clients currently pooled across all event loops
+     */
+    public int getPooledClientCount() {
+        int answer = 0;
+        for (EventLoopClients clients : allEventLoopClients) {
+            answer += clients.snapshot().size();
+        }
+        return answer;
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Returns the number of requests which got a response from the backend
+     */
+    public long getResponseCount() {
+        return responseCount.get();
+    }
+
+    public long getClientsCreated() {
+        return clientsCreated.get();
+    }
+
+    public long getClientsEvicted() {
+        return clientsEvicted.get();
+    }
+
+    /**
+     * Returns the average time between a client being acquired and the backend response headers arriving,
+     * over the requests which got a response; this includes any time spent waiting for a free connection
+     */
+    public long getAverageTimeToFirstByteNanos() {
+        long count = responseCount.get();
+        return count > 0 ? totalTimeToFirstByteNanos.get() / count : 0;
+    }
+
+    public long getMaxTimeToFirstByteNanos() {
+        return maxTimeToFirstByteNanos.get();
+    }
+
+    public void resetStatistics() {
+        requestCount.set(0);
+        responseCount.set(0);
+        clientsCreated.set(0);
+        clientsEvicted.set(0);
+        totalTimeToFirstByteNanos.set(0);
+        maxTimeToFirstByteNanos.set(0);
+    }
+
+    // Properties
+    //-------------------------------------------------------------------------
+
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    public void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    public boolean isPipelining() {
+        return pipelining;
+    }
+
+    /**
+     * Enables HTTP pipelining on the pooled connections; only enable this if the backend services support it
+     */
+    public void setPipelining(boolean pipelining) {
+        this.pipelining = pipelining;
+    }
+
+    public int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Sets the number of milliseconds after which an unused client is closed; a value of zero or less disables eviction
+     */
+    public void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * A client borrowed from the pool for the duration of a single proxied exchange
+     */
+    public class Lease {
+        private final PooledClient pooledClient;
+        private final long acquireTime = System.nanoTime();
+        private boolean responseReceived;
+        private boolean released;
+
+        Lease(PooledClient pooledClient) {
+            this.pooledClient = pooledClient;
+        }
+
+        public HttpClient getClient() {
+            return pooledClient.client;
+        }
+
+        /**
+         * Records that the backend has started responding
+         *
+         * @return the time in nanoseconds since the client was acquired
+         */
+        public long responseReceived() {
+            long timeToFirstByte = System.nanoTime() - acquireTime;
+            if (!responseReceived) {
+                responseReceived = true;
+                responseCount.incrementAndGet();
+                totalTimeToFirstByteNanos.addAndGet(timeToFirstByte);
+                long max;
+                while ((max = maxTimeToFirstByteNanos.get()) < timeToFirstByte) {
+                    if (maxTimeToFirstByteNanos.compareAndSet(max, timeToFirstByte)) {
+                        break;
+                    }
+                }
+            }
+            return timeToFirstByte;
+        }
+
+        /**
+         * Returns the client to the pool; calling this more than once has no effect
+         *
+         * @return true if this call released the client
+         */
+        public boolean release() {
+            if (!released) {
+                released = true;
+                pooledClient.inFlight.decrementAndGet();
+                pooledClient.lastUsed = System.currentTimeMillis();
+                inUse.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    static class PooledClient {
+        final String key;
+        final HttpClient client;
+        final AtomicInteger inFlight = new AtomicInteger();
+        volatile long lastUsed;
+
+        PooledClient(String key, HttpClient client) {
+            this.key = key;
+            this.client = client;
+        }
+    }
+
+    /**
+     * The clients owned by a single event loop; only mutated from that event loop
+     */
+    class EventLoopClients {
+        private final Context context;
+        private final Map<String, PooledClient> clients = new HashMap<String, PooledClient>();
+        private volatile ArrayList<PooledClient> snapshot = new ArrayList<PooledClient>();
+        private long timerId = -1;
+
+        /**
+         * @param context the context of the event loop owning the clients, or null if not created on one
+         */
+        EventLoopClients(Context context) {
+            this.context = context;
+        }
+
+        PooledClient getOrCreate(String host, int port) {
+            String key = host + ":" + port;
+            PooledClient answer = clients.get(key);
+            if (answer == null) {
+                answer = new PooledClient(key, createClient(host, port));
+                clients.put(key, answer);
+                snapshot = new ArrayList<PooledClient>(clients.values());
+                LOG.debug("Created pooled HTTP client for {}", key);
+            }
+            return answer;
+        }
+
+        ArrayList<PooledClient> snapshot() {
+            return snapshot;
+        }
+
+        void startEviction() {
+            if (idleTimeout > 0) {
+                long period = Math.max(1000, idleTimeout / 2);
+                timerId = vertx.setPeriodic(period, new Handler<Long>() {
+                    @Override
+                    public void handle(Long timerID) {
+                        evictIdleClients();
+                    }
+                });
+            }
+        }
+
+        void evictIdleClients() {
+            long now = System.currentTimeMillis();
+            boolean changed = false;
+            Iterator<PooledClient> iter = clients.values().iterator();
+            while (iter.hasNext()) {
+                PooledClient pooledClient = iter.next();
+                if (pooledClient.inFlight.get() == 0 && now - pooledClient.lastUsed > idleTimeout) {
+                    iter.remove();
+                    changed = true;
+                    clientsEvicted.incrementAndGet();
+                    LOG.debug("Closing idle pooled HTTP client for {}", pooledClient.key);
+                    pooledClient.client.close();
+                }
+            }
+            if (changed) {
+                snapshot = new ArrayList<PooledClient>(clients.values());
+            }
+        }
+
+        void close() {
+            if (context == null) {
+                closeClients();
+            } else {
+                context.runOnContext(new Handler<Void>() {
+                    @Override
+                    public void handle(Void event) {
+                        closeClients();
+                    }
+                });
+            }
+        }
+
+        void closeClients() {
+            if (timerId != -1) {
+                vertx.cancelTimer(timerId);
+                timerId = -1;
+            }
+            for (PooledClient pooledClient : clients.values()) {
+                try {
+                    pooledClient.client.close();
+                } catch (Exception e) {
+                    LOG.debug("Failed to close pooled HTTP client for " + pooledClient.key + ". " + e, e);
+                }
+            }
+            clients.clear();
+            snapshot = new ArrayList<PooledClient>();
+        }
+    }
+}
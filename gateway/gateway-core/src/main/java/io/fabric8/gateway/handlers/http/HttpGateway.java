@@ -43,6 +43,11 @@ public interface HttpGateway {
      */
     Map<String, MappedServices> getMappedServices();
 
+    /**
+     * Returns the current immutable index of the mapped services used to route requests by URI prefix
+     */
+    HttpMappingRuleIndex getMappingRuleIndex();
+
     /**
      * Returns true if the mapping index is enabled which by default
      * returns a JSON document describing the mapping of URI prefixes to services
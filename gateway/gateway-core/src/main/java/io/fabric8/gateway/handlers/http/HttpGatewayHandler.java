@@ -23,13 +23,13 @@ import org.vertx.java.core.Handler;
 import org.vertx.java.core.Vertx;
 import org.vertx.java.core.VoidHandler;
 import org.vertx.java.core.buffer.Buffer;
-import org.vertx.java.core.http.HttpClient;
 import org.vertx.java.core.http.HttpClientRequest;
 import org.vertx.java.core.http.HttpClientResponse;
 import org.vertx.java.core.http.HttpServerRequest;
 import org.vertx.java.core.http.HttpServerResponse;
 
 import io.fabric8.gateway.CallDetailRecord;
+import io.fabric8.gateway.CallDetailRecorder;
 
 import java.io.IOException;
 import java.io.PrintWriter;
@@ -41,6 +41,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  */
@@ -49,79 +50,87 @@ public class HttpGatewayHandler implements Handler<HttpServerRequest> {
 
     private final Vertx vertx;
     private final HttpGateway httpGateway;
+    private final HttpClientPool clientPool;
+    private final CallDetailRecorder callDetailRecorder;
     private final ObjectMapper mapper = new ObjectMapper();
 
     public HttpGatewayHandler(Vertx vertx, HttpGateway httpGateway) {
+        this(vertx, httpGateway, new HttpClientPool(vertx));
+    }
+
+    public HttpGatewayHandler(Vertx vertx, HttpGateway httpGateway, HttpClientPool clientPool) {
+        this(vertx, httpGateway, clientPool, null);
+    }
+
+    /**
+     * @param callDetailRecorder records the outcome of each call; if null a {@link CallDetailRecord}
+     *                           is passed to {@link HttpGateway#addCallDetailRecord(CallDetailRecord)} instead
+     */
+    public HttpGatewayHandler(Vertx vertx, HttpGateway httpGateway, HttpClientPool clientPool, CallDetailRecorder callDetailRecorder) {
         this.vertx = vertx;
         this.httpGateway = httpGateway;
+        this.clientPool = clientPool;
+        this.callDetailRecorder = callDetailRecorder;
     }
 
     @Override
     public void handle(final HttpServerRequest request) {
-    	long callStart = System.nanoTime();
+        final long callStart = System.nanoTime();
         String uri = request.uri();
-        String uri2 = null;
-        if (!uri.endsWith("/")) {
-            uri2 = uri + "/";
-        }
         if (LOG.isDebugEnabled()) {
             LOG.debug("Proxying request: " + uri);
         }
 
         // lets map the request URI to map to the service URI and then the renaming URI
         // using mapping rules...
-        HttpClient client = null;
+        HttpClientPool.Lease lease = null;
         String remaining = null;
         String prefix = null;
         String proxyServiceUrl = null;
         String reverseServiceUrl = null;
-        Map<String, MappedServices> mappingRules = httpGateway.getMappedServices();
+        String rulePath = null;
+        MappedServices mappedServices = null;
+        boolean requestStarted = false;
+        HttpMappingRuleIndex mappingRuleIndex = httpGateway.getMappingRuleIndex();
         try {
             if (isMappingIndexRequest(request)) {
                 // lets return the JSON of all the results
-                String json = mappingRulesToJson(mappingRules);
+                String json = mappingRulesToJson(mappingRuleIndex.getMappedServices());
                 HttpServerResponse response = request.response();
                 response.headers().set("ContentType", "application/json");
                 response.end(json);
                 response.setStatusCode(200);
+                recordCall(null, null, callStart, 200, null);
             } else {
-                MappedServices mappedServices = null;
                 URL clientURL = null;
-                Set<Map.Entry<String, MappedServices>> entries = mappingRules.entrySet();
-                for (Map.Entry<String, MappedServices> entry : entries) {
-                    String path = entry.getKey();
-                    mappedServices = entry.getValue();
-
-                    String pathPrefix = path;
-                    if (uri.startsWith(pathPrefix) || (uri2 != null && uri2.startsWith(pathPrefix))) {
-                        int pathPrefixLength = pathPrefix.length();
-                        if (pathPrefixLength < uri.length()) {
-                            remaining = uri.substring(pathPrefixLength);
-                        } else {
-                            remaining = null;
-                        }
+                // lets find the longest matching prefix, falling back to shorter ones if it has no services
+                for (HttpMappingRuleIndex.Route route = mappingRuleIndex.findRoute(uri); route != null; route = route.getParent()) {
+                    String pathPrefix = route.getPath();
+                    mappedServices = route.getMappedServices();
+                    remaining = route.remaining(uri);
 
-                        // now lets pick a service for this path
-                        proxyServiceUrl = mappedServices.chooseService(request);
-                        if (proxyServiceUrl != null) {
-                            // lets create a client for this request...
-                            try {
-                                clientURL = new URL(proxyServiceUrl);
-                                client = createClient(clientURL);
-                                prefix = clientURL.getPath();
-                                reverseServiceUrl = request.absoluteURI().resolve(pathPrefix).toString();
-                                if (reverseServiceUrl.endsWith("/")) {
-                                    reverseServiceUrl = reverseServiceUrl.substring(0, reverseServiceUrl.length() - 1);
-                                }
-                                break;
-                            } catch (MalformedURLException e) {
-                                LOG.warn("Failed to parse URL: " + proxyServiceUrl + ". " + e, e);
+                    // now lets pick a service for this path
+                    proxyServiceUrl = mappedServices.chooseService(request);
+                    if (proxyServiceUrl != null) {
+                        // lets create a client for this request...
+                        try {
+                            clientURL = new URL(proxyServiceUrl);
+                            rulePath = pathPrefix;
+                            prefix = clientURL.getPath();
+                            reverseServiceUrl = request.absoluteURI().resolve(pathPrefix).toString();
+                            if (reverseServiceUrl.endsWith("/")) {
+                                reverseServiceUrl = reverseServiceUrl.substring(0, reverseServiceUrl.length() - 1);
                             }
+                            // only lease a client once nothing else can fail before the request is sent
+                            lease = clientPool.acquire(clientURL);
+                            break;
+                        } catch (MalformedURLException e) {
+                            LOG.warn("Failed to parse URL: " + proxyServiceUrl + ". " + e, e);
                         }
                     }
                 }
 
-                if (client != null) {
+                if (lease != null) {
                     String servicePath = prefix != null ? prefix : "";
                     // we should usually end the prefix path with a slash for web apps at least
                     if (servicePath.length() > 0 && !servicePath.endsWith("/")) {
@@ -132,12 +141,21 @@ public class HttpGatewayHandler implements Handler<HttpServerRequest> {
                     }
 
                     LOG.info("Proxying request " + uri + " to service path: " + servicePath + " on service: " + proxyServiceUrl + " reverseServiceUrl: " + reverseServiceUrl);
-                    final HttpClient finalClient = client;
+                    final HttpClientPool.Lease finalLease = lease;
+                    final MappedServices finalMappedServices = mappedServices;
+                    final String serviceUrl = proxyServiceUrl;
+                    final String finalRulePath = rulePath;
+                    // vert.x 2 does not tell whether the response head has been written, so track it here
+                    final AtomicBoolean responseStarted = new AtomicBoolean();
+                    mappedServices.requestStarted(serviceUrl);
+                    requestStarted = true;
                     Handler<HttpClientResponse> responseHandler = new Handler<HttpClientResponse>() {
-                        public void handle(HttpClientResponse clientResponse) {
+                        public void handle(final HttpClientResponse clientResponse) {
+                            finalMappedServices.responseReceived(serviceUrl, finalLease.responseReceived());
                             if (LOG.isDebugEnabled()) {
                                 LOG.debug("Proxying response: " + clientResponse.statusCode());
                             }
+                            responseStarted.set(true);
                             request.response().setStatusCode(clientResponse.statusCode());
                             request.response().headers().set(clientResponse.headers());
                             request.response().setChunked(true);
@@ -152,7 +170,16 @@ public class HttpGatewayHandler implements Handler<HttpServerRequest> {
                             clientResponse.endHandler(new VoidHandler() {
                                 public void handle() {
                                     request.response().end();
-                                    finalClient.close();
+                                    if (finalLease.release()) {
+                                        finalMappedServices.requestCompleted(serviceUrl, clientResponse.statusCode() < 500);
+                                        recordCall(finalRulePath, serviceUrl, callStart, clientResponse.statusCode(), null);
+                                    }
+                                }
+                            });
+                            clientResponse.exceptionHandler(new Handler<Throwable>() {
+                                public void handle(Throwable e) {
+                                    LOG.warn("Failed to proxy the response of " + request.uri() + " from " + finalLease.getClient().getHost() + ":" + finalLease.getClient().getPort() + ". " + e);
+                                    failCall(request, responseStarted.get(), finalLease, finalMappedServices, serviceUrl, finalRulePath, callStart, e);
                                 }
                             });
                         }
@@ -161,9 +188,15 @@ public class HttpGatewayHandler implements Handler<HttpServerRequest> {
                         ProxyMappingDetails proxyMappingDetails = new ProxyMappingDetails(proxyServiceUrl, reverseServiceUrl, servicePath);
                         responseHandler = mappedServices.wrapResponseHandlerInPolicies(request, responseHandler, proxyMappingDetails);
                     }
-                    final HttpClientRequest clientRequest = client.request(request.method(), servicePath, responseHandler);
+                    final HttpClientRequest clientRequest = lease.getClient().request(request.method(), servicePath, responseHandler);
                     clientRequest.headers().set(request.headers());
                     clientRequest.setChunked(true);
+                    clientRequest.exceptionHandler(new Handler<Throwable>() {
+                        public void handle(Throwable e) {
+                            LOG.warn("Failed to proxy request " + request.uri() + " to " + finalLease.getClient().getHost() + ":" + finalLease.getClient().getPort() + ". " + e);
+                            failCall(request, responseStarted.get(), finalLease, finalMappedServices, serviceUrl, finalRulePath, callStart, e);
+                        }
+                    });
                     request.dataHandler(new Handler<Buffer>() {
                         public void handle(Buffer data) {
                             if (LOG.isDebugEnabled()) {
@@ -183,17 +216,18 @@ public class HttpGatewayHandler implements Handler<HttpServerRequest> {
 
                 } else {
                     //  lets return a 404
-                    LOG.info("Could not find matching proxy path for " + uri + " from paths: " + mappingRules.keySet());
+                    LOG.info("Could not find matching proxy path for " + uri + " from paths: " + mappingRuleIndex.getMappedServices().keySet());
                     request.response().setStatusCode(404);
                     request.response().close();
+                    recordCall(null, null, callStart, 404, null);
                 }
             }
-            CallDetailRecord cdr = new CallDetailRecord(System.nanoTime() - callStart, null);
-            httpGateway.addCallDetailRecord(cdr);
         } catch (Throwable e) {
             LOG.error("Caught: " + e, e);
-            CallDetailRecord cdr = new CallDetailRecord(System.nanoTime() - callStart, new Date() + ":" + e.getMessage());
-            httpGateway.addCallDetailRecord(cdr);
+            if (lease != null && lease.release() && requestStarted) {
+                mappedServices.requestCompleted(proxyServiceUrl, false);
+            }
+            recordCall(rulePath, proxyServiceUrl, callStart, 404, String.valueOf(e.getMessage()));
             request.response().setStatusCode(404);
             StringWriter buffer = new StringWriter();
             e.printStackTrace(new PrintWriter(buffer));
@@ -202,6 +236,35 @@ public class HttpGatewayHandler implements Handler<HttpServerRequest> {
         }
     }
 
+    /**
+     * Completes a call whose backend failed before or while responding: releases the client, reports the
+     * failure to the load balancer and records it, then closes the response. The 502 status is only sent
+     * if the backend's status and headers have not been passed on yet.
+     */
+    protected void failCall(HttpServerRequest request, boolean responseStarted, HttpClientPool.Lease lease, MappedServices mappedServices,
+                            String serviceUrl, String rulePath, long callStart, Throwable e) {
+        if (lease.release()) {
+            mappedServices.requestCompleted(serviceUrl, false);
+            recordCall(rulePath, serviceUrl, callStart, 502, e.toString());
+        }
+        if (!responseStarted) {
+            request.response().setStatusCode(502);
+        }
+        request.response().close();
+    }
+
+    /**
+     * Records the outcome of a call once the response has been completed
+     */
+    protected void recordCall(String rule, String backend, long callStart, int status, String error) {
+        if (callDetailRecorder != null) {
+            callDetailRecorder.record(rule, backend, callStart, status, error);
+        } else {
+            CallDetailRecord cdr = new CallDetailRecord(System.nanoTime() - callStart, error != null ? new Date() + ":" + error : null);
+            httpGateway.addCallDetailRecord(cdr);
+        }
+    }
+
     protected String mappingRulesToJson(Map<String, MappedServices> rules) throws IOException {
         Map<String, Collection<String>> data = new HashMap<String, Collection<String>>();
 
@@ -223,13 +286,12 @@ public class HttpGatewayHandler implements Handler<HttpServerRequest> {
         return uri == null || uri.length() == 0 || uri.equals("/");
     }
 
-    protected HttpClient createClient(URL url) throws MalformedURLException {
-        // lets create a client
-        HttpClient client = vertx.createHttpClient();
-        client.setHost(url.getHost());
-        client.setPort(url.getPort());
-        return client;
+    public HttpClientPool getClientPool() {
+        return clientPool;
+    }
 
+    public CallDetailRecorder getCallDetailRecorder() {
+        return callDetailRecorder;
     }
 
 }
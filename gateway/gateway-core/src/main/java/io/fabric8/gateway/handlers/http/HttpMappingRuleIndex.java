@@ -0,0 +1,254 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.handlers.http;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An immutable index of the mapped services of a {@link HttpGateway} organised as a trie of path segments
+ * so that the longest matching URI prefix of a request can be found in O(path depth) without allocating.
+ * <p/>
+ * Prefixes match on whole path segments; a trailing slash on a mapped prefix is ignored so that
+ * <code>/foo/bar/</code> matches the request URIs <code>/foo/bar</code>, <code>/foo/bar/</code>,
+ * <code>/foo/bar?x=y</code> and <code>/foo/bar/baz</code> but not <code>/foo/barbaz</code>.
+ * <p/>
+ * Instances are rebuilt whenever the mapping rules change and swapped in atomically by the gateway.
+ */
+public final class HttpMappingRuleIndex {
+
+    public static final HttpMappingRuleIndex EMPTY = new HttpMappingRuleIndex(Collections.<String, MappedServices>emptyMap());
+
+    private final Map<String, MappedServices> mappedServices;
+    private final Node root = new Node("");
+
+    public HttpMappingRuleIndex(Map<String, MappedServices> mappedServices) {
+        // sort the keys so the index is deterministic if two paths map to the same segments
+        TreeMap<String, MappedServices> sorted = new TreeMap<String, MappedServices>(mappedServices);
+        this.mappedServices = Collections.unmodifiableMap(sorted);
+        for (Map.Entry<String, MappedServices> entry : sorted.entrySet()) {
+            addRoute(entry.getKey(), entry.getValue());
+        }
+        root.freeze(null);
+    }
+
+    /**
+     * Returns all the mapped services indexed by URI prefix
+     */
+    public Map<String, MappedServices> getMappedServices() {
+        return mappedServices;
+    }
+
+    public boolean isEmpty() {
+        return mappedServices.isEmpty();
+    }
+
+    /**
+     * Returns the route with the longest prefix matching the given request URI or null if there is no match.
+     * Use {@link Route#getParent()} to fall back to the next shorter matching prefix.
+     */
+    public Route findRoute(String uri) {
+        Node node = root;
+        Route answer = root.route;
+        int length = endOfPath(uri);
+        int start = 0;
+        while (start < length) {
+            if (uri.charAt(start) == '/') {
+                start++;
+                continue;
+            }
+            int end = uri.indexOf('/', start);
+            if (end < 0 || end > length) {
+                end = length;
+            }
+            node = node.child(uri, start, end);
+            if (node == null) {
+                break;
+            }
+            if (node.route != null) {
+                answer = node.route;
+            }
+            start = end;
+        }
+        return answer;
+    }
+
+    @Override
+    public String toString() {
+        return "HttpMappingRuleIndex" + mappedServices.keySet();
+    }
+
+    private void addRoute(String path, MappedServices services) {
+        Node node = root;
+        int segments = 0;
+        for (String segment : path.split("/")) {
+            if (segment.length() > 0) {
+                segments++;
+                node = node.getOrCreateChild(segment);
+            }
+        }
+        node.route = new Route(path, segments, services);
+    }
+
+    private static int endOfPath(String uri) {
+        int length = uri.length();
+        for (int i = 0; i < length; i++) {
+            char ch = uri.charAt(i);
+            if (ch == '?' || ch == '#') {
+                return i;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * A mapped URI prefix and the services it maps to
+     */
+    public static final class Route {
+        private final String path;
+        private final int segments;
+        private final MappedServices mappedServices;
+        private Route parent;
+
+        Route(String path, int segments, MappedServices mappedServices) {
+            this.path = path;
+            this.segments = segments;
+            this.mappedServices = mappedServices;
+        }
+
+        /**
+         * Returns the URI prefix as it was configured in the mapping rules
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * Returns the remaining part of the given request URI after this route's prefix, without a leading slash,
+         * or null if nothing remains. The prefix is skipped segment by segment as {@link #findRoute(String)}
+         * matched it, so empty segments such as in <code>//foo/bar</code> or <code>/foo//bar</code> are ignored.
+         */
+        public String remaining(String uri) {
+            int length = endOfPath(uri);
+            int index = 0;
+            for (int i = 0; i < segments; i++) {
+                while (index < length && uri.charAt(index) == '/') {
+                    index++;
+                }
+                while (index < length && uri.charAt(index) != '/') {
+                    index++;
+                }
+            }
+            if (index < uri.length() && uri.charAt(index) == '/') {
+                index++;
+            }
+            return index < uri.length() ? uri.substring(index) : null;
+        }
+
+        public MappedServices getMappedServices() {
+            return mappedServices;
+        }
+
+        /**
+         * Returns the route with the next shorter matching prefix or null if there is none
+         */
+        public Route getParent() {
+            return parent;
+        }
+
+        @Override
+        public String toString() {
+            return "Route{" + path + " => " + mappedServices + '}';
+        }
+    }
+
+    private static final class Node {
+        private final String segment;
+        private List<Node> childList = new ArrayList<Node>();
+        private Node[] children;
+        private Route route;
+
+        Node(String segment) {
+            this.segment = segment;
+        }
+
+        Node getOrCreateChild(String segment) {
+            for (Node child : childList) {
+                if (child.segment.equals(segment)) {
+                    return child;
+                }
+            }
+            Node child = new Node(segment);
+            childList.add(child);
+            return child;
+        }
+
+        void freeze(Route parentRoute) {
+            if (route != null) {
+                route.parent = parentRoute;
+                parentRoute = route;
+            }
+            children = childList.toArray(new Node[childList.size()]);
+            Arrays.sort(children, new Comparator<Node>() {
+                @Override
+                public int compare(Node o1, Node o2) {
+                    return o1.segment.compareTo(o2.segment);
+                }
+            });
+            childList = null;
+            for (Node child : children) {
+                child.freeze(parentRoute);
+            }
+        }
+
+        /**
+         * Binary searches the children for the segment <code>uri[start, end)</code>
+         */
+        Node child(String uri, int start, int end) {
+            int low = 0;
+            int high = children.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = compare(children[mid].segment, uri, start, end);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return children[mid];
+                }
+            }
+            return null;
+        }
+
+        private static int compare(String segment, String uri, int start, int end) {
+            int length = end - start;
+            int n = Math.min(segment.length(), length);
+            for (int i = 0; i < n; i++) {
+                int diff = segment.charAt(i) - uri.charAt(start + i);
+                if (diff != 0) {
+                    return diff;
+                }
+            }
+            return segment.length() - length;
+        }
+    }
+}
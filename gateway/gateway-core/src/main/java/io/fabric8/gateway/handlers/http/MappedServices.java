@@ -17,6 +17,7 @@ package io.fabric8.gateway.handlers.http;
 
 import io.fabric8.gateway.ServiceDetails;
 import io.fabric8.gateway.handlers.http.policy.ReverseUriPolicy;
+import io.fabric8.gateway.loadbalancer.FeedbackLoadBalancer;
 import io.fabric8.gateway.loadbalancer.LoadBalancer;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.http.HttpClientResponse;
@@ -56,6 +57,33 @@ public class MappedServices {
         return loadBalancer.choose(serviceUrls, new HttpClientRequestFacade(request));
     }
 
+    /**
+     * Notifies a {@link FeedbackLoadBalancer} that a request is being proxied to the given service
+     */
+    public void requestStarted(String serviceUrl) {
+        if (loadBalancer instanceof FeedbackLoadBalancer) {
+            ((FeedbackLoadBalancer) loadBalancer).requestStarted(serviceUrl);
+        }
+    }
+
+    /**
+     * Notifies a {@link FeedbackLoadBalancer} of the time the given service took to start responding
+     */
+    public void responseReceived(String serviceUrl, long latencyNanos) {
+        if (loadBalancer instanceof FeedbackLoadBalancer) {
+            ((FeedbackLoadBalancer) loadBalancer).responseReceived(serviceUrl, latencyNanos);
+        }
+    }
+
+    /**
+     * Notifies a {@link FeedbackLoadBalancer} that a request to the given service has completed
+     */
+    public void requestCompleted(String serviceUrl, boolean success) {
+        if (loadBalancer instanceof FeedbackLoadBalancer) {
+            ((FeedbackLoadBalancer) loadBalancer).requestCompleted(serviceUrl, success);
+        }
+    }
+
     /**
      * Provides a hook so we can wrap a client response handler in a policy such
      * as to reverse the URIs {@link io.fabric8.gateway.handlers.http.policy.ReverseUriPolicy} or
@@ -94,6 +122,10 @@ public class MappedServices {
         return serviceDetails;
     }
 
+    public LoadBalancer getLoadBalancer() {
+        return loadBalancer;
+    }
+
     public List<String> getServiceUrls() {
         return serviceUrls;
     }
@@ -15,9 +15,8 @@
  */
 package io.fabric8.gateway.handlers.tcp;
 
-import io.fabric8.common.util.Objects;
-import io.fabric8.common.util.Strings;
 import io.fabric8.gateway.ServiceDetails;
+import io.fabric8.gateway.ServiceSnapshot;
 import io.fabric8.gateway.loadbalancer.LoadBalancer;
 import io.fabric8.gateway.ServiceMap;
 import org.slf4j.Logger;
@@ -31,7 +30,6 @@ import org.vertx.java.core.streams.Pump;
 
 import java.net.MalformedURLException;
 import java.net.URI;
-import java.net.URISyntaxException;
 import java.util.List;
 
 /**
@@ -43,6 +41,7 @@ public class TcpGatewayHandler implements Handler<NetSocket> {
     private final Vertx vertx;
     private final ServiceMap serviceMap;
     private final String protocol;
+    private final String[] schemes;
     private final LoadBalancer pathLoadBalancer;
     private final LoadBalancer serviceLoadBalancer;
 
@@ -50,6 +49,7 @@ public class TcpGatewayHandler implements Handler<NetSocket> {
         this.vertx = vertx;
         this.serviceMap = serviceMap;
         this.protocol = protocol;
+        this.schemes = new String[]{protocol};
         this.pathLoadBalancer = pathLoadBalancer;
         this.serviceLoadBalancer = serviceLoadBalancer;
     }
@@ -61,34 +61,25 @@ public class TcpGatewayHandler implements Handler<NetSocket> {
         TcpClientRequestFacade requestFacade = new TcpClientRequestFacade(socket);
         String path = pathLoadBalancer.choose(paths, requestFacade);
         if (path != null) {
-            List<ServiceDetails> services = serviceMap.getServices(path);
+            ServiceSnapshot.Endpoints endpoints = serviceMap.getSnapshot(path).getEndpoints(schemes);
+            List<ServiceDetails> services = endpoints.getServices();
             if (!services.isEmpty()) {
                 ServiceDetails serviceDetails = serviceLoadBalancer.choose(services, requestFacade);
                 if (serviceDetails != null) {
-                    List<String> urlStrings = serviceDetails.getServices();
-                    for (String urlString : urlStrings) {
-                        if (Strings.notEmpty(urlString)) {
-                            // lets create a client for this request...
-                            try {
-                                URI uri = new URI(urlString);
-                                //URL url = new URL(urlString);
-                                String urlProtocol = uri.getScheme();
-                                if (Objects.equal(protocol, urlProtocol)) {
-                                    Handler<AsyncResult<NetSocket>> handler = new Handler<AsyncResult<NetSocket>>() {
-                                        public void handle(final AsyncResult<NetSocket> asyncSocket) {
-                                            NetSocket clientSocket = asyncSocket.result();
-                                            Pump.createPump(clientSocket, socket).start();
-                                            Pump.createPump(socket, clientSocket).start();
-                                        }
-                                    };
-                                    client = createClient(socket, uri, handler);
-                                    break;
+                    URI uri = endpoints.getEndpoint(serviceDetails);
+                    if (uri != null) {
+                        // lets create a client for this request...
+                        try {
+                            Handler<AsyncResult<NetSocket>> handler = new Handler<AsyncResult<NetSocket>>() {
+                                public void handle(final AsyncResult<NetSocket> asyncSocket) {
+                                    NetSocket clientSocket = asyncSocket.result();
+                                    Pump.createPump(clientSocket, socket).start();
+                                    Pump.createPump(socket, clientSocket).start();
                                 }
-                            } catch (MalformedURLException e) {
-                                LOG.warn("Failed to parse URL: " + urlString + ". " + e, e);
-                            } catch (URISyntaxException e) {
-                                LOG.warn("Failed to parse URI: " + urlString + ". " + e, e);
-                            }
+                            };
+                            client = createClient(socket, uri, handler);
+                        } catch (MalformedURLException e) {
+                            LOG.warn("Failed to parse URL: " + uri + ". " + e, e);
                         }
                     }
                 }
@@ -0,0 +1,147 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ */
+public class CallDetailRecorderTest {
+
+    @Test
+    public void testAggregatesPerRuleAndBackend() throws Exception {
+        CallDetailRecorder recorder = new CallDetailRecorder(16, 100);
+        long start = System.nanoTime();
+        recorder.record("/foo", "http://host1:8080/foo", start, 200, null);
+        recorder.record("/foo", "http://host2:8080/foo", start, 200, null);
+        recorder.record("/bar", "http://host1:8080/bar", start, 502, "Connection refused");
+        recorder.record(null, null, start, 404, null);
+
+        // nothing is aggregated until the buffer is drained
+        assertEquals(0, recorder.getCount());
+        assertEquals(4, recorder.drain());
+
+        assertEquals(4, recorder.getCount());
+        assertEquals(1, recorder.getErrors());
+        assertNotNull(recorder.getLastCallDate());
+        assertTrue(recorder.getLastError().endsWith("Connection refused"));
+
+        Map<String, Histogram> rules = recorder.getRuleCallTimeMicros();
+        assertEquals(2, rules.size());
+        assertEquals(2, rules.get("/foo").getCount());
+        assertEquals(1, rules.get("/bar").getCount());
+
+        Map<String, Histogram> backends = recorder.getBackendCallTimeMicros();
+        assertEquals(3, backends.size());
+        assertEquals(1, backends.get("http://host1:8080/foo").getCount());
+
+        recorder.resetStatistics();
+        assertEquals(0, recorder.getCount());
+        assertTrue(recorder.getRuleCallTimeMicros().isEmpty());
+    }
+
+    @Test
+    public void testKeepsTheMostRecentlyCalledBackends() throws Exception {
+        CallDetailRecorder recorder = new CallDetailRecorder(16, 100, 2);
+        long start = System.nanoTime();
+        recorder.record("/foo", "http://host1:8080/foo", start, 200, null);
+        recorder.record("/foo", "http://host2:8080/foo", start, 200, null);
+        recorder.record("/foo", "http://host1:8080/foo", start, 200, null);
+        recorder.record("/foo", "http://host3:8080/foo", start, 200, null);
+        recorder.drain();
+
+        Map<String, Histogram> backends = recorder.getBackendCallTimeMicros();
+        assertEquals(2, backends.size());
+        assertEquals(2, backends.get("http://host1:8080/foo").getCount());
+        assertEquals(1, backends.get("http://host3:8080/foo").getCount());
+        assertEquals(4, recorder.getCount());
+        assertEquals(4, recorder.getRuleCallTimeMicros().get("/foo").getCount());
+    }
+
+    @Test
+    public void testRetainsOnlyTheGivenBackends() throws Exception {
+        CallDetailRecorder recorder = new CallDetailRecorder(16, 100);
+        long start = System.nanoTime();
+        recorder.record("/foo", "http://host1:8080/foo", start, 200, null);
+        recorder.record("/foo", "http://host2:8080/foo", start, 200, null);
+        recorder.drain();
+
+        recorder.retainBackends(Collections.singleton("http://host2:8080/foo"));
+        Map<String, Histogram> backends = recorder.getBackendCallTimeMicros();
+        assertEquals(1, backends.size());
+        assertEquals(1, backends.get("http://host2:8080/foo").getCount());
+
+        // a backend which comes back starts with new statistics
+        recorder.record("/foo", "http://host1:8080/foo", start, 200, null);
+        recorder.drain();
+        assertEquals(1, recorder.getBackendCallTimeMicros().get("http://host1:8080/foo").getCount());
+
+        recorder.retainBackends(Collections.<String>emptySet());
+        assertTrue(recorder.getBackendCallTimeMicros().isEmpty());
+        assertEquals(3, recorder.getCount());
+    }
+
+    @Test
+    public void testDropsCallsWhenFull() throws Exception {
+        CallDetailRecorder recorder = new CallDetailRecorder(5, 100);
+        assertEquals(8, recorder.getCapacity());
+        long start = System.nanoTime();
+        for (int i = 0; i < 8; i++) {
+            assertTrue(recorder.record("/foo", null, start, 200, null));
+        }
+        assertFalse(recorder.record("/foo", null, start, 200, null));
+        assertEquals(1, recorder.getDropped());
+
+        // once drained the slots can be reused
+        assertEquals(8, recorder.drain());
+        assertTrue(recorder.record("/foo", null, start, 200, null));
+        assertEquals(1, recorder.drain());
+        assertEquals(9, recorder.getCount());
+    }
+
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        final CallDetailRecorder recorder = new CallDetailRecorder(1024, 1);
+        recorder.start();
+        final int threads = 4;
+        final int calls = 10000;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread("producer " + t) {
+                @Override
+                public void run() {
+                    for (int i = 0; i < calls; i++) {
+                        recorder.record("/foo", null, System.nanoTime(), 200, null);
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        done.await();
+        recorder.stop();
+        assertEquals(threads * calls, recorder.getCount() + recorder.getDropped());
+        assertEquals(recorder.getCount(), recorder.getRuleCallTimeMicros().get("/foo").getCount());
+    }
+}
@@ -228,6 +228,11 @@ public class ExtendedBurnIn {
                 return mappedServices;
             }
 
+            @Override
+            public HttpMappingRuleIndex getMappingRuleIndex() {
+                return new HttpMappingRuleIndex(mappedServices);
+            }
+
             @Override
             public boolean isEnableIndex() {
                 return true;
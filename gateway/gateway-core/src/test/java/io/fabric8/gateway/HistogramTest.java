@@ -0,0 +1,70 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ */
+public class HistogramTest {
+
+    @Test
+    public void testPercentiles() throws Exception {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        assertEquals("count", 1000, histogram.getCount());
+        assertEquals("max", 1000, histogram.getMax());
+        assertEquals("mean", 500.5, histogram.getMean(), 0.001);
+        assertWithinError("p50", 500, histogram.getValueAtPercentile(50));
+        assertWithinError("p99", 990, histogram.getValueAtPercentile(99));
+        assertEquals("p100", 1000, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testBucketsKeepValuesWithinError() throws Exception {
+        for (long value = 0; value < 1000000; value += 7) {
+            assertWithinError("value", value, Histogram.bucketValue(Histogram.bucketIndex(value)));
+        }
+        assertWithinError("value", Long.MAX_VALUE, Histogram.bucketValue(Histogram.bucketIndex(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void testMergeAndReset() throws Exception {
+        Histogram first = new Histogram();
+        Histogram second = new Histogram();
+        first.record(10);
+        second.record(20);
+        second.record(-5);
+        first.add(second);
+        assertEquals("count", 3, first.getCount());
+        assertEquals("total", 30, first.getTotal());
+        assertEquals("max", 20, first.getMax());
+
+        first.reset();
+        assertEquals("count", 0, first.getCount());
+        assertEquals("p50", 0, first.getValueAtPercentile(50));
+    }
+
+    protected void assertWithinError(String message, long expected, long actual) {
+        long error = Math.max(1, expected / 16);
+        assertTrue(message + " expected " + expected + " but was " + actual, Math.abs(expected - actual) <= error);
+    }
+}
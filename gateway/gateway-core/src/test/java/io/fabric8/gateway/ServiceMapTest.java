@@ -0,0 +1,169 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway;
+
+import io.fabric8.gateway.loadbalancer.ClientRequestFacade;
+import io.fabric8.gateway.loadbalancer.LeastConnectionsLoadBalancer;
+import io.fabric8.gateway.loadbalancer.StickyLoadBalancer;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ */
+public class ServiceMapTest {
+
+    protected static final String[] STOMP = {"stomp"};
+    protected static final String[] OPENWIRE = {"tcp", "ssl"};
+
+    protected ServiceMap serviceMap = new ServiceMap();
+
+    @Test
+    public void testSnapshotIndexesServicesByScheme() throws Exception {
+        ServiceDTO broker1 = createService("broker1", "stomp://localhost:61613", "tcp://localhost:61616");
+        ServiceDTO broker2 = createService("broker2", "mqtt://localhost:1883", "ssl://localhost:61617");
+        serviceMap.serviceUpdated("broker", broker1);
+        serviceMap.serviceUpdated("broker", broker2);
+
+        ServiceSnapshot snapshot = serviceMap.getSnapshot("broker");
+        assertEquals("services", Arrays.<ServiceDetails>asList(broker1, broker2), snapshot.getServices());
+        assertSame("Should reuse the snapshot until the services change", snapshot, serviceMap.getSnapshot("broker"));
+
+        ServiceSnapshot.Endpoints stomp = snapshot.getEndpoints(STOMP);
+        assertEquals("stomp services", Arrays.<ServiceDetails>asList(broker1), stomp.getServices());
+        assertEquals("stomp endpoint", "localhost", stomp.getEndpoint(broker1).getHost());
+        assertEquals("stomp endpoint", 61613, stomp.getEndpoint(broker1).getPort());
+        assertNull("broker2 has no stomp endpoint", stomp.getEndpoint(broker2));
+        assertSame("Should cache the endpoints of the schemes", stomp, snapshot.getEndpoints(STOMP));
+
+        ServiceSnapshot.Endpoints openwire = snapshot.getEndpoints(OPENWIRE);
+        assertEquals("openwire services", Arrays.<ServiceDetails>asList(broker1, broker2), openwire.getServices());
+        assertEquals("openwire endpoint", 61617, openwire.getEndpoint(broker2).getPort());
+    }
+
+    @Test
+    public void testSnapshotRebuiltWhenServicesChange() throws Exception {
+        ServiceDTO broker1 = createService("broker1", "stomp://localhost:61613");
+        serviceMap.serviceUpdated("broker", broker1);
+        ServiceSnapshot snapshot = serviceMap.getSnapshot("broker");
+
+        ServiceDTO broker2 = createService("broker2", "stomp://localhost:61614");
+        serviceMap.serviceUpdated("broker", broker2);
+        assertTrue("Old snapshot should be unchanged", snapshot.getServices().size() == 1);
+        assertEquals("services", 2, serviceMap.getServices("broker").size());
+
+        serviceMap.serviceRemoved("broker", createService("broker1"));
+        serviceMap.serviceRemoved("broker", createService("broker2"));
+        assertTrue("Should have no services", serviceMap.getSnapshot("broker").isEmpty());
+        assertTrue("Should have no paths", serviceMap.getPaths().isEmpty());
+    }
+
+    @Test
+    public void testReloadedServiceKeepsStickyClients() throws Exception {
+        final StickyLoadBalancer loadBalancer = new StickyLoadBalancer();
+        final List<ServiceDetails> removed = new ArrayList<ServiceDetails>();
+        serviceMap.addListener(new ServiceMapListener() {
+            @Override
+            public void serviceRemoved(String path, ServiceDetails service) {
+                removed.add(service);
+                loadBalancer.removeService(service);
+            }
+        });
+        ClientRequestFacade client = createClient("client1");
+        serviceMap.serviceUpdated("broker", createService("broker1", "stomp://localhost:61613"));
+        serviceMap.serviceUpdated("broker", createService("broker2", "stomp://localhost:61614"));
+        ServiceDetails first = loadBalancer.choose(serviceMap.getServices("broker"), client);
+
+        // re-reading the services from ZooKeeper creates new instances with the same ids and urls
+        ServiceDTO reloaded = createService(first.getId(), first.getServices().get(0));
+        serviceMap.serviceUpdated("broker", reloaded);
+        serviceMap.serviceUpdated("broker", createService(first.getId().equals("broker1") ? "broker2" : "broker1",
+                first.getId().equals("broker1") ? "stomp://localhost:61614" : "stomp://localhost:61613"));
+        assertTrue("Should not remove reloaded services but removed: " + removed, removed.isEmpty());
+        assertSame("Should stay bound to the reloaded service", reloaded, loadBalancer.choose(serviceMap.getServices("broker"), client));
+        assertEquals("misses", 1, loadBalancer.getRequestCache().getMisses());
+
+        // a service whose urls changed refers to another backend
+        serviceMap.serviceUpdated("broker", createService(first.getId(), "stomp://localhost:61615"));
+        assertEquals("removed", Arrays.<ServiceDetails>asList(reloaded), removed);
+        assertEquals("bound clients", 0, loadBalancer.getRequestCache().size());
+
+        serviceMap.serviceRemoved("broker", createService(first.getId()));
+        assertEquals("removed", 2, removed.size());
+    }
+
+    @Test
+    public void testSameIdOnAnotherPathIsAnotherService() throws Exception {
+        final StickyLoadBalancer stickyLoadBalancer = new StickyLoadBalancer();
+        final LeastConnectionsLoadBalancer feedbackLoadBalancer = new LeastConnectionsLoadBalancer();
+        serviceMap.addListener(new ServiceMapListener() {
+            @Override
+            public void serviceRemoved(String path, ServiceDetails service) {
+                stickyLoadBalancer.removeService(service);
+                feedbackLoadBalancer.removeService(service);
+            }
+        });
+        ServiceDTO foo = createService("broker1", "stomp://foo:61613");
+        ServiceDTO bar = createService("broker1", "stomp://bar:61613");
+        serviceMap.serviceUpdated("foo", foo);
+        serviceMap.serviceUpdated("bar", bar);
+
+        ClientRequestFacade client1 = createClient("client1");
+        assertSame(foo, stickyLoadBalancer.choose(serviceMap.getServices("foo"), client1));
+        assertSame(bar, stickyLoadBalancer.choose(serviceMap.getServices("bar"), createClient("client2")));
+        feedbackLoadBalancer.requestStarted(foo);
+        feedbackLoadBalancer.requestStarted(bar);
+        assertEquals("backend statistics", 2, feedbackLoadBalancer.getBackendStatistics().size());
+
+        serviceMap.serviceRemoved("bar", createService("broker1"));
+        assertEquals("bound clients", 1, stickyLoadBalancer.getRequestCache().size());
+        assertSame(foo, stickyLoadBalancer.choose(serviceMap.getServices("foo"), client1));
+        assertEquals("backend statistics", 1, feedbackLoadBalancer.getBackendStatistics().size());
+        assertEquals("outstanding", 1, feedbackLoadBalancer.getBackendStatistics().get(String.valueOf(foo.getLoadBalancerKey())).getOutstanding());
+    }
+
+    @Test
+    public void testUnknownPathHasEmptySnapshot() throws Exception {
+        assertSame(ServiceSnapshot.EMPTY, serviceMap.getSnapshot("unknown"));
+        assertTrue("Should not create paths on lookup", serviceMap.getPaths().isEmpty());
+    }
+
+    protected ClientRequestFacade createClient(final String key) {
+        return new ClientRequestFacade() {
+            @Override
+            public String getClientRequestKey() {
+                return key;
+            }
+        };
+    }
+
+    protected ServiceDTO createService(String id, String... urls) {
+        ServiceDTO answer = new ServiceDTO();
+        answer.setId(id);
+        answer.setContainer("testing");
+        answer.setVersion("1.0");
+        List<String> services = Arrays.asList(urls);
+        answer.setServices(services);
+        return answer;
+    }
+}
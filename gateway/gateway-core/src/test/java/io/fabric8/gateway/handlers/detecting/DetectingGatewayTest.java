@@ -264,6 +264,8 @@ public class DetectingGatewayTest {
 
         assertEquals(1, gateway.getSuccessfulConnectionAttempts());
         assertEquals(1, gateway.getConnectedClients().length);
+        assertEquals(1, gateway.getSslHandshakes());
+        assertEquals(0, gateway.getSslFailedHandshakes());
 
         assertConnectedToBroker(0);
         Thread.sleep(6000);
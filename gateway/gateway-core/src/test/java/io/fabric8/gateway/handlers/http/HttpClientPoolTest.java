@@ -0,0 +1,240 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.handlers.http;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.vertx.java.core.Context;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.http.HttpClient;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the {@link HttpClientPool} against stub vert.x clients which record how they are configured and closed
+ */
+public class HttpClientPoolTest {
+
+    protected List<StubClient> createdClients = new ArrayList<StubClient>();
+    protected List<Handler<Long>> timers = new ArrayList<Handler<Long>>();
+    protected List<Long> cancelledTimers = new ArrayList<Long>();
+    protected List<Handler<Void>> contextTasks = new ArrayList<Handler<Void>>();
+    protected Context context;
+    protected HttpClientPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        pool = new HttpClientPool(createVertx());
+    }
+
+    @Test
+    public void testAcquireAndRelease() throws Exception {
+        HttpClientPool.Lease first = pool.acquire(new URL("http://localhost:8181/foo"));
+        HttpClientPool.Lease second = pool.acquire(new URL("http://localhost:8181/bar"));
+        assertSame("Should share the client of a host and port", first.getClient(), second.getClient());
+        assertEquals("in use", 2, pool.getInUseCount());
+        assertEquals("pooled", 1, pool.getPooledClientCount());
+        assertEquals("idle", 0, pool.getIdleCount());
+
+        assertTrue(first.release());
+        assertFalse("Should only release once", first.release());
+        assertEquals("in use", 1, pool.getInUseCount());
+        assertEquals("idle", 0, pool.getIdleCount());
+        assertTrue(second.release());
+        assertEquals("in use", 0, pool.getInUseCount());
+        assertEquals("idle", 1, pool.getIdleCount());
+
+        HttpClientPool.Lease other = pool.acquire(new URL("http://localhost:8182/foo"));
+        assertNotSame(first.getClient(), other.getClient());
+        HttpClientPool.Lease defaultPort = pool.acquire(new URL("http://localhost/foo"));
+        assertSame("Should use the default port", defaultPort.getClient(), pool.acquire(new URL("http://localhost:80/")).getClient());
+        assertEquals("pooled", 3, pool.getPooledClientCount());
+        assertEquals("created", 3, pool.getClientsCreated());
+        assertEquals("requests", 5, pool.getRequestCount());
+        assertEquals("localhost:80", createdClients.get(2).host + ":" + createdClients.get(2).port);
+    }
+
+    @Test
+    public void testClientsAreConfigured() throws Exception {
+        pool.setMaxConnectionsPerHost(5);
+        pool.setConnectTimeout(1234);
+        pool.setPipelining(true);
+        pool.acquire(new URL("http://localhost:8181/foo"));
+
+        StubClient client = createdClients.get(0);
+        assertEquals("maxPoolSize", 5, client.settings.get("setMaxPoolSize"));
+        assertEquals("connectTimeout", 1234, client.settings.get("setConnectTimeout"));
+        assertEquals("keepAlive", true, client.settings.get("setKeepAlive"));
+        assertEquals("pipelining", true, client.settings.get("setPipelining"));
+
+        // pipelining needs keep alive
+        HttpClientPool other = new HttpClientPool(createVertx());
+        other.setKeepAlive(false);
+        other.setPipelining(true);
+        other.acquire(new URL("http://localhost:8181/foo"));
+        assertEquals("pipelining", false, createdClients.get(1).settings.get("setPipelining"));
+    }
+
+    @Test
+    public void testIdleClientsAreEvicted() throws Exception {
+        pool.setIdleTimeout(1);
+        HttpClientPool.Lease idle = pool.acquire(new URL("http://localhost:8181/foo"));
+        idle.release();
+        HttpClientPool.Lease busy = pool.acquire(new URL("http://localhost:8182/foo"));
+        assertEquals("eviction timers", 1, timers.size());
+
+        Thread.sleep(20);
+        timers.get(0).handle(0L);
+
+        assertTrue("Should have closed the idle client", createdClients.get(0).closed);
+        assertFalse("Should not close a client in use", createdClients.get(1).closed);
+        assertEquals("evicted", 1, pool.getClientsEvicted());
+        assertEquals("pooled", 1, pool.getPooledClientCount());
+
+        // a new client is created the next time the host is used
+        assertNotSame(idle.getClient(), pool.acquire(new URL("http://localhost:8181/foo")).getClient());
+        assertEquals("created", 3, pool.getClientsCreated());
+        busy.release();
+    }
+
+    @Test
+    public void testEvictionCanBeDisabled() throws Exception {
+        pool.setIdleTimeout(0);
+        pool.acquire(new URL("http://localhost:8181/foo")).release();
+        assertEquals("eviction timers", 0, timers.size());
+    }
+
+    @Test
+    public void testTimeToFirstByteStatistics() throws Exception {
+        HttpClientPool.Lease answered = pool.acquire(new URL("http://localhost:8181/foo"));
+        HttpClientPool.Lease failed = pool.acquire(new URL("http://localhost:8181/foo"));
+        Thread.sleep(5);
+        long timeToFirstByte = answered.responseReceived();
+        assertTrue(timeToFirstByte > 0);
+        // only the first response of a lease is counted
+        answered.responseReceived();
+        answered.release();
+        failed.release();
+
+        assertEquals("requests", 2, pool.getRequestCount());
+        assertEquals("responses", 1, pool.getResponseCount());
+        assertEquals("average", timeToFirstByte, pool.getAverageTimeToFirstByteNanos());
+        assertEquals("max", timeToFirstByte, pool.getMaxTimeToFirstByteNanos());
+
+        pool.resetStatistics();
+        assertEquals("requests", 0, pool.getRequestCount());
+        assertEquals("responses", 0, pool.getResponseCount());
+        assertEquals("average", 0, pool.getAverageTimeToFirstByteNanos());
+        assertEquals("max", 0, pool.getMaxTimeToFirstByteNanos());
+    }
+
+    @Test
+    public void testCloseRunsOnTheEventLoopOfTheClients() throws Exception {
+        context = (Context) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{Context.class}, new InvocationHandler() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("runOnContext")) {
+                    contextTasks.add((Handler<Void>) args[0]);
+                }
+                return null;
+            }
+        });
+        pool = new HttpClientPool(createVertx());
+        pool.acquire(new URL("http://localhost:8181/foo")).release();
+
+        pool.close();
+        assertEquals("tasks", 1, contextTasks.size());
+        assertFalse("Should not close the client outside its event loop", createdClients.get(0).closed);
+
+        contextTasks.get(0).handle(null);
+        assertTrue(createdClients.get(0).closed);
+        assertEquals("cancelled timers", 1, cancelledTimers.size());
+        assertEquals("pooled", 0, pool.getPooledClientCount());
+
+        try {
+            pool.acquire(new URL("http://localhost:8181/foo"));
+            fail("Should not lease clients once closed");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    protected Vertx createVertx() {
+        return (Vertx) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{Vertx.class}, new InvocationHandler() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if (name.equals("createHttpClient")) {
+                    StubClient client = new StubClient();
+                    createdClients.add(client);
+                    return client.proxy;
+                } else if (name.equals("setPeriodic")) {
+                    timers.add((Handler<Long>) args[1]);
+                    return (long) timers.size();
+                } else if (name.equals("cancelTimer")) {
+                    cancelledTimers.add((Long) args[0]);
+                    return true;
+                } else if (name.equals("currentContext")) {
+                    return context;
+                }
+                throw new UnsupportedOperationException(name);
+            }
+        });
+    }
+
+    protected static class StubClient implements InvocationHandler {
+        final HttpClient proxy = (HttpClient) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{HttpClient.class}, this);
+        final Map<String, Object> settings = new HashMap<String, Object>();
+        String host;
+        int port;
+        boolean closed;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("setHost")) {
+                host = (String) args[0];
+            } else if (name.equals("setPort")) {
+                port = (Integer) args[0];
+            } else if (name.equals("close")) {
+                closed = true;
+                return null;
+            } else if (name.startsWith("set")) {
+                settings.put(name, args[0]);
+            } else {
+                throw new UnsupportedOperationException(name);
+            }
+            return proxy;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.handlers.http;
+
+import io.fabric8.gateway.loadbalancer.RoundRobinLoadBalancer;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ */
+public class HttpMappingRuleIndexTest {
+
+    protected Map<String, MappedServices> mappedServices = new HashMap<String, MappedServices>();
+
+    @Test
+    public void testLongestPrefixMatch() throws Exception {
+        addMapping("/foo/", "http://localhost:8181/foo");
+        addMapping("/foo/bar/", "http://localhost:8182/bar");
+        addMapping("/cheese", "http://localhost:8183/cheese");
+        HttpMappingRuleIndex index = new HttpMappingRuleIndex(mappedServices);
+
+        assertRoute(index, "/foo/bar/", "/foo/bar/", null);
+        assertRoute(index, "/foo/bar", "/foo/bar/", null);
+        assertRoute(index, "/foo/bar/beer/1", "/foo/bar/", "beer/1");
+        assertRoute(index, "/foo/bar?x=y", "/foo/bar/", "?x=y");
+        assertRoute(index, "/foo/barbaz", "/foo/", "barbaz");
+        assertRoute(index, "/foo", "/foo/", null);
+        assertRoute(index, "/cheese/edam", "/cheese", "edam");
+
+        assertNull(index.findRoute("/"));
+        assertNull(index.findRoute("/food"));
+        assertNull(index.findRoute("/bar/foo"));
+    }
+
+    @Test
+    public void testEmptySegments() throws Exception {
+        addMapping("/foo/", "http://localhost:8181/foo");
+        addMapping("/foo/bar/", "http://localhost:8182/bar");
+        HttpMappingRuleIndex index = new HttpMappingRuleIndex(mappedServices);
+
+        assertRoute(index, "//foo/bar/beer", "/foo/bar/", "beer");
+        assertRoute(index, "/foo//bar/beer", "/foo/bar/", "beer");
+        assertRoute(index, "/foo//bar", "/foo/bar/", null);
+        assertRoute(index, "//foo//bar//beer", "/foo/bar/", "/beer");
+        assertRoute(index, "//foo/bar?x=/y", "/foo/bar/", "?x=/y");
+        assertRoute(index, "//foo/cheese", "/foo/", "cheese");
+        assertRoute(index, "/foo//", "/foo/", "/");
+
+        HttpMappingRuleIndex.Route route = index.findRoute("//foo//bar/beer").getParent();
+        assertEquals("/foo/", route.getPath());
+        assertEquals("/bar/beer", route.remaining("//foo//bar/beer"));
+    }
+
+    @Test
+    public void testFallbackToParentRoutes() throws Exception {
+        addMapping("/", "http://localhost:8180/");
+        addMapping("/foo/", "http://localhost:8181/foo");
+        addMapping("/foo/bar/", "http://localhost:8182/bar");
+        HttpMappingRuleIndex index = new HttpMappingRuleIndex(mappedServices);
+
+        HttpMappingRuleIndex.Route route = index.findRoute("/foo/bar/beer");
+        assertEquals("/foo/bar/", route.getPath());
+        route = route.getParent();
+        assertEquals("/foo/", route.getPath());
+        assertEquals("bar/beer", route.remaining("/foo/bar/beer"));
+        route = route.getParent();
+        assertEquals("/", route.getPath());
+        assertEquals("foo/bar/beer", route.remaining("/foo/bar/beer"));
+        assertNull(route.getParent());
+
+        assertRoute(index, "/other", "/", "other");
+    }
+
+    @Test
+    public void testEmptyIndex() throws Exception {
+        assertNull(HttpMappingRuleIndex.EMPTY.findRoute("/foo"));
+        assertNull(HttpMappingRuleIndex.EMPTY.findRoute(""));
+    }
+
+    protected void addMapping(String path, String service) {
+        mappedServices.put(path, new MappedServices(service, null, new RoundRobinLoadBalancer(), false));
+    }
+
+    protected void assertRoute(HttpMappingRuleIndex index, String uri, String expectedPath, String expectedRemaining) {
+        HttpMappingRuleIndex.Route route = index.findRoute(uri);
+        assertEquals("Route for " + uri, expectedPath, route != null ? route.getPath() : null);
+        assertEquals("Remaining for " + uri, expectedRemaining, route.remaining(uri));
+    }
+}
@@ -103,6 +103,72 @@ public class LoadBalancerTest {
 
     }
 
+    @Test
+    public void testStickyLoadBalancerRebindsWhenServiceGoesAway() throws Exception {
+        StickyLoadBalancer loadBalancer = new StickyLoadBalancer();
+        clientRequestKey = "movingClient";
+        String first = loadBalancer.choose(services, clientRequestFacade);
+        assertEquals("Should stick to the same service", first, loadBalancer.choose(services, clientRequestFacade));
+
+        List<String> remaining = new ArrayList<String>(services);
+        remaining.remove(first);
+        String second = loadBalancer.choose(remaining, clientRequestFacade);
+        assertTrue("Should have chosen an available service but was: " + second, remaining.contains(second));
+        assertEquals("Should stick to the new service", second, loadBalancer.choose(services, clientRequestFacade));
+
+        loadBalancer.removeService(second);
+        assertEquals("bound clients", 0, loadBalancer.getRequestCache().size());
+    }
+
+    @Test
+    public void testStickyLoadBalancerEvictsWhenFull() throws Exception {
+        int maximumCacheSize = 10;
+        StickyLoadBalancer loadBalancer = new StickyLoadBalancer(maximumCacheSize);
+        for (int i = 0; i < maximumCacheSize * 5; i++) {
+            clientRequestKey = "client:" + i;
+            assertNotNull(loadBalancer.choose(services, clientRequestFacade));
+        }
+        StickySessionTable<Object> cache = loadBalancer.getRequestCache();
+        assertEquals("cache size", maximumCacheSize, cache.size());
+        assertEquals("evictions", maximumCacheSize * 4, cache.getEvictions());
+    }
+
+    @Test
+    public void testLeastConnectionsLoadBalancer() throws Exception {
+        LeastConnectionsLoadBalancer loadBalancer = new LeastConnectionsLoadBalancer();
+        assertLoadBalancerWorksOnEmptyOrSingletonServices(loadBalancer);
+
+        // without completing any requests each service should get an equal share
+        Set<String> chosen = new HashSet<String>();
+        for (int i = 0; i < services.size(); i++) {
+            String service = loadBalancer.choose(services, clientRequestFacade);
+            loadBalancer.requestStarted(service);
+            chosen.add(service);
+        }
+        assertEquals("Should have used each service once: " + chosen, services.size(), chosen.size());
+
+        String idle = services.get(2);
+        loadBalancer.requestCompleted(idle, true);
+        assertEquals("Should choose the service with fewest connections", idle, loadBalancer.choose(services, clientRequestFacade));
+        assertEquals("outstanding", 0, loadBalancer.getBackendStatistics().get(idle).getOutstanding());
+    }
+
+    @Test
+    public void testPeakEwmaLoadBalancerAvoidsSlowService() throws Exception {
+        PeakEwmaLoadBalancer loadBalancer = new PeakEwmaLoadBalancer();
+        assertLoadBalancerWorksOnEmptyOrSingletonServices(loadBalancer);
+
+        String slow = services.get(0);
+        for (String service : services) {
+            loadBalancer.requestStarted(service);
+            loadBalancer.responseReceived(service, service.equals(slow) ? 500000000L : 1000000L);
+            loadBalancer.requestCompleted(service, true);
+        }
+        List<String> results = performRequests(loadBalancer);
+        assertTrue("Should not have chosen the slow service: " + results, !results.contains(slow));
+        assertEquals("requests", 1, loadBalancer.getBackendStatistics().get(slow).getRequests());
+    }
+
     protected List<String> performRequests(LoadBalancer loadBalancer) {
         List<String> answer = new ArrayList<String>();
         for (int i = 0; i < requestCount; i++) {
@@ -20,7 +20,9 @@ import io.fabric8.zookeeper.internal.SimplePathTemplate;
 import io.fabric8.gateway.ServiceDetails;
 import io.fabric8.gateway.handlers.http.HttpMappingRule;
 import io.fabric8.gateway.handlers.http.MappedServices;
+import io.fabric8.gateway.loadbalancer.FeedbackLoadBalancer;
 import io.fabric8.gateway.loadbalancer.LoadBalancer;
+import io.fabric8.gateway.loadbalancer.StickyLoadBalancer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -141,6 +143,9 @@ public class HttpMappingRuleBase implements HttpMappingRule {
                         if (serviceUrls.isEmpty()) {
                             mappingRules.remove(fullPath);
                         }
+                        if (!isMapped(service)) {
+                            serviceRemoved(service);
+                        }
                     }
                 } else {
                     MappedServices mappedServices = new MappedServices(service, serviceDetails, loadBalancer, reverseHeaders);
@@ -154,6 +159,29 @@ public class HttpMappingRuleBase implements HttpMappingRule {
         fireMappingRulesChanged();
     }
 
+    /**
+     * Returns true if any of the mapping rules still use the given service
+     */
+    protected boolean isMapped(String service) {
+        for (MappedServices mappedServices : mappingRules.values()) {
+            if (mappedServices.getServiceUrls().contains(service)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Lets the load balancer forget about a service which is no longer mapped
+     */
+    protected void serviceRemoved(String service) {
+        if (loadBalancer instanceof StickyLoadBalancer) {
+            ((StickyLoadBalancer) loadBalancer).removeService(service);
+        } else if (loadBalancer instanceof FeedbackLoadBalancer) {
+            ((FeedbackLoadBalancer) loadBalancer).removeService(service);
+        }
+    }
+
     @Override
     public void addChangeListener(Runnable listener) {
         changeListeners.add(listener);
@@ -118,7 +118,10 @@ public class FabricDetectingGateway extends AbstractComponent implements FabricD
             options = {
                     @PropertyOption(name = LoadBalancers.RANDOM_LOAD_BALANCER, value = "Random"),
                     @PropertyOption(name = LoadBalancers.ROUND_ROBIN_LOAD_BALANCER, value = "Round Robin"),
-                    @PropertyOption(name = LoadBalancers.STICKY_LOAD_BALANCER, value = "Sticky")
+                    @PropertyOption(name = LoadBalancers.STICKY_LOAD_BALANCER, value = "Sticky"),
+                    @PropertyOption(name = LoadBalancers.LEAST_CONNECTIONS_LOAD_BALANCER, value = "Least Connections"),
+                    @PropertyOption(name = LoadBalancers.PEAK_EWMA_LOAD_BALANCER, value = "Peak EWMA Latency"),
+                    @PropertyOption(name = LoadBalancers.POWER_OF_TWO_CHOICES_LOAD_BALANCER, value = "Peak EWMA Latency (Power of Two Choices)")
             },
             label = "Load Balancer", description = "The kind of load balancing strategy to use when multiple endpoints can service the client conneciton")
     private String loadBalancerType;
@@ -127,6 +130,10 @@ public class FabricDetectingGateway extends AbstractComponent implements FabricD
             label = "Sticky Load Balancer Cache Size", description = "The number of unique client keys to cache for the sticky load balancer (using an LRU caching algorithm)")
     private int stickyLoadBalancerCacheSize = LoadBalancers.STICKY_LOAD_BALANCER_DEFAULT_CACHE_SIZE;
 
+    @Property(name = "stickyLoadBalancerTimeToLive", longValue = 0,
+            label = "Sticky Load Balancer Time To Live", description = "The number of milliseconds after which an unused client key expires from the sticky load balancer cache, or 0 to never expire them")
+    private long stickyLoadBalancerTimeToLive;
+
     @Property(name = "sslProtocol", value="TLS",
             label = "SSL Protocol", description = "Example: SSL, TLS, TLSv1, TLSv2 etc.")
     private String sslProtocol;
@@ -139,6 +146,14 @@ public class FabricDetectingGateway extends AbstractComponent implements FabricD
             label = "SSL Certificate Algorithm", description = "The encryption algorithm of the certificates")
     private String sslAlgorithm;
 
+    @Property(name = "sslSessionCacheSize", intValue = 20480,
+            label = "SSL Session Cache Size", description = "The number of SSL sessions cached so that returning clients can resume them with an abbreviated handshake; 0 means no limit")
+    private int sslSessionCacheSize = 20480;
+
+    @Property(name = "sslSessionTimeout", intValue = 86400,
+            label = "SSL Session Timeout", description = "The number of seconds a cached SSL session can be resumed for; 0 means no limit")
+    private int sslSessionTimeout = 86400;
+
     @Property(name = "trustStoreURL",
             label = "SSL Trust Store URL", description = "The trust store holds the public certificates of clients that will be trusted to SSL connect to the server.  If not set, the key store will be used.")
     private URL trustStoreURL;
@@ -257,6 +272,8 @@ public class FabricDetectingGateway extends AbstractComponent implements FabricD
             if( Strings.isNotBlank(disabledCypherSuites) ) {
                 sslConfig.setDisabledCypherSuites(disabledCypherSuites);
             }
+            sslConfig.setSessionCacheSize(sslSessionCacheSize);
+            sslConfig.setSessionTimeout(sslSessionTimeout);
             gateway.setSslConfig(sslConfig);
             protocols.add(new SslProtocol());
         }
@@ -266,7 +283,7 @@ public class FabricDetectingGateway extends AbstractComponent implements FabricD
         }
 
         VertxService vertxService = getVertxService();
-        LoadBalancer serviceLoadBalancer = LoadBalancers.createLoadBalancer(loadBalancerType, stickyLoadBalancerCacheSize);
+        LoadBalancer serviceLoadBalancer = LoadBalancers.createLoadBalancer(loadBalancerType, stickyLoadBalancerCacheSize, stickyLoadBalancerTimeToLive);
         gateway.setVertx(vertxService.getVertx());
         gateway.setPort(port);
         gateway.setServiceMap(serviceMap);
@@ -422,6 +439,22 @@ public class FabricDetectingGateway extends AbstractComponent implements FabricD
         this.sslStoreType = sslStoreType;
     }
 
+    public int getSslSessionCacheSize() {
+        return sslSessionCacheSize;
+    }
+
+    public void setSslSessionCacheSize(int sslSessionCacheSize) {
+        this.sslSessionCacheSize = sslSessionCacheSize;
+    }
+
+    public int getSslSessionTimeout() {
+        return sslSessionTimeout;
+    }
+
+    public void setSslSessionTimeout(int sslSessionTimeout) {
+        this.sslSessionTimeout = sslSessionTimeout;
+    }
+
     public void setTrustStorePassword(String trustStorePassword) {
         this.trustStorePassword = trustStorePassword;
     }
@@ -25,6 +25,7 @@ import io.fabric8.common.util.ShutdownTracker;
 
 import java.net.InetSocketAddress;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
@@ -32,6 +33,7 @@ import java.util.concurrent.CopyOnWriteArraySet;
 import javax.management.MBeanServer;
 
 import io.fabric8.gateway.CallDetailRecord;
+import io.fabric8.gateway.CallDetailRecorder;
 import io.fabric8.gateway.fabric.detecting.FabricDetectingGatewayService;
 
 import org.apache.curator.framework.CuratorFramework;
@@ -48,10 +50,12 @@ import org.apache.felix.scr.annotations.Service;
 
 import io.fabric8.gateway.fabric.support.vertx.VertxService;
 import io.fabric8.gateway.handlers.detecting.DetectingGatewayWebSocketHandler;
+import io.fabric8.gateway.handlers.http.HttpClientPool;
 import io.fabric8.gateway.handlers.http.HttpGateway;
 import io.fabric8.gateway.handlers.http.HttpGatewayHandler;
 import io.fabric8.gateway.handlers.http.HttpGatewayServer;
 import io.fabric8.gateway.handlers.http.HttpMappingRule;
+import io.fabric8.gateway.handlers.http.HttpMappingRuleIndex;
 import io.fabric8.gateway.handlers.http.MappedServices;
 
 import org.slf4j.Logger;
@@ -84,6 +88,27 @@ public final class FabricHTTPGateway extends AbstractComponent implements HttpGa
     @Property(name = "websocketGatewayPrefix", label = "Web Socket Path Prefix", description = "The prefix a websocket requests must have")
     private String websocketGatewayPrefix = "";
 
+    @Property(name = "keepAlive", boolValue = true, label = "Keep alive", description = "If enabled then connections to the backend services are kept alive and reused across requests")
+    private boolean keepAlive = true;
+
+    @Property(name = "pipelining", boolValue = false, label = "Pipelining", description = "If enabled then requests are pipelined on the backend connections. Only enable this if all backend services support HTTP pipelining")
+    private boolean pipelining = false;
+
+    @Property(name = "maxConnectionsPerHost", intValue = 20, label = "Max connections per host", description = "The maximum number of pooled connections to each backend host:port from each event loop")
+    private int maxConnectionsPerHost = 20;
+
+    @Property(name = "connectTimeout", intValue = 5000, label = "Connect timeout", description = "The timeout in milliseconds when connecting to a backend service")
+    private int connectTimeout = 5000;
+
+    @Property(name = "idleTimeout", longValue = 60000, label = "Idle timeout", description = "The number of milliseconds after which unused backend connections are closed")
+    private long idleTimeout = 60000;
+
+    @Property(name = "callDetailRecordBufferSize", intValue = CallDetailRecorder.DEFAULT_CAPACITY, label = "Call detail record buffer size", description = "The number of completed calls buffered for the background statistics aggregator. Calls are dropped from the statistics if the buffer is full")
+    private int callDetailRecordBufferSize = CallDetailRecorder.DEFAULT_CAPACITY;
+
+    @Property(name = "callDetailRecordMaxBackends", intValue = CallDetailRecorder.DEFAULT_MAX_BACKENDS, label = "Call detail record max backends", description = "The number of backend services whose call statistics are kept. The statistics of the least recently called backend are dropped beyond this")
+    private int callDetailRecordMaxBackends = CallDetailRecorder.DEFAULT_MAX_BACKENDS;
+
     @Reference
     private Configurer configurer;
 
@@ -100,9 +125,18 @@ public final class FabricHTTPGateway extends AbstractComponent implements HttpGa
     
     private HttpGatewayServer server;
     private HttpGatewayHandler handler;
+    private HttpClientPool clientPool;
+    private CallDetailRecorder callDetailRecorder;
     private DetectingGatewayWebSocketHandler websocketHandler = new DetectingGatewayWebSocketHandler();
 
     private Set<HttpMappingRule> mappingRuleConfigurations = new CopyOnWriteArraySet<HttpMappingRule>();
+    private volatile HttpMappingRuleIndex mappingRuleIndex = HttpMappingRuleIndex.EMPTY;
+    private final Runnable mappingRulesChangeListener = new Runnable() {
+        @Override
+        public void run() {
+            rebuildMappingRuleIndex();
+        }
+    };
 
     ShutdownTracker shutdownTracker = new ShutdownTracker();
     private FabricHTTPGatewayInfo fabricHTTPGatewayInfoMBean;
@@ -125,13 +159,28 @@ public final class FabricHTTPGateway extends AbstractComponent implements HttpGa
         deactivateInternal();
         deactivateComponent();
         unregisterHttpGatewayMBeans();
+        if (callDetailRecorder != null) {
+            callDetailRecorder.stop();
+            callDetailRecorder = null;
+        }
     }
 
     private void updateConfiguration(Map<String, ?> configuration) throws Exception {
         configurer.configure(configuration, this);
 
         Vertx vertx = getVertx();
-        handler = new HttpGatewayHandler(vertx, this);
+        clientPool = new HttpClientPool(vertx);
+        clientPool.setKeepAlive(keepAlive);
+        clientPool.setPipelining(pipelining);
+        clientPool.setMaxConnectionsPerHost(maxConnectionsPerHost);
+        clientPool.setConnectTimeout(connectTimeout);
+        clientPool.setIdleTimeout(idleTimeout);
+        if (callDetailRecorder == null) {
+            // lets keep the statistics when the configuration is modified
+            callDetailRecorder = new CallDetailRecorder(callDetailRecordBufferSize, CallDetailRecorder.DEFAULT_DRAIN_INTERVAL_MILLIS, callDetailRecordMaxBackends);
+            callDetailRecorder.start();
+        }
+        handler = new HttpGatewayHandler(vertx, this, clientPool, callDetailRecorder);
         websocketHandler.setPathPrefix(websocketGatewayPrefix);
         server = new HttpGatewayServer(vertx, handler, enableWebSocketGateway ? websocketHandler : null, port);
         server.init();
@@ -141,37 +190,67 @@ public final class FabricHTTPGateway extends AbstractComponent implements HttpGa
         if (server != null) {
             server.destroy();
         }
+        if (clientPool != null) {
+            clientPool.close();
+        }
     }
     
     @Override
     public void addCallDetailRecord(CallDetailRecord cdr) {
-    	fabricHTTPGatewayInfoMBean.setLastCallDate(cdr.getCallDate().toString());
-    	fabricHTTPGatewayInfoMBean.registerCall(cdr.getCallTimeNanos());
-    	if (cdr.getError()!=null) {
-    		fabricHTTPGatewayInfoMBean.setLastError(cdr.getError());
-    	}
+        CallDetailRecorder recorder = callDetailRecorder;
+        if (recorder != null) {
+            recorder.record(cdr);
+        }
     }
 
     @Override
     public void addMappingRuleConfiguration(HttpMappingRule mappingRuleConfiguration) {
         assertValid();
-        mappingRuleConfigurations.add(mappingRuleConfiguration);
+        if (mappingRuleConfigurations.add(mappingRuleConfiguration)) {
+            mappingRuleConfiguration.addChangeListener(mappingRulesChangeListener);
+        }
+        rebuildMappingRuleIndex();
     }
 
     @Override
     public void removeMappingRuleConfiguration(HttpMappingRule mappingRuleConfiguration) {
         assertValid();
-        mappingRuleConfigurations.remove(mappingRuleConfiguration);
+        if (mappingRuleConfigurations.remove(mappingRuleConfiguration)) {
+            mappingRuleConfiguration.removeChangeListener(mappingRulesChangeListener);
+        }
+        rebuildMappingRuleIndex();
     }
 
     @Override
     public Map<String, MappedServices> getMappedServices() {
+        return getMappingRuleIndex().getMappedServices();
+    }
+
+    @Override
+    public HttpMappingRuleIndex getMappingRuleIndex() {
         assertValid();
+        return mappingRuleIndex;
+    }
+
+    /**
+     * Rebuilds the index of the mapped services from the current mapping rules and swaps it in
+     */
+    private synchronized void rebuildMappingRuleIndex() {
         Map<String, MappedServices> answer = new HashMap<String, MappedServices>();
         for (HttpMappingRule mappingRuleConfiguration : mappingRuleConfigurations) {
             mappingRuleConfiguration.appendMappedServices(answer);
         }
-        return answer;
+        mappingRuleIndex = new HttpMappingRuleIndex(answer);
+
+        // drop the statistics of the backend services which are no longer mapped
+        CallDetailRecorder recorder = callDetailRecorder;
+        if (recorder != null) {
+            Set<String> serviceUrls = new HashSet<String>();
+            for (MappedServices mappedServices : answer.values()) {
+                serviceUrls.addAll(mappedServices.getServiceUrls());
+            }
+            recorder.retainBackends(serviceUrls);
+        }
     }
 
     @Override
@@ -206,6 +285,14 @@ public final class FabricHTTPGateway extends AbstractComponent implements HttpGa
         return null;
     }
 
+    HttpClientPool getClientPool() {
+        return clientPool;
+    }
+
+    CallDetailRecorder getCallDetailRecorder() {
+        return callDetailRecorder;
+    }
+
     int getPort() {
         return port;
     }
@@ -16,7 +16,23 @@
 package io.fabric8.gateway.fabric.http;
 
 import io.fabric8.common.util.ShutdownTracker;
+import io.fabric8.gateway.CallDetailRecorder;
+import io.fabric8.gateway.Histogram;
 import io.fabric8.gateway.fabric.jmx.FabricGatewayInfoMBean;
+import io.fabric8.gateway.handlers.http.HttpClientPool;
+import io.fabric8.gateway.handlers.http.MappedServices;
+import io.fabric8.gateway.loadbalancer.BackendStatistics;
+import io.fabric8.gateway.loadbalancer.FeedbackLoadBalancer;
+import io.fabric8.gateway.loadbalancer.LoadBalancer;
+import io.fabric8.gateway.loadbalancer.StickyLoadBalancer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.management.MBeanServer;
 import javax.management.MalformedObjectNameException;
@@ -34,10 +50,6 @@ public class FabricHTTPGatewayInfo implements FabricGatewayInfoMBean {
 
     private final FabricHTTPGateway fabricHTTPGateway;
     private ObjectName objectName;
-    private long numberOfInvocations = 0l;
-    private long averageCallTimeNanos = 0l;
-    private String lastError;
-    private String lastCallDate;
     
     public FabricHTTPGatewayInfo(FabricHTTPGateway fabricHTTPGateway) {
 		super();
@@ -86,45 +98,165 @@ public class FabricHTTPGatewayInfo implements FabricGatewayInfoMBean {
 
     @Override
 	public long getNumberOfInvocations() {
-		return numberOfInvocations;
+        CallDetailRecorder recorder = getFabricHTTPGateway().getCallDetailRecorder();
+        return recorder != null ? recorder.getCount() : 0;
 	}
-    
-    public void registerCall(long callTimeNanos) {
-    	averageCallTimeNanos = (averageCallTimeNanos * numberOfInvocations + callTimeNanos)/++numberOfInvocations;
-    }
-    
-    public void setLastError(String error) {
-    	lastError = error;
-    }
-    
+
     @Override
     public String getLastError() {
-    	return lastError;
-    }
-    
-    public void setLastCallDate(String callDate) {
-    	lastCallDate = callDate;
+        CallDetailRecorder recorder = getFabricHTTPGateway().getCallDetailRecorder();
+        return recorder != null ? recorder.getLastError() : null;
     }
-    
+
     @Override
     public String getLastCallDate() {
-    	if (lastCallDate!=null)
-    		return lastCallDate.toString();
-    	else
-    		return null;
+        CallDetailRecorder recorder = getFabricHTTPGateway().getCallDetailRecorder();
+        Date lastCallDate = recorder != null ? recorder.getLastCallDate() : null;
+        return lastCallDate != null ? lastCallDate.toString() : null;
     }
-    
+
     @Override 
     public long getAvarageCallTimeNanos() {
-    	return averageCallTimeNanos;
+        CallDetailRecorder recorder = getFabricHTTPGateway().getCallDetailRecorder();
+        return recorder != null ? recorder.getAverageCallTimeNanos() : 0;
+    }
+
+    @Override
+    public String getCallTimeMicros() {
+        CallDetailRecorder recorder = getFabricHTTPGateway().getCallDetailRecorder();
+        return recorder != null ? recorder.getCallTimeMicros().toString() : null;
+    }
+
+    @Override
+    public String[] getRuleCallTimeMicros() {
+        CallDetailRecorder recorder = getFabricHTTPGateway().getCallDetailRecorder();
+        return recorder != null ? toStrings(recorder.getRuleCallTimeMicros()) : new String[0];
+    }
+
+    @Override
+    public String[] getBackendCallTimeMicros() {
+        CallDetailRecorder recorder = getFabricHTTPGateway().getCallDetailRecorder();
+        return recorder != null ? toStrings(recorder.getBackendCallTimeMicros()) : new String[0];
+    }
+
+    @Override
+    public long getFailedInvocations() {
+        CallDetailRecorder recorder = getFabricHTTPGateway().getCallDetailRecorder();
+        return recorder != null ? recorder.getErrors() : 0;
+    }
+
+    @Override
+    public long getDroppedCallDetailRecords() {
+        CallDetailRecorder recorder = getFabricHTTPGateway().getCallDetailRecorder();
+        return recorder != null ? recorder.getDropped() : 0;
+    }
+
+    private static String[] toStrings(Map<String, Histogram> histograms) {
+        List<String> answer = new ArrayList<String>(histograms.size());
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            answer.add(entry.getKey() + " " + entry.getValue());
+        }
+        return answer.toArray(new String[answer.size()]);
     }
     
+    @Override
+    public int getPooledConnectionsInUse() {
+        HttpClientPool pool = getFabricHTTPGateway().getClientPool();
+        return pool != null ? pool.getInUseCount() : 0;
+    }
+
+    @Override
+    public int getPooledClientsIdle() {
+        HttpClientPool pool = getFabricHTTPGateway().getClientPool();
+        return pool != null ? pool.getIdleCount() : 0;
+    }
+
+    @Override
+    public int getPooledClients() {
+        HttpClientPool pool = getFabricHTTPGateway().getClientPool();
+        return pool != null ? pool.getPooledClientCount() : 0;
+    }
+
+    @Override
+    public long getPooledClientsCreated() {
+        HttpClientPool pool = getFabricHTTPGateway().getClientPool();
+        return pool != null ? pool.getClientsCreated() : 0;
+    }
+
+    @Override
+    public long getPooledClientsEvicted() {
+        HttpClientPool pool = getFabricHTTPGateway().getClientPool();
+        return pool != null ? pool.getClientsEvicted() : 0;
+    }
+
+    @Override
+    public long getAverageTimeToFirstByteNanos() {
+        HttpClientPool pool = getFabricHTTPGateway().getClientPool();
+        return pool != null ? pool.getAverageTimeToFirstByteNanos() : 0;
+    }
+
+    @Override
+    public long getMaxTimeToFirstByteNanos() {
+        HttpClientPool pool = getFabricHTTPGateway().getClientPool();
+        return pool != null ? pool.getMaxTimeToFirstByteNanos() : 0;
+    }
+
+    @Override
+    public String[] getBackendStatistics() {
+        List<String> answer = new ArrayList<String>();
+        Map<String, MappedServices> mappedServices = getFabricHTTPGateway().getMappedServices();
+        if (mappedServices != null) {
+            // rules may share a load balancer so lets only report each one once
+            Set<LoadBalancer> loadBalancers = Collections.newSetFromMap(new IdentityHashMap<LoadBalancer, Boolean>());
+            for (MappedServices services : mappedServices.values()) {
+                LoadBalancer loadBalancer = services.getLoadBalancer();
+                if (loadBalancer instanceof FeedbackLoadBalancer && loadBalancers.add(loadBalancer)) {
+                    for (Map.Entry<String, BackendStatistics> entry : ((FeedbackLoadBalancer) loadBalancer).getBackendStatistics().entrySet()) {
+                        answer.add(entry.getKey() + " " + entry.getValue());
+                    }
+                }
+            }
+        }
+        return answer.toArray(new String[answer.size()]);
+    }
+
+    @Override
+    public String[] getStickySessionStatistics() {
+        List<String> answer = new ArrayList<String>();
+        for (StickyLoadBalancer loadBalancer : getStickyLoadBalancers()) {
+            answer.add(loadBalancer.getRequestCache().toString());
+        }
+        return answer.toArray(new String[answer.size()]);
+    }
+
+    protected Set<StickyLoadBalancer> getStickyLoadBalancers() {
+        // rules may share a load balancer so lets only report each one once
+        Set<StickyLoadBalancer> answer = Collections.newSetFromMap(new IdentityHashMap<StickyLoadBalancer, Boolean>());
+        Map<String, MappedServices> mappedServices = getFabricHTTPGateway().getMappedServices();
+        if (mappedServices != null) {
+            for (MappedServices services : mappedServices.values()) {
+                LoadBalancer loadBalancer = services.getLoadBalancer();
+                if (loadBalancer instanceof StickyLoadBalancer) {
+                    answer.add((StickyLoadBalancer) loadBalancer);
+                }
+            }
+        }
+        return answer;
+    }
+
     @Override
     public void resetStatistics() {
-    	averageCallTimeNanos = 0l;
-    	numberOfInvocations = 0l;
-    	lastCallDate = null;
-    	lastError = null;
+        CallDetailRecorder recorder = getFabricHTTPGateway().getCallDetailRecorder();
+        if (recorder != null) {
+            recorder.resetStatistics();
+        }
+        HttpClientPool pool = getFabricHTTPGateway().getClientPool();
+        if (pool != null) {
+            pool.resetStatistics();
+        }
+        for (StickyLoadBalancer loadBalancer : getStickyLoadBalancers()) {
+            loadBalancer.getRequestCache().resetStatistics();
+        }
     }
    
     public ObjectName getObjectName() throws MalformedObjectNameException {
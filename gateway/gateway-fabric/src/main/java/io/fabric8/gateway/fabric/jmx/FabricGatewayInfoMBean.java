@@ -30,5 +30,41 @@ public interface FabricGatewayInfoMBean {
     String getLastError();
     String getLastCallDate();
     long getAvarageCallTimeNanos();
+    long getFailedInvocations();
+    long getDroppedCallDetailRecords();
+
+    /**
+     * Returns a histogram summary of the time taken by the proxied calls, from the request
+     * arriving until the response has been completed
+     */
+    String getCallTimeMicros();
+
+    /**
+     * Returns a histogram summary of the call times of each mapping rule
+     */
+    String[] getRuleCallTimeMicros();
+
+    /**
+     * Returns a histogram summary of the call times of each backend service
+     */
+    String[] getBackendCallTimeMicros();
+    int getPooledConnectionsInUse();
+    int getPooledClientsIdle();
+    int getPooledClients();
+    long getPooledClientsCreated();
+    long getPooledClientsEvicted();
+
+    /**
+     * Returns the average time from a pooled client being acquired until the backend response headers arrive,
+     * over the requests which got a response
+     */
+    long getAverageTimeToFirstByteNanos();
+    long getMaxTimeToFirstByteNanos();
+    String[] getBackendStatistics();
+
+    /**
+     * Returns the size and hit, miss and eviction counts of the client bindings of each sticky load balancer
+     */
+    String[] getStickySessionStatistics();
     void resetStatistics();
 }
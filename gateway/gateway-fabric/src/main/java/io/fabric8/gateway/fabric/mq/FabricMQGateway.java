@@ -120,6 +120,10 @@ public class FabricMQGateway extends AbstractComponent {
             label = "Sticky Load Balancer Cache Size", description = "The number of unique client keys to cache for the sticky load balancer (using an LRU caching algorithm)")
     private int stickyLoadBalancerCacheSize = LoadBalancers.STICKY_LOAD_BALANCER_DEFAULT_CACHE_SIZE;
 
+    @Property(name = "stickyLoadBalancerTimeToLive", longValue = 0,
+            label = "Sticky Load Balancer Time To Live", description = "The number of milliseconds after which an unused client key expires from the sticky load balancer cache, or 0 to never expire them")
+    private long stickyLoadBalancerTimeToLive;
+
     private GatewayServiceTreeCache gatewayServiceTreeCache;
 
     @Activate
@@ -155,8 +159,8 @@ public class FabricMQGateway extends AbstractComponent {
         Vertx vertx = vertxService.getVertx();
         CuratorFramework curator = getCurator();
 
-        LoadBalancer pathLoadBalancer = LoadBalancers.createLoadBalancer(loadBalancerType, stickyLoadBalancerCacheSize);
-        LoadBalancer serviceLoadBalancer = LoadBalancers.createLoadBalancer(loadBalancerType, stickyLoadBalancerCacheSize);
+        LoadBalancer pathLoadBalancer = LoadBalancers.createLoadBalancer(loadBalancerType, stickyLoadBalancerCacheSize, stickyLoadBalancerTimeToLive);
+        LoadBalancer serviceLoadBalancer = LoadBalancers.createLoadBalancer(loadBalancerType, stickyLoadBalancerCacheSize, stickyLoadBalancerTimeToLive);
 
         LOG.info("activating MQ mapping ZooKeeper path: " + zkPath + " host: " + host
                 + " with load balancer: " + pathLoadBalancer);
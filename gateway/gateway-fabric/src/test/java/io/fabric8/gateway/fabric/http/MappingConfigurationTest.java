@@ -23,6 +23,7 @@ import java.util.Map;
 import io.fabric8.gateway.ServiceDTO;
 import io.fabric8.gateway.fabric.support.http.HttpMappingRuleBase;
 import io.fabric8.gateway.handlers.http.MappedServices;
+import io.fabric8.gateway.loadbalancer.LeastConnectionsLoadBalancer;
 import io.fabric8.gateway.loadbalancer.LoadBalancer;
 import io.fabric8.gateway.loadbalancer.RoundRobinLoadBalancer;
 import io.fabric8.zookeeper.internal.SimplePathTemplate;
@@ -30,6 +31,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
@@ -106,6 +108,26 @@ public class MappingConfigurationTest {
         assertEquals("mapping size",  2, httpGateway.getMappedServices().size());
     }
 
+    @Test
+    public void testRemovedServiceStatisticsAreDropped() throws Exception {
+        LeastConnectionsLoadBalancer leastConnections = new LeastConnectionsLoadBalancer();
+        loadBalancer = leastConnections;
+        setUriTemplate("{contextPath}/", oldVersion);
+
+        addQuickstartServices();
+        String crm = "http://localhost:8182/cxf/crm";
+        String helloWorld = "http://localhost:8183/cxf/HelloWorld";
+        leastConnections.requestStarted(crm);
+        leastConnections.requestStarted(helloWorld);
+        assertEquals("backends", 2, leastConnections.getBackendStatistics().size());
+
+        removeService("rest/CustomerService/crm/1.0/resty", crm, oldVersion);
+
+        assertEquals("backends", 1, leastConnections.getBackendStatistics().size());
+        assertFalse("Should have dropped " + crm, leastConnections.getBackendStatistics().containsKey(crm));
+        assertEquals("mapping size",  1, httpGateway.getMappedServices().size());
+    }
+
     protected void setUriTemplate(String uriTemplate, String version) {
         config = new HttpMappingRuleBase(
                 new SimplePathTemplate(uriTemplate), version, enabledVersion, loadBalancer, reverseHeaders);
@@ -123,6 +145,12 @@ public class MappingConfigurationTest {
         config.updateMappingRules(false, path, Arrays.asList(service), params, serviceDetails);
     }
 
+    protected void removeService(String path, String service, String version) {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("version", version);
+        config.updateMappingRules(true, path, Arrays.asList(service), params, new ServiceDTO());
+    }
+
     protected void assertMapping(String path, String service) {
         Map<String, MappedServices> mappingRules = httpGateway.getMappedServices();
         assertTrue("Should have some mapping rules", mappingRules.size() > 0);
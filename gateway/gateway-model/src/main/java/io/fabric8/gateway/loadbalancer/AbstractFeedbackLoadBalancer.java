@@ -0,0 +1,129 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.loadbalancer;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Base class for {@link FeedbackLoadBalancer} implementations which choose the service with the lowest cost.
+ * <p/>
+ * By default all the services are compared, starting at a random position so that ties are spread evenly.
+ * With {@link #setPowerOfTwoChoices(boolean)} enabled only two services picked at random are compared, which
+ * avoids every gateway sending its traffic to the same service when their statistics are stale.
+ * Statistics are kept under the {@link LoadBalancers#getServiceKey(Object) key} of each service.
+ */
+public abstract class AbstractFeedbackLoadBalancer implements FeedbackLoadBalancer {
+    private final ConcurrentHashMap<Object, BackendStatistics> statistics = new ConcurrentHashMap<Object, BackendStatistics>();
+    private boolean powerOfTwoChoices;
+
+    @Override
+    public <T> T choose(List<T> services, ClientRequestFacade requestFacade) {
+        int size = services.size();
+        if (size == 0) {
+            return null;
+        } else if (size == 1) {
+            return services.get(0);
+        }
+        Random random = ThreadLocalRandom.current();
+        if (powerOfTwoChoices && size > 2) {
+            int first = random.nextInt(size);
+            int second = random.nextInt(size - 1);
+            if (second >= first) {
+                second++;
+            }
+            T a = services.get(first);
+            T b = services.get(second);
+            return cost(getStatistics(a)) <= cost(getStatistics(b)) ? a : b;
+        }
+        int start = random.nextInt(size);
+        T answer = null;
+        double lowestCost = Double.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            T service = services.get((start + i) % size);
+            double cost = cost(getStatistics(service));
+            if (answer == null || cost < lowestCost) {
+                answer = service;
+                lowestCost = cost;
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * Returns the cost of sending another request to a service with the given statistics; lower is better
+     */
+    protected abstract double cost(BackendStatistics statistics);
+
+    @Override
+    public void requestStarted(Object service) {
+        getStatistics(service).requestStarted();
+    }
+
+    @Override
+    public void responseReceived(Object service, long latencyNanos) {
+    }
+
+    @Override
+    public void requestCompleted(Object service, boolean success) {
+        BackendStatistics answer = statistics.get(LoadBalancers.getServiceKey(service));
+        if (answer != null) {
+            answer.requestCompleted(success);
+        }
+    }
+
+    @Override
+    public void removeService(Object service) {
+        statistics.remove(LoadBalancers.getServiceKey(service));
+    }
+
+    @Override
+    public Map<String, BackendStatistics> getBackendStatistics() {
+        Map<String, BackendStatistics> answer = new TreeMap<String, BackendStatistics>();
+        for (Map.Entry<Object, BackendStatistics> entry : statistics.entrySet()) {
+            answer.put(String.valueOf(entry.getKey()), entry.getValue());
+        }
+        return answer;
+    }
+
+    protected BackendStatistics getStatistics(Object service) {
+        Object key = LoadBalancers.getServiceKey(service);
+        BackendStatistics answer = statistics.get(key);
+        if (answer == null) {
+            BackendStatistics created = new BackendStatistics();
+            answer = statistics.putIfAbsent(key, created);
+            if (answer == null) {
+                answer = created;
+            }
+        }
+        return answer;
+    }
+
+    public boolean isPowerOfTwoChoices() {
+        return powerOfTwoChoices;
+    }
+
+    /**
+     * If enabled only two randomly chosen services are compared rather than all of them
+     */
+    public void setPowerOfTwoChoices(boolean powerOfTwoChoices) {
+        this.powerOfTwoChoices = powerOfTwoChoices;
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.loadbalancer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The live statistics of a single service used by a {@link FeedbackLoadBalancer}
+ */
+public class BackendStatistics {
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private double latencyNanos;
+    private long lastUpdateNanos = System.nanoTime();
+
+    @Override
+    public String toString() {
+        return "outstanding=" + getOutstanding() +
+                " requests=" + getRequests() +
+                " failures=" + getFailures() +
+                " latencyMillis=" + String.format("%.3f", getLatencyNanos() / 1000000.0);
+    }
+
+    void requestStarted() {
+        outstanding.incrementAndGet();
+        requests.incrementAndGet();
+    }
+
+    void requestCompleted(boolean success) {
+        if (outstanding.decrementAndGet() < 0) {
+            outstanding.incrementAndGet();
+        }
+        if (!success) {
+            failures.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records a latency sample. Latencies above the current average replace it immediately (the peak)
+     * while lower ones are blended in with a weight depending on the time since the last sample
+     */
+    synchronized void recordLatency(long sampleNanos, long decayTimeNanos) {
+        long now = System.nanoTime();
+        if (sampleNanos > latencyNanos) {
+            latencyNanos = sampleNanos;
+        } else {
+            double weight = Math.exp(-(now - lastUpdateNanos) / (double) decayTimeNanos);
+            latencyNanos = latencyNanos * weight + sampleNanos * (1 - weight);
+        }
+        lastUpdateNanos = now;
+    }
+
+    /**
+     * Returns the average latency decayed towards zero over the time since the last sample, so that a
+     * service which was once slow is eventually tried again
+     */
+    synchronized double getDecayedLatencyNanos(long decayTimeNanos) {
+        long elapsed = System.nanoTime() - lastUpdateNanos;
+        return latencyNanos * Math.exp(-elapsed / (double) decayTimeNanos);
+    }
+
+    /**
+     * Returns the number of requests or connections currently in progress
+     */
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * Returns the peak exponentially weighted moving average of the latency as of the last sample
+     */
+    public synchronized double getLatencyNanos() {
+        return latencyNanos;
+    }
+}
@@ -0,0 +1,46 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.loadbalancer;
+
+import java.util.Map;
+
+/**
+ * A {@link LoadBalancer} which uses feedback from the gateway about the requests or connections
+ * it has sent to each service to pick the least loaded service.
+ * <p/>
+ * For each service returned by {@link #choose(java.util.List, ClientRequestFacade)} the gateway should call
+ * {@link #requestStarted(Object)} once it uses the service, {@link #responseReceived(Object, long)} when the
+ * service starts responding (or the connection is established) and {@link #requestCompleted(Object, boolean)}
+ * exactly once when it has finished with the service.
+ */
+public interface FeedbackLoadBalancer extends LoadBalancer {
+
+    public void requestStarted(Object service);
+
+    public void responseReceived(Object service, long latencyNanos);
+
+    public void requestCompleted(Object service, boolean success);
+
+    /**
+     * Discards the statistics of a service which is no longer available
+     */
+    public void removeService(Object service);
+
+    /**
+     * Returns the current statistics of each service indexed by the service's string form
+     */
+    public Map<String, BackendStatistics> getBackendStatistics();
+}
@@ -0,0 +1,30 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.loadbalancer;
+
+/**
+ * Implemented by services whose details can be reloaded as new instances.
+ * <p/>
+ * Load balancers keep what they know about a service, such as sticky client bindings or backend statistics,
+ * under its key rather than the instance, so it carries over to a reloaded instance with the same key.
+ */
+public interface KeyedService {
+
+    /**
+     * Returns the key of the backend this service refers to, which must implement equals and hashCode
+     */
+    Object getLoadBalancerKey();
+}
@@ -28,16 +28,43 @@ public class LoadBalancers {
     public static final String RANDOM_LOAD_BALANCER = "random";
     public static final String ROUND_ROBIN_LOAD_BALANCER = "roundrobin";
     public static final String STICKY_LOAD_BALANCER = "sticky";
+    public static final String LEAST_CONNECTIONS_LOAD_BALANCER = "leastconnections";
+    public static final String PEAK_EWMA_LOAD_BALANCER = "peakewma";
+    public static final String POWER_OF_TWO_CHOICES_LOAD_BALANCER = "p2c";
 
     public static final int STICKY_LOAD_BALANCER_DEFAULT_CACHE_SIZE = 10000;
 
+    /**
+     * Returns the key under which load balancers keep their state about a service: its {@link KeyedService} key
+     * if it has one, otherwise the service itself
+     */
+    public static Object getServiceKey(Object service) {
+        return service instanceof KeyedService ? ((KeyedService) service).getLoadBalancerKey() : service;
+    }
+
     public static LoadBalancer createLoadBalancer(String loadBalancerType, int stickyLoadBalancerCacheSize) {
+        return createLoadBalancer(loadBalancerType, stickyLoadBalancerCacheSize, 0);
+    }
+
+    /**
+     * @param stickyLoadBalancerTimeToLive the number of milliseconds after which an unused sticky client binding
+     *                                     expires, or zero for no expiry
+     */
+    public static LoadBalancer createLoadBalancer(String loadBalancerType, int stickyLoadBalancerCacheSize, long stickyLoadBalancerTimeToLive) {
         if (RANDOM_LOAD_BALANCER.equals(loadBalancerType)) {
             return new RandomLoadBalancer();
         } else if (ROUND_ROBIN_LOAD_BALANCER.equals(loadBalancerType)) {
             return new RoundRobinLoadBalancer();
         } else if (STICKY_LOAD_BALANCER.equals(loadBalancerType)) {
-            return new StickyLoadBalancer(stickyLoadBalancerCacheSize);
+            return new StickyLoadBalancer(stickyLoadBalancerCacheSize, stickyLoadBalancerTimeToLive, new RoundRobinLoadBalancer());
+        } else if (LEAST_CONNECTIONS_LOAD_BALANCER.equals(loadBalancerType)) {
+            return new LeastConnectionsLoadBalancer();
+        } else if (PEAK_EWMA_LOAD_BALANCER.equals(loadBalancerType)) {
+            return new PeakEwmaLoadBalancer();
+        } else if (POWER_OF_TWO_CHOICES_LOAD_BALANCER.equals(loadBalancerType)) {
+            PeakEwmaLoadBalancer answer = new PeakEwmaLoadBalancer();
+            answer.setPowerOfTwoChoices(true);
+            return answer;
         } else {
             if (Strings.isNotBlank(loadBalancerType)) {
                 LOG.warn("Ignored invalid load balancer type: " + loadBalancerType);
@@ -0,0 +1,75 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.loadbalancer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chooses the service with the lowest peak exponentially weighted moving average of its latency multiplied
+ * by the number of outstanding requests, so that a slow service gets less traffic than a fast one.
+ * <p/>
+ * Latency spikes are taken into account immediately while improvements are blended in over the decay time.
+ * Services with no latency samples yet are preferred unless they already have requests outstanding.
+ */
+public class PeakEwmaLoadBalancer extends AbstractFeedbackLoadBalancer {
+    public static final long DEFAULT_DECAY_TIME_MILLIS = 10000;
+
+    // the cost of a service with requests outstanding but no latency samples yet
+    private static final double PENALTY = TimeUnit.SECONDS.toNanos(100);
+
+    private long decayTimeNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_DECAY_TIME_MILLIS);
+
+    public PeakEwmaLoadBalancer() {
+    }
+
+    public PeakEwmaLoadBalancer(long decayTimeMillis) {
+        setDecayTimeMillis(decayTimeMillis);
+    }
+
+    @Override
+    public String toString() {
+        return "PeakEwmaLoadBalancer{" +
+                "decayTimeMillis=" + getDecayTimeMillis() +
+                ", powerOfTwoChoices=" + isPowerOfTwoChoices() +
+                '}';
+    }
+
+    @Override
+    public void responseReceived(Object service, long latencyNanos) {
+        getStatistics(service).recordLatency(latencyNanos, decayTimeNanos);
+    }
+
+    @Override
+    protected double cost(BackendStatistics statistics) {
+        double latency = statistics.getDecayedLatencyNanos(decayTimeNanos);
+        int outstanding = statistics.getOutstanding();
+        if (latency == 0 && outstanding > 0) {
+            return PENALTY + outstanding;
+        }
+        return latency * (outstanding + 1);
+    }
+
+    public long getDecayTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(decayTimeNanos);
+    }
+
+    /**
+     * Sets the time over which older latency samples lose their weight
+     */
+    public void setDecayTimeMillis(long decayTimeMillis) {
+        this.decayTimeNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, decayTimeMillis));
+    }
+}
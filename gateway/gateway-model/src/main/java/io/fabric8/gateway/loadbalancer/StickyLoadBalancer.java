@@ -15,19 +15,22 @@
  */
 package io.fabric8.gateway.loadbalancer;
 
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Implements a sticky load balancer where a unique client ID String is requested from the
  * {@link ClientRequestFacade} and used to keep track of which
  * service was used last time and to use that if its possible and keep a cache of requests to
+ * <p/>
+ * The cache is a concurrent {@link StickySessionTable} so choosing a service does not serialize callers on a lock.
+ * Clients are bound to the {@link LoadBalancers#getServiceKey(Object) key} of a service, so a client stays bound
+ * to a service that is reloaded as a new instance with the same key, and is given the current instance. If no
+ * available service has the key the client is bound to a new one.
  */
 public class StickyLoadBalancer implements LoadBalancer {
     private final LoadBalancer firstRequestLoadBalancer;
     private final int maximumCacheSize;
-    private final Map<String, Object> requestCache;
+    private final StickySessionTable<Object> requestCache;
 
     public StickyLoadBalancer() {
         this(LoadBalancers.STICKY_LOAD_BALANCER_DEFAULT_CACHE_SIZE);
@@ -38,45 +41,64 @@ public class StickyLoadBalancer implements LoadBalancer {
     }
 
     public StickyLoadBalancer(int maximumCacheSize, LoadBalancer firstRequestLoadBalancer) {
+        this(maximumCacheSize, 0, firstRequestLoadBalancer);
+    }
+
+    /**
+     * @param timeToLiveMillis the number of milliseconds after which an unused client binding expires, or zero for no expiry
+     */
+    public StickyLoadBalancer(int maximumCacheSize, long timeToLiveMillis, LoadBalancer firstRequestLoadBalancer) {
         this.firstRequestLoadBalancer = firstRequestLoadBalancer;
         this.maximumCacheSize = maximumCacheSize;
-        this.requestCache = new LinkedHashMap(maximumCacheSize + 1, .75F, true) {
-            // This method is called just after a new entry has been added
-            public boolean removeEldestEntry(Map.Entry eldest) {
-                return size() > StickyLoadBalancer.this.maximumCacheSize;
-            }
-        };
+        this.requestCache = new StickySessionTable<Object>(maximumCacheSize, timeToLiveMillis);
     }
 
     @Override
     public String toString() {
         return "StickyLoadBalancer{" +
                 "maximumCacheSize=" + maximumCacheSize +
+                ", timeToLiveMillis=" + requestCache.getTimeToLiveMillis() +
                 '}';
     }
 
     @Override
     public <T> T choose(List<T> services, ClientRequestFacade requestFacade) {
         String clientKey = requestFacade.getClientRequestKey();
-        T answer;
-        synchronized (requestCache) {
-            answer = (T) requestCache.get(clientKey);
-            if (answer == null) {
-                answer = firstRequestLoadBalancer.choose(services, requestFacade);
-                if (answer != null) {
-                    requestCache.put(clientKey, answer);
+        Object serviceKey = requestCache.get(clientKey);
+        if (serviceKey != null) {
+            for (T service : services) {
+                if (serviceKey.equals(LoadBalancers.getServiceKey(service))) {
+                    return service;
                 }
             }
+            // the service we were bound to has gone away
+            requestCache.remove(clientKey, serviceKey);
+        }
+        T answer = firstRequestLoadBalancer.choose(services, requestFacade);
+        if (answer != null) {
+            requestCache.put(clientKey, LoadBalancers.getServiceKey(answer));
         }
         return answer;
     }
 
+    /**
+     * Removes all the client bindings to the given service; such as when the service is no longer available
+     */
+    public void removeService(Object service) {
+        requestCache.removeValue(LoadBalancers.getServiceKey(service));
+    }
+
     /**
      * Clears the cache of request client IDs to the bound service
      */
     public void flush() {
-        synchronized (requestCache) {
-            requestCache.clear();
-        }
+        requestCache.clear();
+    }
+
+    /**
+     * Returns the cache of client IDs to service keys, which exposes the hit, miss and eviction counters
+     */
+    public StickySessionTable<Object> getRequestCache() {
+        return requestCache;
     }
 }
@@ -0,0 +1,235 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.loadbalancer;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, concurrent table of client keys to the service they are bound to, used by the {@link StickyLoadBalancer}.
+ * <p/>
+ * Lookups never lock or modify the structure of the table; they just mark the entry as recently used.
+ * When the table grows beyond its maximum size, entries are evicted in approximately least recently used order
+ * using the CLOCK (second chance) algorithm. Entries can also expire after a time to live.
+ */
+public class StickySessionTable<V> {
+    private final int maximumSize;
+    private final long timeToLiveMillis;
+    private final ConcurrentHashMap<String, Entry<V>> entries;
+    private final ConcurrentLinkedQueue<Entry<V>> clock = new ConcurrentLinkedQueue<Entry<V>>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicInteger clockSize = new AtomicInteger();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maximumSize      the maximum number of client keys to keep
+     * @param timeToLiveMillis the number of milliseconds after which an unused entry expires, or zero to never expire entries
+     */
+    public StickySessionTable(int maximumSize, long timeToLiveMillis) {
+        this.maximumSize = Math.max(1, maximumSize);
+        this.timeToLiveMillis = timeToLiveMillis;
+        this.entries = new ConcurrentHashMap<String, Entry<V>>(Math.min(this.maximumSize, 1024), 0.75f, 64);
+    }
+
+    /**
+     * Returns the value bound to the given key or null if there is none or it has expired
+     */
+    public V get(String key) {
+        Entry<V> entry = entries.get(key);
+        if (entry != null) {
+            if (timeToLiveMillis > 0) {
+                long now = System.currentTimeMillis();
+                if (now - entry.lastAccess > timeToLiveMillis) {
+                    removeEntry(entry);
+                    misses.incrementAndGet();
+                    return null;
+                }
+                entry.lastAccess = now;
+            }
+            entry.referenced = true;
+            hits.incrementAndGet();
+            return entry.value;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Binds the key to the given value, evicting other entries if the table is full
+     */
+    public void put(String key, V value) {
+        Entry<V> entry = new Entry<V>(key, value, timeToLiveMillis > 0 ? System.currentTimeMillis() : 0);
+        Entry<V> old = entries.put(key, entry);
+        if (old == null) {
+            size.incrementAndGet();
+        }
+        offerToClock(entry);
+        evictIfNecessary();
+        if (clockSize.get() > 2 * maximumSize + 16) {
+            // lots of keys have been rebound, removed or expired
+            purgeClock();
+        }
+    }
+
+    /**
+     * Removes the binding for the given key if it is still bound to the given value
+     */
+    public void remove(String key, V value) {
+        Entry<V> entry = entries.get(key);
+        if (entry != null && entry.value == value) {
+            removeEntry(entry);
+        }
+    }
+
+    /**
+     * Removes all the entries bound to the given value, such as when a service goes away
+     *
+     * @return the number of entries removed
+     */
+    public int removeValue(Object value) {
+        int count = 0;
+        for (Entry<V> entry : entries.values()) {
+            if (entry.value == value || (entry.value != null && entry.value.equals(value))) {
+                if (removeEntry(entry)) {
+                    count++;
+                }
+            }
+        }
+        if (count > 0) {
+            purgeClock();
+        }
+        return count;
+    }
+
+    public void clear() {
+        for (Entry<V> entry : entries.values()) {
+            removeEntry(entry);
+        }
+        clock.clear();
+        clockSize.set(0);
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public long getTimeToLiveMillis() {
+        return timeToLiveMillis;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+
+    private boolean removeEntry(Entry<V> entry) {
+        if (entries.remove(entry.key, entry)) {
+            size.decrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    private void evictIfNecessary() {
+        // bound the amount of work a single caller does; another caller will carry on if needed
+        int attempts = 2 * maximumSize + 16;
+        while (size.get() > maximumSize && attempts-- > 0) {
+            Entry<V> candidate = clock.poll();
+            if (candidate == null) {
+                return;
+            }
+            clockSize.decrementAndGet();
+            if (entries.get(candidate.key) != candidate) {
+                // stale clock entry for a key that was removed or rebound
+                continue;
+            }
+            if (candidate.referenced) {
+                // give it a second chance
+                candidate.referenced = false;
+                offerToClock(candidate);
+            } else if (removeEntry(candidate)) {
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Removes the clock entries which no longer refer to a live entry so the clock stays bounded
+     */
+    private void purgeClock() {
+        Iterator<Entry<V>> iter = clock.iterator();
+        while (iter.hasNext()) {
+            Entry<V> entry = iter.next();
+            if (entries.get(entry.key) != entry) {
+                iter.remove();
+                clockSize.decrementAndGet();
+            }
+        }
+    }
+
+    private void offerToClock(Entry<V> entry) {
+        clock.offer(entry);
+        clockSize.incrementAndGet();
+    }
+
+    private static final class Entry<V> {
+        final String key;
+        final V value;
+        volatile long lastAccess;
+        volatile boolean referenced;
+
+        Entry(String key, V value, long lastAccess) {
+            this.key = key;
+            this.value = value;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "StickySessionTable{" +
+                "size=" + size() +
+                ", maximumSize=" + maximumSize +
+                ", timeToLiveMillis=" + timeToLiveMillis +
+                ", hits=" + getHits() +
+                ", misses=" + getMisses() +
+                ", evictions=" + getEvictions() +
+                '}';
+    }
+}
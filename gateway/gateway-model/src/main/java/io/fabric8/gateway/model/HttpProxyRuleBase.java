@@ -25,6 +25,7 @@ import java.util.Map;
  */
 public class HttpProxyRuleBase {
     private Map<String, HttpProxyRule> mappingRules = new HashMap<String, HttpProxyRule>();
+    private volatile int modificationCount;
 
     public Map<String, HttpProxyRule> getMappingRules() {
         return mappingRules;
@@ -32,6 +33,23 @@ public class HttpProxyRuleBase {
 
     public void setMappingRules(Map<String, HttpProxyRule> mappingRules) {
         this.mappingRules = mappingRules;
+        changed();
+    }
+
+    /**
+     * Returns a counter which is incremented whenever the rules are changed so that
+     * compiled forms of the rule base can be rebuilt
+     */
+    public int getModificationCount() {
+        return modificationCount;
+    }
+
+    /**
+     * Should be invoked if the mapping rules are modified other than through the DSL
+     * so that any compiled form of the rule base is rebuilt
+     */
+    public void changed() {
+        modificationCount++;
     }
 
     /**
@@ -42,6 +60,7 @@ public class HttpProxyRuleBase {
         if (answer == null) {
             answer = new HttpProxyRule(uriTemplate);
             getMappingRules().put(uriTemplate, answer);
+            changed();
         }
         return answer;
     }
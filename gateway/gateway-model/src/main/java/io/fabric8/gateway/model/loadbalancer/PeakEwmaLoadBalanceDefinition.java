@@ -0,0 +1,49 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.model.loadbalancer;
+
+import io.fabric8.gateway.loadbalancer.LoadBalancer;
+import io.fabric8.gateway.loadbalancer.PeakEwmaLoadBalancer;
+
+/**
+ */
+public class PeakEwmaLoadBalanceDefinition extends LoadBalancerDefinition {
+    private long decayTimeMillis = PeakEwmaLoadBalancer.DEFAULT_DECAY_TIME_MILLIS;
+    private boolean powerOfTwoChoices;
+
+    public long getDecayTimeMillis() {
+        return decayTimeMillis;
+    }
+
+    public void setDecayTimeMillis(long decayTimeMillis) {
+        this.decayTimeMillis = decayTimeMillis;
+    }
+
+    public boolean isPowerOfTwoChoices() {
+        return powerOfTwoChoices;
+    }
+
+    public void setPowerOfTwoChoices(boolean powerOfTwoChoices) {
+        this.powerOfTwoChoices = powerOfTwoChoices;
+    }
+
+    @Override
+    protected LoadBalancer createLoadBalancer() {
+        PeakEwmaLoadBalancer answer = new PeakEwmaLoadBalancer(decayTimeMillis);
+        answer.setPowerOfTwoChoices(powerOfTwoChoices);
+        return answer;
+    }
+}
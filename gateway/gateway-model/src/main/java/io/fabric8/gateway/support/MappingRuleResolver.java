@@ -18,23 +18,33 @@ package io.fabric8.gateway.support;
 import io.fabric8.gateway.model.HttpProxyRule;
 import io.fabric8.gateway.model.HttpProxyRuleBase;
 
+import java.util.ArrayList;
+import java.util.Map;
+
 /**
  * A helper class to map a request URI to a mapping rule
  */
 public class MappingRuleResolver {
     private HttpProxyRuleBase mappingRules = new HttpProxyRuleBase();
+    private volatile CompiledRules compiledRules;
 
     public MappingResult findMappingRule(String requestURI) {
         String[] paths = Paths.splitPaths(requestURI);
-        MappingResult answer = null;
-        // TODO we could build a path based tree to do more efficient matching?
-        for (HttpProxyRule mappingRule : mappingRules.getMappingRules().values()) {
-            answer = mappingRule.matches(paths);
-            if (answer != null) {
-                break;
-            }
+        return getMappingRuleTree().findMappingRule(paths);
+    }
+
+    /**
+     * Returns the decision tree compiled from the current mapping rules, recompiling it if the rules have changed
+     */
+    protected MappingRuleTree getMappingRuleTree() {
+        HttpProxyRuleBase ruleBase = mappingRules;
+        Map<String, HttpProxyRule> rules = ruleBase.getMappingRules();
+        CompiledRules answer = compiledRules;
+        if (answer == null || !answer.isValid(ruleBase, rules)) {
+            answer = new CompiledRules(ruleBase, rules);
+            compiledRules = answer;
         }
-        return answer;
+        return answer.tree;
     }
 
     public HttpProxyRuleBase getMappingRules() {
@@ -43,6 +53,32 @@ public class MappingRuleResolver {
 
     public void setMappingRules(HttpProxyRuleBase mappingRules) {
         this.mappingRules = mappingRules;
+        this.compiledRules = null;
+    }
+
+    private static final class CompiledRules {
+        private final HttpProxyRuleBase ruleBase;
+        private final Map<String, HttpProxyRule> rules;
+        private final int modificationCount;
+        private final int size;
+        private final MappingRuleTree tree;
+
+        CompiledRules(HttpProxyRuleBase ruleBase, Map<String, HttpProxyRule> rules) {
+            this.ruleBase = ruleBase;
+            this.rules = rules;
+            // read the count before the rules so a concurrent change causes a recompile next time
+            this.modificationCount = ruleBase.getModificationCount();
+            this.size = rules.size();
+            this.tree = new MappingRuleTree(new ArrayList<HttpProxyRule>(rules.values()));
+        }
+
+        /**
+         * The size check catches rules put straight into the map without calling {@link HttpProxyRuleBase#changed()}
+         */
+        boolean isValid(HttpProxyRuleBase ruleBase, Map<String, HttpProxyRule> rules) {
+            return this.ruleBase == ruleBase && this.rules == rules
+                    && modificationCount == ruleBase.getModificationCount() && size == rules.size();
+        }
     }
 
 }
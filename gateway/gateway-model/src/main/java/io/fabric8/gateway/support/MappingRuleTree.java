@@ -0,0 +1,167 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.support;
+
+import io.fabric8.gateway.model.HttpProxyRule;
+import io.fabric8.gateway.model.UriTemplateDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An immutable decision tree compiled from the {@link UriTemplate} of a number of {@link HttpProxyRule} instances
+ * so that a request URI can be resolved in a single pass over its path segments rather than matching each rule in turn.
+ * <p/>
+ * Each level of the tree represents a path segment; literal segments are tried first and parameter segments
+ * (such as <code>{id}</code>) are used as a fallback. A template whose last segment is a parameter consumes the
+ * remaining segments of the request URI, as {@link UriTemplate#matches(String[], HttpProxyRule)} does, but only
+ * once no more specific template matches.
+ */
+public class MappingRuleTree {
+    private static final transient Logger LOG = LoggerFactory.getLogger(MappingRuleTree.class);
+
+    private final Node root = new Node();
+
+    public MappingRuleTree(Collection<HttpProxyRule> rules) {
+        // lets sort the rules by template so that duplicate templates resolve deterministically
+        TreeMap<String, HttpProxyRule> sorted = new TreeMap<String, HttpProxyRule>();
+        for (HttpProxyRule rule : rules) {
+            UriTemplateDefinition templateDefinition = rule.getUriTemplate();
+            String key = templateDefinition != null ? templateDefinition.getUriTemplate() : null;
+            if (key == null) {
+                LOG.warn("Ignoring mapping rule with no URI template: " + rule);
+                continue;
+            }
+            if (!sorted.containsKey(key)) {
+                sorted.put(key, rule);
+            }
+        }
+        for (Map.Entry<String, HttpProxyRule> entry : sorted.entrySet()) {
+            add(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Returns the mapping result for the given request URI paths (as returned by {@link Paths#splitPaths(String)})
+     * or null if no rule matches
+     */
+    public MappingResult findMappingRule(String[] paths) {
+        CompiledRule compiledRule = find(root, paths, 0);
+        if (compiledRule == null) {
+            return null;
+        }
+        return new MappingResult(compiledRule.bind(paths), paths, compiledRule.rule);
+    }
+
+    private static CompiledRule find(Node node, String[] paths, int depth) {
+        if (depth == paths.length) {
+            return node.rule;
+        }
+        if (node.literals != null) {
+            Node child = node.literals.get(paths[depth]);
+            if (child != null) {
+                CompiledRule answer = find(child, paths, depth + 1);
+                if (answer != null) {
+                    return answer;
+                }
+            }
+        }
+        if (node.parameter != null) {
+            CompiledRule answer = find(node.parameter, paths, depth + 1);
+            if (answer != null) {
+                return answer;
+            }
+        }
+        // a trailing parameter consumes the rest of the path
+        return node.parameterNode ? node.rule : null;
+    }
+
+    private void add(String uri, HttpProxyRule rule) {
+        String[] segments = Paths.splitPaths(uri);
+        String[] parameterNames = new String[segments.length];
+        Node node = root;
+        for (int i = 0; i < segments.length; i++) {
+            String segment = segments[i];
+            if (segment.startsWith("{") && segment.endsWith("}")) {
+                parameterNames[i] = segment.substring(1, segment.length() - 1);
+                if (node.parameter == null) {
+                    node.parameter = new Node();
+                    node.parameter.parameterNode = true;
+                }
+                node = node.parameter;
+            } else {
+                if (node.literals == null) {
+                    node.literals = new HashMap<String, Node>();
+                }
+                Node child = node.literals.get(segment);
+                if (child == null) {
+                    child = new Node();
+                    node.literals.put(segment, child);
+                }
+                node = child;
+            }
+        }
+        if (node.rule == null) {
+            node.rule = new CompiledRule(rule, parameterNames);
+        } else {
+            LOG.debug("Mapping rule " + uri + " is shadowed by " + node.rule.rule.getUriTemplate());
+        }
+    }
+
+    private static final class Node {
+        private Map<String, Node> literals;
+        private Node parameter;
+        private boolean parameterNode;
+        private CompiledRule rule;
+    }
+
+    private static final class CompiledRule {
+        private final HttpProxyRule rule;
+        private final String[] parameterNames;
+
+        CompiledRule(HttpProxyRule rule, String[] parameterNames) {
+            this.rule = rule;
+            this.parameterNames = parameterNames;
+        }
+
+        Map<String, String> bind(String[] paths) {
+            Map<String, String> answer = new HashMap<String, String>();
+            int lastIndex = parameterNames.length - 1;
+            for (int i = 0; i <= lastIndex; i++) {
+                String name = parameterNames[i];
+                if (name != null) {
+                    answer.put(name, i == lastIndex ? joinPath(i, paths) : paths[i]);
+                }
+            }
+            return answer;
+        }
+
+        private static String joinPath(int index, String[] paths) {
+            if (index == paths.length - 1) {
+                return paths[index];
+            }
+            StringBuilder builder = new StringBuilder(paths[index]);
+            for (int i = index + 1; i < paths.length; i++) {
+                builder.append('/').append(paths[i]);
+            }
+            return builder.toString();
+        }
+    }
+}
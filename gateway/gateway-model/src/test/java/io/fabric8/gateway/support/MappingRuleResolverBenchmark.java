@@ -0,0 +1,117 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.gateway.support;
+
+import io.fabric8.gateway.model.HttpProxyRule;
+import io.fabric8.gateway.model.HttpProxyRuleBase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the compiled {@link MappingRuleTree} used by {@link MappingRuleResolver} with matching
+ * each rule's {@link UriTemplate} in turn, which is how the resolver used to work.
+ * <p/>
+ * Run with <code>mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=io.fabric8.gateway.support.MappingRuleResolverBenchmark</code>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MappingRuleResolverBenchmark {
+
+    @Param({"10", "100", "1000"})
+    private int ruleCount;
+
+    private MappingRuleResolver resolver;
+    private HttpProxyRule[] rules;
+    private String[] requestUris;
+    private int counter;
+
+    @Setup
+    public void setup() {
+        HttpProxyRuleBase ruleBase = new HttpProxyRuleBase();
+        for (int i = 0; i < ruleCount; i++) {
+            switch (i % 3) {
+                case 0:
+                    ruleBase.rule("/service" + i + "/{id}").to("http://host" + i + ".com/rest/{id}");
+                    break;
+                case 1:
+                    ruleBase.rule("/service" + i + "/customers/{customerId}/address/{addressId}").to("http://host" + i + ".com/addresses/{addressId}/customer/{customerId}");
+                    break;
+                default:
+                    ruleBase.rule("/service" + i + "/static").to("http://host" + i + ".com/static");
+            }
+        }
+        resolver = new MappingRuleResolver();
+        resolver.setMappingRules(ruleBase);
+        rules = ruleBase.getMappingRules().values().toArray(new HttpProxyRule[ruleCount]);
+
+        requestUris = new String[64];
+        for (int i = 0; i < requestUris.length; i++) {
+            int rule = (i * 7919) % ruleCount;
+            switch (rule % 3) {
+                case 0:
+                    requestUris[i] = "/service" + rule + "/" + i;
+                    break;
+                case 1:
+                    requestUris[i] = "/service" + rule + "/customers/c" + i + "/address/a" + i;
+                    break;
+                default:
+                    requestUris[i] = "/service" + rule + "/static";
+            }
+        }
+    }
+
+    private String nextRequestUri() {
+        return requestUris[counter++ & (requestUris.length - 1)];
+    }
+
+    @Benchmark
+    public MappingResult compiledTree() {
+        return resolver.findMappingRule(nextRequestUri());
+    }
+
+    @Benchmark
+    public MappingResult linearScan() {
+        String[] paths = Paths.splitPaths(nextRequestUri());
+        for (HttpProxyRule rule : rules) {
+            MappingResult answer = rule.matches(paths);
+            if (answer != null) {
+                return answer;
+            }
+        }
+        return null;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(MappingRuleResolverBenchmark.class.getSimpleName()).build()).run();
+    }
+}
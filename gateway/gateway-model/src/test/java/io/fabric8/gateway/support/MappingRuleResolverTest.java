@@ -23,6 +23,7 @@ import org.slf4j.LoggerFactory;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 
 /**
  */
@@ -44,12 +45,37 @@ public class MappingRuleResolverTest extends MappingRuleTestSupport {
         assertRuleMatch("/customers/c123/address/abc", "http://another.com/addresses/abc/customerThingy/c123");
     }
 
+    @Test
+    public void testLiteralSegmentsTakePrecedenceOverParameters() throws Exception {
+        assertRuleMatch("/foo/special", "http://special.com/special");
+        assertRuleMatch("/foo/special/else", "http://foo.com/cheese/special/else");
+        assertRuleMatch("/foo/a/b/c", "http://foo.com/cheese/a/b/c");
+        assertRuleMatch("/customers/c123/orders", "http://orders.com/c123");
+    }
+
+    @Test
+    public void testNoMatch() throws Exception {
+        assertNull(getResolver().findMappingRule("/"));
+        assertNull(getResolver().findMappingRule("/foo"));
+        assertNull(getResolver().findMappingRule("/other"));
+        assertNull(getResolver().findMappingRule("/customers/c123/address"));
+    }
+
+    @Test
+    public void testRulesAddedAfterFirstLookupAreUsed() throws Exception {
+        assertNull(getResolver().findMappingRule("/late/123"));
+        getResolver().getMappingRules().rule("/late/{id}").to("http://late.com/{id}");
+        assertRuleMatch("/late/123", "http://late.com/123");
+    }
+
     @Override
     protected void loadMappingRules(HttpProxyRuleBase ruleBase) {
         ruleBase.rule("/members").to("http://foo.com/rest/members");
         ruleBase.rule("/members/{id}").to("http://foo.com/rest/members/{id}");
         ruleBase.rule("/foo/{path}").to("http://foo.com/cheese/{path}");
         ruleBase.rule("/customers/{customerId}/address/{addressId}").to("http://another.com/addresses/{addressId}/customerThingy/{customerId}");
+        ruleBase.rule("/foo/special").to("http://special.com/special");
+        ruleBase.rule("/customers/{id}/orders").to("http://orders.com/{id}");
     }
 
     protected void assertRuleMatch(String requestUri, String expectedDestinationUrl) {
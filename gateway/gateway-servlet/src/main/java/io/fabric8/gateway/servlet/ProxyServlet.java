@@ -28,6 +28,7 @@ import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpMethod;
 import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.NameValuePair;
 import org.apache.commons.httpclient.methods.DeleteMethod;
 import org.apache.commons.httpclient.methods.EntityEnclosingMethod;
@@ -42,16 +43,20 @@ import org.apache.commons.httpclient.methods.multipart.FilePart;
 import org.apache.commons.httpclient.methods.multipart.MultipartRequestEntity;
 import org.apache.commons.httpclient.methods.multipart.Part;
 import org.apache.commons.httpclient.methods.multipart.StringPart;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
 import org.apache.commons.httpclient.protocol.Protocol;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -60,9 +65,26 @@ import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Based on code from http://edwardstx.net/2010/06/http-proxy-servlet/
+ * <p/>
+ * Requests are proxied using a shared pool of connections which can be tuned with the
+ * <code>maxConnectionsPerHost</code>, <code>maxTotalConnections</code>, <code>connectionTimeout</code>,
+ * <code>socketTimeout</code>, <code>connectionManagerTimeout</code> and <code>idleConnectionTimeout</code>
+ * init parameters. Setting the <code>asyncThreads</code> init parameter on a servlet which supports async
+ * processing proxies the requests on a bounded pool of that many threads (queuing up to <code>asyncQueueSize</code>
+ * requests) so that container threads are not held while waiting for slow services. An async request which is not
+ * answered within <code>asyncTimeout</code> milliseconds (60 seconds by default, zero to never time out) is aborted
+ * with a 504 status, and requests still queued when the servlet is destroyed are answered with a 503 status.
  */
 public abstract class ProxyServlet extends HttpServlet {
     private static final transient Logger LOG = LoggerFactory.getLogger(ProxyServlet.class);
@@ -97,8 +119,38 @@ public abstract class ProxyServlet extends HttpServlet {
      */
     private static final File FILE_UPLOAD_TEMP_DIRECTORY = new File(System.getProperty("java.io.tmpdir"));
 
+    /**
+     * The default size of the buffer used to stream response bodies back to the client
+     */
+    private static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * The default number of milliseconds after which an async request is aborted
+     */
+    private static final int DEFAULT_ASYNC_TIMEOUT = 60000;
+
     private HttpMappingRuleResolver resolver = new HttpMappingRuleResolver();
 
+    /**
+     * The shared, bounded pool of connections to the proxied services
+     */
+    private MultiThreadedHttpConnectionManager connectionManager;
+    private IdleConnectionTimeoutThread idleConnectionTimeoutThread;
+    private HttpClient httpClient;
+
+    /**
+     * The executor used to proxy requests when async mode is enabled, or null if disabled
+     */
+    private ThreadPoolExecutor asyncExecutor;
+    private long asyncTimeout;
+
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+    /**
+     * The buffers response bodies are streamed through, bounded so idle buffers don't pile up
+     */
+    private BlockingQueue<byte[]> responseBuffers = new ArrayBlockingQueue<byte[]>(1);
+
     /**
      * The maximum size for uploaded files in bytes. Default value is 5MB.
      */
@@ -116,6 +168,84 @@ public abstract class ProxyServlet extends HttpServlet {
         resolver.setMappingRules(ruleBase);
         Protocol.registerProtocol("http", new Protocol("http", new NonBindingSocketFactory(), 80));
         Protocol.registerProtocol("https", new Protocol("https", new NonBindingSocketFactory(), 443));
+
+        bufferSize = getIntInitParameter(config, "bufferSize", DEFAULT_BUFFER_SIZE);
+        responseBuffers = new ArrayBlockingQueue<byte[]>(Math.max(1, getIntInitParameter(config, "bufferPoolSize", 64)));
+
+        connectionManager = new MultiThreadedHttpConnectionManager();
+        HttpConnectionManagerParams params = connectionManager.getParams();
+        params.setDefaultMaxConnectionsPerHost(getIntInitParameter(config, "maxConnectionsPerHost", 20));
+        params.setMaxTotalConnections(getIntInitParameter(config, "maxTotalConnections", 200));
+        params.setConnectionTimeout(getIntInitParameter(config, "connectionTimeout", 5000));
+        params.setSoTimeout(getIntInitParameter(config, "socketTimeout", 60000));
+        params.setTcpNoDelay(true);
+        params.setStaleCheckingEnabled(true);
+        httpClient = new HttpClient(connectionManager);
+        // fail fast rather than queue forever if all connections to a service are in use
+        httpClient.getParams().setConnectionManagerTimeout(getIntInitParameter(config, "connectionManagerTimeout", 10000));
+
+        int idleConnectionTimeout = getIntInitParameter(config, "idleConnectionTimeout", 60000);
+        if (idleConnectionTimeout > 0) {
+            idleConnectionTimeoutThread = new IdleConnectionTimeoutThread();
+            idleConnectionTimeoutThread.setName("ProxyServlet idle connection closer");
+            idleConnectionTimeoutThread.setConnectionTimeout(idleConnectionTimeout);
+            idleConnectionTimeoutThread.setTimeoutInterval(Math.max(1000, idleConnectionTimeout / 2));
+            idleConnectionTimeoutThread.addConnectionManager(connectionManager);
+            idleConnectionTimeoutThread.start();
+        }
+
+        int asyncThreads = getIntInitParameter(config, "asyncThreads", 0);
+        if (asyncThreads > 0) {
+            asyncTimeout = getIntInitParameter(config, "asyncTimeout", DEFAULT_ASYNC_TIMEOUT);
+            asyncExecutor = new ThreadPoolExecutor(asyncThreads, asyncThreads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(getIntInitParameter(config, "asyncQueueSize", 1000)),
+                    new ThreadFactory() {
+                        private final AtomicInteger counter = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "ProxyServlet async proxy " + counter.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            asyncExecutor.allowCoreThreadTimeOut(true);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (asyncExecutor != null) {
+            // the queued requests have already been started asynchronously so they must be answered here
+            List<Runnable> pending = asyncExecutor.shutdownNow();
+            asyncExecutor = null;
+            for (Runnable runnable : pending) {
+                if (runnable instanceof AsyncProxyTask) {
+                    ((AsyncProxyTask) runnable).complete(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                }
+            }
+        }
+        if (idleConnectionTimeoutThread != null) {
+            idleConnectionTimeoutThread.shutdown();
+            idleConnectionTimeoutThread = null;
+        }
+        if (connectionManager != null) {
+            connectionManager.shutdown();
+            connectionManager = null;
+        }
+        super.destroy();
+    }
+
+    protected static int getIntInitParameter(ServletConfig config, String name, int defaultValue) throws ServletException {
+        String value = config.getInitParameter(name);
+        if (value == null || value.trim().length() == 0) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new ServletException("Invalid value for init parameter " + name + ": " + value, e);
+        }
     }
 
     /**
@@ -384,17 +514,116 @@ public abstract class ProxyServlet extends HttpServlet {
      * @throws javax.servlet.ServletException Can be thrown to indicate that another error has occurred
      */
     private void executeProxyRequest(
-            ProxyDetails proxyDetails, HttpMethod httpMethodProxyRequest,
-            HttpServletRequest httpServletRequest,
-            HttpServletResponse httpServletResponse)
+            final ProxyDetails proxyDetails, final HttpMethod httpMethodProxyRequest,
+            final HttpServletRequest httpServletRequest,
+            final HttpServletResponse httpServletResponse)
             throws IOException, ServletException {
         httpMethodProxyRequest.setDoAuthentication(false);
         httpMethodProxyRequest.setFollowRedirects(false);
 
-        // Create a default HttpClient
-        HttpClient httpClient = proxyDetails.createHttpClient(httpMethodProxyRequest);
+        final ThreadPoolExecutor executor = asyncExecutor;
+        if (executor == null || !httpServletRequest.isAsyncSupported()) {
+            try {
+                proxyRequest(proxyDetails, httpMethodProxyRequest, httpServletRequest, httpServletResponse);
+            } finally {
+                httpMethodProxyRequest.releaseConnection();
+            }
+            return;
+        }
+
+        // lets free up the container thread while we wait for the proxied service
+        final AsyncContext asyncContext = httpServletRequest.startAsync(httpServletRequest, httpServletResponse);
+        asyncContext.setTimeout(asyncTimeout);
+        final AsyncProxyTask task = new AsyncProxyTask(proxyDetails, httpMethodProxyRequest, httpServletRequest, httpServletResponse, asyncContext);
+        asyncContext.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(AsyncEvent event) throws IOException {
+                LOG.warn("Timed out proxying request to " + proxyDetails.getStringProxyURL() + " after " + asyncTimeout + " ms");
+                task.complete(HttpServletResponse.SC_GATEWAY_TIMEOUT);
+            }
+
+            @Override
+            public void onError(AsyncEvent event) throws IOException {
+                LOG.warn("Failed proxying request to " + proxyDetails.getStringProxyURL() + ". " + event.getThrowable());
+                task.complete(HttpServletResponse.SC_BAD_GATEWAY);
+            }
+
+            @Override
+            public void onComplete(AsyncEvent event) throws IOException {
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) throws IOException {
+            }
+        });
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            LOG.warn("Too many pending proxy requests; rejecting request to " + proxyDetails.getStringProxyURL());
+            task.complete(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        }
+    }
+
+    /**
+     * Proxies a request on the async executor. The request completes once, either when it has been proxied or
+     * when it times out, fails, is rejected or is still queued when the servlet is destroyed.
+     */
+    private final class AsyncProxyTask implements Runnable {
+        private final ProxyDetails proxyDetails;
+        private final HttpMethod httpMethodProxyRequest;
+        private final HttpServletRequest httpServletRequest;
+        private final HttpServletResponse httpServletResponse;
+        private final AsyncContext asyncContext;
+        private final AtomicBoolean completed = new AtomicBoolean();
+
+        AsyncProxyTask(ProxyDetails proxyDetails, HttpMethod httpMethodProxyRequest, HttpServletRequest httpServletRequest,
+                       HttpServletResponse httpServletResponse, AsyncContext asyncContext) {
+            this.proxyDetails = proxyDetails;
+            this.httpMethodProxyRequest = httpMethodProxyRequest;
+            this.httpServletRequest = httpServletRequest;
+            this.httpServletResponse = httpServletResponse;
+            this.asyncContext = asyncContext;
+        }
+
+        @Override
+        public void run() {
+            try {
+                proxyRequest(proxyDetails, httpMethodProxyRequest, httpServletRequest, httpServletResponse);
+            } catch (Exception e) {
+                LOG.warn("Failed to proxy request to " + proxyDetails.getStringProxyURL() + ". " + e, e);
+                if (!completed.get() && !httpServletResponse.isCommitted()) {
+                    httpServletResponse.setStatus(HttpServletResponse.SC_BAD_GATEWAY);
+                }
+            } finally {
+                httpMethodProxyRequest.releaseConnection();
+                if (completed.compareAndSet(false, true)) {
+                    asyncContext.complete();
+                }
+            }
+        }
+
+        /**
+         * Aborts the proxied request, if any, and completes the client's request with the given status
+         */
+        void complete(int status) {
+            // stops the worker streaming the response and gives the connection back to the pool
+            httpMethodProxyRequest.abort();
+            httpMethodProxyRequest.releaseConnection();
+            if (completed.compareAndSet(false, true)) {
+                if (!httpServletResponse.isCommitted()) {
+                    httpServletResponse.setStatus(status);
+                }
+                asyncContext.complete();
+            }
+        }
+    }
 
-        // Execute the request
+    private void proxyRequest(
+            ProxyDetails proxyDetails, HttpMethod httpMethodProxyRequest,
+            HttpServletRequest httpServletRequest,
+            HttpServletResponse httpServletResponse)
+            throws IOException, ServletException {
+        // Execute the request using the shared connection pool
         int intProxyResponseCode = httpClient.executeMethod(httpMethodProxyRequest);
 
         // Check if the proxy response is a redirect
@@ -452,8 +681,8 @@ public abstract class ProxyServlet extends HttpServlet {
         int code = httpMethodProxyRequest.getStatusCode();
         boolean noData = code == HttpStatus.SC_NO_CONTENT;
         if (!noData) {
-            String length = httpServletRequest.getHeader(STRING_CONTENT_LENGTH_HEADER_NAME);
-            if (length != null && "0".equals(length.trim())) {
+            Header length = httpMethodProxyRequest.getResponseHeader(STRING_CONTENT_LENGTH_HEADER_NAME);
+            if (length != null && "0".equals(length.getValue().trim())) {
                 noData = true;
             }
         }
@@ -462,12 +691,29 @@ public abstract class ProxyServlet extends HttpServlet {
         if (!noData) {
             // Send the content to the client
             InputStream inputStreamProxyResponse = httpMethodProxyRequest.getResponseBodyAsStream();
-            BufferedInputStream bufferedInputStream = new BufferedInputStream(inputStreamProxyResponse);
-            OutputStream outputStreamClientResponse = httpServletResponse.getOutputStream();
-            int intNextByte;
-            while ((intNextByte = bufferedInputStream.read()) != -1) {
-                outputStreamClientResponse.write(intNextByte);
+            if (inputStreamProxyResponse != null) {
+                streamResponseBody(inputStreamProxyResponse, httpServletResponse.getOutputStream());
+            }
+        }
+    }
+
+    /**
+     * Streams the proxied response body to the client in bulk, through a buffer borrowed from a bounded pool
+     */
+    protected void streamResponseBody(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = responseBuffers.poll();
+        if (buffer == null || buffer.length != bufferSize) {
+            buffer = new byte[bufferSize];
+        }
+        try {
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                out.write(buffer, 0, len);
             }
+            out.flush();
+        } finally {
+            // dropped if the pool is already full
+            responseBuffers.offer(buffer);
         }
     }
 
@@ -480,6 +726,13 @@ public abstract class ProxyServlet extends HttpServlet {
         return resolver;
     }
 
+    /**
+     * Returns the shared client used to invoke the proxied services
+     */
+    public HttpClient getHttpClient() {
+        return httpClient;
+    }
+
     /**
      * Retrieves all of the headers from the servlet request and sets them on
      * the proxy request
@@ -15,10 +15,12 @@
  */
 package io.fabric8.insight.elasticsearch;
 
+import io.fabric8.common.util.JMXUtils;
 import io.fabric8.insight.metrics.model.MetricsStorageService;
 import io.fabric8.insight.metrics.model.QueryResult;
 import io.fabric8.insight.metrics.mvel.MetricsStorageServiceImpl;
 import io.fabric8.insight.storage.StorageService;
+import org.elasticsearch.action.ActionFuture;
 import org.elasticsearch.action.ActionRequest;
 import org.elasticsearch.action.admin.indices.template.put.PutIndexTemplateRequest;
 import org.elasticsearch.action.admin.indices.template.put.PutIndexTemplateRequestBuilder;
@@ -31,25 +33,102 @@ import org.elasticsearch.node.Node;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.TimeZone;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
-public abstract class AbstractElasticsearchStorage implements StorageService, MetricsStorageService, Runnable {
+/**
+ * Base class for storage services which index into elasticsearch.
+ * <p/>
+ * Stored requests are put in a bounded queue, from which a number of worker threads send bulk requests.
+ * A worker sends its bulk once it holds {@link #BULK_ACTIONS} requests or {@link #BULK_SIZE} bytes,
+ * or once the queue has stayed empty for {@link #BULK_LINGER} milliseconds since its first request.
+ * When the queue is full, requests are dropped, or with the BLOCK {@link #OVERFLOW_POLICY} the storing
+ * thread waits up to {@link #BLOCK_TIMEOUT} milliseconds for space first.
+ * On stop, the workers finish their bulk and the queued requests are sent, for up to {@link #STOP_TIMEOUT}
+ * milliseconds in all. Requests which could not be sent by then are counted as dropped.
+ */
+public abstract class AbstractElasticsearchStorage implements StorageService, MetricsStorageService, ElasticsearchStorageMBean, Runnable {
+
+    public static final String QUEUE_CAPACITY = "queueCapacity";
+    public static final String OVERFLOW_POLICY = "overflowPolicy";
+    public static final String BLOCK_TIMEOUT = "blockTimeout";
+    public static final String WORKERS = "workers";
+    public static final String BULK_ACTIONS = "bulkActions";
+    public static final String BULK_SIZE = "bulkSize";
+    public static final String BULK_LINGER = "bulkLinger";
+    public static final String STOP_TIMEOUT = "stopTimeout";
+
+    public enum OverflowPolicy {
+        DROP, BLOCK
+    }
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AbstractElasticsearchStorage.class);
 
-    private static final SimpleDateFormat indexFormat = new SimpleDateFormat("yyyy.MM.dd");
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * Queued by stop to wake up idle workers, never sent
+     */
+    private static final ActionRequest STOP = new IndexRequest();
+
+    private int queueCapacity = 10000;
+
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP;
+
+    private long blockTimeout = 1000;
 
-    private int max = 1000;
+    private int workers = 2;
 
-    protected Thread thread;
+    private int bulkActions = 1000;
+
+    private long bulkSize = 5 * 1024 * 1024;
+
+    private long bulkLinger = 200;
+
+    private long stopTimeout = 5000;
 
     protected volatile boolean running;
 
-    private BlockingQueue<ActionRequest> queue = new LinkedBlockingQueue<ActionRequest>();
+    private final List<Thread> threads = new ArrayList<Thread>();
+
+    private volatile BlockingQueue<ActionRequest> queue = new ArrayBlockingQueue<ActionRequest>(queueCapacity);
+
+    private volatile IndexName indexName;
+
+    private ObjectName objectName;
+
+    private final AtomicBoolean overflowing = new AtomicBoolean();
+
+    private final AtomicLong storedCount = new AtomicLong();
+
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    private final AtomicLong indexedCount = new AtomicLong();
+
+    private final AtomicLong failedCount = new AtomicLong();
+
+    private final AtomicLong bulkCount = new AtomicLong();
+
+    private final AtomicLong bulkActionCount = new AtomicLong();
+
+    private final AtomicLong bulkLatencyTotal = new AtomicLong();
+
+    private final AtomicLong maxBulkLatency = new AtomicLong();
+
+    private volatile long lastBulkLatency;
 
     private MetricsStorageService metricsStorage = new MetricsStorageServiceImpl(this);
 
@@ -65,6 +144,75 @@ public abstract class AbstractElasticsearchStorage implements StorageService, Me
         indicesAdminClient.putTemplate(putInsightTemplateRequest).actionGet();
     }
 
+    /**
+     * Starts the bulk workers and registers the statistics mbean.
+     *
+     * @param name          - the name of the worker threads and of the mbean
+     * @param configuration - the component configuration, see the constants for the supported properties
+     */
+    protected synchronized void start(String name, Map<String, ?> configuration) {
+        queueCapacity = Math.max(1, getInt(configuration, QUEUE_CAPACITY, queueCapacity));
+        overflowPolicy = getOverflowPolicy(configuration);
+        blockTimeout = getInt(configuration, BLOCK_TIMEOUT, (int) blockTimeout);
+        workers = Math.max(1, getInt(configuration, WORKERS, workers));
+        bulkActions = Math.max(1, getInt(configuration, BULK_ACTIONS, bulkActions));
+        bulkSize = Math.max(1, getInt(configuration, BULK_SIZE, (int) bulkSize));
+        bulkLinger = Math.max(0, getInt(configuration, BULK_LINGER, (int) bulkLinger));
+        stopTimeout = Math.max(0, getInt(configuration, STOP_TIMEOUT, (int) stopTimeout));
+        if (queue.remainingCapacity() + queue.size() != queueCapacity) {
+            queue = new ArrayBlockingQueue<ActionRequest>(queueCapacity);
+        }
+
+        running = true;
+        for (int i = 0; i < workers; i++) {
+            Thread thread = new Thread(this, workers > 1 ? name + "-" + (i + 1) : name);
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+        try {
+            objectName = new ObjectName(OBJECT_NAME_PREFIX + ObjectName.quote(name));
+            JMXUtils.registerMBean(new StandardMBean(this, ElasticsearchStorageMBean.class), ManagementFactory.getPlatformMBeanServer(), objectName);
+        } catch (Exception e) {
+            LOGGER.warn("Unable to register the " + name + " mbean", e);
+        }
+    }
+
+    /**
+     * Stops the bulk workers and sends the requests left in the queue, waiting up to the stop timeout.
+     */
+    protected synchronized void stop() {
+        running = false;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(stopTimeout);
+        // Wake up the idle workers, the busy ones stop after their current bulk
+        for (int i = 0; i < threads.size(); i++) {
+            queue.offer(STOP);
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        for (Thread thread : threads) {
+            if (thread.isAlive()) {
+                thread.interrupt();
+            }
+        }
+        threads.clear();
+        flush(deadline);
+        if (objectName != null) {
+            try {
+                JMXUtils.unregisterMBean(ManagementFactory.getPlatformMBeanServer(), objectName);
+            } catch (Exception e) {
+                LOGGER.warn("Unable to unregister the " + objectName + " mbean", e);
+            }
+            objectName = null;
+        }
+    }
+
     @Override
     public void store(String type, long timestamp, QueryResult queryResult) {
         metricsStorage.store(type, timestamp, queryResult);
@@ -72,36 +220,44 @@ public abstract class AbstractElasticsearchStorage implements StorageService, Me
 
     @Override
     public void store(String type, long timestamp, String jsonData) {
-        Date ts = new Date(timestamp);
-        Date utc = new Date(ts.getTime() + ts.getTimezoneOffset() * 60000);
         IndexRequest ir = new IndexRequest()
-                .index("insight-"+ indexFormat.format(utc))
+                .index(getIndexName(timestamp))
                 .type(type)
                 .source(jsonData)
                 .create(true);
-        queue.add(ir);
+        enqueue(ir);
     }
 
     public void run() {
-        while (running) {
+        while (running && !Thread.currentThread().isInterrupted()) {
+            BulkRequest bulk = new BulkRequest();
             try {
                 ActionRequest req = queue.take();
-                // Send data
-                BulkRequest bulk = new BulkRequest();
-                int nb = 0;
-                while (req != null && (nb == 0 || nb < max)) {
+                // Fill the bulk until it is big enough, or nothing more arrived in time
+                long bytes = 0;
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(bulkLinger);
+                while (req != null && req != STOP) {
                     bulk.add(req);
-                    nb++;
+                    bytes += estimateSize(req);
+                    if (bulk.numberOfActions() >= bulkActions || bytes >= bulkSize) {
+                        break;
+                    }
                     req = queue.poll();
-                }
-                if (bulk.numberOfActions() > 0) {
-                    BulkResponse rep = getNode().client().bulk(bulk).actionGet();
-                    for (BulkItemResponse bir : rep.getItems()) {
-                        if (bir.isFailed()) {
-                            LOGGER.warn("Error executing request: {}", bir.getFailureMessage());
+                    if (req == null) {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining > 0) {
+                            req = queue.poll(remaining, TimeUnit.NANOSECONDS);
                         }
                     }
                 }
+                send(bulk, -1);
+                if (req == STOP) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                // stopped past the stop timeout, the requests taken so far are not sent
+                droppedCount.addAndGet(bulk.numberOfActions());
+                break;
             } catch (Exception e) {
                 if (running) {
                     LOGGER.warn("Error while sending requests", e);
@@ -111,4 +267,243 @@ public abstract class AbstractElasticsearchStorage implements StorageService, Me
     }
 
     public abstract Node getNode();
+
+    @Override
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    @Override
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    @Override
+    public String getOverflowPolicy() {
+        return overflowPolicy.name();
+    }
+
+    @Override
+    public int getWorkers() {
+        return workers;
+    }
+
+    @Override
+    public long getStoredCount() {
+        return storedCount.get();
+    }
+
+    @Override
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    @Override
+    public long getIndexedCount() {
+        return indexedCount.get();
+    }
+
+    @Override
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    @Override
+    public long getBulkCount() {
+        return bulkCount.get();
+    }
+
+    @Override
+    public double getMeanBulkSize() {
+        long count = bulkCount.get();
+        return count > 0 ? (double) bulkActionCount.get() / count : 0;
+    }
+
+    @Override
+    public double getMeanBulkLatency() {
+        long count = bulkCount.get();
+        return count > 0 ? (double) bulkLatencyTotal.get() / count : 0;
+    }
+
+    @Override
+    public long getMaxBulkLatency() {
+        return maxBulkLatency.get();
+    }
+
+    @Override
+    public long getLastBulkLatency() {
+        return lastBulkLatency;
+    }
+
+    @Override
+    public void resetStatistics() {
+        storedCount.set(0);
+        droppedCount.set(0);
+        indexedCount.set(0);
+        failedCount.set(0);
+        bulkCount.set(0);
+        bulkActionCount.set(0);
+        bulkLatencyTotal.set(0);
+        maxBulkLatency.set(0);
+        lastBulkLatency = 0;
+    }
+
+    /**
+     * @return the name of the daily index for the timestamp, in UTC
+     */
+    String getIndexName(long timestamp) {
+        IndexName current = indexName;
+        if (current == null || timestamp < current.start || timestamp >= current.start + DAY) {
+            current = new IndexName(timestamp - (((timestamp % DAY) + DAY) % DAY));
+            indexName = current;
+        }
+        return current.name;
+    }
+
+    private void enqueue(ActionRequest request) {
+        storedCount.incrementAndGet();
+        boolean queued;
+        if (overflowPolicy == OverflowPolicy.BLOCK) {
+            try {
+                queued = queue.offer(request, blockTimeout, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                queued = false;
+            }
+        } else {
+            queued = queue.offer(request);
+        }
+        if (queued) {
+            overflowing.set(false);
+        } else {
+            droppedCount.incrementAndGet();
+            if (overflowing.compareAndSet(false, true)) {
+                LOGGER.warn("Elasticsearch storage queue is full ({} requests), dropping requests until it drains", queueCapacity);
+            }
+        }
+    }
+
+    /**
+     * Sends the requests left in the queue in bulks, until it is empty or the deadline has passed.
+     * The requests still queued then are dropped.
+     */
+    private void flush(long deadline) {
+        while (true) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                break;
+            }
+            BulkRequest bulk = new BulkRequest();
+            long bytes = 0;
+            ActionRequest req;
+            while (bulk.numberOfActions() < bulkActions && bytes < bulkSize && (req = queue.poll()) != null) {
+                if (req != STOP) {
+                    bulk.add(req);
+                    bytes += estimateSize(req);
+                }
+            }
+            if (bulk.numberOfActions() == 0) {
+                break;
+            }
+            try {
+                send(bulk, remaining);
+            } catch (Exception e) {
+                LOGGER.warn("Error while sending requests", e);
+            }
+        }
+        long dropped = 0;
+        ActionRequest req;
+        while ((req = queue.poll()) != null) {
+            if (req != STOP) {
+                dropped++;
+            }
+        }
+        if (dropped > 0) {
+            droppedCount.addAndGet(dropped);
+            LOGGER.warn("Dropped {} requests which could not be sent before the storage stopped", dropped);
+        }
+    }
+
+    /**
+     * @param timeout - how long to wait for the response in milliseconds, or -1 to wait as long as it takes
+     */
+    private void send(BulkRequest bulk, long timeout) {
+        int actions = bulk.numberOfActions();
+        if (actions == 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        BulkResponse rep;
+        try {
+            ActionFuture<BulkResponse> future = getNode().client().bulk(bulk);
+            rep = timeout < 0 ? future.actionGet() : future.actionGet(timeout);
+        } catch (RuntimeException e) {
+            failedCount.addAndGet(actions);
+            throw e;
+        }
+        long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        bulkCount.incrementAndGet();
+        bulkActionCount.addAndGet(actions);
+        bulkLatencyTotal.addAndGet(latency);
+        lastBulkLatency = latency;
+        long max;
+        while (latency > (max = maxBulkLatency.get()) && !maxBulkLatency.compareAndSet(max, latency)) {
+        }
+        for (BulkItemResponse bir : rep.getItems()) {
+            if (bir.isFailed()) {
+                failedCount.incrementAndGet();
+                LOGGER.warn("Error executing request: {}", bir.getFailureMessage());
+            } else {
+                indexedCount.incrementAndGet();
+            }
+        }
+    }
+
+    private static long estimateSize(ActionRequest request) {
+        if (request instanceof IndexRequest && ((IndexRequest) request).source() != null) {
+            return ((IndexRequest) request).source().length();
+        }
+        return 0;
+    }
+
+    private OverflowPolicy getOverflowPolicy(Map<String, ?> configuration) {
+        Object value = configuration != null ? configuration.get(OVERFLOW_POLICY) : null;
+        if (value != null) {
+            try {
+                return OverflowPolicy.valueOf(value.toString().trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                LOGGER.warn("Invalid {} {}, using {}", OVERFLOW_POLICY, value, overflowPolicy);
+            }
+        }
+        return overflowPolicy;
+    }
+
+    private static int getInt(Map<String, ?> configuration, String key, int defaultValue) {
+        Object value = configuration != null ? configuration.get(key) : null;
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        } else if (value != null) {
+            try {
+                return Integer.parseInt(value.toString().trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warn("Invalid {} {}, using {}", key, value, defaultValue);
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * The index for one UTC day.
+     */
+    private static final class IndexName {
+        private final long start;
+        private final String name;
+
+        IndexName(long start) {
+            SimpleDateFormat indexFormat = new SimpleDateFormat("yyyy.MM.dd");
+            indexFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+            this.start = start;
+            this.name = "insight-" + indexFormat.format(new Date(start));
+        }
+    }
 }
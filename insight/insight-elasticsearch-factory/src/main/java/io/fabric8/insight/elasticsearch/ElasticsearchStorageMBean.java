@@ -0,0 +1,58 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.insight.elasticsearch;
+
+/**
+ * Statistics of the bulk indexing pipeline of an {@link AbstractElasticsearchStorage}.
+ */
+public interface ElasticsearchStorageMBean {
+
+    String OBJECT_NAME_PREFIX = "io.fabric8.insight:type=ElasticsearchStorage,name=";
+
+    int getQueueSize();
+
+    int getQueueCapacity();
+
+    /**
+     * @return DROP or BLOCK, what happens to requests stored while the queue is full
+     */
+    String getOverflowPolicy();
+
+    int getWorkers();
+
+    long getStoredCount();
+
+    long getDroppedCount();
+
+    long getIndexedCount();
+
+    long getFailedCount();
+
+    long getBulkCount();
+
+    double getMeanBulkSize();
+
+    /**
+     * @return mean time in milliseconds taken by a bulk request
+     */
+    double getMeanBulkLatency();
+
+    long getMaxBulkLatency();
+
+    long getLastBulkLatency();
+
+    void resetStatistics();
+}
@@ -0,0 +1,284 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.insight.elasticsearch;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.action.ActionFuture;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.node.Node;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AbstractElasticsearchStorageTest {
+
+    private static final String DOCUMENT = "{\"value\":1}";
+
+    private final List<Integer> bulks = new ArrayList<Integer>();
+    private final Semaphore received = new Semaphore(0);
+    private volatile CountDownLatch release = new CountDownLatch(0);
+    private final TestStorage storage = new TestStorage();
+
+    @After
+    public void stopStorage() {
+        release.countDown();
+        storage.stop();
+    }
+
+    @Test
+    public void testBulkActions() throws Exception {
+        store(7);
+        storage.start("bulk-actions", configuration(AbstractElasticsearchStorage.WORKERS, 1, AbstractElasticsearchStorage.BULK_ACTIONS, 3, AbstractElasticsearchStorage.BULK_LINGER, 0));
+        awaitBulks(3);
+        assertEquals(Arrays.asList(3, 3, 1), getBulks());
+        assertEquals(3, storage.getBulkCount());
+    }
+
+    @Test
+    public void testBulkSize() throws Exception {
+        store(5);
+        storage.start("bulk-size", configuration(AbstractElasticsearchStorage.WORKERS, 1, AbstractElasticsearchStorage.BULK_SIZE, 2 * DOCUMENT.length(), AbstractElasticsearchStorage.BULK_LINGER, 0));
+        awaitBulks(3);
+        assertEquals(Arrays.asList(2, 2, 1), getBulks());
+    }
+
+    @Test
+    public void testBulkLinger() throws Exception {
+        storage.start("bulk-linger", configuration(AbstractElasticsearchStorage.WORKERS, 1, AbstractElasticsearchStorage.BULK_LINGER, 60000));
+        store(1);
+        Thread.sleep(100);
+        store(1);
+
+        // stopping does not wait for the linger to end
+        long start = System.nanoTime();
+        storage.stop();
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        assertEquals(Arrays.asList(2), getBulks());
+    }
+
+    @Test
+    public void testDropPolicy() throws Exception {
+        release = new CountDownLatch(1);
+        storage.start("drop", configuration(AbstractElasticsearchStorage.WORKERS, 1, AbstractElasticsearchStorage.BULK_ACTIONS, 1, AbstractElasticsearchStorage.QUEUE_CAPACITY, 2));
+        store(1);
+        awaitBulks(1);
+        store(3);
+        assertEquals(4, storage.getStoredCount());
+        assertEquals(1, storage.getDroppedCount());
+        assertEquals(2, storage.getQueueSize());
+
+        release.countDown();
+        awaitBulks(2);
+        assertEquals(Arrays.asList(1, 1, 1), getBulks());
+        assertEquals(1, storage.getDroppedCount());
+    }
+
+    @Test
+    public void testBlockPolicy() throws Exception {
+        release = new CountDownLatch(1);
+        storage.start("block", configuration(AbstractElasticsearchStorage.WORKERS, 1, AbstractElasticsearchStorage.BULK_ACTIONS, 1, AbstractElasticsearchStorage.QUEUE_CAPACITY, 2,
+                AbstractElasticsearchStorage.OVERFLOW_POLICY, "block", AbstractElasticsearchStorage.BLOCK_TIMEOUT, 60000));
+        store(1);
+        awaitBulks(1);
+        store(2);
+        Thread blocked = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                store(1);
+            }
+        });
+        blocked.start();
+        blocked.join(200);
+        assertTrue(blocked.isAlive());
+
+        release.countDown();
+        blocked.join(TimeUnit.SECONDS.toMillis(10));
+        awaitBulks(3);
+        assertEquals(Arrays.asList(1, 1, 1, 1), getBulks());
+        assertEquals(0, storage.getDroppedCount());
+    }
+
+    @Test
+    public void testBlockTimeout() throws Exception {
+        release = new CountDownLatch(1);
+        storage.start("block-timeout", configuration(AbstractElasticsearchStorage.WORKERS, 1, AbstractElasticsearchStorage.BULK_ACTIONS, 1, AbstractElasticsearchStorage.QUEUE_CAPACITY, 1,
+                AbstractElasticsearchStorage.OVERFLOW_POLICY, "BLOCK", AbstractElasticsearchStorage.BLOCK_TIMEOUT, 100));
+        store(1);
+        awaitBulks(1);
+        store(1);
+        long start = System.nanoTime();
+        store(1);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(1, storage.getDroppedCount());
+    }
+
+    @Test
+    public void testStopFlushesQueue() throws Exception {
+        release = new CountDownLatch(1);
+        storage.start("stop-flush", configuration(AbstractElasticsearchStorage.WORKERS, 1, AbstractElasticsearchStorage.BULK_ACTIONS, 2));
+        store(1);
+        awaitBulks(1);
+        store(3);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+                release.countDown();
+            }
+        }).start();
+
+        // the worker finishes its bulk, what is left in the queue is sent by stop
+        storage.stop();
+        assertEquals(Arrays.asList(1, 2, 1), getBulks());
+        assertEquals(0, storage.getQueueSize());
+        assertEquals(0, storage.getDroppedCount());
+    }
+
+    @Test
+    public void testStopDropsUnsent() throws Exception {
+        release = new CountDownLatch(1);
+        storage.start("stop-drop", configuration(AbstractElasticsearchStorage.WORKERS, 1, AbstractElasticsearchStorage.BULK_ACTIONS, 1, AbstractElasticsearchStorage.STOP_TIMEOUT, 100));
+        store(1);
+        awaitBulks(1);
+        store(2);
+
+        // the worker is still waiting for its response at the stop timeout, so nothing more can be sent
+        storage.stop();
+        assertEquals(Arrays.asList(1), getBulks());
+        assertEquals(0, storage.getQueueSize());
+        assertEquals(2, storage.getDroppedCount());
+    }
+
+    private void store(int count) {
+        for (int i = 0; i < count; i++) {
+            storage.store("test", System.currentTimeMillis(), DOCUMENT);
+        }
+    }
+
+    private void awaitBulks(int count) throws InterruptedException {
+        assertTrue("Timed out waiting for " + count + " bulks", received.tryAcquire(count, 10, TimeUnit.SECONDS));
+    }
+
+    private List<Integer> getBulks() {
+        synchronized (bulks) {
+            return new ArrayList<Integer>(bulks);
+        }
+    }
+
+    private static Map<String, Object> configuration(Object... keysAndValues) {
+        Map<String, Object> configuration = new HashMap<String, Object>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            configuration.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return configuration;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, final InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(AbstractElasticsearchStorageTest.class.getClassLoader(), new Class[]{type}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getDeclaringClass() == Object.class) {
+                    switch (method.getName()) {
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        default:
+                            return method.getDeclaringClass().getSimpleName();
+                    }
+                }
+                return handler.invoke(proxy, method, args);
+            }
+        });
+    }
+
+    /**
+     * Records the number of actions in each bulk, and answers once the release latch is counted down.
+     */
+    private class TestStorage extends AbstractElasticsearchStorage {
+
+        private final Node node;
+
+        TestStorage() {
+            final ActionFuture<BulkResponse> future = proxy(ActionFuture.class, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if (method.getName().equals("actionGet")) {
+                        boolean released;
+                        try {
+                            released = args == null ? release.await(1, TimeUnit.MINUTES) : release.await((Long) args[0], TimeUnit.MILLISECONDS);
+                        } catch (InterruptedException e) {
+                            throw new IllegalStateException("Future got interrupted", e);
+                        }
+                        if (!released) {
+                            throw new IllegalStateException("Timed out");
+                        }
+                        return new BulkResponse(new BulkItemResponse[0], 0);
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                }
+            });
+            final Client client = proxy(Client.class, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if (method.getName().equals("bulk") && args.length == 1) {
+                        synchronized (bulks) {
+                            bulks.add(((BulkRequest) args[0]).numberOfActions());
+                        }
+                        received.release();
+                        return future;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                }
+            });
+            node = proxy(Node.class, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if (method.getName().equals("client")) {
+                        return client;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                }
+            });
+        }
+
+        @Override
+        public Node getNode() {
+            return node;
+        }
+    }
+}
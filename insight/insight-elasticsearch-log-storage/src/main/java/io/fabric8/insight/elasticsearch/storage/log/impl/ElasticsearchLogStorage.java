@@ -21,6 +21,8 @@ import io.fabric8.insight.storage.StorageService;
 import org.apache.felix.scr.annotations.*;
 import org.elasticsearch.node.Node;
 
+import java.util.Map;
+
 @Component(immediate = true, name = "io.fabric8.insight.log.elasticsearch")
 @Service({StorageService.class})
 public class ElasticsearchLogStorage extends AbstractElasticsearchStorage {
@@ -29,19 +31,14 @@ public class ElasticsearchLogStorage extends AbstractElasticsearchStorage {
     private final ValidatingReference<Node> node = new ValidatingReference<>();
 
     @Activate
-    public void activate() {
-        running = true;
+    public void activate(Map<String, ?> configuration) {
         putInsightTemplate();
-        thread = new Thread(this, "ElasticStorage");
-        thread.start();
+        start("ElasticStorage", configuration);
     }
 
     @Deactivate
     public void deactivate() {
-        running = false;
-        if (thread != null) {
-            thread.interrupt();
-        }
+        stop();
     }
 
     private void bindNode(Node node) {
@@ -15,9 +15,11 @@
  */
 package io.fabric8.insight.log.storage;
 
-import java.util.HashMap;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import io.fabric8.insight.storage.StorageService;
 import org.apache.felix.scr.annotations.*;
@@ -26,24 +28,35 @@ import org.ops4j.pax.logging.spi.PaxLoggingEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import static io.fabric8.insight.log.service.support.MavenCoordinates.addMavenCoord;
-import static io.fabric8.insight.log.storage.InsightUtils.formatDate;
-import static io.fabric8.insight.log.storage.InsightUtils.quote;
-
+/**
+ * Stores log events as JSON documents in the {@link StorageService}.
+ * <p/>
+ * Logging threads only put events in a bounded queue; a single worker thread encodes and stores them.
+ * When the queue is full, events are dropped and the number dropped is logged once the queue has drained.
+ */
 @Component(immediate = true, name = "io.fabric8.insight.log.storage.logs")
 @Service(PaxAppender.class)
 @Properties({
         @Property(name = "org.ops4j.pax.logging.appender.name", value = "InsightLogAppender")
 })
-public class InsightLogAppender implements PaxAppender {
+public class InsightLogAppender implements PaxAppender, Runnable {
 
     public static final String LOG_TYPE = "es.log.type";
+    public static final String QUEUE_SIZE = "es.log.queue.size";
+
+    private static final int DEFAULT_QUEUE_SIZE = 8192;
 
     private static final Logger LOGGER = LoggerFactory.getLogger(InsightLogAppender.class);
 
     private String name;
 
-    private String type = "log";
+    private volatile String type = "log";
+
+    private volatile BlockingQueue<PaxLoggingEvent> queue;
+
+    private volatile Thread worker;
+
+    private final AtomicLong dropped = new AtomicLong();
 
     @Reference
     private StorageService storageService;
@@ -54,6 +67,15 @@ public class InsightLogAppender implements PaxAppender {
         if (configuration.containsKey(LOG_TYPE)) {
             type = (String) configuration.get(LOG_TYPE);
         }
+        int queueSize = DEFAULT_QUEUE_SIZE;
+        if (configuration.containsKey(QUEUE_SIZE)) {
+            queueSize = Integer.parseInt(configuration.get(QUEUE_SIZE).toString());
+        }
+        queue = new ArrayBlockingQueue<PaxLoggingEvent>(queueSize);
+        Thread thread = new Thread(this, "Insight log appender");
+        thread.setDaemon(true);
+        worker = thread;
+        thread.start();
     }
 
     @Modified
@@ -65,71 +87,83 @@ public class InsightLogAppender implements PaxAppender {
         }
     }
 
+    @Deactivate
+    public void deactivate() {
+        Thread thread = worker;
+        worker = null;
+        queue = null;
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
     public void doAppend(final PaxLoggingEvent paxLoggingEvent) {
+        BlockingQueue<PaxLoggingEvent> queue = this.queue;
+        // Events logged while storing, by this appender or the storage itself, are not fed back into the queue.
+        if (queue == null || Thread.currentThread() == worker) {
+            return;
+        }
         try {
             // Only store TRACE events which have a trace-id.
-            if ("TRACE".equals(paxLoggingEvent.getLevel().toString().toUpperCase()) &&
+            if ("TRACE".equalsIgnoreCase(paxLoggingEvent.getLevel().toString()) &&
                     !paxLoggingEvent.getProperties().containsKey("trace-id")) {
                 return;
             }
-            StringBuilder writer = new StringBuilder();
-            writer.append("{ \"host\" : ");
-            quote(name, writer);
-            writer.append(",\n  \"@timestamp\" : ");
-            quote(formatDate(paxLoggingEvent.getTimeStamp()), writer);
-            writer.append(",\n  \"level\" : ");
-            quote(paxLoggingEvent.getLevel().toString(), writer);
-            writer.append(",\n  \"logger\" : ");
-            quote(paxLoggingEvent.getLoggerName(), writer);
-            writer.append(",\n  \"thread\" : ");
-            quote(paxLoggingEvent.getThreadName(), writer);
-            writer.append(",\n  \"message\" : ");
-            quote(paxLoggingEvent.getMessage(), writer);
-
-            String[] throwable = paxLoggingEvent.getThrowableStrRep();
-            if (throwable != null) {
-                throwable = addMavenCoord(throwable);
-                writer.append(",\n  \"exception\" : [");
-                for (int i = 0; i < throwable.length; i++) {
-                    if (i != 0)
-                        writer.append(", ");
-                    quote(throwable[i], writer);
-                }
-                writer.append("]");
+            // The event computes these lazily from the current thread, so resolve them before handing it off.
+            paxLoggingEvent.getThreadName();
+            paxLoggingEvent.getMessage();
+            paxLoggingEvent.getProperties();
+            paxLoggingEvent.getThrowableStrRep();
+            if (!queue.offer(paxLoggingEvent)) {
+                dropped.incrementAndGet();
             }
+        } catch (Exception e) {
+            LOGGER.warn("Error appending log to storage", e);
+        }
+    }
 
-            writer.append(",\n  \"properties\" : { ");
-            boolean first = true;
-            Map<String, String> properties = new HashMap<String, String>();
-            Set<Map.Entry> set = paxLoggingEvent.getProperties().entrySet();
-            for (Map.Entry entry : set) {
-                Object key = entry.getKey();
-                Object value = entry.getValue();
-                if (key != null && value != null) {
-                    properties.put(key.toString(), value.toString());
-                }
-            }
-            addMavenCoord(properties);
-
-            for (Object key : properties.keySet()) {
-                if (first) {
-                    first = false;
-                } else {
-                    writer.append(", ");
+    @Override
+    public void run() {
+        BlockingQueue<PaxLoggingEvent> queue = this.queue;
+        LogEventEncoder encoder = new LogEventEncoder();
+        try {
+            while (true) {
+                store(encoder, queue.take());
+                if (queue.isEmpty()) {
+                    reportDropped();
                 }
-                quote(key.toString(), writer);
-                writer.append(": ");
-                quote(properties.get(key).toString(), writer);
             }
-            writer.append(" }");
-            writer.append("\n}");
+        } catch (InterruptedException e) {
+            // deactivated, store what is left
+        }
+        PaxLoggingEvent event;
+        while ((event = queue.poll()) != null) {
+            store(encoder, event);
+        }
+        reportDropped();
+    }
 
+    private void store(LogEventEncoder encoder, PaxLoggingEvent event) {
+        try {
+            String type = this.type;
             if (type != null && storageService != null) {
-                storageService.store(type, paxLoggingEvent.getTimeStamp(), writer.toString());
+                storageService.store(type, event.getTimeStamp(), encoder.encode(name, event));
             }
         } catch (Exception e) {
             LOGGER.warn("Error appending log to storage", e);
         }
     }
 
+    private void reportDropped() {
+        long count = dropped.getAndSet(0);
+        if (count > 0) {
+            LOGGER.warn("Insight log appender queue was full, dropped {} log events", count);
+        }
+    }
+
 }
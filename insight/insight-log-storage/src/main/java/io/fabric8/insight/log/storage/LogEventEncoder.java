@@ -0,0 +1,283 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.insight.log.storage;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import io.fabric8.insight.log.service.support.MavenCoordinates;
+import org.ops4j.pax.logging.spi.PaxLoggingEvent;
+
+/**
+ * Encodes log events as the JSON documents stored by {@link InsightLogAppender}.
+ * <p/>
+ * An encoder appends each event straight into a single reused buffer, formats the timestamp once per second
+ * and remembers the maven coordinates it resolved for each bundle, so encoding an event allocates little more
+ * than the resulting String. It is not thread safe: each thread encoding events needs its own instance.
+ */
+public class LogEventEncoder {
+
+    private static final String MAVEN_COORDINATES = "maven.coordinates";
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+    private static final int MAX_CACHED_BUNDLES = 1024;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSX");
+
+    private StringBuilder buffer = new StringBuilder(INITIAL_CAPACITY);
+
+    // the formatted date of the current second, around the milliseconds
+    private long second = Long.MIN_VALUE;
+    private String datePrefix;
+    private String dateSuffix;
+
+    // maven coordinates by the "[bundle id:symbolic name:version]" suffix of exception lines
+    private final Map<String, String> frameCoordinates = new HashMap<String, String>();
+    // bundle version and maven coordinates by the bundle.id event property
+    private final Map<String, String[]> bundleCoordinates = new HashMap<String, String[]>();
+
+    public String encode(String host, PaxLoggingEvent event) {
+        return encode(host, event.getTimeStamp(), event.getLevel().toString(), event.getLoggerName(),
+                event.getThreadName(), event.getMessage(), event.getThrowableStrRep(), event.getProperties());
+    }
+
+    public String encode(String host, long timestamp, String level, String logger, String thread, String message,
+                         String[] throwable, Map<?, ?> properties) {
+        StringBuilder writer = buffer;
+        writer.setLength(0);
+
+        writer.append("{ \"host\" : ");
+        quote(host);
+        writer.append(",\n  \"@timestamp\" : \"");
+        appendDate(timestamp);
+        writer.append("\",\n  \"level\" : ");
+        quote(level);
+        writer.append(",\n  \"logger\" : ");
+        quote(logger);
+        writer.append(",\n  \"thread\" : ");
+        quote(thread);
+        writer.append(",\n  \"message\" : ");
+        quote(message);
+
+        if (throwable != null) {
+            writer.append(",\n  \"exception\" : [");
+            for (int i = 0; i < throwable.length; i++) {
+                if (i != 0) {
+                    writer.append(", ");
+                }
+                appendThrowableLine(throwable[i]);
+            }
+            writer.append("]");
+        }
+
+        writer.append(",\n  \"properties\" : { ");
+        boolean first = true;
+        boolean hasCoordinates = false;
+        Object bundleId = null;
+        Object bundleVersion = null;
+        if (properties != null) {
+            for (Map.Entry<?, ?> entry : properties.entrySet()) {
+                Object key = entry.getKey();
+                Object value = entry.getValue();
+                if (key == null || value == null) {
+                    continue;
+                }
+                String name = key.toString();
+                if (MAVEN_COORDINATES.equals(name)) {
+                    hasCoordinates = true;
+                } else if ("bundle.id".equals(name)) {
+                    bundleId = value;
+                } else if ("bundle.version".equals(name)) {
+                    bundleVersion = value;
+                }
+                if (first) {
+                    first = false;
+                } else {
+                    writer.append(", ");
+                }
+                quote(name);
+                writer.append(": ");
+                quote(value.toString());
+            }
+        }
+        if (!hasCoordinates && bundleId != null) {
+            String coordinates = getBundleCoordinates(bundleId.toString(), bundleVersion != null ? bundleVersion.toString() : null);
+            if (coordinates != null && !coordinates.isEmpty()) {
+                if (!first) {
+                    writer.append(", ");
+                }
+                quote(MAVEN_COORDINATES);
+                writer.append(": ");
+                quote(coordinates);
+            }
+        }
+        writer.append(" }");
+        writer.append("\n}");
+
+        String json = writer.toString();
+        if (writer.capacity() > MAX_RETAINED_CAPACITY) {
+            // don't hold on to the buffer grown by an unusually large event
+            buffer = new StringBuilder(INITIAL_CAPACITY);
+        }
+        return json;
+    }
+
+    private void appendDate(long timestamp) {
+        // round down, so that the milliseconds of timestamps before the epoch are positive too
+        long eventSecond = timestamp >= 0 ? timestamp / 1000L : (timestamp - 999L) / 1000L;
+        if (eventSecond != second) {
+            String date = dateFormat.format(new Date(eventSecond * 1000L));
+            int millis = date.lastIndexOf('.') + 1;
+            datePrefix = date.substring(0, millis);
+            dateSuffix = date.substring(millis + 3);
+            second = eventSecond;
+        }
+        int millis = (int) (timestamp - second * 1000L);
+        buffer.append(datePrefix);
+        buffer.append((char) ('0' + millis / 100)).append((char) ('0' + millis / 10 % 10)).append((char) ('0' + millis % 10));
+        buffer.append(dateSuffix);
+    }
+
+    /**
+     * Appends an exception line, followed by the maven coordinates of the bundle its frame belongs to
+     * when the line ends with the bundle in square brackets.
+     */
+    private void appendThrowableLine(String line) {
+        String coordinates = null;
+        if (line != null && line.endsWith("]")) {
+            int index = line.lastIndexOf('[');
+            if (index > 0) {
+                coordinates = getFrameCoordinates(line.substring(index + 1, line.length() - 1));
+            }
+        }
+        if (coordinates == null) {
+            quote(line);
+        } else {
+            buffer.append('"');
+            escape(line);
+            buffer.append('[');
+            escape(coordinates);
+            buffer.append(']');
+            buffer.append('"');
+        }
+    }
+
+    private String getFrameCoordinates(String bundle) {
+        String coordinates = frameCoordinates.get(bundle);
+        if (coordinates == null && !frameCoordinates.containsKey(bundle)) {
+            int index = bundle.indexOf(':');
+            long bundleId = index > 0 ? parseBundleId(bundle, index) : -1;
+            coordinates = bundleId >= 0 ? MavenCoordinates.getMavenCoordinates(bundleId) : null;
+            if (frameCoordinates.size() >= MAX_CACHED_BUNDLES) {
+                frameCoordinates.clear();
+            }
+            frameCoordinates.put(bundle, coordinates);
+        }
+        return coordinates;
+    }
+
+    private String getBundleCoordinates(String bundleId, String bundleVersion) {
+        String[] cached = bundleCoordinates.get(bundleId);
+        if (cached == null || (bundleVersion == null ? cached[0] != null : !bundleVersion.equals(cached[0]))) {
+            long id = parseBundleId(bundleId, bundleId.length());
+            String coordinates = id >= 0 ? MavenCoordinates.getMavenCoordinates(id) : null;
+            if (bundleCoordinates.size() >= MAX_CACHED_BUNDLES) {
+                bundleCoordinates.clear();
+            }
+            cached = new String[]{bundleVersion, coordinates};
+            bundleCoordinates.put(bundleId, cached);
+        }
+        return cached[1];
+    }
+
+    /**
+     * @return the bundle id made of the first <code>end</code> characters, or -1 when they are not a number
+     */
+    private static long parseBundleId(String s, int end) {
+        if (end == 0 || end > 18) {
+            return -1;
+        }
+        long id = 0;
+        for (int i = 0; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            id = id * 10 + (c - '0');
+        }
+        return id;
+    }
+
+    /**
+     * Appends the string in double quotes, escaped as {@link InsightUtils#quote(String, StringBuilder)} does.
+     */
+    private void quote(String string) {
+        buffer.append('"');
+        escape(string);
+        buffer.append('"');
+    }
+
+    private void escape(String string) {
+        if (string == null) {
+            return;
+        }
+        StringBuilder w = buffer;
+        int len = string.length();
+        char c = 0;
+        for (int i = 0; i < len; i++) {
+            char b = c;
+            c = string.charAt(i);
+            switch (c) {
+                case '\\':
+                case '"':
+                    w.append('\\').append(c);
+                    break;
+                case '/':
+                    if (b == '<') {
+                        w.append('\\');
+                    }
+                    w.append(c);
+                    break;
+                case '\b':
+                    w.append("\\b");
+                    break;
+                case '\t':
+                    w.append("\\t");
+                    break;
+                case '\n':
+                    w.append("\\n");
+                    break;
+                case '\f':
+                    w.append("\\f");
+                    break;
+                case '\r':
+                    w.append("\\r");
+                    break;
+                default:
+                    if (c < ' ' || (c >= '\u0080' && c < '\u00a0') || (c >= '\u2000' && c < '\u2100')) {
+                        w.append("\\u").append(HEX[c >> 12 & 0xf]).append(HEX[c >> 8 & 0xf])
+                                .append(HEX[c >> 4 & 0xf]).append(HEX[c & 0xf]);
+                    } else {
+                        w.append(c);
+                    }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,154 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.insight.log.storage;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import static io.fabric8.insight.log.service.support.MavenCoordinates.addMavenCoord;
+import static io.fabric8.insight.log.storage.InsightUtils.formatDate;
+import static io.fabric8.insight.log.storage.InsightUtils.quote;
+
+/**
+ * Measures the events per second encoded by {@link LogEventEncoder} against the StringBuilder per event
+ * encoding InsightLogAppender used before, with and without an exception. The gc profiler reports the bytes
+ * allocated per event as <code>gc.alloc.rate.norm</code>.
+ * <p/>
+ * Run with <code>mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=io.fabric8.insight.log.storage.LogEventEncoderBenchmark</code>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogEventEncoderBenchmark {
+
+    private static final String HOST = "root";
+    private static final String LEVEL = "INFO";
+    private static final String LOGGER = "io.fabric8.insight.log.storage.LogEventEncoderBenchmark";
+    private static final String THREAD = "qtp1234567-42";
+    private static final String MESSAGE = "Processed request /fabric/containers in 12 ms: \"ok\"";
+
+    @Param({"false", "true"})
+    public boolean exception;
+
+    private final LogEventEncoder encoder = new LogEventEncoder();
+    private Map<String, String> properties;
+    private String[] throwable;
+    private long timestamp;
+
+    @Setup
+    public void setup() {
+        properties = new HashMap<String, String>();
+        properties.put("bundle.id", "42");
+        properties.put("bundle.name", "io.fabric8.fabric-core");
+        properties.put("bundle.version", "1.2.0.SNAPSHOT");
+        properties.put("camel.contextId", "camel-1");
+        if (exception) {
+            throwable = new String[21];
+            throwable[0] = "java.lang.IllegalStateException: Container root is not running";
+            for (int i = 1; i < throwable.length; i++) {
+                throwable[i] = "\tat io.fabric8.service.Frame" + i + ".call(Frame" + i + ".java:" + (10 * i) + ")[" + (40 + i % 4) + ":io.fabric8.fabric-core:1.2.0.SNAPSHOT]";
+            }
+        }
+        timestamp = System.currentTimeMillis();
+    }
+
+    @Benchmark
+    public String encoder() {
+        return encoder.encode(HOST, timestamp++, LEVEL, LOGGER, THREAD, MESSAGE, throwable, properties);
+    }
+
+    @Benchmark
+    public String stringBuilder() {
+        long timestamp = this.timestamp++;
+        StringBuilder writer = new StringBuilder();
+        writer.append("{ \"host\" : ");
+        quote(HOST, writer);
+        writer.append(",\n  \"@timestamp\" : ");
+        quote(formatDate(timestamp), writer);
+        writer.append(",\n  \"level\" : ");
+        quote(LEVEL, writer);
+        writer.append(",\n  \"logger\" : ");
+        quote(LOGGER, writer);
+        writer.append(",\n  \"thread\" : ");
+        quote(THREAD, writer);
+        writer.append(",\n  \"message\" : ");
+        quote(MESSAGE, writer);
+
+        String[] throwable = this.throwable;
+        if (throwable != null) {
+            throwable = addMavenCoord(throwable);
+            writer.append(",\n  \"exception\" : [");
+            for (int i = 0; i < throwable.length; i++) {
+                if (i != 0)
+                    writer.append(", ");
+                quote(throwable[i], writer);
+            }
+            writer.append("]");
+        }
+
+        writer.append(",\n  \"properties\" : { ");
+        boolean first = true;
+        Map<String, String> properties = new HashMap<String, String>();
+        Set<Map.Entry<String, String>> set = this.properties.entrySet();
+        for (Map.Entry entry : set) {
+            Object key = entry.getKey();
+            Object value = entry.getValue();
+            if (key != null && value != null) {
+                properties.put(key.toString(), value.toString());
+            }
+        }
+        addMavenCoord(properties);
+
+        for (Object key : properties.keySet()) {
+            if (first) {
+                first = false;
+            } else {
+                writer.append(", ");
+            }
+            quote(key.toString(), writer);
+            writer.append(": ");
+            quote(properties.get(key).toString(), writer);
+        }
+        writer.append(" }");
+        writer.append("\n}");
+        return writer.toString();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(LogEventEncoderBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class).build()).run();
+    }
+}
@@ -0,0 +1,172 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.insight.log.storage;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import static io.fabric8.insight.log.service.support.MavenCoordinates.addMavenCoord;
+import static io.fabric8.insight.log.storage.InsightUtils.formatDate;
+import static io.fabric8.insight.log.storage.InsightUtils.quote;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that {@link LogEventEncoder} produces the same JSON as the StringBuilder per event encoding
+ * InsightLogAppender used before.
+ */
+public class LogEventEncoderTest {
+
+    private static final String HOST = "root";
+    private static final String LOGGER = "io.fabric8.insight.log.storage.LogEventEncoderTest";
+    private static final String THREAD = "qtp1234567-42";
+    private static final long TIMESTAMP = 1420070400123L;
+
+    private final LogEventEncoder encoder = new LogEventEncoder();
+
+    @Test
+    public void testEventWithoutThrowable() {
+        assertSameEncoding(TIMESTAMP, "INFO", "Processed request /fabric/containers in 12 ms: \"ok\"", null, new HashMap<String, String>());
+        assertSameEncoding(TIMESTAMP, "WARN", "", null, new HashMap<String, String>());
+        assertSameEncoding(TIMESTAMP, "DEBUG", null, null, null);
+    }
+
+    @Test
+    public void testEventWithThrowable() {
+        String[] throwable = {
+                "java.lang.IllegalStateException: Container \"root\" is not running",
+                "\tat io.fabric8.service.ContainerImpl.start(ContainerImpl.java:42)[42:io.fabric8.fabric-core:1.2.0]",
+                "\tat io.fabric8.service.Frame.call(Frame.java:10)[not-a-bundle]",
+                "\tat io.fabric8.service.Frame.call(Frame.java:10)",
+                "Caused by: java.io.IOException: </script> \\ \b\f\r\n\u0001\u0085\u2028",
+                ""
+        };
+        assertSameEncoding(TIMESTAMP, "ERROR", "Failed to start", throwable, new HashMap<String, String>());
+        assertSameEncoding(TIMESTAMP, "ERROR", "Failed to start", new String[0], new HashMap<String, String>());
+    }
+
+    @Test
+    public void testMdcAndBundleProperties() {
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put("bundle.id", "42");
+        properties.put("bundle.name", "io.fabric8.fabric-core");
+        properties.put("bundle.version", "1.2.0");
+        properties.put("camel.contextId", "camel-1");
+        properties.put("trace-id", "a\"b\\c</d");
+        properties.put("count", 3);
+        properties.put("missing", null);
+        assertSameEncoding(TIMESTAMP, "INFO", "with bundle", null, properties);
+
+        // no bundle.version, or a bundle id which is not a number
+        properties.remove("bundle.version");
+        properties.put("bundle.id", "not-a-number");
+        assertSameEncoding(TIMESTAMP, "INFO", "without version", null, properties);
+
+        Map<String, String> coordinates = new HashMap<String, String>();
+        coordinates.put("bundle.id", "42");
+        coordinates.put("maven.coordinates", "io.fabric8:fabric-core:1.2.0");
+        assertSameEncoding(TIMESTAMP, "INFO", "with coordinates", null, coordinates);
+    }
+
+    @Test
+    public void testMillisecondAndSecondBoundaries() {
+        long second = TIMESTAMP - TIMESTAMP % 1000;
+        long[] timestamps = {
+                second, second + 1, second + 9, second + 10, second + 99, second + 100, second + 999,
+                second + 1000, second + 1001, second + 999, second - 1, second - 1000, second + 86400000L,
+                0, 1, 999, 1000, -1, -999, -1000, -1001
+        };
+        for (long timestamp : timestamps) {
+            assertSameEncoding(timestamp, "INFO", "at " + timestamp, null, new HashMap<String, String>());
+        }
+    }
+
+    @Test
+    public void testEncoderCanBeReusedAfterALargeEvent() {
+        StringBuilder message = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            message.append("large message ");
+        }
+        assertSameEncoding(TIMESTAMP, "INFO", message.toString(), null, new HashMap<String, String>());
+        assertSameEncoding(TIMESTAMP, "INFO", "small", null, new HashMap<String, String>());
+    }
+
+    private void assertSameEncoding(long timestamp, String level, String message, String[] throwable, Map<String, ?> properties) {
+        String expected = previousEncoding(timestamp, level, message, throwable, properties);
+        assertEquals(expected, encoder.encode(HOST, timestamp, level, LOGGER, THREAD, message, throwable, properties));
+    }
+
+    /**
+     * The encoding InsightLogAppender used before {@link LogEventEncoder}
+     */
+    private static String previousEncoding(long timestamp, String level, String message, String[] throwable, Map<String, ?> eventProperties) {
+        StringBuilder writer = new StringBuilder();
+        writer.append("{ \"host\" : ");
+        quote(HOST, writer);
+        writer.append(",\n  \"@timestamp\" : ");
+        quote(formatDate(timestamp), writer);
+        writer.append(",\n  \"level\" : ");
+        quote(level, writer);
+        writer.append(",\n  \"logger\" : ");
+        quote(LOGGER, writer);
+        writer.append(",\n  \"thread\" : ");
+        quote(THREAD, writer);
+        writer.append(",\n  \"message\" : ");
+        quote(message, writer);
+
+        if (throwable != null) {
+            throwable = addMavenCoord(throwable);
+            writer.append(",\n  \"exception\" : [");
+            for (int i = 0; i < throwable.length; i++) {
+                if (i != 0)
+                    writer.append(", ");
+                quote(throwable[i], writer);
+            }
+            writer.append("]");
+        }
+
+        writer.append(",\n  \"properties\" : { ");
+        boolean first = true;
+        Map<String, String> properties = new HashMap<String, String>();
+        if (eventProperties != null) {
+            Set<? extends Map.Entry<String, ?>> set = eventProperties.entrySet();
+            for (Map.Entry entry : set) {
+                Object key = entry.getKey();
+                Object value = entry.getValue();
+                if (key != null && value != null) {
+                    properties.put(key.toString(), value.toString());
+                }
+            }
+        }
+        addMavenCoord(properties);
+
+        for (Object key : properties.keySet()) {
+            if (first) {
+                first = false;
+            } else {
+                writer.append(", ");
+            }
+            quote(key.toString(), writer);
+            writer.append(": ");
+            quote(properties.get(key).toString(), writer);
+        }
+        writer.append(" }");
+        writer.append("\n}");
+        return writer.toString();
+    }
+}